@@ -0,0 +1,179 @@
+package com.probendi.iwatch.server.db;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Helper methods for the {@code BSON} codecs of the domain classes.
+ * <p>
+ * The read methods tolerate {@code null} values and values of an unexpected type, which are skipped and replaced by
+ * the default value of the field, so that a codec can decode documents with any field order and any missing field.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public final class Codecs {
+
+    /**
+     * Prevents instantiation.
+     */
+    private Codecs() {
+    }
+
+    public static boolean readBoolean(final @NotNull BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.BOOLEAN) {
+            return reader.readBoolean();
+        }
+        reader.skipValue();
+        return false;
+    }
+
+    public static Date readDate(final @NotNull BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+            return new Date(reader.readDateTime());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    public static double readDouble(final @NotNull BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case DOUBLE:
+                return reader.readDouble();
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    public static int readInt(final @NotNull BsonReader reader) {
+        return (int) readLong(reader);
+    }
+
+    public static long readLong(final @NotNull BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            case DOUBLE:
+                return (long) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    public static String readString(final @NotNull BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case STRING:
+                return reader.readString();
+            case OBJECT_ID:
+                return reader.readObjectId().toHexString();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    public static List<String> readStrings(final @NotNull BsonReader reader) {
+        final List<String> list = new LinkedList<>();
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return list;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String value = readString(reader);
+            if (value != null) {
+                list.add(value);
+            }
+        }
+        reader.readEndArray();
+        return list;
+    }
+
+    public static <T> T readValue(final @NotNull BsonReader reader, final @NotNull Codec<T> codec,
+                                  final DecoderContext context) {
+        if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return null;
+        }
+        return codec.decode(reader, context);
+    }
+
+    public static <T> List<T> readValues(final @NotNull BsonReader reader, final @NotNull Codec<T> codec,
+                                         final DecoderContext context) {
+        final List<T> list = new LinkedList<>();
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return list;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final T value = readValue(reader, codec, context);
+            if (value != null) {
+                list.add(value);
+            }
+        }
+        reader.readEndArray();
+        return list;
+    }
+
+    public static void writeDate(final @NotNull BsonWriter writer, final @NotNull String name, final Date value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeDateTime(name, value.getTime());
+        }
+    }
+
+    public static void writeString(final @NotNull BsonWriter writer, final @NotNull String name, final String value) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeString(name, value);
+        }
+    }
+
+    public static void writeStrings(final @NotNull BsonWriter writer, final @NotNull String name,
+                                    final List<String> values) {
+        writer.writeStartArray(name);
+        if (values != null) {
+            values.forEach(writer::writeString);
+        }
+        writer.writeEndArray();
+    }
+
+    public static <T> void writeValue(final @NotNull BsonWriter writer, final @NotNull String name, final T value,
+                                      final @NotNull Codec<T> codec, final EncoderContext context) {
+        if (value == null) {
+            writer.writeNull(name);
+        } else {
+            writer.writeName(name);
+            codec.encode(writer, value, context);
+        }
+    }
+
+    public static <T> void writeValues(final @NotNull BsonWriter writer, final @NotNull String name,
+                                       final List<T> values, final @NotNull Codec<T> codec,
+                                       final EncoderContext context) {
+        writer.writeStartArray(name);
+        if (values != null) {
+            values.forEach(value -> codec.encode(writer, value, context));
+        }
+        writer.writeEndArray();
+    }
+}
@@ -0,0 +1,120 @@
+package com.probendi.iwatch.server.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+
+/**
+ * The position of the last item of a {@link Page}, made of the value of its sort key and of its id.
+ * <p>
+ * A cursor is handed to the clients as an opaque token and is turned into a range filter on the sort key and on the
+ * id, so that the next page is read from the index regardless of how deep it is.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Cursor {
+
+    private final Object key;
+    private final Object id;
+
+    /**
+     * Creates a new {@code Cursor} object.
+     *
+     * @param key the value of the sort key, or {@code null} if the items are sorted by id only
+     * @param id  the id
+     */
+    private Cursor(final Object key, final @NotNull Object id) {
+        this.key = key;
+        this.id = id;
+    }
+
+    /**
+     * Returns a cursor positioned at the item with the given sort key and id.
+     *
+     * @param key the value of the sort key, or {@code null} if the items are sorted by id only
+     * @param id  the id
+     * @return a cursor positioned at the item with the given sort key and id
+     */
+    @Contract("_, _ -> !null")
+    public static Cursor of(final Object key, final @NotNull Object id) {
+        return new Cursor(key, id);
+    }
+
+    /**
+     * Decodes the given token.
+     * <p>
+     * The token comes from the clients, so its key and id must be plain values: a document or an array would be
+     * turned into query operators by {@link #after(String, boolean)}.
+     *
+     * @param token the token returned by {@link #encode()}
+     * @return the decoded cursor
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    public static Cursor decode(final @NotNull String token) {
+        final Document document;
+        try {
+            final String json = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            document = Document.parse(json);
+        } catch (final RuntimeException e) {
+            // the parser throws different exceptions for a JSON value which is not an object
+            throw new IllegalArgumentException("invalid cursor " + token, e);
+        }
+        final Object key = document.get("k");
+        final Object id = document.get("i");
+        if (document.size() != 2 || !document.containsKey("k") || id == null || !isValue(key) || !isValue(id)) {
+            throw new IllegalArgumentException("invalid cursor " + token);
+        }
+        return new Cursor(key, id);
+    }
+
+    /**
+     * Returns {@code true} if the given object is a value which can be stored in a cursor.
+     *
+     * @param value the object
+     * @return {@code true} if the object is {@code null}, a string, a number, a boolean, a date or an object id
+     */
+    private static boolean isValue(final Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Boolean || value instanceof Date
+                || value instanceof ObjectId;
+    }
+
+    /**
+     * Returns the opaque token which represents this cursor.
+     *
+     * @return the opaque token which represents this cursor
+     */
+    public String encode() {
+        final Document document = new Document("k", key).append("i", id);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(document.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the filter which selects the items after this cursor.
+     *
+     * @param field     the name of the sort key, or {@code null} if the items are sorted by id only
+     * @param ascending {@code true} if the items are sorted in ascending order
+     * @return the filter which selects the items after this cursor
+     */
+    public Bson after(final String field, final boolean ascending) {
+        final Bson afterId = ascending ? gt("_id", id) : lt("_id", id);
+        if (field == null) {
+            return afterId;
+        }
+        final Bson afterKey = ascending ? gt(field, key) : lt(field, key);
+        return or(afterKey, and(eq(field, key), afterId));
+    }
+}
@@ -0,0 +1,232 @@
+package com.probendi.iwatch.server.db;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.Block;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Indexes.ascending;
+import static com.mongodb.client.model.Indexes.compoundIndex;
+import static com.mongodb.client.model.Indexes.descending;
+
+/**
+ * Creates the indexes required by the DAO queries at deployment and verifies that none of them falls back to a
+ * collection scan.
+ * <p>
+ * Missing indexes are built in the background and the expiry of the TTL indexes is kept in line with the
+ * configuration; the queries are checked with {@code explain} and any winning plan
+ * which contains a {@code COLLSCAN} stage is logged and counted in the {@code mongo.index.collscan} metric.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+public class IndexManager {
+
+    /**
+     * The indexes required by the DAO queries. The paged listings need the sort key and the id right after the
+     * equality fields, so that any page is read from the index without sorting in memory.
+     */
+    private static final List<Index> INDEXES = Arrays.asList(
+            new Index("activity", ascending("report", "first", "_id")),
+            new Index("activity", ascending("report", "index"), new IndexOptions().unique(true)
+                    .partialFilterExpression(exists("index"))),
+            new Index("administrator", ascending("municipality", "_id")),
+            new Index("delivery", ascending("notification", "platform")),
+            new Index("delivery", ascending("recordedOn"), new IndexOptions()
+                    .expireAfter((long) new PropertiesReader().getDeliveryRetentionDays(), TimeUnit.DAYS)),
+            new Index("deliveryStats", ascending("municipality", "day", "platform")),
+            new Index("message", ascending("expireOn"), new IndexOptions()
+                    .expireAfter((long) new PropertiesReader().getMessageRetentionDays(), TimeUnit.DAYS)),
+            new Index("message", ascending("municipality", "createdOn", "_id", "expireOn")),
+            new Index("message", ascending("municipality", "interest", "createdOn", "_id", "expireOn")),
+            new Index("message", ascending("municipality", "recipients", "createdOn", "_id", "expireOn")),
+            new Index("report", compoundIndex(ascending("municipality"), descending("date", "_id"))),
+            new Index("report", compoundIndex(ascending("municipality", "status"), descending("date", "_id"))),
+            new Index("report", compoundIndex(ascending("watchers._id"), descending("date", "_id"))),
+            new Index("report", ascending("municipality", "actionRequired")),
+            new Index("user", ascending("municipality", "_id")),
+            new Index("user", ascending("municipality", "platform", "_id")),
+            new Index("user", ascending("registrationId"))
+    );
+
+    /**
+     * The canonical DAO queries, with placeholder values.
+     */
+    private static final List<Query> QUERIES = Arrays.asList(
+            new Query("AdministratorDao.findAll", "administrator", eq("municipality", "")),
+            new Query("DeliveryDao.find", "delivery", eq("notification", "")),
+            new Query("DeliveryDao.findStats", "deliveryStats", and(eq("municipality", ""), gte("day", ""),
+                    lte("day", ""))),
+            new Query("MessageDao.find", "message", and(eq("municipality", ""), eq("interest", ""),
+                    gte("expireOn", new Date()))),
+            new Query("MessageDao.find", "message", and(eq("municipality", ""), in("recipients", ""),
+                    gte("expireOn", new Date()))),
+            new Query("ReportDao.addActivity", "activity", and(eq("report", ""), exists("index"))),
+            new Query("ReportDao.countReportsToBeProcessed", "report", and(eq("municipality", ""),
+                    eq("actionRequired", true))),
+            new Query("ReportDao.findAll", "report", and(eq("municipality", ""), eq("status", ""),
+                    in("watchers._id", ""))),
+            new Query("ReportDao.findAll", "activity", and(in("report", ""), exists("index"))),
+            new Query("UserDao.findAll", "user", eq("municipality", "")),
+            new Query("UserDao.findRecipients", "user", and(eq("municipality", ""), eq("platform", ""),
+                    in("_id", ""))),
+            new Query("UserDao.replaceRegistrationIds", "user", eq("registrationId", ""))
+    );
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Creates the missing indexes and explains the canonical queries.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        try {
+            createIndexes();
+            explainQueries();
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to verify the indexes", e);
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Creates in the background the indexes which do not exist yet.
+     */
+    private void createIndexes() {
+        final MongoDatabase database = Mongo.instance.getDatabase();
+        for (final Index index : INDEXES) {
+            final MongoCollection<Document> collection = database.getCollection(index.collection);
+            final Map<BsonDocument, Document> indexes = new HashMap<>();
+            collection.listIndexes().forEach((Block<Document>) document ->
+                    indexes.put(toBsonDocument(document.get("key", Document.class)), document));
+            final Document existing = indexes.get(index.keys);
+            final Long expireAfter = index.options.getExpireAfter(TimeUnit.SECONDS);
+            if (existing == null) {
+                logger.log(Level.INFO, "Creating index {0} on {1}", new Object[]{index.keys, index.collection});
+                collection.createIndex(index.keys, index.options.background(true));
+            } else if (expireAfter != null && !expireAfter.equals(longValue(existing.get("expireAfterSeconds")))) {
+                // the expiry of a TTL index is changed in place
+                logger.log(Level.INFO, "Changing the expiry of index {0} on {1} to {2} seconds",
+                        new Object[]{index.keys, index.collection, expireAfter});
+                database.runCommand(new Document("collMod", index.collection).append("index",
+                        new Document("keyPattern", index.keys).append("expireAfterSeconds", expireAfter)));
+            }
+        }
+    }
+
+    /**
+     * Explains the canonical queries and reports the ones which perform a collection scan.
+     */
+    private void explainQueries() {
+        final MongoDatabase database = Mongo.instance.getDatabase();
+        for (final Query query : QUERIES) {
+            final Document command = new Document("explain",
+                    new Document("find", query.collection).append("filter", query.filter))
+                    .append("verbosity", "queryPlanner");
+            final Document result = database.runCommand(command);
+            final Document planner = result.get("queryPlanner", Document.class);
+            if (planner != null && isCollectionScan(planner.get("winningPlan", Document.class))) {
+                logger.log(Level.WARNING, "Query {0} on {1} performs a COLLSCAN: {2}",
+                        new Object[]{query.name, query.collection, query.filter});
+                Metrics.instance.counter("mongo.index.collscan").inc();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given plan, or any of its input stages, is a collection scan.
+     *
+     * @param plan the plan
+     * @return {@code true} if the given plan, or any of its input stages, is a collection scan
+     */
+    @SuppressWarnings("unchecked")
+    private boolean isCollectionScan(final Document plan) {
+        if (plan == null) {
+            return false;
+        }
+        if ("COLLSCAN".equals(plan.getString("stage"))) {
+            return true;
+        }
+        if (isCollectionScan(plan.get("inputStage", Document.class))) {
+            return true;
+        }
+        final List<Document> stages = (List<Document>) plan.get("inputStages");
+        return stages != null && stages.stream().anyMatch(this::isCollectionScan);
+    }
+
+    private static Long longValue(final Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    private static BsonDocument toBsonDocument(final Bson bson) {
+        return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+    }
+
+    /**
+     * An index on a collection.
+     */
+    private static class Index {
+
+        private final String collection;
+        private final BsonDocument keys;
+        private final IndexOptions options;
+
+        Index(final String collection, final Bson keys) {
+            this(collection, keys, new IndexOptions());
+        }
+
+        Index(final String collection, final Bson keys, final IndexOptions options) {
+            this.collection = collection;
+            this.keys = toBsonDocument(keys);
+            this.options = options;
+        }
+    }
+
+    /**
+     * A canonical DAO query.
+     */
+    private static class Query {
+
+        private final String name;
+        private final String collection;
+        private final BsonDocument filter;
+
+        Query(final String name, final String collection, final Bson filter) {
+            this.name = name;
+            this.collection = collection;
+            this.filter = toBsonDocument(filter);
+        }
+    }
+}
@@ -1,23 +1,47 @@
 package com.probendi.iwatch.server.db;
 
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
 import org.bson.Document;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
 
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 
+import com.probendi.iwatch.server.delivery.Delivery;
+import com.probendi.iwatch.server.delivery.DeliveryCodec;
+import com.probendi.iwatch.server.delivery.DeliveryStats;
+import com.probendi.iwatch.server.delivery.DeliveryStatsCodec;
+import com.probendi.iwatch.server.message.Message;
+import com.probendi.iwatch.server.message.MessageCodec;
 import com.probendi.iwatch.server.municipality.ContactCodec;
+import com.probendi.iwatch.server.municipality.Municipality;
+import com.probendi.iwatch.server.municipality.MunicipalityCodec;
+import com.probendi.iwatch.server.report.ActivityBucket;
+import com.probendi.iwatch.server.report.ActivityBucketCodec;
 import com.probendi.iwatch.server.report.ActivityCodec;
+import com.probendi.iwatch.server.report.Report;
+import com.probendi.iwatch.server.report.ReportCodec;
+import com.probendi.iwatch.server.report.ReportSummaryCodec;
 import com.probendi.iwatch.server.user.LocationCodec;
+import com.probendi.iwatch.server.user.User;
 import com.probendi.iwatch.server.user.UserCodec;
 import com.probendi.iwatch.server.user.WatcherCodec;
+import com.probendi.iwatch.server.util.PropertiesReader;
 
 /**
  * Helper class for interacting with the Mongo database through a connection pool.
+ * <p>
+ * The hosts, the size and timeouts of the pool and the read preference and write concern of each collection are read
+ * from the properties file.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
@@ -27,16 +51,86 @@ public enum Mongo {
 
     private final MongoDatabase database;
 
+    private final MongoCollection<ActivityBucket> activityCollection;
+    private final MongoCollection<Document> administratorCollection;
+    private final MongoCollection<Document> counterCollection;
+    private final MongoCollection<Delivery> deliveryCollection;
+    private final MongoCollection<DeliveryStats> deliveryStatsCollection;
+    private final MongoCollection<Document> fcmSubscriptionCollection;
+    private final MongoCollection<Message> messageCollection;
+    private final MongoCollection<Document> migrationCollection;
+    private final MongoCollection<Municipality> municipalityCollection;
+    private final MongoCollection<Report> reportCollection;
+    private final MongoCollection<User> userCollection;
+
+    private final PropertiesReader reader = new PropertiesReader();
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
     /**
      * Creates a new {@code Mongo} object.
      */
     Mongo() {
-        final CodecRegistry registry = CodecRegistries.fromCodecs(new ActivityCodec(), new ContactCodec(),
-                new LocationCodec(), new UserCodec(), new WatcherCodec());
+        final CodecRegistry registry = CodecRegistries.fromCodecs(new ActivityBucketCodec(), new ActivityCodec(),
+                new ContactCodec(), new DeliveryCodec(), new DeliveryStatsCodec(), new LocationCodec(),
+                new MessageCodec(), new MunicipalityCodec(), new ReportCodec(), new ReportSummaryCodec(), new UserCodec(),
+                new WatcherCodec());
         final CodecRegistry codecRegistry = CodecRegistries.fromRegistries(registry, MongoClient.getDefaultCodecRegistry());
-        final MongoClientOptions options = MongoClientOptions.builder().codecRegistry(codecRegistry).build();
-        final MongoClient client = new MongoClient(new ServerAddress(), options);
-        database = client.getDatabase("iwatch");
+
+        // the driver sizes the wait queue as a multiple of the max pool size
+        final int maxSize = reader.getMongoPoolMaxSize();
+        final int multiplier = Math.max(1, (reader.getMongoPoolWaitQueueSize() + maxSize - 1) / maxSize);
+
+        final MongoMonitor monitor = new MongoMonitor();
+        final MongoClientOptions options = MongoClientOptions.builder()
+                .codecRegistry(codecRegistry)
+                .minConnectionsPerHost(reader.getMongoPoolMinSize())
+                .connectionsPerHost(maxSize)
+                .threadsAllowedToBlockForConnectionMultiplier(multiplier)
+                .maxWaitTime(reader.getMongoPoolMaxWaitTime())
+                .connectTimeout(reader.getMongoConnectTimeout())
+                .socketTimeout(reader.getMongoSocketTimeout())
+                .readPreference(ReadPreference.valueOf(reader.getMongoReadPreference()))
+                .writeConcern(WriteConcern.valueOf(reader.getMongoWriteConcern()))
+                .addCommandListener(monitor)
+                .build();
+        final List<ServerAddress> hosts = parseHosts(reader.getMongoHosts());
+        logger.info("Connecting to " + hosts + " with " + options);
+
+        final MongoClient client = hosts.size() == 1 ? new MongoClient(hosts.get(0), options) :
+                new MongoClient(hosts, options);
+        monitor.registerPoolGauges();
+        database = client.getDatabase(reader.getMongoDatabase());
+
+        activityCollection = getCollection("activity", ActivityBucket.class);
+        administratorCollection = getCollection("administrator", Document.class);
+        counterCollection = getCollection("counter", Document.class);
+        deliveryCollection = getCollection("delivery", Delivery.class);
+        deliveryStatsCollection = getCollection("deliveryStats", DeliveryStats.class);
+        fcmSubscriptionCollection = getCollection("fcmSubscription", Document.class);
+        messageCollection = getCollection("message", Message.class);
+        migrationCollection = getCollection("migration", Document.class);
+        municipalityCollection = getCollection("municipality", Municipality.class);
+        reportCollection = getCollection("report", Report.class);
+        userCollection = getCollection("user", User.class);
+    }
+
+    /**
+     * Returns the database.
+     *
+     * @return the database
+     */
+    MongoDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the {@code activity} collection.
+     *
+     * @return the {@code activity} collection
+     */
+    public MongoCollection<ActivityBucket> getActivityCollection() {
+        return activityCollection;
     }
 
     /**
@@ -45,7 +139,43 @@ public enum Mongo {
      * @return the {@code administrator} collection
      */
     public MongoCollection<Document> getAdministratorCollection() {
-        return database.getCollection("administrator");
+        return administratorCollection;
+    }
+
+    /**
+     * Returns the {@code counter} collection.
+     *
+     * @return the {@code counter} collection
+     */
+    public MongoCollection<Document> getCounterCollection() {
+        return counterCollection;
+    }
+
+    /**
+     * Returns the {@code delivery} collection.
+     *
+     * @return the {@code delivery} collection
+     */
+    public MongoCollection<Delivery> getDeliveryCollection() {
+        return deliveryCollection;
+    }
+
+    /**
+     * Returns the {@code deliveryStats} collection.
+     *
+     * @return the {@code deliveryStats} collection
+     */
+    public MongoCollection<DeliveryStats> getDeliveryStatsCollection() {
+        return deliveryStatsCollection;
+    }
+
+    /**
+     * Returns the {@code fcmSubscription} collection.
+     *
+     * @return the {@code fcmSubscription} collection
+     */
+    public MongoCollection<Document> getFcmSubscriptionCollection() {
+        return fcmSubscriptionCollection;
     }
 
     /**
@@ -53,8 +183,17 @@ public enum Mongo {
      *
      * @return the {@code message} collection
      */
-    public MongoCollection<Document> getMessageCollection() {
-        return database.getCollection("message");
+    public MongoCollection<Message> getMessageCollection() {
+        return messageCollection;
+    }
+
+    /**
+     * Returns the {@code migration} collection.
+     *
+     * @return the {@code migration} collection
+     */
+    public MongoCollection<Document> getMigrationCollection() {
+        return migrationCollection;
     }
 
     /**
@@ -62,8 +201,8 @@ public enum Mongo {
      *
      * @return the {@code municipality} collection
      */
-    public MongoCollection<Document> getMunicipalityCollection() {
-        return database.getCollection("municipality");
+    public MongoCollection<Municipality> getMunicipalityCollection() {
+        return municipalityCollection;
     }
 
     /**
@@ -71,8 +210,8 @@ public enum Mongo {
      *
      * @return the {@code report} collection
      */
-    public MongoCollection<Document> getReportCollection() {
-        return database.getCollection("report");
+    public MongoCollection<Report> getReportCollection() {
+        return reportCollection;
     }
 
     /**
@@ -80,7 +219,36 @@ public enum Mongo {
      *
      * @return the {@code user} collection
      */
-    public MongoCollection<Document> getUserCollection() {
-        return database.getCollection("user");
+    public MongoCollection<User> getUserCollection() {
+        return userCollection;
+    }
+
+    /**
+     * Returns the given collection with its configured read preference and write concern.
+     *
+     * @param name          the name of the collection
+     * @param documentClass the class of the documents of the collection
+     * @return the given collection with its configured read preference and write concern
+     */
+    private <T> MongoCollection<T> getCollection(final String name, final Class<T> documentClass) {
+        return database.getCollection(name, documentClass)
+                .withReadPreference(ReadPreference.valueOf(reader.getMongoReadPreference(name)))
+                .withWriteConcern(WriteConcern.valueOf(reader.getMongoWriteConcern(name)));
+    }
+
+    /**
+     * Parses the given comma separated list of {@code host:port} pairs.
+     *
+     * @param hosts the comma separated list of {@code host:port} pairs
+     * @return the list of server addresses
+     */
+    private static List<ServerAddress> parseHosts(final String hosts) {
+        final List<ServerAddress> addresses = new LinkedList<>();
+        for (final String host : hosts.split(",")) {
+            final String[] parts = host.trim().split(":");
+            addresses.add(parts.length == 1 ? new ServerAddress(parts[0]) :
+                    new ServerAddress(parts[0], Integer.parseInt(parts[1])));
+        }
+        return addresses;
     }
 }
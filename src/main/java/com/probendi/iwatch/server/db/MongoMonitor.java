@@ -0,0 +1,76 @@
+package com.probendi.iwatch.server.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+
+/**
+ * Records the latency of the Mongo commands and exposes the state of the connection pools as metrics.
+ * <p>
+ * The connection pool statistics are read from the MBeans that the driver registers for every server it connects to.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+class MongoMonitor implements CommandListener {
+
+    private static final String POOL_MBEANS = "org.mongodb.driver:type=ConnectionPool,*";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Registers the gauges of the connection pools.
+     */
+    void registerPoolGauges() {
+        Metrics.instance.gauge("mongo.pool.size", () -> sumPoolAttribute("Size"));
+        Metrics.instance.gauge("mongo.pool.checkedOut", () -> sumPoolAttribute("CheckedOutCount"));
+        Metrics.instance.gauge("mongo.pool.waitQueue", () -> sumPoolAttribute("WaitQueueSize"));
+    }
+
+    @Override
+    public void commandStarted(final CommandStartedEvent event) {
+    }
+
+    @Override
+    public void commandSucceeded(final CommandSucceededEvent event) {
+        Metrics.instance.timer("mongo.command." + event.getCommandName())
+                .record(event.getElapsedTime(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public void commandFailed(final CommandFailedEvent event) {
+        Metrics.instance.timer("mongo.command." + event.getCommandName())
+                .record(event.getElapsedTime(TimeUnit.MILLISECONDS));
+        Metrics.instance.counter("mongo.command." + event.getCommandName() + ".failed").inc();
+    }
+
+    /**
+     * Returns the sum of the given attribute over all connection pools.
+     *
+     * @param attribute the name of the attribute
+     * @return the sum of the given attribute over all connection pools
+     */
+    private long sumPoolAttribute(final String attribute) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        long sum = 0;
+        try {
+            for (final ObjectName name : server.queryNames(new ObjectName(POOL_MBEANS), null)) {
+                sum += ((Number) server.getAttribute(name, attribute)).longValue();
+            }
+        } catch (final JMException e) {
+            logger.log(Level.WARNING, "Failed to read connection pool attribute " + attribute, e);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,81 @@
+package com.probendi.iwatch.server.db;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.client.FindIterable;
+
+/**
+ * A page of the results of a query, along with the cursor of the next page.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Page<T> {
+
+    private final List<T> items;
+    private final String next;
+
+    /**
+     * Creates a new {@code Page} object.
+     *
+     * @param items the items
+     * @param next  the token of the cursor of the next page, or {@code null} if this is the last page
+     */
+    public Page(final @NotNull List<T> items, final String next) {
+        this.items = items;
+        this.next = next;
+    }
+
+    /**
+     * Reads a page from the given sorted iterable.
+     *
+     * @param iterable the iterable, already filtered and sorted
+     * @param limit    the max number of items of the page, or 0 to read all the items
+     * @param cursor   the function which returns the cursor of an item
+     * @return a page read from the given sorted iterable
+     */
+    public static <T> Page<T> of(final @NotNull FindIterable<T> iterable, final int limit,
+                                 final @NotNull Function<T, Cursor> cursor) {
+        return of(iterable, limit, document -> document, cursor);
+    }
+
+    /**
+     * Reads a page from the given sorted iterable, converting each document with the given mapper.
+     *
+     * @param iterable the iterable, already filtered and sorted
+     * @param limit    the max number of items of the page, or 0 to read all the items
+     * @param mapper   the function which converts a document into an item
+     * @param cursor   the function which returns the cursor of an item
+     * @return a page read from the given sorted iterable
+     */
+    public static <D, T> Page<T> of(final @NotNull FindIterable<D> iterable, final int limit,
+                                    final @NotNull Function<D, T> mapper, final @NotNull Function<T, Cursor> cursor) {
+        final List<T> items = new LinkedList<>();
+        if (limit <= 0) {
+            return new Page<>(iterable.map(mapper::apply).into(items), null);
+        }
+
+        // read one item more than requested to know whether there is a next page
+        iterable.limit(limit + 1).map(mapper::apply).into(items);
+        if (items.size() <= limit) {
+            return new Page<>(items, null);
+        }
+        items.remove(limit);
+        return new Page<>(items, cursor.apply(items.get(limit - 1)).encode());
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
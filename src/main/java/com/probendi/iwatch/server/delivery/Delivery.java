@@ -0,0 +1,223 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.io.Serializable;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The delivery receipt of the PUSH notifications of a message or a report to the devices of a platform.
+ * <p>
+ * The {@code attempted} devices are counted by the first attempt only, whereas the devices of the retries are counted
+ * as {@code retried}. The {@code failed} devices are the attempted ones which have not accepted the notification yet,
+ * so a device which accepts it on a retry is no longer counted as failed. They include the {@code pruned} ones, i.e.
+ * the devices whose registration id was no longer valid and has been cleared. The latencies are the time from the
+ * creation of the message, or from the event of the report, to the acceptance of the notifications by the provider.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Delivery implements Serializable {
+
+    private String notification;
+    private String type;
+    private String platform;
+    private String municipality;
+    private long createdOn;
+    private long attempted;
+    private long succeeded;
+    private long failed;
+    private long pruned;
+    private long retried;
+    private int retries;
+    private long minLatency;
+    private long maxLatency;
+
+    /**
+     * Creates a new {@code Delivery} object.
+     */
+    public Delivery() {
+    }
+
+    /**
+     * Creates a new {@code Delivery} object with no devices.
+     *
+     * @param notification the id of the message or the report
+     * @param type         the event type
+     * @param platform     the platform
+     * @param municipality the municipality's id
+     * @param createdOn    the creation time of the message or the report's event in millis
+     * @param retries      the number of retries before this attempt
+     */
+    public Delivery(final @NotNull String notification, final @NotNull String type, final @NotNull String platform,
+                    final @NotNull String municipality, final long createdOn, final int retries) {
+        this.notification = notification;
+        this.type = type;
+        this.platform = platform;
+        this.municipality = municipality;
+        this.createdOn = createdOn;
+        this.retries = retries;
+    }
+
+    /**
+     * Adds the outcome of pushing a notification to the given number of devices, which are retried if this is not the
+     * first attempt.
+     *
+     * @param attempted the number of devices
+     * @param succeeded the number of devices for which the provider accepted the notification
+     * @param pruned    the number of devices whose registration id was cleared
+     */
+    public void add(final int attempted, final int succeeded, final int pruned) {
+        final long latency = Math.max(0, System.currentTimeMillis() - createdOn);
+        if (this.attempted == 0 && this.retried == 0) {
+            minLatency = latency;
+        }
+        if (retries == 0) {
+            this.attempted += attempted;
+            this.failed += attempted - succeeded;
+        } else {
+            this.retried += attempted;
+            this.failed -= succeeded;
+        }
+        this.succeeded += succeeded;
+        this.pruned += pruned;
+        this.minLatency = Math.min(minLatency, latency);
+        this.maxLatency = Math.max(maxLatency, latency);
+    }
+
+    /**
+     * Merges the given delivery receipt of the same notification and platform into this one.
+     *
+     * @param delivery the delivery receipt
+     */
+    void merge(final @NotNull Delivery delivery) {
+        minLatency = attempted == 0 && retried == 0 ? delivery.minLatency : Math.min(minLatency, delivery.minLatency);
+        maxLatency = Math.max(maxLatency, delivery.maxLatency);
+        attempted += delivery.attempted;
+        succeeded += delivery.succeeded;
+        failed += delivery.failed;
+        pruned += delivery.pruned;
+        retried += delivery.retried;
+        retries = Math.max(retries, delivery.retries);
+    }
+
+    public String getNotification() {
+        return notification;
+    }
+
+    public void setNotification(final String notification) {
+        this.notification = notification;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(final String type) {
+        this.type = type;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    public void setPlatform(final String platform) {
+        this.platform = platform;
+    }
+
+    public String getMunicipality() {
+        return municipality;
+    }
+
+    public void setMunicipality(final String municipality) {
+        this.municipality = municipality;
+    }
+
+    public long getCreatedOn() {
+        return createdOn;
+    }
+
+    public void setCreatedOn(final long createdOn) {
+        this.createdOn = createdOn;
+    }
+
+    public long getAttempted() {
+        return attempted;
+    }
+
+    public void setAttempted(final long attempted) {
+        this.attempted = attempted;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(final long succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(final long failed) {
+        this.failed = failed;
+    }
+
+    public long getPruned() {
+        return pruned;
+    }
+
+    public void setPruned(final long pruned) {
+        this.pruned = pruned;
+    }
+
+    public long getRetried() {
+        return retried;
+    }
+
+    public void setRetried(final long retried) {
+        this.retried = retried;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(final int retries) {
+        this.retries = retries;
+    }
+
+    public long getMinLatency() {
+        return minLatency;
+    }
+
+    public void setMinLatency(final long minLatency) {
+        this.minLatency = minLatency;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public void setMaxLatency(final long maxLatency) {
+        this.maxLatency = maxLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "Delivery{" +
+                "notification='" + notification + '\'' +
+                ", type='" + type + '\'' +
+                ", platform='" + platform + '\'' +
+                ", municipality='" + municipality + '\'' +
+                ", attempted=" + attempted +
+                ", succeeded=" + succeeded +
+                ", failed=" + failed +
+                ", pruned=" + pruned +
+                ", retried=" + retried +
+                ", retries=" + retries +
+                ", minLatency=" + minLatency +
+                ", maxLatency=" + maxLatency +
+                '}';
+    }
+}
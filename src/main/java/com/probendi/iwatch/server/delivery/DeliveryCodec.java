@@ -0,0 +1,104 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.util.Date;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readInt;
+import static com.probendi.iwatch.server.db.Codecs.readLong;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+
+/**
+ * A {@code BSON} {@link Codec} for {@link Delivery} instances. The receipts are written by {@link DeliveryRecorder}
+ * with upserts keyed by notification and platform, so this codec does not handle their id.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class DeliveryCodec implements Codec<Delivery> {
+
+    @Override
+    public Delivery decode(BsonReader reader, DecoderContext decoderContext) {
+        final Delivery delivery = new Delivery();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "notification":
+                    delivery.setNotification(readString(reader));
+                    break;
+                case "type":
+                    delivery.setType(readString(reader));
+                    break;
+                case "platform":
+                    delivery.setPlatform(readString(reader));
+                    break;
+                case "municipality":
+                    delivery.setMunicipality(readString(reader));
+                    break;
+                case "createdOn":
+                    final Date createdOn = readDate(reader);
+                    delivery.setCreatedOn(createdOn == null ? 0 : createdOn.getTime());
+                    break;
+                case "attempted":
+                    delivery.setAttempted(readLong(reader));
+                    break;
+                case "succeeded":
+                    delivery.setSucceeded(readLong(reader));
+                    break;
+                case "failed":
+                    delivery.setFailed(readLong(reader));
+                    break;
+                case "pruned":
+                    delivery.setPruned(readLong(reader));
+                    break;
+                case "retried":
+                    delivery.setRetried(readLong(reader));
+                    break;
+                case "retries":
+                    delivery.setRetries(readInt(reader));
+                    break;
+                case "minLatency":
+                    delivery.setMinLatency(readLong(reader));
+                    break;
+                case "maxLatency":
+                    delivery.setMaxLatency(readLong(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return delivery;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Delivery value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "notification", value.getNotification());
+        writeString(writer, "type", value.getType());
+        writeString(writer, "platform", value.getPlatform());
+        writeString(writer, "municipality", value.getMunicipality());
+        writeDate(writer, "createdOn", new Date(value.getCreatedOn()));
+        writer.writeInt64("attempted", value.getAttempted());
+        writer.writeInt64("succeeded", value.getSucceeded());
+        writer.writeInt64("failed", value.getFailed());
+        writer.writeInt64("pruned", value.getPruned());
+        writer.writeInt64("retried", value.getRetried());
+        writer.writeInt32("retries", value.getRetries());
+        writer.writeInt64("minLatency", value.getMinLatency());
+        writer.writeInt64("maxLatency", value.getMaxLatency());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Delivery> getEncoderClass() {
+        return Delivery.class;
+    }
+}
@@ -0,0 +1,33 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Data Access Object for a {@link Delivery} and a {@link DeliveryStats}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public interface DeliveryDao {
+
+    /**
+     * Returns the delivery receipts of the given message or report, one for each platform. The receipts recorded in
+     * the last {@code delivery.flush.delay} millis may not be returned yet.
+     *
+     * @param notification the id of the message or the report
+     * @return the delivery receipts, or an empty list if none was recorded
+     */
+    List<Delivery> find(final @NotNull String notification);
+
+    /**
+     * Returns the daily rollups of the delivery receipts of the given municipality between the given days.
+     *
+     * @param municipality the municipality's id
+     * @param from         the first day, formatted as {@code yyyy-MM-dd}
+     * @param to           the last day, formatted as {@code yyyy-MM-dd}
+     * @return the daily rollups, sorted by day and platform
+     */
+    List<DeliveryStats> findStats(final @NotNull String municipality, final @NotNull String from,
+                                  final @NotNull String to);
+}
@@ -0,0 +1,53 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.db.Mongo;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Sorts.ascending;
+
+/**
+ * The MongoDB Data Access Object for a {@link Delivery} and a {@link DeliveryStats}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Stateless
+public class DeliveryDaoMongoImpl implements DeliveryDao {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Override
+    public List<Delivery> find(final @NotNull String notification) {
+        logger.entering(this.getClass().getName(), "find", notification);
+
+        final List<Delivery> deliveries = Mongo.instance.getDeliveryCollection().find(eq("notification", notification))
+                .sort(ascending("platform")).into(new LinkedList<>());
+
+        logger.exiting(this.getClass().getName(), "find", deliveries);
+        return deliveries;
+    }
+
+    @Override
+    public List<DeliveryStats> findStats(final @NotNull String municipality, final @NotNull String from,
+                                         final @NotNull String to) {
+        logger.entering(this.getClass().getName(), "findStats", new Object[]{municipality, from, to});
+
+        final Bson filter = and(eq("municipality", municipality), gte("day", from), lte("day", to));
+        final List<DeliveryStats> stats = Mongo.instance.getDeliveryStatsCollection().find(filter)
+                .sort(ascending("day", "platform")).into(new LinkedList<>());
+
+        logger.exiting(this.getClass().getName(), "findStats", stats);
+        return stats;
+    }
+}
@@ -0,0 +1,278 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.min;
+import static com.mongodb.client.model.Updates.setOnInsert;
+
+/**
+ * Records the delivery receipts of the PUSH notifications in the {@code delivery} collection, and their daily rollups
+ * by municipality and platform in the {@code deliveryStats} collection.
+ * <p>
+ * The receipts are buffered for {@code delivery.flush.delay} millis and merged by notification and platform, then they
+ * are written with unordered bulk upserts. When {@code delivery.flush.max.size} receipts are pending, the flush is
+ * handed to the executor, so that recording a receipt never delays the notifications. The receipts
+ * expire after {@code delivery.retention.days} days, whereas the rollups are kept.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DeliveryRecorder {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedScheduledExecutorService")
+    ManagedScheduledExecutorService executor;
+
+    // the pending receipts by notification and platform
+    private Map<String, Delivery> receipts = new HashMap<>();
+    // the pending rollups by municipality, day and platform
+    private Map<String, Rollup> rollups = new HashMap<>();
+    // held while flushing, so that the bulk writes never overlap
+    private final Object flushLock = new Object();
+    // true if a flush of the full buffer has been handed to the executor and has not started yet
+    private boolean flushPending;
+
+    private int maxSize;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Schedules the periodic flush.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        maxSize = reader.getDeliveryFlushMaxSize();
+        final long delay = reader.getDeliveryFlushDelay();
+        Metrics.instance.gauge("delivery.pending", this::getPendingCount);
+        future = executor.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Flushes the pending receipts on shutdown.
+     */
+    @PreDestroy
+    public void destroy() {
+        logger.entering(this.getClass().getName(), "destroy");
+
+        future.cancel(false);
+        flush();
+
+        logger.exiting(this.getClass().getName(), "destroy");
+    }
+
+    /**
+     * Records the given delivery receipt, and hands the flush to the executor if the buffer is full.
+     *
+     * @param delivery the delivery receipt
+     */
+    public void record(final @NotNull Delivery delivery) {
+        final String day = LocalDate.now().toString();
+        final boolean full;
+        synchronized (this) {
+            receipts.merge(delivery.getNotification() + ":" + delivery.getPlatform(), delivery, (pending, added) -> {
+                pending.merge(added);
+                return pending;
+            });
+            rollups.computeIfAbsent(delivery.getMunicipality() + ":" + day + ":" + delivery.getPlatform(),
+                    key -> new Rollup(delivery.getMunicipality(), day, delivery.getPlatform())).add(delivery);
+            full = receipts.size() >= maxSize && !flushPending;
+            if (full) {
+                flushPending = true;
+            }
+        }
+        if (full) {
+            executor.submit(this::flush);
+        }
+    }
+
+    /**
+     * Writes the pending receipts and rollups.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, Delivery> deliveries;
+            final Map<String, Rollup> stats;
+            synchronized (this) {
+                flushPending = false;
+                if (receipts.isEmpty()) {
+                    return;
+                }
+                deliveries = receipts;
+                stats = rollups;
+                receipts = new HashMap<>();
+                rollups = new HashMap<>();
+            }
+            write(deliveries, stats);
+        }
+    }
+
+    /**
+     * Writes the given receipts and rollups.
+     *
+     * @param deliveries the receipts by notification and platform
+     * @param stats      the rollups by municipality, day and platform
+     */
+    void write(final @NotNull Map<String, Delivery> deliveries, final @NotNull Map<String, Rollup> stats) {
+        final long start = System.currentTimeMillis();
+        final Date now = new Date();
+        final List<WriteModel<Delivery>> receiptUpdates = new LinkedList<>();
+        deliveries.forEach((id, delivery) -> receiptUpdates.add(new UpdateOneModel<>(eq("_id", id), combine(
+                setOnInsert("notification", delivery.getNotification()),
+                setOnInsert("type", delivery.getType()),
+                setOnInsert("platform", delivery.getPlatform()),
+                setOnInsert("municipality", delivery.getMunicipality()),
+                setOnInsert("createdOn", new Date(delivery.getCreatedOn())),
+                setOnInsert("recordedOn", now),
+                inc("attempted", delivery.getAttempted()),
+                inc("succeeded", delivery.getSucceeded()),
+                inc("failed", delivery.getFailed()),
+                inc("pruned", delivery.getPruned()),
+                inc("retried", delivery.getRetried()),
+                max("retries", delivery.getRetries()),
+                min("minLatency", delivery.getMinLatency()),
+                max("maxLatency", delivery.getMaxLatency())), new UpdateOptions().upsert(true))));
+        write(Mongo.instance.getDeliveryCollection(), receiptUpdates);
+
+        final List<WriteModel<DeliveryStats>> rollupUpdates = new LinkedList<>();
+        stats.forEach((id, rollup) -> rollupUpdates.add(new UpdateOneModel<>(eq("_id", id), rollup.toUpdate(),
+                new UpdateOptions().upsert(true))));
+        write(Mongo.instance.getDeliveryStatsCollection(), rollupUpdates);
+
+        Metrics.instance.timer("delivery.flush").recordSince(start);
+        Metrics.instance.counter("delivery.flush.receipts").add(receiptUpdates.size());
+        Metrics.instance.counter("delivery.flush.rollups").add(rollupUpdates.size());
+    }
+
+    /**
+     * Writes the given updates with an unordered bulk write.
+     *
+     * @param collection the collection
+     * @param updates    the updates
+     */
+    private <T> void write(final @NotNull MongoCollection<T> collection, final @NotNull List<WriteModel<T>> updates) {
+        try {
+            collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (final MongoBulkWriteException e) {
+            Metrics.instance.counter("delivery.flush.failed").add(e.getWriteErrors().size());
+            logger.log(Level.WARNING, "Failed to write " + e.getWriteErrors().size() + " delivery receipts", e);
+        } catch (final MongoException e) {
+            Metrics.instance.counter("delivery.flush.failed").add(updates.size());
+            logger.log(Level.WARNING, "Failed to write " + updates.size() + " delivery receipts", e);
+        }
+    }
+
+    /**
+     * Returns the number of pending receipts.
+     *
+     * @return the number of pending receipts
+     */
+    private synchronized int getPendingCount() {
+        return receipts.size();
+    }
+
+    /**
+     * The pending rollup of a municipality, day and platform.
+     */
+    static class Rollup {
+
+        private final String municipality;
+        private final String day;
+        private final String platform;
+        private long attempted;
+        private long succeeded;
+        private long failed;
+        private long pruned;
+        private long retried;
+        private long maxLatency;
+        // the number of devices which accepted the notifications by latency bucket
+        private final Map<String, Long> latencies = new HashMap<>();
+
+        Rollup(final @NotNull String municipality, final @NotNull String day, final @NotNull String platform) {
+            this.municipality = municipality;
+            this.day = day;
+            this.platform = platform;
+        }
+
+        /**
+         * Adds the given delivery receipt, whose devices are counted in the bucket of its max latency.
+         *
+         * @param delivery the delivery receipt
+         */
+        void add(final @NotNull Delivery delivery) {
+            attempted += delivery.getAttempted();
+            succeeded += delivery.getSucceeded();
+            failed += delivery.getFailed();
+            pruned += delivery.getPruned();
+            retried += delivery.getRetried();
+            maxLatency = Math.max(maxLatency, delivery.getMaxLatency());
+            if (delivery.getSucceeded() > 0) {
+                latencies.merge(DeliveryStats.getLatencyBucket(delivery.getMaxLatency()), delivery.getSucceeded(),
+                        Long::sum);
+            }
+        }
+
+        /**
+         * Returns the update which applies this rollup.
+         *
+         * @return the update which applies this rollup
+         */
+        Bson toUpdate() {
+            final List<Bson> updates = new LinkedList<>();
+            updates.add(setOnInsert("municipality", municipality));
+            updates.add(setOnInsert("day", day));
+            updates.add(setOnInsert("platform", platform));
+            updates.add(inc("attempted", attempted));
+            updates.add(inc("succeeded", succeeded));
+            updates.add(inc("failed", failed));
+            updates.add(inc("pruned", pruned));
+            updates.add(inc("retried", retried));
+            updates.add(max("maxLatency", maxLatency));
+            latencies.forEach((bucket, count) -> updates.add(inc("latency." + bucket, count)));
+            return combine(updates);
+        }
+    }
+}
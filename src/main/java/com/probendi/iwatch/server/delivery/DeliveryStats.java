@@ -0,0 +1,168 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.io.Serializable;
+
+/**
+ * The daily rollup of the delivery receipts of a municipality for a platform.
+ * <p>
+ * The devices are counted as in a {@link Delivery}. The latency percentiles are the upper bounds of the
+ * {@link #LATENCY_BOUNDS} bucket which holds them, weighted by the devices which accepted the notifications, 0 if none
+ * accepted them, or -1 if they exceed the last bound.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class DeliveryStats implements Serializable {
+
+    /**
+     * The upper bounds in millis of the buckets of the latency histogram.
+     */
+    static final long[] LATENCY_BOUNDS = {1000, 5000, 15000, 60000, 300000, 900000, 3600000, 86400000};
+
+    private String municipality;
+    private String day;
+    private String platform;
+    private long attempted;
+    private long succeeded;
+    private long failed;
+    private long pruned;
+    private long retried;
+    private long maxLatency;
+    private long p50;
+    private long p95;
+    private long p99;
+
+    /**
+     * Creates a new {@code DeliveryStats} object.
+     */
+    public DeliveryStats() {
+    }
+
+    /**
+     * Returns the name of the field of the latency histogram which counts the given latency.
+     *
+     * @param latency the latency in millis
+     * @return the name of the field
+     */
+    static String getLatencyBucket(final long latency) {
+        for (final long bound : LATENCY_BOUNDS) {
+            if (latency <= bound) {
+                return "le" + bound;
+            }
+        }
+        return "inf";
+    }
+
+    public String getMunicipality() {
+        return municipality;
+    }
+
+    public void setMunicipality(final String municipality) {
+        this.municipality = municipality;
+    }
+
+    public String getDay() {
+        return day;
+    }
+
+    public void setDay(final String day) {
+        this.day = day;
+    }
+
+    public String getPlatform() {
+        return platform;
+    }
+
+    public void setPlatform(final String platform) {
+        this.platform = platform;
+    }
+
+    public long getAttempted() {
+        return attempted;
+    }
+
+    public void setAttempted(final long attempted) {
+        this.attempted = attempted;
+    }
+
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(final long succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(final long failed) {
+        this.failed = failed;
+    }
+
+    public long getPruned() {
+        return pruned;
+    }
+
+    public void setPruned(final long pruned) {
+        this.pruned = pruned;
+    }
+
+    public long getRetried() {
+        return retried;
+    }
+
+    public void setRetried(final long retried) {
+        this.retried = retried;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    public void setMaxLatency(final long maxLatency) {
+        this.maxLatency = maxLatency;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(final long p50) {
+        this.p50 = p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public void setP95(final long p95) {
+        this.p95 = p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(final long p99) {
+        this.p99 = p99;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryStats{" +
+                "municipality='" + municipality + '\'' +
+                ", day='" + day + '\'' +
+                ", platform='" + platform + '\'' +
+                ", attempted=" + attempted +
+                ", succeeded=" + succeeded +
+                ", failed=" + failed +
+                ", pruned=" + pruned +
+                ", retried=" + retried +
+                ", maxLatency=" + maxLatency +
+                ", p50=" + p50 +
+                ", p95=" + p95 +
+                ", p99=" + p99 +
+                '}';
+    }
+}
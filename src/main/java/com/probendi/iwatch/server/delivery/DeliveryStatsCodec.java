@@ -0,0 +1,148 @@
+package com.probendi.iwatch.server.delivery;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static com.probendi.iwatch.server.db.Codecs.readLong;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+
+/**
+ * A {@code BSON} {@link Codec} for {@link DeliveryStats} instances.
+ * <p>
+ * A rollup is stored with its latency histogram, i.e. the {@code latency} document holding the count of each
+ * {@link DeliveryStats#LATENCY_BOUNDS} bucket, from which the percentiles are computed when it is decoded. The
+ * rollups are written by {@link DeliveryRecorder} with upserts, so this codec does not encode the histogram.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class DeliveryStatsCodec implements Codec<DeliveryStats> {
+
+    @Override
+    public DeliveryStats decode(BsonReader reader, DecoderContext decoderContext) {
+        final DeliveryStats stats = new DeliveryStats();
+        final long[] counts = new long[DeliveryStats.LATENCY_BOUNDS.length + 1];
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "municipality":
+                    stats.setMunicipality(readString(reader));
+                    break;
+                case "day":
+                    stats.setDay(readString(reader));
+                    break;
+                case "platform":
+                    stats.setPlatform(readString(reader));
+                    break;
+                case "attempted":
+                    stats.setAttempted(readLong(reader));
+                    break;
+                case "succeeded":
+                    stats.setSucceeded(readLong(reader));
+                    break;
+                case "failed":
+                    stats.setFailed(readLong(reader));
+                    break;
+                case "pruned":
+                    stats.setPruned(readLong(reader));
+                    break;
+                case "retried":
+                    stats.setRetried(readLong(reader));
+                    break;
+                case "maxLatency":
+                    stats.setMaxLatency(readLong(reader));
+                    break;
+                case "latency":
+                    readHistogram(reader, counts);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        stats.setP50(getPercentile(counts, total, 0.50));
+        stats.setP95(getPercentile(counts, total, 0.95));
+        stats.setP99(getPercentile(counts, total, 0.99));
+        return stats;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, DeliveryStats value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "municipality", value.getMunicipality());
+        writeString(writer, "day", value.getDay());
+        writeString(writer, "platform", value.getPlatform());
+        writer.writeInt64("attempted", value.getAttempted());
+        writer.writeInt64("succeeded", value.getSucceeded());
+        writer.writeInt64("failed", value.getFailed());
+        writer.writeInt64("pruned", value.getPruned());
+        writer.writeInt64("retried", value.getRetried());
+        writer.writeInt64("maxLatency", value.getMaxLatency());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<DeliveryStats> getEncoderClass() {
+        return DeliveryStats.class;
+    }
+
+    /**
+     * Reads the counts of the buckets of the latency histogram.
+     *
+     * @param reader the reader, positioned on the {@code latency} value
+     * @param counts the counts of the buckets, the last one holding the latencies which exceed the last bound
+     */
+    private static void readHistogram(final BsonReader reader, final long[] counts) {
+        if (reader.getCurrentBsonType() != BsonType.DOCUMENT) {
+            reader.skipValue();
+            return;
+        }
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String bucket = reader.readName();
+            int i = 0;
+            while (i < DeliveryStats.LATENCY_BOUNDS.length
+                    && !bucket.equals(DeliveryStats.getLatencyBucket(DeliveryStats.LATENCY_BOUNDS[i]))) {
+                i++;
+            }
+            if (i < DeliveryStats.LATENCY_BOUNDS.length || bucket.equals("inf")) {
+                counts[i] += readLong(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+    }
+
+    /**
+     * Returns the upper bound of the bucket of the given latency histogram which holds the given percentile.
+     *
+     * @param counts     the counts of the buckets
+     * @param total      the sum of the counts
+     * @param percentile the percentile, between 0 and 1
+     * @return the upper bound in millis, 0 if the histogram is empty or -1 if it exceeds the last bound
+     */
+    private static long getPercentile(final long[] counts, final long total, final double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < DeliveryStats.LATENCY_BOUNDS.length; i++) {
+            count += counts[i];
+            if (count >= rank) {
+                return DeliveryStats.LATENCY_BOUNDS[i];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Provides the classes that record the delivery receipts of the PUSH notifications and their daily rollups.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+package com.probendi.iwatch.server.delivery;
@@ -0,0 +1,78 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.Date;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Represents the APNs response to a single notification.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ApnResponse {
+
+    private final String token;
+    private final boolean accepted;
+    private final String apnsId;
+    private final String reason;
+    private final Date invalidatedOn;
+
+    /**
+     * Creates a new {@code ApnResponse} object.
+     *
+     * @param token         the device token
+     * @param accepted      {@code true} if the notification was accepted
+     * @param apnsId        the value of the {@code apns-id} header
+     * @param reason        the reason of the rejection, or {@code null} if the notification was accepted
+     * @param invalidatedOn the time since which the device token is no longer valid, or {@code null}
+     */
+    public ApnResponse(final @NotNull String token, final boolean accepted, final String apnsId, final String reason,
+                       final Date invalidatedOn) {
+        this.token = token;
+        this.accepted = accepted;
+        this.apnsId = apnsId;
+        this.reason = reason;
+        this.invalidatedOn = invalidatedOn;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getApnsId() {
+        return apnsId;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public Date getInvalidatedOn() {
+        return invalidatedOn;
+    }
+
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Returns whether the device token is no longer valid for the topic, and must not be used anymore.
+     *
+     * @return {@code true} if the device token is no longer valid
+     */
+    public boolean isUnregistered() {
+        return invalidatedOn != null || "Unregistered".equals(reason) || "BadDeviceToken".equals(reason)
+                || "DeviceTokenNotForTopic".equals(reason);
+    }
+
+    @Override
+    public String toString() {
+        return "ApnResponse{" +
+                "token='" + token + '\'' +
+                ", accepted=" + accepted +
+                ", apnsId='" + apnsId + '\'' +
+                ", reason='" + reason + '\'' +
+                ", invalidatedOn=" + invalidatedOn +
+                '}';
+    }
+}
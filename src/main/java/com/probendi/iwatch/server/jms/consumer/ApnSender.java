@@ -0,0 +1,290 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.turo.pushy.apns.ApnsClient;
+import com.turo.pushy.apns.ApnsClientBuilder;
+import com.turo.pushy.apns.DeliveryPriority;
+import com.turo.pushy.apns.PushNotificationResponse;
+import com.turo.pushy.apns.PushType;
+import com.turo.pushy.apns.auth.ApnsSigningKey;
+import com.turo.pushy.apns.util.SimpleApnsPushNotification;
+import com.turo.pushy.apns.util.concurrent.PushNotificationFuture;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+/**
+ * Sends the notifications to the APNs provider API over HTTP/2.
+ * <p>
+ * The notifications are sent by a Pushy {@link ApnsClient}, which multiplexes them as concurrent streams over
+ * {@code apn.connections} connections to {@code apn.url}. The client authenticates with the TLS certificate
+ * {@code apn.certificate} if {@code apn.provider} is {@code certificate}, or with a provider token signed with the
+ * ES256 key {@code apn.key} if it is {@code token}, in which case the token is issued and renewed by the client. At
+ * most {@code apn.max.streams} notifications are in flight, and the responses are awaited for at most
+ * {@code apn.read.timeout} millis after the last notification has been sent. The status of each notification is
+ * returned as an {@link ApnResponse}.
+ * <p>
+ * The event loop of the client runs on threads of the container's managed thread factory. Invalid credentials fail the
+ * deployment, unless {@code apn.provider} is {@code legacy}, in which case this sender is not used.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ApnSender {
+
+    // the rejections which may succeed if retried later
+    private static final Set<String> TRANSIENT_REASONS = new HashSet<>(Arrays.asList("ExpiredProviderToken",
+            "IdleTimeout", "InternalServerError", "ServiceUnavailable", "Shutdown", "TooManyRequests"));
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedThreadFactory")
+    private ManagedThreadFactory threadFactory;
+
+    private EventLoopGroup eventLoopGroup;
+    private ApnsClient client;
+    private String topic;
+    private long readTimeout;
+    private Semaphore streams;
+
+    /**
+     * Reads the configuration and the credentials, and creates the client.
+     *
+     * @throws IllegalStateException if the url or the credentials are invalid
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        if ("legacy".equals(reader.getApnProvider())) {
+            logger.exiting(this.getClass().getName(), "init");
+            return;
+        }
+
+        eventLoopGroup = new NioEventLoopGroup(0, threadFactory);
+        try {
+            final URI url = URI.create(reader.getApnUrl());
+            final ApnsClientBuilder builder = new ApnsClientBuilder()
+                    .setApnsServer(url.getHost(), url.getPort() == -1 ? ApnsClientBuilder.DEFAULT_APNS_PORT
+                            : url.getPort())
+                    .setConcurrentConnections(reader.getApnConnections())
+                    .setConnectionTimeout(reader.getApnConnectTimeout(), TimeUnit.MILLISECONDS)
+                    .setEventLoopGroup(eventLoopGroup);
+            if ("token".equals(reader.getApnProvider())) {
+                try (final InputStream in = getResource(reader.getApnKey())) {
+                    builder.setSigningKey(ApnsSigningKey.loadFromInputStream(in, reader.getApnTeamId(),
+                            reader.getApnKeyId()));
+                }
+            } else {
+                try (final InputStream in = getResource(reader.getApnCertificate())) {
+                    builder.setClientCredentials(in, reader.getApnPassword());
+                }
+            }
+            init(builder.build(), reader.getApnTopic(), reader.getApnMaxStreams(), reader.getApnReadTimeout());
+        } catch (final IOException | GeneralSecurityException | IllegalArgumentException e) {
+            eventLoopGroup.shutdownGracefully();
+            logger.log(Level.SEVERE, "Failed to create the APNs client", e);
+            final IllegalStateException ex = new IllegalStateException("Invalid APNs configuration", e);
+            logger.throwing(this.getClass().getName(), "init", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Configures this sender and registers the stream gauges.
+     *
+     * @param client      the client
+     * @param topic       the app's bundle id
+     * @param maxStreams  the max number of notifications in flight
+     * @param readTimeout the time in millis the responses are awaited for after the last notification has been sent
+     */
+    void init(final @NotNull ApnsClient client, final @NotNull String topic, final int maxStreams,
+              final long readTimeout) {
+        this.client = client;
+        this.topic = topic;
+        this.readTimeout = readTimeout;
+        streams = new Semaphore(maxStreams, true);
+
+        Metrics.instance.gauge("apn.streams.active", () -> maxStreams - streams.availablePermits());
+        Metrics.instance.gauge("apn.streams.waiting", streams::getQueueLength);
+    }
+
+    /**
+     * Closes the client and its connections.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (client != null) {
+            client.close().awaitUninterruptibly();
+        }
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Sends the given notification to the given devices, with at most {@code apn.max.streams} notifications in
+     * flight.
+     *
+     * @param deviceTokens the device tokens
+     * @param payload      the JSON payload
+     * @param expiration   the time after which APNs stops trying to deliver the notification, in millis
+     * @param failures     the list to which an exception is added for each retry value, holding the device tokens
+     *                     which failed with it; the retry is -1 if the notification must not be retried
+     * @return the responses, in the same order as the device tokens, with {@code null} for the failed notifications
+     */
+    public List<ApnResponse> sendAll(final @NotNull List<String> deviceTokens, final @NotNull String payload,
+                                     final long expiration, final @NotNull List<PushNotificationException> failures) {
+        logger.entering(this.getClass().getName(), "sendAll", new Object[]{deviceTokens, payload, expiration});
+
+        final long start = System.currentTimeMillis();
+        final Date invalidationTime = new Date(expiration);
+        final List<CompletableFuture<ApnResponse>> futures = new ArrayList<>(deviceTokens.size());
+        for (final String deviceToken : deviceTokens) {
+            try {
+                streams.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                final CompletableFuture<ApnResponse> future = new CompletableFuture<>();
+                future.completeExceptionally(new PushNotificationException());
+                futures.add(future);
+                continue;
+            }
+            final long sent = System.currentTimeMillis();
+            final CompletableFuture<ApnResponse> future = new CompletableFuture<>();
+            final PushNotificationFuture<SimpleApnsPushNotification,
+                    PushNotificationResponse<SimpleApnsPushNotification>> sendFuture = client.sendNotification(
+                    new SimpleApnsPushNotification(deviceToken, topic, payload, invalidationTime,
+                            DeliveryPriority.IMMEDIATE, PushType.ALERT));
+            // the Pushy future is a Netty future, which is adapted to a CompletableFuture once it is done
+            sendFuture.addListener(done -> {
+                streams.release();
+                Metrics.instance.timer("apn.request").recordSince(sent);
+                try {
+                    future.complete(toResponse(deviceToken, sendFuture.getNow(), sendFuture.cause()));
+                } catch (final CompletionException e) {
+                    future.completeExceptionally(e.getCause());
+                }
+            });
+            futures.add(future);
+        }
+
+        final ApnResponse[] responses = new ApnResponse[deviceTokens.size()];
+        final Map<Long, List<String>> failed = new HashMap<>();
+        final long deadline = System.currentTimeMillis() + readTimeout;
+        for (int i = 0; i < futures.size(); i++) {
+            long retry = 0;
+            try {
+                responses[i] = futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                continue;
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof PushNotificationException) {
+                    retry = ((PushNotificationException) e.getCause()).getRetry();
+                }
+            } catch (final TimeoutException e) {
+                Metrics.instance.counter("apn.request.failed").inc();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            failed.computeIfAbsent(retry, r -> new LinkedList<>()).add(deviceTokens.get(i));
+        }
+        failed.forEach((retry, tokens) -> failures.add(new PushNotificationException(retry, tokens)));
+        Metrics.instance.timer("apn.notification").recordSince(start);
+
+        final List<ApnResponse> result = Arrays.asList(responses);
+        logger.exiting(this.getClass().getName(), "sendAll", result);
+        return result;
+    }
+
+    /**
+     * Returns the response to the notification sent to the given device, or throws the failure.
+     *
+     * @param deviceToken the device token
+     * @param response    the APNs response, or {@code null} if the notification could not be sent
+     * @param cause       the reason why the notification could not be sent, or {@code null}
+     * @return the response, if the notification was accepted or the device token is no longer valid
+     * @throws CompletionException holding a {@link PushNotificationException} if the notification failed; its retry
+     *                             is -1 if the notification must not be retried
+     */
+    private ApnResponse toResponse(final @NotNull String deviceToken,
+                                   final PushNotificationResponse<SimpleApnsPushNotification> response,
+                                   final Throwable cause) {
+        if (response == null) {
+            logger.log(Level.SEVERE, "Failed to send notification to APNs", cause);
+            Metrics.instance.counter("apn.request.failed").inc();
+            throw new CompletionException(new PushNotificationException());
+        }
+
+        final ApnResponse apnResponse = new ApnResponse(deviceToken, response.isAccepted(),
+                response.getApnsId() == null ? null : response.getApnsId().toString(), response.getRejectionReason(),
+                response.getTokenInvalidationTimestamp());
+        if (apnResponse.isAccepted()) {
+            return apnResponse;
+        } else if (apnResponse.isUnregistered()) {
+            logger.log(Level.INFO, "Device token is no longer valid - {0}", apnResponse);
+            return apnResponse;
+        }
+
+        Metrics.instance.counter("apn.request.failed").inc();
+        logger.log(Level.SEVERE, "Notification rejected - {0}", apnResponse);
+        throw new CompletionException(new PushNotificationException(
+                TRANSIENT_REASONS.contains(apnResponse.getReason()) ? 0 : -1));
+    }
+
+    /**
+     * Opens the given resource.
+     *
+     * @param name the name of the resource
+     * @return the resource's stream
+     * @throws FileNotFoundException if the resource does not exist
+     */
+    private static InputStream getResource(final @NotNull String name) throws FileNotFoundException {
+        final InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new FileNotFoundException(name);
+        }
+        return in;
+    }
+}
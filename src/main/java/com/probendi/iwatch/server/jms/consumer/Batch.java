@@ -0,0 +1,47 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The body of the JMS messages sent to the platform queues for a batch of recipients, i.e. the body of the JMS
+ * message of the event and the registration ids to which its notification must be pushed.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+class Batch implements Serializable {
+
+    private final Serializable event;
+    private final ArrayList<String> registrationIds;
+
+    /**
+     * Creates a new {@code Batch}.
+     *
+     * @param event           the body of the JMS message of the event
+     * @param registrationIds the registration ids
+     */
+    Batch(final @NotNull Serializable event, final @NotNull Collection<String> registrationIds) {
+        this.event = event;
+        this.registrationIds = new ArrayList<>(registrationIds);
+    }
+
+    Serializable getEvent() {
+        return event;
+    }
+
+    List<String> getRegistrationIds() {
+        return registrationIds;
+    }
+
+    @Override
+    public String toString() {
+        return "Batch{" +
+                "event=" + event +
+                ", registrationIds=" + registrationIds.size() +
+                '}';
+    }
+}
@@ -0,0 +1,97 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.EJB;
+import javax.jms.JMSException;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.probendi.iwatch.server.rest.AuthorizationRequired;
+
+/**
+ * Exposes the messages of {@code jms/iWatchDeadLetterQueue} through RESTful web services.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Path("/deadletters")
+public class DeadLetterResource {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @EJB
+    private RetryScheduler retryScheduler;
+
+    /**
+     * Handles the HTTP GET requests that return the messages in the dead letter queue, with their properties.
+     *
+     * @return a {@link Response} object
+     */
+    @GET
+    @AuthorizationRequired
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDeadLetters() {
+        logger.entering(this.getClass().getName(), "getDeadLetters");
+
+        try {
+            final List<javax.jms.Message> messages = retryScheduler.findDeadLetters();
+            final JsonArrayBuilder builder = Json.createArrayBuilder();
+            for (final javax.jms.Message message : messages) {
+                final JsonObjectBuilder properties = Json.createObjectBuilder();
+                final Enumeration<?> names = message.getPropertyNames();
+                while (names.hasMoreElements()) {
+                    final String name = (String) names.nextElement();
+                    properties.add(name, String.valueOf(message.getObjectProperty(name)));
+                }
+                builder.add(Json.createObjectBuilder().add("id", message.getJMSMessageID())
+                        .add("timestamp", message.getJMSTimestamp()).add("properties", properties));
+            }
+
+            // build the response
+            final Response response = Response.ok(builder.build().toString()).build();
+            logger.exiting(this.getClass().getName(), "getDeadLetters", response);
+            return response;
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to browse the dead letter queue", e);
+            final Response response = Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+            logger.exiting(this.getClass().getName(), "getDeadLetters", response);
+            return response;
+        }
+    }
+
+    /**
+     * Handles the HTTP POST requests that send the given message of the dead letter queue again.
+     *
+     * @param id the JMS message id path parameter
+     * @return a {@link Response} object
+     */
+    @POST
+    @Path("/{id}")
+    @AuthorizationRequired
+    public Response replay(final @PathParam("id") String id) {
+        logger.entering(this.getClass().getName(), "replay", id);
+
+        Response response;
+        try {
+            response = retryScheduler.replay(id) ? Response.noContent().build() :
+                    Response.status(Response.Status.NOT_FOUND).build();
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to replay message " + id, e);
+            response = Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+
+        logger.exiting(this.getClass().getName(), "replay", response);
+        return response;
+    }
+}
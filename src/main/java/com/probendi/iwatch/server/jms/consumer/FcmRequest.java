@@ -14,6 +14,7 @@ public class FcmRequest {
 
     private Data data;
     private List<String> registration_ids;
+    private String to;
 
     public Data getData() {
         return data;
@@ -31,6 +32,14 @@ public class FcmRequest {
         this.registration_ids = registration_ids;
     }
 
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(final String to) {
+        this.to = to;
+    }
+
     public FcmRequest data(final @NotNull Data data) {
         this.data = data;
         return this;
@@ -46,11 +55,23 @@ public class FcmRequest {
         return this;
     }
 
+    /**
+     * Sets the recipient of a topic message, i.e. {@code /topics/<topic>}, which replaces the registration ids.
+     *
+     * @param to the recipient
+     * @return this request
+     */
+    public FcmRequest to(final @NotNull String to) {
+        this.to = to;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "FcmRequest{" +
                 "data=" + data +
                 ", registration_ids=" + registration_ids +
+                ", to='" + to + '\'' +
                 '}';
     }
 
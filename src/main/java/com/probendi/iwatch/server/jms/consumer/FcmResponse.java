@@ -0,0 +1,177 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The FCM response.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class FcmResponse {
+
+    private int success;
+    private int failure;
+    private int canonical_ids;
+    // the outcome of a topic message
+    private long message_id;
+    private String error;
+    private List<Result> results = new LinkedList<>();
+
+    /**
+     * Parses the given response body as it is read, without buffering it.
+     *
+     * @param in the response body
+     * @return the parsed response
+     * @throws javax.json.JsonException if the response body cannot be parsed
+     */
+    static FcmResponse parse(final @NotNull InputStream in) {
+        final FcmResponse response = new FcmResponse();
+        try (final JsonParser parser = Json.createParser(in)) {
+            String key = null;
+            Result result = null;
+            int depth = 0;
+            while (parser.hasNext()) {
+                final JsonParser.Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT:
+                        depth++;
+                        if (depth == 2 && "results".equals(key)) {
+                            result = new Result();
+                        }
+                        break;
+                    case END_OBJECT:
+                        if (depth == 2 && result != null) {
+                            response.results.add(result);
+                            result = null;
+                        }
+                        depth--;
+                        break;
+                    case KEY_NAME:
+                        if (depth == 1) {
+                            key = parser.getString();
+                        } else if (result != null) {
+                            final String name = parser.getString();
+                            if (parser.next() != JsonParser.Event.VALUE_STRING) {
+                                break;
+                            }
+                            if (name.equals("message_id")) {
+                                result.message_id = parser.getString();
+                            } else if (name.equals("registration_id")) {
+                                result.registration_id = parser.getString();
+                            } else if (name.equals("error")) {
+                                result.error = parser.getString();
+                            }
+                        }
+                        break;
+                    case VALUE_NUMBER:
+                        if (depth == 1 && "success".equals(key)) {
+                            response.success = parser.getInt();
+                        } else if (depth == 1 && "failure".equals(key)) {
+                            response.failure = parser.getInt();
+                        } else if (depth == 1 && "canonical_ids".equals(key)) {
+                            response.canonical_ids = parser.getInt();
+                        } else if (depth == 1 && "message_id".equals(key)) {
+                            response.message_id = parser.getLong();
+                        }
+                        break;
+                    case VALUE_STRING:
+                        if (depth == 1 && "error".equals(key)) {
+                            response.error = parser.getString();
+                        }
+                        break;
+                    default:
+                }
+            }
+        }
+        return response;
+    }
+
+    public int getSuccess() {
+        return success;
+    }
+
+    public int getFailure() {
+        return failure;
+    }
+
+    public int getCanonical_ids() {
+        return canonical_ids;
+    }
+
+    /**
+     * Returns the id of a topic message, if it was accepted.
+     *
+     * @return the message's id, or 0 if the message was not a topic message or was rejected
+     */
+    public long getMessage_id() {
+        return message_id;
+    }
+
+    /**
+     * Returns the error of a topic message, if it was rejected.
+     *
+     * @return the error, or {@code null} if the message was not a topic message or was accepted
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns the results of the recipients, in the same order as the registration ids of the request.
+     *
+     * @return the results of the recipients
+     */
+    public List<Result> getResults() {
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "FcmResponse{" +
+                "success=" + success +
+                ", failure=" + failure +
+                ", canonical_ids=" + canonical_ids +
+                ", message_id=" + message_id +
+                ", error='" + error + '\'' +
+                ", results=" + results +
+                '}';
+    }
+
+    /**
+     * The result of a recipient.
+     */
+    public static class Result {
+
+        private String message_id;
+        private String registration_id;
+        private String error;
+
+        public String getMessage_id() {
+            return message_id;
+        }
+
+        public String getRegistration_id() {
+            return registration_id;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "message_id='" + message_id + '\'' +
+                    ", registration_id='" + registration_id + '\'' +
+                    ", error='" + error + '\'' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * Sends the requests to FCM over a bounded set of persistent connections.
+ * <p>
+ * The requests are sent with {@link HttpURLConnection}, whose connections are kept alive and reused by the JDK as
+ * long as the response bodies are read to the end and closed. The number of concurrent requests is bounded by
+ * {@code fcm.max.connections}. The JDK only keeps up to {@code http.maxConnections} idle connections per host, 5 by
+ * default, and reads that system property once for the whole JVM, so it must be set in the JVM options of the domain,
+ * e.g. {@code -Dhttp.maxConnections=20}, to at least {@code fcm.max.connections}; a lower value is logged at startup.
+ * The request bodies are written and the response bodies are parsed as streams.
+ * <p>
+ * An invalid {@code fcm.url} fails the deployment.
+ * <p>
+ * The chunks of a notification are sent concurrently, so that a broadcast to many recipients takes about the time of
+ * a single request.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FcmSender {
+
+    // the default of http.maxConnections
+    private static final int KEEP_ALIVE_CONNECTIONS = 5;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedExecutorService")
+    ManagedExecutorService executor;
+
+    private URL url;
+    private String key;
+    private int connectTimeout;
+    private int readTimeout;
+    private int maxConnections;
+    private Semaphore connections;
+
+    /**
+     * Reads the configuration and registers the connection gauges.
+     *
+     * @throws IllegalStateException if {@code fcm.url} is invalid
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        final URL url;
+        try {
+            url = new URL(reader.getFcmUrl());
+        } catch (final MalformedURLException e) {
+            logger.log(Level.SEVERE, "Invalid FCM url " + reader.getFcmUrl(), e);
+            final IllegalStateException ex = new IllegalStateException("Invalid fcm.url " + reader.getFcmUrl(), e);
+            logger.throwing(this.getClass().getName(), "init", ex);
+            throw ex;
+        }
+        init(url, reader.getFcmKey(), reader.getFcmConnectTimeout(), reader.getFcmReadTimeout(),
+                reader.getFcmMaxConnections());
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Configures this sender and registers the connection gauges.
+     *
+     * @param url            the FCM url
+     * @param key            the server key
+     * @param connectTimeout the connect timeout in millis
+     * @param readTimeout    the read timeout in millis
+     * @param maxConnections the max number of concurrent requests
+     */
+    void init(final @NotNull URL url, final @NotNull String key, final int connectTimeout, final int readTimeout,
+              final int maxConnections) {
+        this.url = url;
+        this.key = "key=" + key;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnections = maxConnections;
+        connections = new Semaphore(maxConnections, true);
+        if (Integer.getInteger("http.maxConnections", KEEP_ALIVE_CONNECTIONS) < maxConnections) {
+            logger.log(Level.WARNING, "http.maxConnections is lower than fcm.max.connections [{0}], some connections " +
+                    "will be closed after each request", maxConnections);
+        }
+
+        Metrics.instance.gauge("fcm.connections.active", () -> maxConnections - connections.availablePermits());
+        Metrics.instance.gauge("fcm.connections.waiting", connections::getQueueLength);
+    }
+
+    /**
+     * Sends the given request to FCM.
+     *
+     * @param request the request
+     * @return the response
+     * @throws PushNotificationException if the request failed; the exception's retry is -1 if the request must not be
+     *                                   retried
+     */
+    public FcmResponse send(final @NotNull FcmRequest request) throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "send", request);
+
+        final long start = System.currentTimeMillis();
+        try {
+            connections.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final PushNotificationException ex = new PushNotificationException();
+            logger.throwing(this.getClass().getName(), "send", ex);
+            throw ex;
+        }
+        Metrics.instance.timer("fcm.connections.wait").recordSince(start);
+
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Authorization", key);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            try (final OutputStream out = connection.getOutputStream()) {
+                write(request, out);
+            }
+
+            final int status = connection.getResponseCode();
+            if (status == 200) {
+                final FcmResponse response;
+                try (final InputStream in = connection.getInputStream()) {
+                    response = FcmResponse.parse(in);
+                }
+                logger.log(Level.FINER, "Request processed - {0}", response);
+                logger.exiting(this.getClass().getName(), "send", response);
+                return response;
+            }
+
+            // the error body must be consumed as well, so that the connection can be reused
+            discard(connection.getErrorStream());
+            Metrics.instance.counter("fcm.request.failed").inc();
+            final PushNotificationException ex;
+            if (status == 400) {
+                logger.log(Level.SEVERE, "Invalid request: {0}", request);
+                ex = new PushNotificationException(-1);
+            } else if (status == 401) {
+                logger.log(Level.SEVERE, "Authentication error");
+                ex = new PushNotificationException(-1);
+            } else {
+                logger.log(Level.SEVERE, "Request failed with status {0}", status);
+                long retry = 0;
+                try {
+                    retry = Long.parseLong(connection.getHeaderField("Retry-After"));
+                } catch (final NumberFormatException ignore) {
+                }
+                ex = new PushNotificationException(retry);
+            }
+            logger.throwing(this.getClass().getName(), "send", ex);
+            throw ex;
+        } catch (final IOException | JsonException e) {
+            logger.log(Level.SEVERE, "Failed to send request to FCM", e);
+            Metrics.instance.counter("fcm.request.failed").inc();
+            final PushNotificationException ex = new PushNotificationException();
+            logger.throwing(this.getClass().getName(), "send", ex);
+            throw ex;
+        } finally {
+            connections.release();
+            Metrics.instance.timer("fcm.request").recordSince(start);
+        }
+    }
+
+    /**
+     * Sends the given requests to FCM concurrently, with at most {@code fcm.max.connections} requests in flight.
+     *
+     * @param requests the requests, i.e. the chunks of a notification
+     * @param failures the list to which an exception is added for each failed chunk, holding its registration ids
+     * @return the responses, in the same order as the requests, with {@code null} for the failed chunks
+     */
+    public List<FcmResponse> sendAll(final @NotNull List<FcmRequest> requests,
+                                     final @NotNull List<PushNotificationException> failures) {
+        logger.entering(this.getClass().getName(), "sendAll", requests);
+
+        final long start = System.currentTimeMillis();
+        final FcmResponse[] responses = new FcmResponse[requests.size()];
+        final CompletionService<FcmResponse> completionService = new ExecutorCompletionService<>(executor);
+        final Map<Future<FcmResponse>, Integer> chunks = new HashMap<>();
+        int next = 0;
+        while (next < requests.size() || !chunks.isEmpty()) {
+            // keep the window full
+            while (next < requests.size() && chunks.size() < maxConnections) {
+                final FcmRequest request = requests.get(next);
+                chunks.put(completionService.submit(() -> send(request)), next++);
+            }
+
+            final Future<FcmResponse> future;
+            try {
+                future = completionService.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                chunks.values().forEach(i -> failures.add(new PushNotificationException(0,
+                        requests.get(i).getRegistration_ids())));
+                break;
+            }
+            final int i = chunks.remove(future);
+            try {
+                responses[i] = future.get();
+            } catch (final ExecutionException | InterruptedException e) {
+                final long retry = e.getCause() instanceof PushNotificationException ?
+                        ((PushNotificationException) e.getCause()).getRetry() : 0;
+                failures.add(new PushNotificationException(retry, requests.get(i).getRegistration_ids()));
+            }
+        }
+        Metrics.instance.timer("fcm.notification").recordSince(start);
+
+        final List<FcmResponse> result = Arrays.asList(responses);
+        logger.exiting(this.getClass().getName(), "sendAll", result);
+        return result;
+    }
+
+    /**
+     * Writes the given request as JSON.
+     *
+     * @param request the request
+     * @param out     the output stream
+     */
+    void write(final @NotNull FcmRequest request, final @NotNull OutputStream out) {
+        try (final JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject();
+            final FcmRequest.Data data = request.getData();
+            if (data != null) {
+                generator.writeStartObject("data");
+                writeString(generator, "image", data.getImage());
+                writeString(generator, "title", data.getTitle());
+                writeString(generator, "body", data.getBody());
+                writeString(generator, "sound", data.getSound());
+                generator.writeEnd();
+            }
+            if (request.getTo() != null) {
+                generator.write("to", request.getTo());
+            } else {
+                generator.writeStartArray("registration_ids");
+                request.getRegistration_ids().forEach(generator::write);
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+    }
+
+    private static void writeString(final JsonGenerator generator, final String name, final String value) {
+        if (value != null) {
+            generator.write(name, value);
+        }
+    }
+
+    /**
+     * Reads the given stream to the end and closes it.
+     *
+     * @param in the stream, or {@code null}
+     * @throws IOException if the stream cannot be read
+     */
+    static void discard(final InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (final InputStream stream = in) {
+            final byte[] buffer = new byte[4096];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+        }
+    }
+}
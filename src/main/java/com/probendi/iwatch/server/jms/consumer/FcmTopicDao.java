@@ -0,0 +1,120 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.db.DaoException;
+
+/**
+ * Data Access Object for the subscriptions of the Android devices to the FCM topics, see {@link FcmTopicManager}.
+ * <p>
+ * A subscription is recorded once the Instance ID API has accepted it, so that the devices can be unsubscribed when
+ * their registration id is replaced or pruned, or when their user no longer exists.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public interface FcmTopicDao {
+
+    /**
+     * Returns the topics to which the given devices are subscribed.
+     *
+     * @param tokens the registration ids of the devices
+     * @return the topic of each subscribed device, keyed by its registration id
+     */
+    Map<String, String> findSubscriptions(final @NotNull Collection<String> tokens);
+
+    /**
+     * Streams all the subscriptions.
+     *
+     * @param batchSize     the number of subscriptions read at a time
+     * @param subscriptions the consumer of the registration id and the topic of each subscription
+     */
+    void findSubscriptions(final int batchSize, final @NotNull BiConsumer<String, String> subscriptions);
+
+    /**
+     * Records the subscription of the given devices to the given topic, replacing their previous one.
+     *
+     * @param topic  the topic
+     * @param tokens the registration ids of the devices
+     * @throws DaoException if the subscriptions cannot be recorded
+     */
+    void saveSubscriptions(final @NotNull String topic, final @NotNull Collection<String> tokens) throws DaoException;
+
+    /**
+     * Deletes the subscriptions of the given devices to the given topic.
+     *
+     * @param topic  the topic
+     * @param tokens the registration ids of the devices
+     * @throws DaoException if the subscriptions cannot be deleted
+     */
+    void deleteSubscriptions(final @NotNull String topic, final @NotNull Collection<String> tokens)
+            throws DaoException;
+
+    /**
+     * Returns those of the given registration ids which belong to an Android user.
+     *
+     * @param tokens the registration ids
+     * @return the registration ids of the Android users
+     */
+    Set<String> findDevices(final @NotNull Collection<String> tokens);
+
+    /**
+     * Streams the devices of all the Android users.
+     *
+     * @param batchSize the number of users read at a time
+     * @param devices   the consumer of the registration id and the municipality of each user
+     */
+    void findDevices(final int batchSize, final @NotNull BiConsumer<String, String> devices);
+
+    /**
+     * Returns {@code true} if the subscriptions of all the devices have been completed by any server.
+     *
+     * @return {@code true} if the subscriptions of all the devices have been completed
+     */
+    boolean isBackfilled();
+
+    /**
+     * Locks the subscription of all the devices for the given time, unless another server holds the lock or the
+     * subscriptions have been completed.
+     *
+     * @param lease the time in millis after which the lock expires
+     * @return {@code true} if the lock has been acquired
+     */
+    boolean lockBackfill(final long lease);
+
+    /**
+     * Records the completion of the subscriptions of all the devices, which is also their first reconciliation.
+     *
+     * @throws DaoException if the completion cannot be recorded
+     */
+    void completeBackfill() throws DaoException;
+
+    /**
+     * Locks the reconciliation of the subscriptions of all the devices for the given time, if they have been completed
+     * and have not been reconciled for the given interval or their reconciliation has been requested, unless another
+     * server holds the lock.
+     *
+     * @param interval the time in millis after which the subscriptions are reconciled
+     * @param lease    the time in millis after which the lock expires
+     * @return {@code true} if the lock has been acquired
+     */
+    boolean lockReconciliation(final long interval, final long lease);
+
+    /**
+     * Records the reconciliation of the subscriptions of all the devices.
+     *
+     * @throws DaoException if the reconciliation cannot be recorded
+     */
+    void completeReconciliation() throws DaoException;
+
+    /**
+     * Requests the reconciliation of the subscriptions of all the devices, without waiting for the interval.
+     *
+     * @throws DaoException if the request cannot be recorded
+     */
+    void requestReconciliation() throws DaoException;
+}
@@ -0,0 +1,243 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.Stateless;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.Block;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import com.probendi.iwatch.server.db.DaoException;
+import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.user.User;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+/**
+ * The MongoDB Data Access Object for the subscriptions of the Android devices to the FCM topics.
+ * <p>
+ * The subscriptions are held by the {@code fcmSubscription} collection, keyed by registration id. The completion of
+ * the subscription of all the devices is recorded in the {@code migration} collection, whose document also holds the
+ * time of their last reconciliation and the lock of the server which is subscribing or reconciling them.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Stateless
+public class FcmTopicDaoMongoImpl implements FcmTopicDao {
+
+    // the id of the migration document of the subscription of all the devices
+    private static final String BACKFILL = "fcmTopics";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Override
+    public Map<String, String> findSubscriptions(final @NotNull Collection<String> tokens) {
+        logger.entering(this.getClass().getName(), "findSubscriptions", tokens);
+
+        final Map<String, String> subscriptions = new HashMap<>();
+        Mongo.instance.getFcmSubscriptionCollection().find(in("_id", tokens)).forEach((Block<Document>) document ->
+                subscriptions.put(document.getString("_id"), document.getString("topic")));
+
+        logger.exiting(this.getClass().getName(), "findSubscriptions", subscriptions);
+        return subscriptions;
+    }
+
+    @Override
+    public void findSubscriptions(final int batchSize, final @NotNull BiConsumer<String, String> subscriptions) {
+        logger.entering(this.getClass().getName(), "findSubscriptions", batchSize);
+
+        Mongo.instance.getFcmSubscriptionCollection().find().batchSize(batchSize).forEach((Block<Document>) document ->
+                subscriptions.accept(document.getString("_id"), document.getString("topic")));
+
+        logger.exiting(this.getClass().getName(), "findSubscriptions");
+    }
+
+    @Override
+    public void saveSubscriptions(final @NotNull String topic, final @NotNull Collection<String> tokens)
+            throws DaoException {
+        logger.entering(this.getClass().getName(), "saveSubscriptions", new Object[]{topic, tokens});
+
+        try {
+            final Date now = new Date();
+            final List<WriteModel<Document>> updates = new LinkedList<>();
+            tokens.forEach(token -> updates.add(new UpdateOneModel<>(eq("_id", token),
+                    combine(set("topic", topic), set("subscribedOn", now)), new UpdateOptions().upsert(true))));
+            Mongo.instance.getFcmSubscriptionCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to save the subscriptions of " + tokens + " to topic " + topic, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "saveSubscriptions", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "saveSubscriptions");
+    }
+
+    @Override
+    public void deleteSubscriptions(final @NotNull String topic, final @NotNull Collection<String> tokens)
+            throws DaoException {
+        logger.entering(this.getClass().getName(), "deleteSubscriptions", new Object[]{topic, tokens});
+
+        try {
+            Mongo.instance.getFcmSubscriptionCollection().deleteMany(and(in("_id", tokens), eq("topic", topic)));
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to delete the subscriptions of " + tokens + " to topic " + topic, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "deleteSubscriptions", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "deleteSubscriptions");
+    }
+
+    @Override
+    public Set<String> findDevices(final @NotNull Collection<String> tokens) {
+        logger.entering(this.getClass().getName(), "findDevices", tokens);
+
+        final Set<String> devices = new HashSet<>();
+        final Bson filter = and(in("registrationId", tokens), eq("platform", Platform.ANDROID.getPlatform()));
+        Mongo.instance.getUserCollection().find(filter).projection(fields(include("registrationId"), excludeId()))
+                .forEach((Block<User>) user -> devices.add(user.getRegistrationId()));
+
+        logger.exiting(this.getClass().getName(), "findDevices", devices);
+        return devices;
+    }
+
+    @Override
+    public void findDevices(final int batchSize, final @NotNull BiConsumer<String, String> devices) {
+        logger.entering(this.getClass().getName(), "findDevices", batchSize);
+
+        final Bson filter = and(eq("platform", Platform.ANDROID.getPlatform()), ne("registrationId", ""));
+        final Bson projection = fields(include("municipality", "registrationId"), excludeId());
+        Mongo.instance.getUserCollection().find(filter).projection(projection).batchSize(batchSize)
+                .forEach((Block<User>) user -> devices.accept(user.getRegistrationId(), user.getMunicipality()));
+
+        logger.exiting(this.getClass().getName(), "findDevices");
+    }
+
+    @Override
+    public boolean isBackfilled() {
+        return Mongo.instance.getMigrationCollection().find(and(eq("_id", BACKFILL), exists("completedOn")))
+                .first() != null;
+    }
+
+    @Override
+    public boolean lockBackfill(final long lease) {
+        logger.entering(this.getClass().getName(), "lockBackfill", lease);
+
+        // the document is inserted if it does not exist, and fails with a duplicate key if it is locked or completed
+        final Date now = new Date();
+        boolean locked = true;
+        try {
+            Mongo.instance.getMigrationCollection().updateOne(
+                    and(eq("_id", BACKFILL), exists("completedOn", false), lt("lockedUntil", now)),
+                    set("lockedUntil", new Date(now.getTime() + lease)), new UpdateOptions().upsert(true));
+        } catch (final MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            locked = false;
+        }
+
+        logger.exiting(this.getClass().getName(), "lockBackfill", locked);
+        return locked;
+    }
+
+    @Override
+    public void completeBackfill() throws DaoException {
+        logger.entering(this.getClass().getName(), "completeBackfill");
+
+        try {
+            final Date now = new Date();
+            Mongo.instance.getMigrationCollection().updateOne(eq("_id", BACKFILL),
+                    combine(set("completedOn", now), set("reconciledOn", now), unset("lockedUntil")));
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to complete the subscriptions to the FCM topics", e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "completeBackfill", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "completeBackfill");
+    }
+
+    @Override
+    public boolean lockReconciliation(final long interval, final long lease) {
+        logger.entering(this.getClass().getName(), "lockReconciliation", new Object[]{interval, lease});
+
+        final Date now = new Date();
+        final boolean locked = Mongo.instance.getMigrationCollection().updateOne(and(eq("_id", BACKFILL),
+                exists("completedOn"), or(exists("reconciledOn", false), lt("reconciledOn",
+                        new Date(now.getTime() - interval))), or(exists("lockedUntil", false), lt("lockedUntil", now))),
+                set("lockedUntil", new Date(now.getTime() + lease))).getModifiedCount() > 0;
+
+        logger.exiting(this.getClass().getName(), "lockReconciliation", locked);
+        return locked;
+    }
+
+    @Override
+    public void completeReconciliation() throws DaoException {
+        logger.entering(this.getClass().getName(), "completeReconciliation");
+
+        try {
+            Mongo.instance.getMigrationCollection().updateOne(eq("_id", BACKFILL),
+                    combine(set("reconciledOn", new Date()), unset("lockedUntil")));
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to complete the reconciliation of the subscriptions to the FCM topics", e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "completeReconciliation", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "completeReconciliation");
+    }
+
+    @Override
+    public void requestReconciliation() throws DaoException {
+        logger.entering(this.getClass().getName(), "requestReconciliation");
+
+        try {
+            Mongo.instance.getMigrationCollection().updateOne(and(eq("_id", BACKFILL), exists("completedOn")),
+                    unset("reconciledOn"));
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to request the reconciliation of the subscriptions to the FCM topics", e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "requestReconciliation", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "requestReconciliation");
+    }
+}
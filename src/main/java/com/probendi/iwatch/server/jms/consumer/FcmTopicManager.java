@@ -0,0 +1,654 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.MongoException;
+
+import com.probendi.iwatch.server.db.DaoException;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.user.User;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * Manages the subscriptions of the Android devices to the FCM topic of the municipality of their user.
+ * <p>
+ * The device of a user is subscribed when the user is upserted, moved to another topic when the user changes
+ * municipality, and unsubscribed when the user is deleted or FCM replaces or prunes its registration id, through the
+ * Instance ID API at {@code fcm.iid.url}. The requests are sent asynchronously, so that they never delay the users'
+ * requests or the notifications. The devices which fail with a transient error are retried up to
+ * {@value #MAX_ATTEMPTS} times with an exponential backoff, while the registration ids reported as invalid are
+ * skipped, since they cannot receive the broadcasts anyway. The accepted subscriptions are recorded by a
+ * {@link FcmTopicDao}.
+ * <p>
+ * If {@code fcm.topics} is {@code true}, a single server of the cluster subscribes the devices which are not subscribed
+ * to the topic of their municipality and unsubscribes the devices which no longer belong to an Android user, then
+ * records its completion. The topics are only used for the broadcasts once all the devices have been subscribed. If
+ * some of them fail, the subscriptions are attempted again by any server once the lock of the failed one expires.
+ * <p>
+ * Once completed, the subscriptions are reconciled in the same way by a single server every
+ * {@value #RECONCILIATION_INTERVAL} millis, or at the next check if the change of some devices failed, so that a
+ * device whose subscription failed receives the broadcasts again once it is subscribed.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FcmTopicManager {
+
+    // the max number of devices subscribed with a single request
+    private static final int BATCH_SIZE = 1000;
+    // the max number of attempts of a device, and the delay in millis before the first retry, doubled at each retry
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY = 5000;
+    // the delay in millis between the checks of the subscriptions of all the devices
+    private static final long BACKFILL_CHECK_DELAY = 60000;
+    // the time in millis after which another server may subscribe all the devices, if the locking one failed to
+    private static final long BACKFILL_LEASE = 3600000;
+    // the time in millis after which the subscriptions of all the devices are reconciled
+    private static final long RECONCILIATION_INTERVAL = 86400000;
+
+    private static final String ADD = "batchAdd";
+    private static final String REMOVE = "batchRemove";
+
+    // the errors of the registration ids which are no longer valid
+    private static final Set<String> INVALID_ERRORS = new HashSet<>(Arrays.asList("INVALID_ARGUMENT", "NOT_FOUND"));
+    // the errors which may not occur if the request is retried later
+    private static final Set<String> TRANSIENT_ERRORS = new HashSet<>(Arrays.asList("DEADLINE_EXCEEDED", "INTERNAL",
+            "RESOURCE_EXHAUSTED", "UNAVAILABLE"));
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedScheduledExecutorService")
+    ManagedScheduledExecutorService executor;
+
+    @EJB(beanName = "FcmTopicDaoMongoImpl")
+    FcmTopicDao dao;
+
+    private final AtomicBoolean backfilling = new AtomicBoolean();
+    private ScheduledFuture<?> backfillCheck;
+    private String url;
+    private String key;
+    private int connectTimeout;
+    private int readTimeout;
+    private long retryDelay;
+    private volatile boolean ready;
+
+    /**
+     * Reads the configuration and, if the topics are enabled, checks periodically whether all the devices have been
+     * subscribed or must be reconciled, subscribing them if no other server is doing it.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        init(reader.getFcmIidUrl(), reader.getFcmKey(), reader.getFcmConnectTimeout(), reader.getFcmReadTimeout(),
+                RETRY_DELAY);
+        if (reader.isFcmTopics()) {
+            backfillCheck = executor.scheduleWithFixedDelay(this::backfill, 0, BACKFILL_CHECK_DELAY,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Configures this manager.
+     *
+     * @param url            the url of the Instance ID API
+     * @param key            the server key
+     * @param connectTimeout the connect timeout in millis
+     * @param readTimeout    the read timeout in millis
+     * @param retryDelay     the delay in millis before the first retry of a device
+     */
+    void init(final @NotNull String url, final @NotNull String key, final int connectTimeout, final int readTimeout,
+              final long retryDelay) {
+        this.url = url;
+        this.key = "key=" + key;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Stops checking the subscriptions of all the devices.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (backfillCheck != null) {
+            backfillCheck.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the FCM topic of the given municipality.
+     *
+     * @param municipality the municipality's id
+     * @return the topic's name
+     */
+    public static String getTopic(final @NotNull String municipality) {
+        return "municipality_" + municipality.replaceAll("[^a-zA-Z0-9-_.~%]", "_");
+    }
+
+    /**
+     * Returns {@code true} if all the devices have been subscribed to their topic.
+     *
+     * @return {@code true} if all the devices have been subscribed to their topic
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Updates the subscription of the device of the given user, which has been upserted or deleted.
+     *
+     * @param previous the user before the change, or {@code null} if the user has been created
+     * @param user     the user after the change, or {@code null} if the user has been deleted
+     */
+    public void update(final User previous, final User user) {
+        logger.entering(this.getClass().getName(), "update", new Object[]{previous, user});
+
+        final String previousToken = getToken(previous);
+        final String token = getToken(user);
+        final String previousTopic = previousToken == null ? null : getTopic(previous.getMunicipality());
+        final String topic = token == null ? null : getTopic(user.getMunicipality());
+        if (!Objects.equals(previousToken, token) || !Objects.equals(previousTopic, topic)) {
+            if (previousToken != null) {
+                submit(new Change(REMOVE, previousTopic, Collections.singletonList(previousToken), this::completed));
+            }
+            if (token != null) {
+                submit(new Change(ADD, topic, Collections.singletonList(token), this::completed));
+            }
+        }
+
+        logger.exiting(this.getClass().getName(), "update");
+    }
+
+    /**
+     * Moves the subscriptions of the given registration ids, which FCM replaced with a canonical id, to the canonical
+     * ids.
+     *
+     * @param registrationIds the canonical ids, keyed by the registration ids they replace
+     */
+    public void replace(final @NotNull Map<String, String> registrationIds) {
+        logger.entering(this.getClass().getName(), "replace", registrationIds);
+
+        executor.submit(() -> {
+            try {
+                final Map<String, List<String>> removed = new HashMap<>();
+                final Map<String, List<String>> added = new HashMap<>();
+                dao.findSubscriptions(registrationIds.keySet()).forEach((token, topic) -> {
+                    removed.computeIfAbsent(topic, t -> new ArrayList<>()).add(token);
+                    added.computeIfAbsent(topic, t -> new ArrayList<>()).add(registrationIds.get(token));
+                });
+                removed.forEach((topic, tokens) -> apply(new Change(REMOVE, topic, tokens, this::completed)));
+                added.forEach((topic, tokens) -> apply(new Change(ADD, topic, tokens, this::completed)));
+            } catch (final MongoException e) {
+                logger.log(Level.SEVERE, "Failed to read the subscriptions of " + registrationIds.keySet(), e);
+            }
+        });
+
+        logger.exiting(this.getClass().getName(), "replace");
+    }
+
+    /**
+     * Unsubscribes the given registration ids, which FCM reported as no longer valid.
+     *
+     * @param registrationIds the registration ids
+     */
+    public void remove(final @NotNull Collection<String> registrationIds) {
+        logger.entering(this.getClass().getName(), "remove", registrationIds);
+
+        executor.submit(() -> {
+            try {
+                final Map<String, List<String>> removed = new HashMap<>();
+                dao.findSubscriptions(registrationIds).forEach((token, topic) ->
+                        removed.computeIfAbsent(topic, t -> new ArrayList<>()).add(token));
+                removed.forEach((topic, tokens) -> apply(new Change(REMOVE, topic, tokens, this::completed)));
+            } catch (final MongoException e) {
+                logger.log(Level.SEVERE, "Failed to read the subscriptions of " + registrationIds, e);
+            }
+        });
+
+        logger.exiting(this.getClass().getName(), "remove");
+    }
+
+    /**
+     * Subscribes the devices of all the Android users to the topic of their municipality and unsubscribes the devices
+     * which no longer belong to an Android user, unless another server is doing it or has done it and their
+     * reconciliation is not due yet.
+     */
+    void backfill() {
+        if (!backfilling.compareAndSet(false, true)) {
+            return;
+        }
+        logger.entering(this.getClass().getName(), "backfill");
+
+        final boolean reconciliation;
+        try {
+            if (!ready && dao.isBackfilled()) {
+                ready = true;
+                logger.log(Level.INFO, "Android devices subscribed to their topics by another server");
+            }
+            reconciliation = ready;
+            final boolean locked = reconciliation ? dao.lockReconciliation(RECONCILIATION_INTERVAL, BACKFILL_LEASE) :
+                    dao.lockBackfill(BACKFILL_LEASE);
+            if (!locked) {
+                backfilling.set(false);
+                logger.exiting(this.getClass().getName(), "backfill");
+                return;
+            }
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to lock the subscriptions of the Android devices", e);
+            backfilling.set(false);
+            logger.exiting(this.getClass().getName(), "backfill");
+            return;
+        }
+
+        final Backfill backfill = new Backfill(reconciliation);
+        try {
+            final Map<String, String> devices = new HashMap<>();
+            dao.findDevices(BATCH_SIZE, (token, municipality) -> {
+                devices.put(token, getTopic(municipality));
+                if (devices.size() >= BATCH_SIZE) {
+                    subscribe(devices, backfill);
+                    devices.clear();
+                }
+            });
+            subscribe(devices, backfill);
+
+            final Map<String, String> subscriptions = new HashMap<>();
+            dao.findSubscriptions(BATCH_SIZE, (token, topic) -> {
+                subscriptions.put(token, topic);
+                if (subscriptions.size() >= BATCH_SIZE) {
+                    unsubscribe(subscriptions, backfill);
+                    subscriptions.clear();
+                }
+            });
+            unsubscribe(subscriptions, backfill);
+            backfill.done(true);
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to read the Android devices", e);
+            backfill.done(false);
+        }
+
+        logger.exiting(this.getClass().getName(), "backfill");
+    }
+
+    /**
+     * Subscribes those of the given devices which are not subscribed to the given topic, and unsubscribes them from
+     * their previous one.
+     *
+     * @param devices  the topic of each device, keyed by its registration id
+     * @param backfill the subscription of all the devices
+     */
+    private void subscribe(final @NotNull Map<String, String> devices, final @NotNull Backfill backfill) {
+        if (devices.isEmpty()) {
+            return;
+        }
+
+        final Map<String, String> subscriptions = dao.findSubscriptions(devices.keySet());
+        final Map<String, List<String>> removed = new HashMap<>();
+        final Map<String, List<String>> added = new HashMap<>();
+        devices.forEach((token, topic) -> {
+            final String subscribed = subscriptions.get(token);
+            if (!topic.equals(subscribed)) {
+                added.computeIfAbsent(topic, t -> new ArrayList<>()).add(token);
+                if (subscribed != null) {
+                    removed.computeIfAbsent(subscribed, t -> new ArrayList<>()).add(token);
+                }
+            }
+        });
+        removed.forEach((topic, tokens) -> submit(new Change(REMOVE, topic, tokens, backfill.start())));
+        added.forEach((topic, tokens) -> submit(new Change(ADD, topic, tokens, backfill.start())));
+    }
+
+    /**
+     * Unsubscribes those of the given devices which no longer belong to an Android user.
+     *
+     * @param subscriptions the topic of each device, keyed by its registration id
+     * @param backfill      the subscription of all the devices
+     */
+    private void unsubscribe(final @NotNull Map<String, String> subscriptions, final @NotNull Backfill backfill) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        final Set<String> devices = dao.findDevices(subscriptions.keySet());
+        final Map<String, List<String>> removed = new HashMap<>();
+        subscriptions.forEach((token, topic) -> {
+            if (!devices.contains(token)) {
+                removed.computeIfAbsent(topic, t -> new ArrayList<>()).add(token);
+            }
+        });
+        removed.forEach((topic, tokens) -> submit(new Change(REMOVE, topic, tokens, backfill.start())));
+    }
+
+    private void submit(final @NotNull Change change) {
+        executor.submit(() -> apply(change));
+    }
+
+    /**
+     * Completes a change of some devices, requesting the reconciliation of the subscriptions of all the devices if
+     * some of them failed.
+     *
+     * @param succeeded {@code true} if all the devices have been changed
+     */
+    private void completed(final boolean succeeded) {
+        if (!succeeded) {
+            try {
+                dao.requestReconciliation();
+            } catch (final DaoException e) {
+                logger.log(Level.WARNING, "Failed to request the reconciliation of the subscriptions");
+            }
+        }
+    }
+
+    /**
+     * Sends the given change, records the subscriptions which have been accepted and schedules the retry of the
+     * devices which failed with a transient error.
+     *
+     * @param change the change
+     */
+    private void apply(final @NotNull Change change) {
+        final List<String> errors = send(change.action, change.topic, change.tokens);
+        final List<String> changed = new ArrayList<>(change.tokens.size());
+        final List<String> retried = new ArrayList<>();
+        int invalid = 0;
+        int failed = 0;
+        for (int i = 0; i < change.tokens.size(); i++) {
+            final String error = errors == null ? "UNAVAILABLE" : errors.get(i);
+            if (error == null) {
+                changed.add(change.tokens.get(i));
+            } else if (INVALID_ERRORS.contains(error)) {
+                // an invalid device is no longer subscribed to any topic
+                invalid++;
+                if (change.action.equals(REMOVE)) {
+                    changed.add(change.tokens.get(i));
+                }
+            } else if (TRANSIENT_ERRORS.contains(error)) {
+                retried.add(change.tokens.get(i));
+            } else {
+                logger.log(Level.SEVERE, "Failed to {0} device {1} to/from topic {2} [{3}]",
+                        new Object[]{change.action, change.tokens.get(i), change.topic, error});
+                failed++;
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            try {
+                if (change.action.equals(ADD)) {
+                    dao.saveSubscriptions(change.topic, changed);
+                } else {
+                    dao.deleteSubscriptions(change.topic, changed);
+                }
+            } catch (final DaoException e) {
+                logger.log(Level.WARNING, "Failed to record the {0} of {1} devices to/from topic {2}",
+                        new Object[]{change.action, changed.size(), change.topic});
+            }
+        }
+        Metrics.instance.counter("fcm.topic." + change.action).add(change.action.equals(ADD) ? changed.size()
+                : changed.size() - invalid);
+        Metrics.instance.counter("fcm.topic.invalid").add(invalid);
+
+        if (!retried.isEmpty() && change.attempt < MAX_ATTEMPTS) {
+            final Change retry = new Change(change, retried, failed > 0);
+            executor.schedule(() -> apply(retry), retryDelay << (change.attempt - 1), TimeUnit.MILLISECONDS);
+            Metrics.instance.counter("fcm.topic.retried").add(retried.size());
+            return;
+        }
+        if (!retried.isEmpty()) {
+            logger.log(Level.SEVERE, "Failed to {0} {1} devices to/from topic {2} after {3} attempts",
+                    new Object[]{change.action, retried.size(), change.topic, change.attempt});
+            failed += retried.size();
+        }
+        Metrics.instance.counter("fcm.topic.failed").add(failed);
+        change.completion.accept(failed == 0 && !change.failed);
+    }
+
+    /**
+     * Subscribes or unsubscribes the given devices to/from the given topic.
+     *
+     * @param action the Instance ID method, i.e. {@code batchAdd} or {@code batchRemove}
+     * @param topic  the topic
+     * @param tokens the registration ids of the devices
+     * @return the error of each device, in the same order as the registration ids, with {@code null} for the devices
+     * which have been changed, or {@code null} if the request failed
+     */
+    private List<String> send(final @NotNull String action, final @NotNull String topic,
+                              final @NotNull List<String> tokens) {
+        final long start = System.currentTimeMillis();
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(url + ":" + action).openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Authorization", key);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            try (final OutputStream out = connection.getOutputStream();
+                 final JsonGenerator generator = Json.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.write("to", "/topics/" + topic);
+                generator.writeStartArray("registration_tokens");
+                tokens.forEach(generator::write);
+                generator.writeEnd();
+                generator.writeEnd();
+            }
+
+            final int status = connection.getResponseCode();
+            if (status == 200) {
+                try (final InputStream in = connection.getInputStream()) {
+                    return parseErrors(in, tokens.size());
+                }
+            }
+            FcmSender.discard(connection.getErrorStream());
+            logger.log(Level.SEVERE, "Failed to {0} {1} devices to/from topic {2} [status {3}]",
+                    new Object[]{action, tokens.size(), topic, status});
+        } catch (final IOException | JsonException e) {
+            logger.log(Level.SEVERE, "Failed to " + action + " " + tokens.size() + " devices to/from topic " + topic,
+                    e);
+        } finally {
+            Metrics.instance.timer("fcm.topic.request").recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the results of an Instance ID batch request, e.g. {@code {"results":[{},{"error":"NOT_FOUND"}]}}, as
+     * they are read.
+     *
+     * @param in   the response body
+     * @param size the number of registration ids of the request
+     * @return the error of each registration id, with {@code null} for the successful ones and for the ones without
+     * a result
+     * @throws JsonException if the response body cannot be parsed
+     */
+    static List<String> parseErrors(final @NotNull InputStream in, final int size) {
+        final List<String> errors = new ArrayList<>(size);
+        try (final JsonParser parser = Json.createParser(in)) {
+            String key = null;
+            int depth = 0;
+            while (parser.hasNext()) {
+                switch (parser.next()) {
+                    case START_OBJECT:
+                        depth++;
+                        if (depth == 2 && "results".equals(key)) {
+                            errors.add(null);
+                        }
+                        break;
+                    case END_OBJECT:
+                        depth--;
+                        break;
+                    case KEY_NAME:
+                        if (depth == 1) {
+                            key = parser.getString();
+                        } else if (depth == 2 && "results".equals(key) && "error".equals(parser.getString())
+                                && parser.next() == JsonParser.Event.VALUE_STRING) {
+                            errors.set(errors.size() - 1, parser.getString());
+                        }
+                        break;
+                    default:
+                }
+            }
+        }
+        while (errors.size() < size) {
+            errors.add(null);
+        }
+        return errors;
+    }
+
+    /**
+     * Returns the registration id of the given user if it is an Android device.
+     *
+     * @param user the user, or {@code null}
+     * @return the registration id, or {@code null} if the user has no Android device
+     */
+    private static String getToken(final User user) {
+        return user == null || Platform.of(user.getPlatform()) != Platform.ANDROID || user.getRegistrationId() == null
+                || user.getRegistrationId().isEmpty() ? null : user.getRegistrationId();
+    }
+
+    /**
+     * A subscription or unsubscription of some devices, and its attempt.
+     */
+    private static class Change {
+
+        private final String action;
+        private final String topic;
+        private final List<String> tokens;
+        private final int attempt;
+        // whether some devices of the previous attempts failed
+        private final boolean failed;
+        // notified once all the devices have been changed or have failed
+        private final Consumer<Boolean> completion;
+
+        Change(final @NotNull String action, final @NotNull String topic, final @NotNull List<String> tokens,
+               final @NotNull Consumer<Boolean> completion) {
+            this.action = action;
+            this.topic = topic;
+            this.tokens = tokens;
+            this.attempt = 1;
+            this.failed = false;
+            this.completion = completion;
+        }
+
+        Change(final @NotNull Change previous, final @NotNull List<String> tokens, final boolean failed) {
+            this.action = previous.action;
+            this.topic = previous.topic;
+            this.tokens = tokens;
+            this.attempt = previous.attempt + 1;
+            this.failed = previous.failed || failed;
+            this.completion = previous.completion;
+        }
+    }
+
+    /**
+     * The subscription or the reconciliation of all the devices, which completes once all its changes have completed.
+     */
+    private class Backfill {
+
+        private final long start = System.currentTimeMillis();
+        private final boolean reconciliation;
+        // the changes which have not completed yet, plus the scan of the devices
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicInteger failures = new AtomicInteger();
+
+        /**
+         * Creates a new {@code Backfill}.
+         *
+         * @param reconciliation {@code true} if the devices have already been subscribed once
+         */
+        Backfill(final boolean reconciliation) {
+            this.reconciliation = reconciliation;
+        }
+
+        /**
+         * Starts a change.
+         *
+         * @return the completion of the change
+         */
+        Consumer<Boolean> start() {
+            pending.incrementAndGet();
+            return this::done;
+        }
+
+        /**
+         * Completes a change or the scan of the devices.
+         *
+         * @param succeeded {@code true} if all the devices have been changed
+         */
+        void done(final boolean succeeded) {
+            if (!succeeded) {
+                failures.incrementAndGet();
+            }
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+
+            if (failures.get() == 0 && reconciliation) {
+                try {
+                    dao.completeReconciliation();
+                } catch (final DaoException e) {
+                    logger.log(Level.WARNING, "Failed to record the reconciliation of the Android devices");
+                }
+                logger.log(Level.INFO, "Android devices reconciled with their topics in {0} millis",
+                        System.currentTimeMillis() - start);
+            } else if (failures.get() == 0) {
+                try {
+                    dao.completeBackfill();
+                } catch (final DaoException e) {
+                    logger.log(Level.WARNING, "Failed to record the subscriptions of the Android devices");
+                }
+                ready = true;
+                logger.log(Level.INFO, "Android devices subscribed to their topics in {0} millis",
+                        System.currentTimeMillis() - start);
+            } else if (reconciliation) {
+                logger.log(Level.SEVERE, "Failed to reconcile the Android devices with their topics [{0} failures], " +
+                        "the reconciliation will be attempted again once its lock expires", failures.get());
+            } else {
+                logger.log(Level.SEVERE, "Failed to subscribe the Android devices to their topics [{0} failures], " +
+                        "the broadcasts will be sent to the registration ids", failures.get());
+            }
+            backfilling.set(false);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.Destination;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.TextMessage;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Helper class for copying the JMS messages of the notifications to other queues.
+ * <p>
+ * The JMS message of a batch of recipients holds a {@link Batch} in its body, i.e. the body of the JMS message of the
+ * event and the registration ids, while its properties only describe the notification. The JMS messages sent before
+ * the batches were moved to the body hold the registration ids, comma separated, in the {@code registrationIds}
+ * property.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+final class JmsMessages {
+
+    /**
+     * The properties which describe a single attempt or the recipients, and which are never copied.
+     */
+    private static final List<String> MANAGED = Arrays.asList("count", "deferred", "firstSentOn", "origin",
+            "reason", "registrationIds");
+
+    private JmsMessages() {
+    }
+
+    /**
+     * Returns a producer which sets the properties of the given JMS message, except for the ones which describe a
+     * single attempt or the recipients.
+     *
+     * @param jmsContext the JMS context
+     * @param message    the JMS message
+     * @return the producer
+     * @throws JMSException if the properties cannot be read
+     */
+    static JMSProducer copy(final @NotNull JMSContext jmsContext, final @NotNull javax.jms.Message message)
+            throws JMSException {
+        return createProducer(jmsContext, getProperties(message));
+    }
+
+    /**
+     * Returns a producer which sets the given properties.
+     *
+     * @param jmsContext the JMS context
+     * @param properties the properties
+     * @return the producer
+     */
+    static JMSProducer createProducer(final @NotNull JMSContext jmsContext,
+                                      final @NotNull Map<String, Object> properties) {
+        final JMSProducer producer = jmsContext.createProducer();
+        properties.forEach(producer::setProperty);
+        return producer;
+    }
+
+    /**
+     * Returns the properties of the given JMS message, except for the ones which describe a single attempt or the
+     * recipients.
+     *
+     * @param message the JMS message
+     * @return the properties
+     * @throws JMSException if the properties cannot be read
+     */
+    static Map<String, Object> getProperties(final @NotNull javax.jms.Message message) throws JMSException {
+        final Map<String, Object> properties = new HashMap<>();
+        final Enumeration<?> names = message.getPropertyNames();
+        while (names.hasMoreElements()) {
+            final String name = (String) names.nextElement();
+            if (!name.startsWith("JMS") && !MANAGED.contains(name)) {
+                properties.put(name, message.getObjectProperty(name));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the batch of the given JMS message, i.e. the body of the JMS message of the event and the registration
+     * ids, which are empty if the notification must be pushed to all the recipients.
+     *
+     * @param message the JMS message
+     * @return the batch
+     * @throws JMSException if the body or the registration ids cannot be read
+     */
+    static Batch getBatch(final @NotNull javax.jms.Message message) throws JMSException {
+        final Serializable body = message instanceof TextMessage ?
+                message.getBody(String.class) : message.getBody(Serializable.class);
+        if (body instanceof Batch) {
+            return (Batch) body;
+        }
+        final String registrationIds = message.getStringProperty("registrationIds");
+        return new Batch(body, registrationIds == null || registrationIds.isEmpty() ? Collections.emptyList() :
+                Arrays.asList(registrationIds.split(",")));
+    }
+
+    /**
+     * Sends the event of the given JMS message to the given destination, for the given registration ids.
+     *
+     * @param producer        the producer
+     * @param destination     the destination
+     * @param message         the JMS message
+     * @param registrationIds the registration ids, or an empty list to keep the ones of the JMS message
+     * @throws JMSException if the body cannot be read
+     */
+    static void send(final @NotNull JMSProducer producer, final @NotNull Destination destination,
+                     final @NotNull javax.jms.Message message, final @NotNull List<String> registrationIds)
+            throws JMSException {
+        final Batch batch = getBatch(message);
+        send(producer, destination, batch.getEvent(),
+                registrationIds.isEmpty() ? batch.getRegistrationIds() : registrationIds);
+    }
+
+    /**
+     * Sends the given event to the given destination, as a {@link Batch} if there are registration ids, otherwise as a
+     * text message if it is a {@link String}.
+     *
+     * @param producer        the producer
+     * @param destination     the destination
+     * @param event           the body of the JMS message of the event
+     * @param registrationIds the registration ids, or an empty list for all the recipients
+     */
+    static void send(final @NotNull JMSProducer producer, final @NotNull Destination destination,
+                     final @NotNull Serializable event, final @NotNull List<String> registrationIds) {
+        if (!registrationIds.isEmpty()) {
+            producer.send(destination, new Batch(event, registrationIds));
+        } else if (event instanceof String) {
+            producer.send(destination, (String) event);
+        } else {
+            producer.send(destination, event);
+        }
+    }
+}
@@ -1,30 +1,44 @@
 package com.probendi.iwatch.server.jms.consumer;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
 import javax.jms.JMSException;
+import javax.jms.MessageFormatException;
 import javax.jms.MessageListener;
 
 import org.jetbrains.annotations.NotNull;
 
 import com.probendi.iwatch.server.db.DaoException;
-import com.probendi.iwatch.server.jms.producer.MessageProducer;
+import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.delivery.Delivery;
+import com.probendi.iwatch.server.delivery.DeliveryRecorder;
+import com.probendi.iwatch.server.jms.producer.EventType;
+import com.probendi.iwatch.server.jms.producer.Lane;
 import com.probendi.iwatch.server.message.Message;
 import com.probendi.iwatch.server.message.MessageDao;
+import com.probendi.iwatch.server.metrics.Metrics;
 import com.probendi.iwatch.server.report.Report;
 import com.probendi.iwatch.server.report.ReportDao;
 import com.probendi.iwatch.server.user.UserDao;
-import com.probendi.iwatch.server.util.PropertiesReader;
 
 /**
- * Consumes messages from {@code jms/iWatchApnQueue} and {@code jms/iWatchFcmQueue}.
+ * Consumes messages from the platform queues of a {@link Lane}.
+ * <p>
+ * The messages dispatched by {@link NotificationDispatcher} hold their recipients in their {@link Batch}, and are
+ * pushed without updating the inboxes or resolving the recipients again. The other messages, i.e.
+ * the ones sent before the dispatcher was introduced, are processed in full.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
 public abstract class MessageConsumer implements MessageListener {
 
+    private static final String ACTIVITY = "Segnalazione %s: c'è una nuova attività";
+    private static final String ACTIVITIES = "Segnalazione %s: ci sono %d nuove attività";
     private static final String WATCHER = "Segnalazione %s: %s un osservatore";
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
@@ -38,33 +52,127 @@ public abstract class MessageConsumer implements MessageListener {
     @EJB(beanName = "UserDaoMongoImpl")
     protected UserDao userDao;
 
+    @EJB
+    private DeliveryRecorder deliveryRecorder;
+
+    @EJB
+    private PushScheduler pushScheduler;
+
+    @EJB
+    private RetryScheduler retryScheduler;
+
+    private final Map<String, Handler> handlers = new HashMap<>();
+
+    // the delivery receipt of the JMS message being consumed, since an instance consumes one message at a time
+    private Delivery delivery;
+
+    // the body of the JMS message being consumed, which is read once
+    private Batch batch;
+
+    /**
+     * Registers the handlers of the event types.
+     */
+    protected MessageConsumer() {
+        register(EventType.MESSAGE, this::onMessageSent);
+        register(EventType.ACTIVITY, this::onNewActivity);
+        register(EventType.WATCHER, this::onWatcherAddedOrDeleted);
+    }
+
     @Override
     public void onMessage(final javax.jms.Message message) {
         logger.entering(this.getClass().getName(), "onMessage", message);
 
+        // the time spent in the queue of the lane after the delivery delay
         try {
-            onMessageSent(message);
-            logger.exiting(this.getClass().getName(), "onMessage");
-            return;
-        } catch (JMSException ignore) {
+            Metrics.instance.timer("jms.queue.wait." + getLane().getLane()).recordSince(message.getJMSDeliveryTime());
+        } catch (final JMSException ignore) {
         }
 
+        final String type;
         try {
-            onNewActivity(message);
+            type = getType(message);
+            batch = JmsMessages.getBatch(message);
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to get message from the JMS queue", e);
+            logger.exiting(this.getClass().getName(), "onMessage");
+            return;
+        }
+        final Handler handler = type == null ? null : handlers.get(type);
+        if (handler == null) {
+            logger.log(Level.SEVERE, "Message {0} was discarded [unknown type {1}]", new Object[]{message, type});
+            Metrics.instance.counter("jms.unknown").inc();
             logger.exiting(this.getClass().getName(), "onMessage");
             return;
-        } catch (JMSException ignore) {
         }
 
+        final long start = System.currentTimeMillis();
+        Metrics.instance.counter("jms." + type + ".received").inc();
         try {
-            onWatcherAddedOrDeleted(message);
-        } catch (JMSException e) { // this goes in the last one
-            logger.log(Level.SEVERE, "Failed to get message from the JMS queue");
+            if (schedule(message, type)) {
+                handler.handle(message);
+            }
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to get message from the JMS queue", e);
+            Metrics.instance.counter("jms." + type + ".failed").inc();
+        } finally {
+            Metrics.instance.timer("jms." + type).recordSince(start);
+            if (delivery != null && delivery.getAttempted() > 0) {
+                deliveryRecorder.record(delivery);
+            }
+            delivery = null;
+            batch = null;
         }
 
         logger.exiting(this.getClass().getName(), "onMessage");
     }
 
+    /**
+     * Returns the platform to which the notifications are pushed.
+     *
+     * @return the platform
+     */
+    protected abstract Platform getPlatform();
+
+    /**
+     * Returns the lane from whose queue the messages are consumed, which is {@link Lane#BULK} unless overridden.
+     *
+     * @return the lane
+     */
+    protected Lane getLane() {
+        return Lane.BULK;
+    }
+
+    /**
+     * Registers the handler of the given event type, replacing the current one.
+     *
+     * @param type    the event type
+     * @param handler the handler
+     */
+    protected void register(final @NotNull EventType type, final @NotNull Handler handler) {
+        handlers.put(type.getType(), handler);
+    }
+
+    /**
+     * Returns the event type of the given JMS message. The type of the messages sent before the type was stamped is
+     * inferred from their properties.
+     *
+     * @param message the JMS message
+     * @return the event type, or {@code null} if it cannot be inferred
+     * @throws JMSException if the properties cannot be read
+     */
+    private static String getType(final javax.jms.Message message) throws JMSException {
+        if (message.propertyExists(EventType.PROPERTY)) {
+            return message.getStringProperty(EventType.PROPERTY);
+        } else if (message.propertyExists("expireOn")) {
+            return EventType.MESSAGE.getType();
+        } else if (message.propertyExists("added")) {
+            return EventType.WATCHER.getType();
+        } else if (message.propertyExists("watcher")) {
+            return EventType.ACTIVITY.getType();
+        }
+        return null;
+    }
+
     /**
      * Processes the JMS messages that are sent when a new message is sent.
      *
@@ -74,27 +182,30 @@ public abstract class MessageConsumer implements MessageListener {
     private void onMessageSent(final javax.jms.Message message) throws JMSException {
         logger.entering(this.getClass().getName(), "onMessageSent", message);
 
-        final Message iWatchMessage = message.getBody(Message.class);
-        int count = message.getIntProperty("count");
+        final Message iWatchMessage = getEvent(message, Message.class);
         final long expireOn = message.getLongProperty("expireOn");
         final String name = message.getStringProperty("name");
+        final String topic = message.getStringProperty("topic");
+        final List<String> registrationIds = batch.getRegistrationIds();
 
-        if (System.currentTimeMillis() <= message.getLongProperty("expireOn")) {
+        if (System.currentTimeMillis() <= expireOn) {
             if (iWatchMessage.getExpireOn().getTime() > System.currentTimeMillis()) {
-                // add the message to the list of unread messages of its recipients
-                userDao.addMessage(iWatchMessage);
+                // add the message to the list of unread messages of its recipients, unless already done by the
+                // dispatcher or this is the retry of a chunk
+                if (topic == null && registrationIds.isEmpty()) {
+                    userDao.addMessage(iWatchMessage);
+                }
                 try {
-                    sendNotification(name, iWatchMessage);
-                    logger.log(Level.INFO, "Sent PUSH notification for message {0}", iWatchMessage.getId());
-                } catch (final PushNotificationException e) {
-                    if (e.getRetry() == -1) {
-                        logger.log(Level.SEVERE, "Message {0} will be removed from the queue", message);
+                    startDelivery(message, EventType.MESSAGE, iWatchMessage.getId(), iWatchMessage.getMunicipality(),
+                            iWatchMessage.getCreatedOn().getTime());
+                    if (topic != null) {
+                        sendTopicNotification(name, iWatchMessage, topic);
                     } else {
-                        final PropertiesReader reader = new PropertiesReader();
-                        final long delay = e.getRetry() == 0 ? reader.getDelay() * (1 << count++) : e.getRetry() * 1000;
-                        logger.log(Level.WARNING, "Message {0} will be pushed again in {1} millis", new Object[]{message, delay});
-                        getMessageProducer().send(name, iWatchMessage, delay, expireOn, count);
+                        sendNotification(name, iWatchMessage, registrationIds);
                     }
+                    logger.log(Level.INFO, "Sent PUSH notification for message {0}", iWatchMessage.getId());
+                } catch (final PushNotificationException e) {
+                    retry(message, EventType.MESSAGE.getType(), e);
                 }
             } else {
                 logger.log(Level.INFO, "Message {0} expired", iWatchMessage.getId());
@@ -115,21 +226,37 @@ public abstract class MessageConsumer implements MessageListener {
     private void onNewActivity(final javax.jms.Message message) throws JMSException {
         logger.entering(this.getClass().getName(), "onNewActivity", message);
 
-        final Report report = message.getBody(Report.class);
-        int count = message.getIntProperty("count");
+        Report report = getEvent(message, Report.class);
         final String name = message.getStringProperty("name");
         final String watcher = message.getStringProperty("watcher");
+        final int since = message.propertyExists("since") ? message.getIntProperty("since") : -1;
+        final List<String> registrationIds = batch.getRegistrationIds();
+
+        // count the activities added since the notification window was opened, unless already counted by the dispatcher
+        int activities = 1;
+        if (message.propertyExists("activities")) {
+            activities = message.getIntProperty("activities");
+        } else if (since >= 0) {
+            try {
+                report = reportDao.find(report.getId());
+                activities = Math.max(1, report.getActivityCount() - since);
+            } catch (final EntityNotFoundException e) {
+                logger.log(Level.INFO, "A notification for report {0} was not sent [report deleted]", report.getId());
+                logger.exiting(this.getClass().getName(), "onNewActivity", true);
+                return;
+            }
+        }
 
-        // add the report to the list of unseen reports of its watchers
-        userDao.addReport(report);
+        // add the report to the list of unseen reports of its watchers, unless this is the retry of a chunk
+        if (registrationIds.isEmpty()) {
+            userDao.addReport(report);
+        }
         try {
-            sendNotification(name, report, watcher);
+            startDelivery(message, EventType.ACTIVITY, report.getId(), report.getMunicipality(), getCreatedOn(message));
+            sendNotification(name, report, watcher, activities, registrationIds);
             logger.log(Level.INFO, "Sent PUSH notification for report {0}", report.getId());
         } catch (final PushNotificationException e) {
-            final PropertiesReader reader = new PropertiesReader();
-            final long delay = e.getRetry() == 0 ? reader.getDelay() * (1 << count++) : e.getRetry() * 1000;
-            logger.log(Level.WARNING, "Message {0} will be pushed again in {1} millis", new Object[]{message, delay});
-            getMessageProducer().notifyNewActivity(name, report, watcher, delay, count);
+            retry(message, EventType.ACTIVITY.getType(), e);
         }
 
         logger.exiting(this.getClass().getName(), "onNewActivity");
@@ -144,29 +271,31 @@ public abstract class MessageConsumer implements MessageListener {
     private void onWatcherAddedOrDeleted(final javax.jms.Message message) throws JMSException {
         logger.entering(this.getClass().getName(), "onWatcherAddedOrDeleted", message);
 
-        final String watcher = message.getBody(String.class);
+        final String watcher = getEvent(message, String.class);
         final boolean added = message.getBooleanProperty("added");
-        int count = message.getIntProperty("count");
         final String name = message.getStringProperty("name");
         final String report = message.getStringProperty("report");
-
-        // add/remove the report to/from the list of unseen reports of the user
-        try {
-            if (added) {
-                userDao.addReport(report, watcher);
-            } else {
-                userDao.deleteReport(report, watcher);
+        final List<String> registrationIds = batch.getRegistrationIds();
+
+        // add/remove the report to/from the list of unseen reports of the user, unless already done by the dispatcher
+        if (registrationIds.isEmpty()) {
+            try {
+                if (added) {
+                    userDao.addReport(report, watcher);
+                } else {
+                    userDao.deleteReport(report, watcher);
+                }
+            } catch (final DaoException ignore) {
             }
-        } catch (final DaoException ignore) {
         }
 
         try {
-            sendNotification(name, watcher, String.format(WATCHER, report.substring(7), added ? "Sei" : "Non sei più"));
+            final String text = String.format(WATCHER, report.substring(7), added ? "Sei" : "Non sei più");
+            startDelivery(message, EventType.WATCHER, report, message.getStringProperty("municipality"),
+                    getCreatedOn(message));
+            sendNotification(name, watcher, text, registrationIds);
         } catch (final PushNotificationException e) {
-            final PropertiesReader reader = new PropertiesReader();
-            final long delay = e.getRetry() == 0 ? reader.getDelay() * (1 << count++) : e.getRetry() * 1000;
-            logger.log(Level.WARNING, "Message {0} will be pushed again in {1} millis", new Object[]{message, delay});
-            getMessageProducer().notifyWatcher(name, watcher, report, added, delay, count);
+            retry(message, EventType.WATCHER.getType(), e);
         }
         logger.log(Level.INFO, "Sent PUSH notification for report {0}", watcher);
 
@@ -182,6 +311,32 @@ public abstract class MessageConsumer implements MessageListener {
      */
     public abstract void sendNotification(final @NotNull String name, final @NotNull Message message) throws PushNotificationException;
 
+    /**
+     * Sends a PUSH notification to the given registration ids only. Sends it to all recipients unless overridden by
+     * the implementations which send the notifications in chunks.
+     *
+     * @param name            the municipality's name
+     * @param message         the message to be pushed
+     * @param registrationIds the registration ids, or an empty list for all recipients
+     * @throws PushNotificationException if the PUSH notification could not be sent
+     */
+    public void sendNotification(final @NotNull String name, final @NotNull Message message,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        sendNotification(name, message);
+    }
+
+    /**
+     * Sends a PUSH notification to the devices subscribed to the given topic. The platforms without topics send it to
+     * all recipients instead.
+     *
+     * @param name    the municipality's name
+     * @param message the message to be pushed
+     * @param topic   the topic
+     * @throws PushNotificationException if the PUSH notification could not be sent
+     */
+    public abstract void sendTopicNotification(final @NotNull String name, final @NotNull Message message,
+                                               final @NotNull String topic) throws PushNotificationException;
+
     /**
      * Sends a PUSH notification.
      *
@@ -193,6 +348,23 @@ public abstract class MessageConsumer implements MessageListener {
     public abstract void sendNotification(final @NotNull String name, final @NotNull Report report,
                                           final @NotNull String watcher) throws PushNotificationException;
 
+    /**
+     * Sends a PUSH notification to the given registration ids only. Sends it to all recipients unless overridden by
+     * the implementations which send the notifications in chunks.
+     *
+     * @param name            the municipality's name
+     * @param report          the report to which the activities belong
+     * @param watcher         the if of the watcher who created the first activity
+     * @param activities      the number of new activities
+     * @param registrationIds the registration ids, or an empty list for all recipients
+     * @throws PushNotificationException if the PUSH notification could not be sent
+     */
+    public void sendNotification(final @NotNull String name, final @NotNull Report report, final @NotNull String watcher,
+                                 final int activities, final @NotNull List<String> registrationIds)
+            throws PushNotificationException {
+        sendNotification(name, report, watcher);
+    }
+
     /**
      * Sends a PUSH notification.
      *
@@ -205,9 +377,150 @@ public abstract class MessageConsumer implements MessageListener {
                                           final @NotNull String text) throws PushNotificationException;
 
     /**
-     * Returns a {@link MessageProducer} object.
+     * Sends a PUSH notification to the given registration ids of the given watcher. Sends it to the watcher's current
+     * registration id unless overridden.
+     *
+     * @param name            the municipality's name
+     * @param watcher         the watcher
+     * @param text            the text to be sent
+     * @param registrationIds the registration ids, or an empty list for the watcher's current registration id
+     * @throws PushNotificationException if the PUSH notification could not be sent
+     */
+    public void sendNotification(final @NotNull String name, final @NotNull String watcher, final @NotNull String text,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        sendNotification(name, watcher, text);
+    }
+
+    /**
+     * Returns the text of the notification of the given number of new activities of the given report.
+     *
+     * @param report     the report
+     * @param activities the number of new activities
+     * @return the text of the notification
+     */
+    protected static String getActivityText(final @NotNull Report report, final int activities) {
+        final String ticket = report.getId().substring(7);
+        return activities == 1 ? String.format(ACTIVITY, ticket) : String.format(ACTIVITIES, ticket, activities);
+    }
+
+    /**
+     * Adds the outcome of pushing a notification to the delivery receipt of the JMS message being consumed.
+     *
+     * @param attempted the number of devices
+     * @param succeeded the number of devices for which the provider accepted the notification
+     * @param pruned    the number of devices whose registration id was cleared
+     */
+    protected void recordDelivery(final int attempted, final int succeeded, final int pruned) {
+        if (delivery != null) {
+            delivery.add(attempted, succeeded, pruned);
+        }
+    }
+
+    /**
+     * Starts the delivery receipt of the given JMS message, which is recorded once the message has been consumed.
+     *
+     * @param message      the JMS message
+     * @param type         the event type
+     * @param notification the id of the message or the report
+     * @param municipality the municipality's id, or {@code null} if unknown
+     * @param createdOn    the creation time of the message or the report's event in millis
+     * @throws JMSException if the properties cannot be read
+     */
+    private void startDelivery(final javax.jms.Message message, final @NotNull EventType type,
+                               final @NotNull String notification, final String municipality, final long createdOn)
+            throws JMSException {
+        delivery = new Delivery(notification, type.getType(), getPlatform().getPlatform(),
+                municipality == null ? "unknown" : municipality, createdOn, message.getIntProperty("count") - 1);
+    }
+
+    /**
+     * Returns the time when the event notified by the given JMS message occurred, i.e. when it was first sent.
      *
-     * @return a {@link MessageProducer} object
+     * @param message the JMS message
+     * @return the time in millis
+     * @throws JMSException if the properties cannot be read
+     */
+    private static long getCreatedOn(final javax.jms.Message message) throws JMSException {
+        return message.propertyExists("createdOn") ? message.getLongProperty("createdOn") : message.getJMSTimestamp();
+    }
+
+    /**
+     * Asks the {@link PushScheduler} whether the notifications of the given JMS message can be pushed now on behalf
+     * of its municipality, and defers the message if they cannot. The messages sent before the municipality was
+     * stamped share a single municipality.
+     *
+     * @param message the JMS message
+     * @param type    the event type
+     * @return {@code false} if the message has been deferred
+     * @throws JMSException if the properties cannot be read or the message cannot be deferred
+     */
+    private boolean schedule(final javax.jms.Message message, final @NotNull String type) throws JMSException {
+        final String municipality = message.getStringProperty("municipality");
+        final boolean deferred = message.propertyExists("deferred") && message.getBooleanProperty("deferred");
+        final long delay = pushScheduler.schedule(getPlatform(), getLane(),
+                municipality == null ? "unknown" : municipality, Math.max(1, batch.getRegistrationIds().size()),
+                deferred);
+        if (delay > 0) {
+            retryScheduler.defer(message, delay);
+            Metrics.instance.counter("jms." + type + ".deferred").inc();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the event of the given JMS message being consumed, i.e. the body of the JMS message of the event.
+     *
+     * @param message the JMS message
+     * @param type    the type of the event
+     * @param <T>     the type of the event
+     * @return the event
+     * @throws JMSException if the event is not of the given type
+     */
+    private <T> T getEvent(final javax.jms.Message message, final @NotNull Class<T> type) throws JMSException {
+        if (!type.isInstance(batch.getEvent())) {
+            throw new MessageFormatException("The body of message " + message.getJMSMessageID() + " is not a "
+                    + type.getSimpleName());
+        }
+        return type.cast(batch.getEvent());
+    }
+
+    /**
+     * Handles the JMS messages of an event type.
      */
-    public abstract MessageProducer getMessageProducer();
+    @FunctionalInterface
+    protected interface Handler {
+
+        /**
+         * Handles the given JMS message.
+         *
+         * @param message the JMS message
+         * @throws JMSException if the JMS message cannot be read
+         */
+        void handle(final javax.jms.Message message) throws JMSException;
+    }
+
+    /**
+     * Retries the failed chunks of the notification of the given JMS message, each to its own registration ids.
+     *
+     * @param message the JMS message
+     * @param type    the notification type
+     * @param e       the exception thrown by the notification
+     */
+    private void retry(final javax.jms.Message message, final @NotNull String type,
+                       final @NotNull PushNotificationException e) {
+        // slow down the notifications to the provider which asked to retry later
+        final long retry = e.getChunks().stream().mapToLong(PushNotificationException::getRetry).max().orElse(0);
+        if (retry > 0) {
+            pushScheduler.throttle(getPlatform(), retry);
+        }
+
+        for (final PushNotificationException chunk : e.getChunks()) {
+            try {
+                retryScheduler.retry(message, type, chunk.getRegistrationIds(), chunk.getRetry());
+            } catch (final JMSException ex) {
+                logger.log(Level.SEVERE, "Failed to retry message " + message, ex);
+            }
+        }
+    }
 }
@@ -1,27 +1,33 @@
 package com.probendi.iwatch.server.jms.consumer;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
+import javax.json.Json;
 
 import org.jetbrains.annotations.NotNull;
 
-import com.notnoop.apns.APNS;
 import com.notnoop.exceptions.NetworkIOException;
 
+import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
-import com.probendi.iwatch.server.jms.producer.MessageProducer;
 import com.probendi.iwatch.server.message.Message;
+import com.probendi.iwatch.server.metrics.Metrics;
 import com.probendi.iwatch.server.report.Report;
 import com.probendi.iwatch.server.user.User;
 import com.probendi.iwatch.server.util.PropertiesReader;
 
 /**
  * Consumes the message from {@code jms/iWatchApnQueue}.
+ * <p>
+ * The notifications are sent with {@link ApnSender}, or with the legacy {@link ApnServiceProvider} if
+ * {@code apn.provider} is {@code legacy}.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
@@ -33,58 +39,71 @@ public class MessageConsumerApnImpl extends MessageConsumer {
     @EJB
     private ApnServiceProvider apnServiceProvider;
 
-    @EJB(beanName = "MessageProducerApnImpl")
-    private MessageProducer producer;
+    @EJB
+    private ApnSender sender;
+
+    @Override
+    protected Platform getPlatform() {
+        return Platform.IOS;
+    }
 
     @Override
     public void sendNotification(final @NotNull String name, final @NotNull Message message) throws PushNotificationException {
-        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, message});
+        sendNotification(name, message, Collections.emptyList());
+    }
+
+    @Override
+    public void sendNotification(final @NotNull String name, final @NotNull Message message,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, message, registrationIds});
 
         // set the recipients
-        final List<String> registrationIds = userDao.findRecipients(message, Platform.IOS);
-        if (registrationIds.isEmpty()) {
+        final List<String> recipients = registrationIds.isEmpty() ?
+                userDao.findRecipients(message, Platform.IOS) : registrationIds;
+        if (recipients.isEmpty()) {
             logger.log(Level.INFO, "A notification for message {0} was not sent [no registered devices]", message.getId());
-        } else {
-            // set the payload
-            final String payload = APNS.newPayload().alertTitle(name).alertBody(message.getHeader()).build();
-            final Date expiry = new Date(System.currentTimeMillis() + new PropertiesReader().getNotificationValidity());
-            try {
-                apnServiceProvider.getService().push(registrationIds, payload, expiry);
-            } catch (final NetworkIOException e) {
-                logger.log(Level.SEVERE, "Failed to sent notification for message " + message.getId(), e);
-                final PushNotificationException ex = new PushNotificationException();
-                logger.throwing(this.getClass().getName(), "sendNotification", ex);
-                throw ex;
-            }
+            logger.exiting(this.getClass().getName(), "sendNotification", true);
+            return;
         }
 
+        send(payload(name, message.getHeader()), recipients);
+
         logger.exiting(this.getClass().getName(), "sendNotification");
     }
 
+    /**
+     * Sends the PUSH notification to all the iOS recipients of the message, since APNs has no topics.
+     */
+    @Override
+    public void sendTopicNotification(final @NotNull String name, final @NotNull Message message,
+                                      final @NotNull String topic) throws PushNotificationException {
+        sendNotification(name, message, Collections.emptyList());
+    }
+
     @Override
     public void sendNotification(final @NotNull String name, final @NotNull Report report,
                                  final @NotNull String watcher) throws PushNotificationException {
-        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, report, watcher});
+        sendNotification(name, report, watcher, 1, Collections.emptyList());
+    }
+
+    @Override
+    public void sendNotification(final @NotNull String name, final @NotNull Report report, final @NotNull String watcher,
+                                 final int activities, final @NotNull List<String> registrationIds)
+            throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, report, watcher, activities,
+                registrationIds});
 
         // set the recipients
-        final List<String> registrationIds = userDao.findRecipients(report, watcher, Platform.IOS);
-        if (registrationIds.isEmpty()) {
+        final List<String> recipients = registrationIds.isEmpty() ?
+                userDao.findRecipients(report, watcher, Platform.IOS) : registrationIds;
+        if (recipients.isEmpty()) {
             logger.log(Level.INFO, "A notification for report {0} was not sent [no registered devices]", report.getId());
-        } else {
-            // set the payload
-            final String payload = APNS.newPayload().alertTitle(name)
-                    .alertBody("Segnalazione " + report.getId().substring(7) + ": c'è una nuova attività").build();
-            final Date expiry = new Date(System.currentTimeMillis() + new PropertiesReader().getNotificationValidity());
-            try {
-                apnServiceProvider.getService().push(registrationIds, payload, expiry);
-            } catch (final NetworkIOException e) {
-                logger.log(Level.SEVERE, "Failed to sent notification for report " + report.getId(), e);
-                final PushNotificationException ex = new PushNotificationException();
-                logger.throwing(this.getClass().getName(), "sendNotification", ex);
-                throw ex;
-            }
+            logger.exiting(this.getClass().getName(), "sendNotification", true);
+            return;
         }
 
+        send(payload(name, getActivityText(report, activities)), recipients);
+
         logger.exiting(this.getClass().getName(), "sendNotification");
     }
 
@@ -98,31 +117,101 @@ public class MessageConsumerApnImpl extends MessageConsumer {
             final User user = userDao.find(watcher);
             if (!Platform.IOS.getPlatform().equals(user.getPlatform()) || user.getRegistrationId().isEmpty()) {
                 logger.log(Level.INFO, "Notification was not pushed because there are no registered devices", user.getId());
-            } else {
-                logger.log(Level.INFO, "Added user " + user.getId() + " to recipients list (" + user.getRegistrationId() + ")");
-                final String payload = APNS.newPayload().alertTitle(name).alertBody(text).build();
-                final Date expiry = new Date(System.currentTimeMillis() + new PropertiesReader().getNotificationValidity());
-                try {
-                    apnServiceProvider.getService().push(user.getRegistrationId(), payload, expiry);
-                } catch (final NetworkIOException e) {
-                    logger.log(Level.SEVERE, "Failed to push notification to watcher " + user.getId(), e);
-                    final PushNotificationException ex = new PushNotificationException();
-                    logger.throwing(this.getClass().getName(), "sendNotification", ex);
-                    throw ex;
-                }
+                logger.exiting(this.getClass().getName(), "sendNotification", true);
+                return;
             }
+            logger.log(Level.INFO, "Added user " + user.getId() + " to recipients list (" + user.getRegistrationId() + ")");
+
+            send(payload(name, text), Collections.singletonList(user.getRegistrationId()));
         } catch (final EntityNotFoundException e) {
             logger.log(Level.INFO, "Notification was not pushed because the watcher cannot be found", e.getMessage());
             logger.exiting(this.getClass().getName(), "sendNotification", true);
             return;
         }
 
-
         logger.exiting(this.getClass().getName(), "sendNotification");
     }
 
     @Override
-    public MessageProducer getMessageProducer() {
-        return producer;
+    public void sendNotification(final @NotNull String name, final @NotNull String watcher, final @NotNull String text,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        if (registrationIds.isEmpty()) {
+            sendNotification(name, watcher, text);
+        } else {
+            send(payload(name, text), registrationIds);
+        }
+    }
+
+    /**
+     * Sends the given payload to the given recipients with the configured provider. The device tokens which APNs
+     * reports as no longer valid are cleared.
+     *
+     * @param payload    the JSON payload
+     * @param recipients the device tokens of the recipients
+     * @throws PushNotificationException if the notification could not be sent to some recipients; holds an exception
+     *                                   for each retry value, with the recipients which failed with it
+     */
+    private void send(final @NotNull String payload, final @NotNull List<String> recipients)
+            throws PushNotificationException {
+        final PropertiesReader reader = new PropertiesReader();
+        final long expiration = System.currentTimeMillis() + reader.getNotificationValidity();
+
+        if ("legacy".equals(reader.getApnProvider())) {
+            try {
+                apnServiceProvider.getService().push(recipients, payload, new Date(expiration));
+                recordDelivery(recipients.size(), recipients.size(), 0);
+            } catch (final NetworkIOException e) {
+                recordDelivery(recipients.size(), 0, 0);
+                logger.log(Level.SEVERE, "Failed to send notification " + payload, e);
+                final PushNotificationException ex = new PushNotificationException();
+                logger.throwing(this.getClass().getName(), "send", ex);
+                throw ex;
+            }
+            return;
+        }
+
+        final List<PushNotificationException> failures = new LinkedList<>();
+        final List<ApnResponse> responses = sender.sendAll(recipients, payload, expiration, failures);
+
+        // clear the device tokens which are no longer valid
+        final List<String> deadIds = new LinkedList<>();
+        int succeeded = 0;
+        for (final ApnResponse response : responses) {
+            if (response != null && response.isUnregistered()) {
+                deadIds.add(response.getToken());
+            } else if (response != null && response.isAccepted()) {
+                succeeded++;
+            }
+        }
+        recordDelivery(recipients.size(), succeeded, deadIds.size());
+        if (!deadIds.isEmpty()) {
+            // the notification has been sent, so a failure is not redelivered: the tokens are reported again next time
+            try {
+                userDao.deleteRegistrationIds(deadIds);
+                Metrics.instance.counter("apn.token.pruned").add(deadIds.size());
+            } catch (final DaoException e) {
+                logger.log(Level.WARNING, "Failed to prune {0} device tokens", deadIds.size());
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            final PushNotificationException ex = new PushNotificationException(failures);
+            logger.throwing(this.getClass().getName(), "send", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the JSON payload of an alert with the given title and body.
+     *
+     * @param title the title
+     * @param body  the body
+     * @return the JSON payload
+     */
+    private static String payload(final @NotNull String title, final @NotNull String body) {
+        return Json.createObjectBuilder()
+                .add("aps", Json.createObjectBuilder()
+                        .add("alert", Json.createObjectBuilder().add("title", title).add("body", body)))
+                .build().toString();
     }
 }
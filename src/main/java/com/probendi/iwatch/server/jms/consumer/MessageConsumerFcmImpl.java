@@ -1,23 +1,24 @@
 package com.probendi.iwatch.server.jms.consumer;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
 import javax.ejb.MessageDriven;
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
-import com.probendi.iwatch.server.jms.producer.MessageProducer;
 import com.probendi.iwatch.server.message.Message;
+import com.probendi.iwatch.server.metrics.Metrics;
 import com.probendi.iwatch.server.report.Report;
 import com.probendi.iwatch.server.user.User;
 import com.probendi.iwatch.server.util.PropertiesReader;
@@ -32,110 +33,94 @@ public class MessageConsumerFcmImpl extends MessageConsumer {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-    @EJB(beanName = "MessageProducerFcmImpl")
-    private MessageProducer producer;
+    @EJB
+    private FcmSender sender;
+
+    @EJB
+    private FcmTopicManager topicManager;
+
+    @Override
+    protected Platform getPlatform() {
+        return Platform.ANDROID;
+    }
 
     @Override
     public void sendNotification(final @NotNull String name, final @NotNull Message message) throws PushNotificationException {
-        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, message});
+        sendNotification(name, message, Collections.emptyList());
+    }
 
-        final PropertiesReader propertiesReader = new PropertiesReader();
-        final int maxRecipients = propertiesReader.getFcmMaxRecipients();
-        final String key = "key=" + propertiesReader.getFcmKey();
-        final String url = propertiesReader.getFcmUrl();
+    @Override
+    public void sendNotification(final @NotNull String name, final @NotNull Message message,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, message, registrationIds});
 
         // set the recipients
-        final List<String> registrationIds = userDao.findRecipients(message, Platform.ANDROID);
-        final int size = registrationIds.size();
-        if (size == 0) {
+        final List<String> recipients = registrationIds.isEmpty() ?
+                userDao.findRecipients(message, Platform.ANDROID) : registrationIds;
+        if (recipients.isEmpty()) {
             logger.log(Level.INFO, "A notification for message {0} was not sent [no registered devices]", message.getId());
             logger.exiting(this.getClass().getName(), "sendNotification", true);
             return;
         }
 
-        // create the request bodies
-        final List<FcmRequest> fcmRequests = new LinkedList<>();
         final FcmRequest.Data data = new FcmRequest.Data().image(message.getThumbnail()).title(name).body(message.getHeader());
+        send(data, recipients);
 
-        // add the recipients in blocks of maxRecipients
-        final int div = size / maxRecipients;
-        final int mod = size % maxRecipients;
-        for (int i = 0; i < div; i++) {
-            final int from = i * maxRecipients;
-            final int to = from + maxRecipients;
-            fcmRequests.add(new FcmRequest().data(data).registration_ids(registrationIds.subList(from, to)));
-        }
+        logger.exiting(this.getClass().getName(), "sendNotification");
+    }
 
-        // add the last notification with the remainder recipients
-        if (mod > 0) {
-            final int from = div * maxRecipients;
-            fcmRequests.add(new FcmRequest().data(data).registration_ids(registrationIds.subList(from, size)));
-        }
+    @Override
+    public void sendTopicNotification(final @NotNull String name, final @NotNull Message message,
+                                      final @NotNull String topic) throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "sendTopicNotification", new Object[]{name, message, topic});
 
-        // send the HTTP POST requests
+        final FcmRequest.Data data = new FcmRequest.Data().image(message.getThumbnail()).title(name).body(message.getHeader());
+        final FcmResponse fcmResponse;
         try {
-            for (final FcmRequest fcmRequest : fcmRequests) {
-                sendRequest(fcmRequest, key, url);
-            }
-        } catch (final ProcessingException e) {
-            logger.log(Level.SEVERE, "Failed to sent notification for message " + message.getId(), e);
-            final PushNotificationException ex = new PushNotificationException();
-            logger.throwing(this.getClass().getName(), "sendNotification", ex);
+            fcmResponse = sender.send(new FcmRequest().data(data).to("/topics/" + topic));
+        } catch (final PushNotificationException e) {
+            recordDelivery(1, 0, 0);
+            logger.throwing(this.getClass().getName(), "sendTopicNotification", e);
+            throw e;
+        }
+
+        // the devices of a topic are not known, so the delivery counts the request only
+        if (fcmResponse.getError() != null) {
+            recordDelivery(1, 0, 0);
+            logger.log(Level.SEVERE, "Failed to send message {0} to topic {1} [{2}]",
+                    new Object[]{message.getId(), topic, fcmResponse.getError()});
+            final PushNotificationException ex = new PushNotificationException(0);
+            logger.throwing(this.getClass().getName(), "sendTopicNotification", ex);
             throw ex;
         }
+        recordDelivery(1, 1, 0);
 
-        logger.exiting(this.getClass().getName(), "sendNotification");
+        logger.exiting(this.getClass().getName(), "sendTopicNotification");
     }
 
     @Override
     public void sendNotification(final @NotNull String name, final @NotNull Report report,
                                  final @NotNull String watcher) throws PushNotificationException {
-        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, report, watcher});
+        sendNotification(name, report, watcher, 1, Collections.emptyList());
+    }
 
-        final PropertiesReader propertiesReader = new PropertiesReader();
-        final int maxRecipients = propertiesReader.getFcmMaxRecipients();
-        final String key = "key=" + propertiesReader.getFcmKey();
-        final String url = propertiesReader.getFcmUrl();
+    @Override
+    public void sendNotification(final @NotNull String name, final @NotNull Report report, final @NotNull String watcher,
+                                 final int activities, final @NotNull List<String> registrationIds)
+            throws PushNotificationException {
+        logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, report, watcher, activities,
+                registrationIds});
 
-        final List<String> registrationIds = userDao.findRecipients(report, watcher, Platform.ANDROID);
-        final int size = registrationIds.size();
-        if (size == 0) {
+        final List<String> recipients = registrationIds.isEmpty() ?
+                userDao.findRecipients(report, watcher, Platform.ANDROID) : registrationIds;
+        if (recipients.isEmpty()) {
             logger.log(Level.INFO, "A notification for report {0} was not sent [no registered devices]", report.getId());
             logger.exiting(this.getClass().getName(), "sendNotification", true);
             return;
         }
 
-        // create the request bodies
-        final List<FcmRequest> fcmRequests = new LinkedList<>();
-        final FcmRequest.Data data = new FcmRequest.Data().title(name)
-                .body("Segnalazione " + report.getId().substring(7) + ": c'è una nuova attività");
-
-        // add the recipients in blocks of maxRecipients
-        final int div = size / maxRecipients;
-        final int mod = size % maxRecipients;
-        for (int i = 0; i < div; i++) {
-            final int from = i * maxRecipients;
-            final int to = from + maxRecipients;
-            fcmRequests.add(new FcmRequest().data(data).registration_ids(registrationIds.subList(from, to)));
-        }
-
-        // add the last notification with the remainder recipients
-        if (mod > 0) {
-            final int from = div * maxRecipients;
-            fcmRequests.add(new FcmRequest().data(data).registration_ids(registrationIds.subList(from, size)));
-        }
-
-        // send the HTTP POST requests
-        try {
-            for (final FcmRequest fcmRequest : fcmRequests) {
-                sendRequest(fcmRequest, key, url);
-            }
-        } catch (final ProcessingException e) {
-            logger.log(Level.SEVERE, "Failed to sent notification for message " + report.getId(), e);
-            final PushNotificationException ex = new PushNotificationException();
-            logger.throwing(this.getClass().getName(), "sendNotification", ex);
-            throw ex;
-        }
+        final FcmRequest.Data data = new FcmRequest.Data().title(name).body(getActivityText(report, activities));
+        send(data, recipients);
 
         logger.exiting(this.getClass().getName(), "sendNotification");
     }
@@ -145,10 +130,6 @@ public class MessageConsumerFcmImpl extends MessageConsumer {
                                  final @NotNull String text) throws PushNotificationException {
         logger.entering(this.getClass().getName(), "sendNotification", new Object[]{name, watcher, text});
 
-        final PropertiesReader propertiesReader = new PropertiesReader();
-        final String key = "key=" + propertiesReader.getFcmKey();
-        final String url = propertiesReader.getFcmUrl();
-
         // set the payload
         try {
             final User user = userDao.find(watcher);
@@ -163,15 +144,9 @@ public class MessageConsumerFcmImpl extends MessageConsumer {
             final FcmRequest.Data data = new FcmRequest.Data().title(name).body(text);
             final FcmRequest fcmRequest = new FcmRequest().data(data).registration_ids(user.getRegistrationId());
 
-            // send the HTTP POST requests
-            try {
-                sendRequest(fcmRequest, key, url);
-            } catch (final ProcessingException e) {
-                logger.log(Level.SEVERE, "Failed to push notification to watcher " + user.getId(), e);
-                final PushNotificationException ex = new PushNotificationException();
-                logger.throwing(this.getClass().getName(), "sendNotification", ex);
-                throw ex;
-            }
+            // send the HTTP POST request
+            final FcmResponse fcmResponse = sender.send(fcmRequest);
+            applyResults(Collections.singletonList(fcmRequest), Collections.singletonList(fcmResponse));
         } catch (final EntityNotFoundException e) {
             logger.log(Level.INFO, "Notification was not pushed because the watcher cannot be found", e.getMessage());
             logger.exiting(this.getClass().getName(), "sendNotification", true);
@@ -181,46 +156,104 @@ public class MessageConsumerFcmImpl extends MessageConsumer {
         logger.exiting(this.getClass().getName(), "sendNotification");
     }
 
+    @Override
+    public void sendNotification(final @NotNull String name, final @NotNull String watcher, final @NotNull String text,
+                                 final @NotNull List<String> registrationIds) throws PushNotificationException {
+        if (registrationIds.isEmpty()) {
+            sendNotification(name, watcher, text);
+        } else {
+            send(new FcmRequest.Data().title(name).body(text), registrationIds);
+        }
+    }
+
     /**
-     * Sends the HTTP request.
+     * Sends the given data to the given recipients, in concurrent chunks of at most {@code fcm.max.recipients}.
      *
-     * @param fcmRequest a {@link FcmRequest} object
-     * @param key the key
-     * @param url the url
-     * @throws PushNotificationException if the notification cannot be sent
+     * @param data       the data
+     * @param recipients the registration ids of the recipients
+     * @throws PushNotificationException if any chunk could not be sent; holds an exception for each failed chunk
      */
-    private void sendRequest(final FcmRequest fcmRequest, final String key, String url) throws PushNotificationException {
-        final Response response = ClientBuilder.newClient().target(url).request()
-                .header("Authorization", key).post(Entity.entity(fcmRequest, MediaType.APPLICATION_JSON_TYPE));
-        final String string = response.readEntity(String.class);
-        final int status = response.getStatus();
-        if (status == 200) {
-            logger.log(Level.FINER, "Request processed - {0}", string);
-        } else if (status == 400) {
-            logger.log(Level.SEVERE, "Invalid request: {0}", string);
-            final PushNotificationException ex = new PushNotificationException(-1);
-            logger.throwing(this.getClass().getName(), "sendNotification", ex);
-            throw ex;
-        } else if (status == 401) {
-            logger.log(Level.SEVERE, "Authentication error");
-            final PushNotificationException ex = new PushNotificationException(-1);
-            logger.throwing(this.getClass().getName(), "sendNotification", ex);
-            throw ex;
-        } else {
-            logger.log(Level.SEVERE, "Request failed with status {0} [{1}]", new Object[]{status,});
-            long retry = 0;
-            try {
-                retry = Long.parseLong(response.getHeaderString("Retry-After"));
-            } catch (final NumberFormatException ignore) {
-            }
-            final PushNotificationException ex = new PushNotificationException(retry);
-            logger.throwing(this.getClass().getName(), "sendNotification", ex);
+    private void send(final @NotNull FcmRequest.Data data, final @NotNull List<String> recipients)
+            throws PushNotificationException {
+        final int maxRecipients = new PropertiesReader().getFcmMaxRecipients();
+
+        // create the request bodies, in blocks of maxRecipients
+        final List<FcmRequest> fcmRequests = new LinkedList<>();
+        for (int from = 0; from < recipients.size(); from += maxRecipients) {
+            final int to = Math.min(from + maxRecipients, recipients.size());
+            fcmRequests.add(new FcmRequest().data(data).registration_ids(recipients.subList(from, to)));
+        }
+
+        // send the HTTP POST requests
+        final List<PushNotificationException> failures = new LinkedList<>();
+        final List<FcmResponse> fcmResponses = sender.sendAll(fcmRequests, failures);
+        final int pruned = applyResults(fcmRequests, fcmResponses);
+        recordDelivery(recipients.size(), fcmResponses.stream().filter(Objects::nonNull)
+                .mapToInt(FcmResponse::getSuccess).sum(), pruned);
+        if (!failures.isEmpty()) {
+            logger.log(Level.SEVERE, "Failed to send {0} of {1} chunks", new Object[]{failures.size(), fcmRequests.size()});
+            final PushNotificationException ex = new PushNotificationException(failures);
+            logger.throwing(this.getClass().getName(), "send", ex);
             throw ex;
         }
     }
 
-    @Override
-    public MessageProducer getMessageProducer() {
-        return producer;
+    /**
+     * Clears the registration ids which FCM reported as no longer valid and replaces the ones which FCM reported with a
+     * canonical id, and updates their subscriptions to the topics if they are enabled.
+     *
+     * @param fcmRequests  the requests
+     * @param fcmResponses the responses, in the same order as the requests, with {@code null} for the failed requests
+     * @return the number of registration ids cleared
+     */
+    private int applyResults(final @NotNull List<FcmRequest> fcmRequests, final @NotNull List<FcmResponse> fcmResponses) {
+        final List<String> deadIds = new LinkedList<>();
+        final Map<String, String> canonicalIds = new HashMap<>();
+        for (int i = 0; i < fcmRequests.size(); i++) {
+            final FcmResponse fcmResponse = fcmResponses.get(i);
+            if (fcmResponse == null || fcmResponse.getFailure() == 0 && fcmResponse.getCanonical_ids() == 0) {
+                continue;
+            }
+
+            // the results are in the same order as the registration ids
+            final Iterator<String> registrationIds = fcmRequests.get(i).getRegistration_ids().iterator();
+            for (final FcmResponse.Result result : fcmResponse.getResults()) {
+                if (!registrationIds.hasNext()) {
+                    break;
+                }
+                final String registrationId = registrationIds.next();
+                if ("NotRegistered".equals(result.getError()) || "InvalidRegistration".equals(result.getError())) {
+                    deadIds.add(registrationId);
+                } else if (result.getRegistration_id() != null) {
+                    canonicalIds.put(registrationId, result.getRegistration_id());
+                }
+            }
+        }
+
+        // the notification has been sent, so a failure is not redelivered: the ids are reported again by FCM next time
+        final boolean topics = new PropertiesReader().isFcmTopics();
+        if (!deadIds.isEmpty()) {
+            try {
+                userDao.deleteRegistrationIds(deadIds);
+                Metrics.instance.counter("fcm.token.pruned").add(deadIds.size());
+                if (topics) {
+                    topicManager.remove(deadIds);
+                }
+            } catch (final DaoException e) {
+                logger.log(Level.WARNING, "Failed to prune {0} registration ids", deadIds.size());
+            }
+        }
+        if (!canonicalIds.isEmpty()) {
+            try {
+                userDao.replaceRegistrationIds(canonicalIds);
+                Metrics.instance.counter("fcm.token.replaced").add(canonicalIds.size());
+                if (topics) {
+                    topicManager.replace(canonicalIds);
+                }
+            } catch (final DaoException e) {
+                logger.log(Level.WARNING, "Failed to replace {0} registration ids", canonicalIds.size());
+            }
+        }
+        return deadIds.size();
     }
 }
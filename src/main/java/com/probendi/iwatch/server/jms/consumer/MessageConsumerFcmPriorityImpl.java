@@ -0,0 +1,19 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import javax.ejb.MessageDriven;
+
+import com.probendi.iwatch.server.jms.producer.Lane;
+
+/**
+ * Consumes the message from {@code jms/iWatchFcmPriorityQueue}, i.e. the {@link Lane#PRIORITY} lane.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@MessageDriven(mappedName = "jms/iWatchFcmPriorityQueue")
+public class MessageConsumerFcmPriorityImpl extends MessageConsumerFcmImpl {
+
+    @Override
+    protected Lane getLane() {
+        return Lane.PRIORITY;
+    }
+}
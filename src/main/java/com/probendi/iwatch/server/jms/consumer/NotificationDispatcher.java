@@ -0,0 +1,252 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.MessageListener;
+import javax.jms.Queue;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.db.DaoException;
+import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.jms.producer.EventType;
+import com.probendi.iwatch.server.jms.producer.Lane;
+import com.probendi.iwatch.server.message.Message;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.report.Report;
+import com.probendi.iwatch.server.report.ReportDao;
+import com.probendi.iwatch.server.user.User;
+import com.probendi.iwatch.server.user.UserDao;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * Consumes the messages from {@code jms/iWatchDispatchQueue} and dispatches them to the platform queues.
+ * <p>
+ * The inboxes of the recipients are updated and the recipients are resolved once for each notification, with a
+ * single query for all the platforms. The notification is then sent to the platform queues of its {@link Lane} as
+ * batches of at most {@code dispatch.batch.size} registration ids, which the platform consumers push without reading
+ * the database again. Each batch is sent as soon as it is read from the cursor, so a broadcast is dispatched in
+ * constant memory.
+ * <p>
+ * The messages are consumed outside of a transaction: in a JTA transaction the batches would only be delivered to the
+ * platform queues at commit, i.e. after the whole cursor has been read. The batches sent before a failure are not
+ * rolled back, so a redelivered message may push them twice.
+ * <p>
+ * If {@code fcm.topics} is {@code true}, a message sent to all the users of its municipality is dispatched to the
+ * FCM queue once, with the municipality's topic in the {@code topic} property, instead of in batches.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@MessageDriven(mappedName = "jms/iWatchDispatchQueue")
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class NotificationDispatcher implements MessageListener {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Inject
+    @JMSConnectionFactory("java:comp/DefaultJMSConnectionFactory")
+    private JMSContext jmsContext;
+
+    @Resource(lookup = "jms/iWatchApnQueue")
+    private Queue apnQueue;
+
+    @Resource(lookup = "jms/iWatchFcmQueue")
+    private Queue fcmQueue;
+
+    @Resource(lookup = "jms/iWatchApnPriorityQueue")
+    private Queue apnPriorityQueue;
+
+    @Resource(lookup = "jms/iWatchFcmPriorityQueue")
+    private Queue fcmPriorityQueue;
+
+    @EJB
+    private FcmTopicManager fcmTopicManager;
+
+    @EJB(beanName = "ReportDaoMongoImpl")
+    private ReportDao reportDao;
+
+    @EJB(beanName = "UserDaoMongoImpl")
+    private UserDao userDao;
+
+    @Override
+    public void onMessage(final javax.jms.Message message) {
+        logger.entering(this.getClass().getName(), "onMessage", message);
+
+        final long start = System.currentTimeMillis();
+        String type = null;
+        try {
+            type = message.getStringProperty(EventType.PROPERTY);
+            if (EventType.MESSAGE.getType().equals(type)) {
+                onMessageSent(message);
+            } else if (EventType.ACTIVITY.getType().equals(type)) {
+                onNewActivity(message);
+            } else if (EventType.WATCHER.getType().equals(type)) {
+                onWatcherAddedOrDeleted(message);
+            } else {
+                logger.log(Level.SEVERE, "Message {0} was discarded [unknown type {1}]", new Object[]{message, type});
+                Metrics.instance.counter("dispatch.unknown").inc();
+            }
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to dispatch message " + message, e);
+            Metrics.instance.counter("dispatch.failed").inc();
+        } finally {
+            Metrics.instance.timer("dispatch." + type).recordSince(start);
+        }
+
+        logger.exiting(this.getClass().getName(), "onMessage");
+    }
+
+    /**
+     * Dispatches the JMS messages that are sent when a new message is sent.
+     *
+     * @param message the JMS message
+     * @throws JMSException if the JMS message cannot be read or dispatched
+     */
+    private void onMessageSent(final javax.jms.Message message) throws JMSException {
+        final Message iWatchMessage = message.getBody(Message.class);
+        if (message.getLongProperty("expireOn") < System.currentTimeMillis()
+                || iWatchMessage.getExpireOn().getTime() <= System.currentTimeMillis()) {
+            logger.log(Level.INFO, "Message {0} expired", iWatchMessage.getId());
+            return;
+        }
+
+        userDao.addMessage(iWatchMessage);
+        final PropertiesReader reader = new PropertiesReader();
+        final Dispatch dispatch = new Dispatch(message, Lane.BULK, iWatchMessage.getMunicipality(),
+                Collections.emptyMap());
+        if (reader.isFcmTopics() && fcmTopicManager.isReady() && userDao.isBroadcast(iWatchMessage)) {
+            // the Android devices of the municipality are reached with a single request to its topic
+            new Dispatch(message, Lane.BULK, iWatchMessage.getMunicipality(),
+                    Collections.singletonMap("topic", FcmTopicManager.getTopic(iWatchMessage.getMunicipality())))
+                    .accept(Platform.ANDROID, Collections.emptyList());
+            Metrics.instance.counter("dispatch.topic").inc();
+            userDao.findRecipients(iWatchMessage, Platform.IOS, reader.getDispatchBatchSize(), dispatch);
+        } else {
+            userDao.findRecipients(iWatchMessage, reader.getDispatchBatchSize(), dispatch);
+        }
+    }
+
+    /**
+     * Dispatches the JMS messages that are sent when new activities have been added to a report, with the number of
+     * activities added since the notification window was opened in the {@code activities} property.
+     *
+     * @param message the JMS message
+     * @throws JMSException if the JMS message cannot be read or dispatched
+     */
+    private void onNewActivity(final javax.jms.Message message) throws JMSException {
+        Report report = message.getBody(Report.class);
+        final String watcher = message.getStringProperty("watcher");
+
+        int activities = 1;
+        if (message.propertyExists("since")) {
+            try {
+                report = reportDao.find(report.getId());
+                activities = Math.max(1, report.getActivityCount() - message.getIntProperty("since"));
+            } catch (final EntityNotFoundException e) {
+                logger.log(Level.INFO, "A notification for report {0} was not sent [report deleted]", report.getId());
+                return;
+            }
+        }
+
+        userDao.addReport(report);
+        userDao.findRecipients(report, watcher, new PropertiesReader().getDispatchBatchSize(),
+                new Dispatch(message, Lane.PRIORITY, report.getMunicipality(),
+                        Collections.singletonMap("activities", activities)));
+    }
+
+    /**
+     * Dispatches the JMS messages that are sent when a watcher has been added/deleted to/from a report.
+     *
+     * @param message the JMS message
+     * @throws JMSException if the JMS message cannot be read or dispatched
+     */
+    private void onWatcherAddedOrDeleted(final javax.jms.Message message) throws JMSException {
+        final String watcher = message.getBody(String.class);
+        final String report = message.getStringProperty("report");
+
+        // add/remove the report to/from the list of unseen reports of the user
+        try {
+            if (message.getBooleanProperty("added")) {
+                userDao.addReport(report, watcher);
+            } else {
+                userDao.deleteReport(report, watcher);
+            }
+        } catch (final DaoException ignore) {
+        }
+
+        final User user;
+        try {
+            user = userDao.find(watcher);
+        } catch (final EntityNotFoundException e) {
+            logger.log(Level.INFO, "Notification was not pushed because the watcher cannot be found", watcher);
+            return;
+        }
+        final Platform platform = Platform.of(user.getPlatform());
+        if (platform != null && !user.getRegistrationId().isEmpty()) {
+            new Dispatch(message, Lane.PRIORITY, user.getMunicipality(), Collections.emptyMap())
+                    .accept(platform, Collections.singletonList(user.getRegistrationId()));
+        }
+    }
+
+    /**
+     * Sends a JMS message to the queue of the lane and of the platform of each batch of registration ids it accepts.
+     * <p>
+     * The body and the properties of the original JMS message are read once, so that sending a batch only builds
+     * the new JMS message, whose {@link Batch} holds the body and the registration ids.
+     */
+    private class Dispatch implements BiConsumer<Platform, List<String>> {
+
+        private final Serializable event;
+        private final Lane lane;
+        private final Map<String, Object> properties;
+
+        /**
+         * Creates a new {@code Dispatch}.
+         *
+         * @param message      the JMS message
+         * @param lane         the lane
+         * @param municipality the id of the municipality on whose behalf the notification is pushed
+         * @param properties   the properties to be added to the JMS message
+         * @throws JMSException if the JMS message cannot be read
+         */
+        Dispatch(final @NotNull javax.jms.Message message, final @NotNull Lane lane, final @NotNull String municipality,
+                 final @NotNull Map<String, Object> properties) throws JMSException {
+            this.event = JmsMessages.getBatch(message).getEvent();
+            this.lane = lane;
+            this.properties = JmsMessages.getProperties(message);
+            this.properties.put("count", message.getIntProperty("count"));
+            this.properties.put("municipality", municipality);
+            this.properties.putIfAbsent("createdOn", message.getJMSTimestamp());
+            this.properties.putAll(properties);
+        }
+
+        @Override
+        public void accept(final @NotNull Platform platform, final @NotNull List<String> registrationIds) {
+            final Queue queue;
+            if (lane == Lane.PRIORITY) {
+                queue = platform == Platform.IOS ? apnPriorityQueue : fcmPriorityQueue;
+            } else {
+                queue = platform == Platform.IOS ? apnQueue : fcmQueue;
+            }
+            JmsMessages.send(JmsMessages.createProducer(jmsContext, properties).setPriority(lane.getPriority()), queue,
+                    event, registrationIds);
+            Metrics.instance.counter("dispatch.recipients." + platform.name().toLowerCase())
+                    .add(registrationIds.size());
+        }
+    }
+}
@@ -18,4 +18,19 @@ public enum Platform {
     public String getPlatform() {
         return platform;
     }
+
+    /**
+     * Returns the platform with the given name.
+     *
+     * @param platform the platform's name
+     * @return the platform, or {@code null} if there is no platform with the given name
+     */
+    public static Platform of(final String platform) {
+        for (final Platform value : values()) {
+            if (value.platform.equals(platform)) {
+                return value;
+            }
+        }
+        return null;
+    }
 }
@@ -1,19 +1,29 @@
 package com.probendi.iwatch.server.jms.consumer;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
 /**
  * A {@code PushNotificationException} is thrown if a push notification cannot be sent.
+ * <p>
+ * If a notification is sent in chunks, the exception holds one exception for each failed chunk, so that only the
+ * recipients of the failed chunks are retried.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
 public class PushNotificationException extends Exception {
 
     final long retry;
+    final List<String> registrationIds;
+    final List<PushNotificationException> chunks;
 
     /**
      * Creates a new {@code PushNotificationException} object.
      */
     public PushNotificationException() {
-        retry = 0;
+        this(0);
     }
 
     /**
@@ -22,11 +32,51 @@ public class PushNotificationException extends Exception {
      * @param retry the retry value in seconds
      */
     public PushNotificationException(final long retry) {
+        this(retry, Collections.emptyList());
+    }
+
+    /**
+     * Creates a new {@code PushNotificationException} object for a failed chunk.
+     *
+     * @param retry           the retry value in seconds
+     * @param registrationIds the registration ids of the chunk
+     */
+    public PushNotificationException(final long retry, final @NotNull List<String> registrationIds) {
         this.retry = retry;
+        this.registrationIds = registrationIds;
+        this.chunks = Collections.emptyList();
+    }
+
+    /**
+     * Creates a new {@code PushNotificationException} object for the given failed chunks.
+     *
+     * @param chunks the exceptions of the failed chunks
+     */
+    public PushNotificationException(final @NotNull List<PushNotificationException> chunks) {
+        this.retry = 0;
+        this.registrationIds = Collections.emptyList();
+        this.chunks = chunks;
     }
 
     public long getRetry() {
         return retry;
     }
 
+    /**
+     * Returns the registration ids to be retried.
+     *
+     * @return the registration ids to be retried, or an empty list to retry all recipients
+     */
+    public List<String> getRegistrationIds() {
+        return registrationIds;
+    }
+
+    /**
+     * Returns the exceptions of the failed chunks.
+     *
+     * @return the exceptions of the failed chunks, or this exception if the notification was not sent in chunks
+     */
+    public List<PushNotificationException> getChunks() {
+        return chunks.isEmpty() ? Collections.singletonList(this) : chunks;
+    }
 }
@@ -0,0 +1,259 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.jms.producer.Lane;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * Schedules the push notifications sent to each provider, without blocking the consumers.
+ * <p>
+ * Each provider has a token bucket which lets through at most {@code push.rate.<provider>} notifications per second.
+ * The consumers ask for the permits of a JMS message before pushing it: if they are not granted, the message is sent
+ * again to its queue with the delivery delay returned by {@link #schedule}, so that the instance is released for the
+ * messages of the other municipalities instead of waiting.
+ * <p>
+ * The rate is shared across the municipalities by weighted fair queueing. Each municipality has a virtual clock,
+ * which advances by the time its notifications take at its share of the rate, i.e. the rate times
+ * {@code push.weight.<municipality>} divided by the total weight of the municipalities which are sending. The
+ * notifications of the {@link Lane#BULK} lane are granted only when the clock of their municipality is not ahead of
+ * the current time and the bucket has tokens left, so a large broadcast is delayed by its own backlog rather than
+ * delaying the others. The notifications of the {@link Lane#PRIORITY} lane go first: they are granted as long as the
+ * provider is not paused, overdrawing the bucket if needed, and the bulk lane pays the tokens back.
+ * <p>
+ * When a provider answers with {@code Retry-After}, its bucket is paused for that time and its rate is halved, then
+ * the rate is restored linearly over {@code push.rate.recovery} millis. The buckets are held by each server, so the
+ * rates are per server.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PushScheduler {
+
+    // the time in millis after which a municipality which has not sent anything no longer shares the rate
+    private static final long IDLE_TIME = 1000;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final Map<Platform, Bucket> buckets = new EnumMap<>(Platform.class);
+
+    // the current time in millis
+    LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * Creates the bucket of each provider.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        for (final Platform platform : Platform.values()) {
+            buckets.put(platform, new Bucket(platform == Platform.IOS ? "apn" : "fcm", clock));
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Grants the given number of notifications to be sent now to the provider of the given platform on behalf of the
+     * given municipality, or returns the time after which they should be asked for again.
+     *
+     * @param platform     the platform
+     * @param lane         the lane of the notifications
+     * @param municipality the municipality's id
+     * @param permits      the number of notifications
+     * @param deferred     {@code true} if the notifications have already been deferred, in which case they are no
+     *                     longer counted in the backlog of the municipality
+     * @return 0 if the notifications can be sent now, or the delay in millis after which they should be retried
+     */
+    public long schedule(final @NotNull Platform platform, final @NotNull Lane lane,
+                         final @NotNull String municipality, final int permits, final boolean deferred) {
+        logger.entering(this.getClass().getName(), "schedule",
+                new Object[]{platform, lane, municipality, permits, deferred});
+
+        final Bucket bucket = buckets.get(platform);
+        final long delay = bucket.schedule(lane, municipality, permits, deferred);
+        if (delay > 0) {
+            Metrics.instance.counter("push.deferred." + bucket.provider + "." + lane.getLane()).inc();
+            Metrics.instance.timer("push.delay." + bucket.provider).record(delay);
+        }
+
+        logger.exiting(this.getClass().getName(), "schedule", delay);
+        return delay;
+    }
+
+    /**
+     * Slows down the notifications sent to the provider of the given platform, which asked to retry after the given
+     * time.
+     *
+     * @param platform the platform
+     * @param retry    the retry value in seconds
+     */
+    public void throttle(final @NotNull Platform platform, final long retry) {
+        logger.entering(this.getClass().getName(), "throttle", new Object[]{platform, retry});
+
+        final Bucket bucket = buckets.get(platform);
+        bucket.throttle(retry * 1000);
+        logger.log(Level.WARNING, "Notifications to {0} paused for {1} seconds", new Object[]{bucket.provider, retry});
+        Metrics.instance.counter("push.throttled." + bucket.provider).inc();
+
+        logger.exiting(this.getClass().getName(), "throttle");
+    }
+
+    /**
+     * The token bucket of a provider, which shares its rate across the municipalities by weighted fair queueing.
+     */
+    private static class Bucket {
+
+        private final String provider;
+        private final LongSupplier clock;
+        private final Map<String, Tenant> tenants = new HashMap<>();
+
+        private double rate;
+        private double tokens;
+        private long refilledOn;
+        private long pausedUntil;
+
+        Bucket(final @NotNull String provider, final @NotNull LongSupplier clock) {
+            this.provider = provider;
+            this.clock = clock;
+            this.refilledOn = clock.getAsLong();
+            this.rate = new PropertiesReader().getPushRate(provider);
+            this.tokens = rate;
+            Metrics.instance.gauge("push.rate." + provider, this::getRate);
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized long schedule(final @NotNull Lane lane, final @NotNull String municipality, final int permits,
+                                   final boolean deferred) {
+            final long now = clock.getAsLong();
+            refill(now);
+            final Tenant tenant = tenants.computeIfAbsent(municipality, this::newTenant);
+            if (deferred) {
+                tenant.backlog = Math.max(0, tenant.backlog - permits);
+            }
+
+            long delay = Math.max(0, pausedUntil - now);
+            if (delay == 0 && lane == Lane.BULK && rate > 0) {
+                if (tenant.clock > now) {
+                    delay = tenant.clock - now;
+                } else if (tokens <= 0) {
+                    delay = (long) Math.ceil(-tokens * 1000 / rate) + 1;
+                }
+            }
+            if (delay > 0) {
+                tenant.backlog += permits;
+                return delay;
+            }
+
+            // the tokens can be overdrawn by a large request, which delays the next ones
+            if (rate > 0) {
+                tokens -= permits;
+                if (lane == Lane.BULK) {
+                    final double share = getShare(tenant, now);
+                    tenant.clock = Math.max(tenant.clock, now) + (long) Math.ceil(permits * 1000 / share);
+                }
+            }
+            tenant.sentOn = now;
+            Metrics.instance.counter("push.sent." + provider + "." + municipality).add(permits);
+            return 0;
+        }
+
+        synchronized void throttle(final long retryAfter) {
+            final long now = clock.getAsLong();
+            refill(now);
+            pausedUntil = Math.max(pausedUntil, now + retryAfter);
+            rate = Math.max(1, rate / 2);
+            tokens = Math.min(tokens, 0);
+        }
+
+        /**
+         * Returns the share of the rate of the given municipality, according to its weight and to the weights of the
+         * other municipalities which are sending.
+         *
+         * @param tenant the municipality
+         * @param now    the current time in millis
+         * @return the number of notifications per second
+         */
+        private double getShare(final @NotNull Tenant tenant, final long now) {
+            final PropertiesReader reader = new PropertiesReader();
+            final int weight = Math.max(1, reader.getPushWeight(tenant.municipality));
+            long total = weight;
+            for (final Tenant other : tenants.values()) {
+                if (other != tenant && (other.backlog > 0 || other.clock > now || now - other.sentOn < IDLE_TIME)) {
+                    total += Math.max(1, reader.getPushWeight(other.municipality));
+                }
+            }
+            return rate * weight / total;
+        }
+
+        /**
+         * Adds the tokens earned since the last refill, and restores the rate after a throttle.
+         *
+         * @param now the current time in millis
+         */
+        private void refill(final long now) {
+            final PropertiesReader reader = new PropertiesReader();
+            final double max = reader.getPushRate(provider);
+            final long elapsed = Math.max(0, now - Math.max(refilledOn, pausedUntil));
+            if (max <= 0) {
+                rate = max;
+                tokens = 0;
+            } else {
+                if (rate <= 0) {
+                    rate = max;
+                }
+                rate = Math.min(max, rate + max * elapsed / Math.max(1, reader.getPushRateRecovery()));
+                tokens = Math.min(rate, tokens + rate * elapsed / 1000);
+            }
+            refilledOn = Math.max(refilledOn, now);
+        }
+
+        private Tenant newTenant(final @NotNull String municipality) {
+            final Tenant tenant = new Tenant(municipality);
+            Metrics.instance.gauge("push.backlog." + provider + "." + municipality, () -> getBacklog(tenant));
+            return tenant;
+        }
+
+        private synchronized long getBacklog(final @NotNull Tenant tenant) {
+            return tenant.backlog;
+        }
+    }
+
+    /**
+     * The scheduling state of a municipality.
+     */
+    private static class Tenant {
+
+        private final String municipality;
+        // the number of deferred notifications
+        private long backlog;
+        // the virtual time in millis before which the municipality has used its share of the rate
+        private long clock;
+        // the time in millis when the last notifications were granted
+        private long sentOn;
+
+        Tenant(final @NotNull String municipality) {
+            this.municipality = municipality;
+        }
+    }
+}
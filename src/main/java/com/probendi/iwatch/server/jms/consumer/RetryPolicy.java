@@ -0,0 +1,81 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * The policy which decides whether and when a failed notification of a given type is retried.
+ * <p>
+ * The delay before the n-th retry is a random value between 0 and {@code delay * 2^(n-1)}, capped at
+ * {@code retry.max.delay}, so that the retries of the notifications which failed together are spread over time. If the
+ * provider asked to retry later, the same random value is added to the delay it requested, and the sum is capped at
+ * {@code retry.max.delay} as well. A notification is not retried anymore after {@code retry.<type>.max.attempts} attempts or
+ * {@code retry.<type>.max.age} millis from its first attempt.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class RetryPolicy {
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final long maxAge;
+
+    /**
+     * Creates a new {@code RetryPolicy} object.
+     *
+     * @param baseDelay   the delay of the first retry in millis
+     * @param maxDelay    the max delay of a retry in millis
+     * @param maxAttempts the max number of attempts
+     * @param maxAge      the max time in millis between the first attempt and a retry
+     */
+    public RetryPolicy(final long baseDelay, final long maxDelay, final int maxAttempts, final long maxAge) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the policy of the given notification type.
+     *
+     * @param type the notification type, i.e. {@code message}, {@code activity} or {@code watcher}
+     * @return the policy of the given notification type
+     */
+    public static RetryPolicy of(final @NotNull String type) {
+        final PropertiesReader reader = new PropertiesReader();
+        return new RetryPolicy(reader.getDelay(), reader.getRetryMaxDelay(), reader.getRetryMaxAttempts(type),
+                reader.getRetryMaxAge(type));
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param count      the number of attempts made so far
+     * @param retryAfter the delay requested by the provider in seconds, or 0
+     * @param age        the time in millis since the first attempt
+     * @return the delay in millis, or -1 if the notification must not be retried
+     */
+    public long getDelay(final int count, final long retryAfter, final long age) {
+        if (retryAfter < 0 || count >= maxAttempts || age >= maxAge) {
+            return -1;
+        }
+
+        // capped exponential backoff with full jitter, on top of the delay requested by the provider if any; the shift
+        // is bounded so that it cannot overflow
+        final long floor = retryAfter > maxDelay / 1000 ? maxDelay : retryAfter * 1000;
+        final long ceiling = Math.min(maxDelay - floor, baseDelay << Math.min(Math.max(count - 1, 0), 30));
+        return floor + ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+}
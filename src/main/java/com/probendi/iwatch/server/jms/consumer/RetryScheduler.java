@@ -0,0 +1,167 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.jms.QueueBrowser;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+
+/**
+ * Schedules the retries of the failed notifications according to their {@link RetryPolicy}, and moves the ones which
+ * must not be retried anymore to {@code jms/iWatchDeadLetterQueue}.
+ * <p>
+ * A retry is a copy of the JMS message with the same event and properties, sent to the same queue with the delay
+ * decided by the policy, whose {@link Batch} holds the recipients to be retried. The {@code count} property holds the
+ * number of attempts and the {@code firstSentOn} property the time of the first one. A dead letter
+ * also holds the name of the queue it comes from in the {@code origin} property and the reason why it was not
+ * retried in the {@code reason} property, so that it can be inspected and replayed.
+ * <p>
+ * The messages which cannot be pushed yet because of the rate limits of the {@link PushScheduler} are deferred, i.e.
+ * sent again to the same queue with the given delay, without counting an attempt. A deferred message holds
+ * {@code true} in the {@code deferred} property.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Stateless
+public class RetryScheduler {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Inject
+    @JMSConnectionFactory("java:comp/DefaultJMSConnectionFactory")
+    private JMSContext jmsContext;
+
+    @Resource(lookup = "jms/iWatchDeadLetterQueue")
+    private Queue deadLetterQueue;
+
+    /**
+     * Retries the given JMS message to the given registration ids, or moves it to the dead letter queue if its policy
+     * does not allow another attempt.
+     *
+     * @param message         the JMS message
+     * @param type            the notification type
+     * @param registrationIds the registration ids, or an empty list for the recipients of the JMS message
+     * @param retryAfter      the delay requested by the provider in seconds, 0 if none or -1 if the notification must
+     *                        not be retried
+     * @throws JMSException if the JMS message cannot be read or sent
+     */
+    public void retry(final @NotNull javax.jms.Message message, final @NotNull String type,
+                      final @NotNull List<String> registrationIds, final long retryAfter) throws JMSException {
+        logger.entering(this.getClass().getName(), "retry", new Object[]{message, type, registrationIds, retryAfter});
+
+        final int count = message.getIntProperty("count");
+        final long firstSentOn = message.propertyExists("firstSentOn") ?
+                message.getLongProperty("firstSentOn") : message.getJMSTimestamp();
+        final long age = System.currentTimeMillis() - firstSentOn;
+        Metrics.instance.timer("retry." + type + ".age").record(age);
+
+        final long delay = RetryPolicy.of(type).getDelay(count, retryAfter, age);
+        if (delay < 0) {
+            final String reason = retryAfter < 0 ? "rejected" : "exhausted";
+            logger.log(Level.SEVERE, "Message {0} will be moved to the dead letter queue [{1} after {2} attempts]",
+                    new Object[]{message, reason, count});
+            final JMSProducer producer = JmsMessages.copy(jmsContext, message)
+                    .setProperty("count", count).setProperty("firstSentOn", firstSentOn).setProperty("reason", reason)
+                    .setProperty("origin", ((Queue) message.getJMSDestination()).getQueueName());
+            JmsMessages.send(producer, deadLetterQueue, message, registrationIds);
+            Metrics.instance.counter("retry." + type + ".dead").inc();
+        } else {
+            logger.log(Level.WARNING, "Message {0} will be pushed again in {1} millis", new Object[]{message, delay});
+            final JMSProducer producer = JmsMessages.copy(jmsContext, message).setDeliveryDelay(delay)
+                    .setProperty("count", count + 1).setProperty("firstSentOn", firstSentOn);
+            JmsMessages.send(producer, message.getJMSDestination(), message, registrationIds);
+            Metrics.instance.counter("retry." + type + ".scheduled").inc();
+        }
+
+        logger.exiting(this.getClass().getName(), "retry");
+    }
+
+    /**
+     * Sends the given JMS message again to its queue after the given delay, as the same attempt.
+     *
+     * @param message the JMS message
+     * @param delay   the delay in millis
+     * @throws JMSException if the JMS message cannot be read or sent
+     */
+    public void defer(final @NotNull javax.jms.Message message, final long delay) throws JMSException {
+        logger.entering(this.getClass().getName(), "defer", new Object[]{message, delay});
+
+        final long firstSentOn = message.propertyExists("firstSentOn") ?
+                message.getLongProperty("firstSentOn") : message.getJMSTimestamp();
+        final JMSProducer producer = JmsMessages.copy(jmsContext, message)
+                .setDeliveryDelay(delay).setPriority(message.getJMSPriority())
+                .setProperty("count", message.getIntProperty("count")).setProperty("firstSentOn", firstSentOn)
+                .setProperty("deferred", true);
+        JmsMessages.send(producer, message.getJMSDestination(), message, Collections.emptyList());
+
+        logger.exiting(this.getClass().getName(), "defer");
+    }
+
+    /**
+     * Returns the messages in the dead letter queue.
+     *
+     * @return the messages in the dead letter queue, oldest first
+     * @throws JMSException if the queue cannot be browsed
+     */
+    public List<javax.jms.Message> findDeadLetters() throws JMSException {
+        logger.entering(this.getClass().getName(), "findDeadLetters");
+
+        final List<javax.jms.Message> messages = new LinkedList<>();
+        try (final QueueBrowser browser = jmsContext.createBrowser(deadLetterQueue)) {
+            final Enumeration<?> enumeration = browser.getEnumeration();
+            while (enumeration.hasMoreElements()) {
+                messages.add((javax.jms.Message) enumeration.nextElement());
+            }
+        }
+
+        logger.exiting(this.getClass().getName(), "findDeadLetters", messages.size());
+        return messages;
+    }
+
+    /**
+     * Removes the message with the given id from the dead letter queue, and sends it again to the queue it comes from
+     * as a new notification.
+     *
+     * @param id the JMS message id
+     * @return {@code true} if the message was replayed, or {@code false} if it cannot be found
+     * @throws JMSException if the message cannot be read or sent
+     */
+    public boolean replay(final @NotNull String id) throws JMSException {
+        logger.entering(this.getClass().getName(), "replay", id);
+
+        final javax.jms.Message message;
+        try (final JMSConsumer consumer = jmsContext.createConsumer(deadLetterQueue,
+                "JMSMessageID = '" + id.replace("'", "''") + "'")) {
+            message = consumer.receive(1000);
+        }
+        if (message == null) {
+            logger.exiting(this.getClass().getName(), "replay", false);
+            return false;
+        }
+
+        final Queue origin = jmsContext.createQueue(message.getStringProperty("origin"));
+        final JMSProducer producer = JmsMessages.copy(jmsContext, message).setProperty("count", 1);
+        JmsMessages.send(producer, origin, message, Collections.emptyList());
+        logger.log(Level.INFO, "Message {0} replayed to {1}", new Object[]{id, origin.getQueueName()});
+        Metrics.instance.counter("retry.replayed").inc();
+
+        logger.exiting(this.getClass().getName(), "replay", true);
+        return true;
+    }
+}
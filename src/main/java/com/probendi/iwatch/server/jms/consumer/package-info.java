@@ -1,5 +1,6 @@
 /**
- * Provides the classes that consume messages from {@code jms/iWatchApnQueue} and {@code jms/iWatchFcmQueue}.
+ * Provides the classes that consume messages from {@code jms/iWatchDispatchQueue}, {@code jms/iWatchApnQueue} and
+ * {@code jms/iWatchFcmQueue}.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
@@ -0,0 +1,26 @@
+package com.probendi.iwatch.server.jms.producer;
+
+/**
+ * The type of the event notified by a JMS message, which is stamped in its {@code type} property.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public enum EventType {
+
+    MESSAGE("message"), ACTIVITY("activity"), WATCHER("watcher");
+
+    /**
+     * The name of the JMS property which holds the event type.
+     */
+    public static final String PROPERTY = "type";
+
+    private String type;
+
+    EventType(final String type) {
+        this.type = type;
+    }
+
+    public String getType() {
+        return type;
+    }
+}
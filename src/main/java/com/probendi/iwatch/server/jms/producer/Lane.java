@@ -0,0 +1,38 @@
+package com.probendi.iwatch.server.jms.producer;
+
+/**
+ * The lane through which a push notification is delivered.
+ * <p>
+ * The broadcasts of the messages go through the {@code bulk} lane, i.e. {@code jms/iWatchApnQueue} and
+ * {@code jms/iWatchFcmQueue}, whereas the notifications of the reports go through the {@code priority} lane, i.e.
+ * {@code jms/iWatchApnPriorityQueue} and {@code jms/iWatchFcmPriorityQueue}, so that a large broadcast does not delay
+ * them. Each lane is consumed by its own pool of message-driven beans, whose size is set in
+ * {@code WEB-INF/glassfish-ejb-jar.xml}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public enum Lane {
+
+    BULK("bulk", 4), PRIORITY("priority", 7);
+
+    private String lane;
+    private int priority;
+
+    Lane(final String lane, final int priority) {
+        this.lane = lane;
+        this.priority = priority;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    /**
+     * Returns the JMS priority of the messages of this lane, which orders them in the queues shared by the lanes.
+     *
+     * @return the JMS priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+}
@@ -25,16 +25,21 @@ public interface MessageProducer {
     void send(final @NotNull String name, final @NotNull Message message, final long delay, final long expireOn, final int count);
 
     /**
-     * Sends a JMS message when a new {@link Activity} has been added to the given report.
+     * Sends a JMS message for the notification of the new {@link Activity} objects added to the given report since it
+     * had the given number of activities.
+     * <p>
+     * The activities added within the delivery delay are notified together: the number of new activities is counted
+     * when the JMS message is delivered.
      *
      * @param name    the municipality's name
      * @param report  a {@link Report} object
-     * @param watcher the id of the watcher who created the activity
+     * @param watcher the id of the watcher who created the first activity
      * @param delay   the message's delivery delay in millis
      * @param count   the number of delivery attempts
+     * @param since   the number of activities of the report before the new ones, or -1 for a single activity
      */
-    void notifyNewActivity(final @NotNull String name, final @NotNull Report report,
-                           final @NotNull String watcher, final long delay, final int count);
+    void notifyNewActivity(final @NotNull String name, final @NotNull Report report, final @NotNull String watcher,
+                           final long delay, final int count, final int since);
 
     /**
      * Sends a JMS message when a user who has been added/deleted as a watcher to/from the given report.
@@ -8,6 +8,7 @@ import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.jms.JMSConnectionFactory;
 import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
 import javax.jms.Queue;
 
 import org.jetbrains.annotations.NotNull;
@@ -16,12 +17,16 @@ import com.probendi.iwatch.server.message.Message;
 import com.probendi.iwatch.server.report.Report;
 
 /**
- * An implementation of {@link MessageProducer} for sending messages to {@code jms/iWatchApnQueue}.
+ * An implementation of {@link MessageProducer} for sending messages to {@code jms/iWatchDispatchQueue}, from which
+ * they are dispatched to the platform queues.
+ * <p>
+ * The messages are sent with the JMS priority of their {@link Lane}, so that the notifications of the reports are
+ * dispatched ahead of the broadcasts waiting in the queue.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
 @Stateless
-public class MessageProducerApnImpl implements MessageProducer {
+public class MessageProducerImpl implements MessageProducer {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -29,14 +34,15 @@ public class MessageProducerApnImpl implements MessageProducer {
     @JMSConnectionFactory("java:comp/DefaultJMSConnectionFactory")
     private JMSContext jmsContext;
 
-    @Resource(lookup = "jms/iWatchApnQueue")
+    @Resource(lookup = "jms/iWatchDispatchQueue")
     private Queue queue;
 
     @Override
     public void send(final @NotNull String name, final @NotNull Message message, final long delay, final long expireOn, final int count) {
         logger.entering(this.getClass().getName(), "send", new Object[]{name, message, delay, expireOn, count});
 
-        jmsContext.createProducer().setDeliveryDelay(delay).setProperty("name", name)
+        jmsContext.createProducer().setPriority(Lane.BULK.getPriority()).setDeliveryDelay(delay)
+                .setProperty(EventType.PROPERTY, EventType.MESSAGE.getType()).setProperty("name", name)
                 .setProperty("expireOn", expireOn).setProperty("count", count).send(queue, message);
         logger.log(Level.FINER, "Sent JMS message for Message {0}", message.getId());
 
@@ -44,12 +50,18 @@ public class MessageProducerApnImpl implements MessageProducer {
     }
 
     @Override
-    public void notifyNewActivity(final @NotNull String name, final @NotNull Report report,
-                                  final @NotNull String watcher, final long delay, final int count) {
-        logger.entering(this.getClass().getName(), "notifyNewActivity", new Object[]{name, report, delay, count});
-
-        jmsContext.createProducer().setDeliveryDelay(delay).setProperty("name", name).setProperty("count", count)
-                .setProperty("watcher", watcher).send(queue, report);
+    public void notifyNewActivity(final @NotNull String name, final @NotNull Report report, final @NotNull String watcher,
+                                  final long delay, final int count, final int since) {
+        logger.entering(this.getClass().getName(), "notifyNewActivity", new Object[]{name, report, delay, count,
+                since});
+
+        final JMSProducer producer = jmsContext.createProducer().setPriority(Lane.PRIORITY.getPriority())
+                .setDeliveryDelay(delay).setProperty(EventType.PROPERTY, EventType.ACTIVITY.getType())
+                .setProperty("name", name).setProperty("count", count).setProperty("watcher", watcher);
+        if (since >= 0) {
+            producer.setProperty("since", since);
+        }
+        producer.send(queue, report);
         logger.log(Level.FINER, "Sent JMS message for new activity of report {0}", report);
 
         logger.exiting(this.getClass().getName(), "notifyNewActivity");
@@ -60,8 +72,10 @@ public class MessageProducerApnImpl implements MessageProducer {
                               final boolean added, final long delay, final int count) {
         logger.entering(this.getClass().getName(), "notifyWatcher", new Object[]{name, watcher, report, added, delay, count});
 
-        jmsContext.createProducer().setDeliveryDelay(delay).setProperty("name", name).setProperty("report", report)
-                .setProperty("added", added).setProperty("count", count).send(queue, watcher);
+        jmsContext.createProducer().setPriority(Lane.PRIORITY.getPriority()).setDeliveryDelay(delay)
+                .setProperty(EventType.PROPERTY, EventType.WATCHER.getType()).setProperty("name", name)
+                .setProperty("report", report).setProperty("added", added).setProperty("count", count)
+                .send(queue, watcher);
         logger.log(Level.FINER, "Sent JMS message for watcher {0}", watcher);
 
         logger.exiting(this.getClass().getName(), "notifyWatcher");
@@ -1,5 +1,5 @@
 /**
- * Provides the classes that send messages to {@code jms/iWatchApnQueue} and {@code jms/iWatchFcmQueue}.
+ * Provides the classes that send messages to {@code jms/iWatchDispatchQueue}.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
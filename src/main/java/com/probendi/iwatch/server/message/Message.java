@@ -42,29 +42,6 @@ public class Message implements Comparable<Message>, Serializable {
     public Message() {
     }
 
-    /**
-     * Creates a new {@code Message} object from the given document.
-     *
-     * @param doc a {@link Document} instance
-     */
-    @SuppressWarnings("unchecked")
-    public Message(final @NotNull Document doc) {
-        id = doc.getObjectId("_id").toString();
-        header = doc.getString("header");
-        text = doc.getString("text");
-        interest = doc.getString("interest");
-        createdOn = doc.getDate("createdOn");
-        expireOn = doc.getDate("expireOn");
-        attachment = doc.getString("attachment");
-        mimeType = doc.getString("mimeType");
-        thumbnail = doc.getString("thumbnail");
-        municipality = doc.getString("municipality");
-        recipients = (List<String>) doc.get("recipients");
-        if (recipients == null) {
-            recipients = new LinkedList<>();
-        }
-    }
-
     /**
      * Creates a new {@code Message} object from the given message. The new message will contains only a subset of the
      * original data because:
@@ -0,0 +1,116 @@
+package com.probendi.iwatch.server.message;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readStrings;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeStrings;
+
+/**
+ * A {@code BSON} {@link CollectibleCodec} for {@link Message} instances. The id of a message is stored as an
+ * {@link ObjectId} and is generated by this codec on insertion.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class MessageCodec implements CollectibleCodec<Message> {
+
+    @Override
+    public Message decode(BsonReader reader, DecoderContext decoderContext) {
+        final Message message = Message.newBuilder().build();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    message.setId(readString(reader));
+                    break;
+                case "header":
+                    message.setHeader(readString(reader));
+                    break;
+                case "text":
+                    message.setText(readString(reader));
+                    break;
+                case "interest":
+                    message.setInterest(readString(reader));
+                    break;
+                case "createdOn":
+                    message.setCreatedOn(readDate(reader));
+                    break;
+                case "expireOn":
+                    message.setExpireOn(readDate(reader));
+                    break;
+                case "attachment":
+                    message.setAttachment(readString(reader));
+                    break;
+                case "mimeType":
+                    message.setMimeType(readString(reader));
+                    break;
+                case "thumbnail":
+                    message.setThumbnail(readString(reader));
+                    break;
+                case "municipality":
+                    message.setMunicipality(readString(reader));
+                    break;
+                case "recipients":
+                    message.setRecipients(readStrings(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return message;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Message value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (value.getId() != null) {
+            writer.writeObjectId("_id", new ObjectId(value.getId()));
+        }
+        writeString(writer, "header", value.getHeader());
+        writeString(writer, "text", value.getText());
+        writeString(writer, "interest", value.getInterest());
+        writeDate(writer, "createdOn", value.getCreatedOn());
+        writeDate(writer, "expireOn", value.getExpireOn());
+        writeString(writer, "attachment", value.getAttachment());
+        writeString(writer, "mimeType", value.getMimeType());
+        writeString(writer, "thumbnail", value.getThumbnail());
+        writeString(writer, "municipality", value.getMunicipality());
+        writeStrings(writer, "recipients", value.getRecipients());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Message> getEncoderClass() {
+        return Message.class;
+    }
+
+    @Override
+    public Message generateIdIfAbsentFromDocument(Message document) {
+        if (!documentHasId(document)) {
+            document.setId(new ObjectId().toHexString());
+        }
+        return document;
+    }
+
+    @Override
+    public boolean documentHasId(Message document) {
+        return document.getId() != null;
+    }
+
+    @Override
+    public BsonValue getDocumentId(Message document) {
+        return new BsonObjectId(new ObjectId(document.getId()));
+    }
+}
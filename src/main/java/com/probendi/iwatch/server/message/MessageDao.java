@@ -1,11 +1,14 @@
 package com.probendi.iwatch.server.message;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 
 /**
  * Data Access Object for a {@link Message}.
@@ -39,14 +42,25 @@ public interface MessageDao {
     Message find(final @NotNull String id) throws EntityNotFoundException;
 
     /**
-     * Returns the messages which match the given criteria.
+     * Returns a page of the unexpired messages which match the given criteria, sorted by creation date.
      *
      * @param municipality the municipality's id
      * @param interest     the message's interest
      * @param user         the user's id
-     * @return the message which match the given criteria
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @param limit        the max number of messages, or 0 to return all of them
+     * @return a page of the messages which match the given criteria
      */
-    List<Message> find(final @NotNull String municipality, final @NotNull String interest, final @NotNull String user);
+    Page<Message> find(final @NotNull String municipality, final @NotNull String interest, final @NotNull String user,
+                       final Cursor cursor, final int limit);
+
+    /**
+     * Returns the messages with the given ids which are not expired, sorted by creation date, oldest first.
+     *
+     * @param ids the messages' ids
+     * @return the messages with the given ids which are not expired
+     */
+    List<Message> findAll(final @NotNull Collection<String> ids);
 
     /**
      * Returns all messages.
@@ -1,10 +1,12 @@
 package com.probendi.iwatch.server.message;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.ejb.Stateless;
 
@@ -13,18 +15,21 @@ import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.jetbrains.annotations.NotNull;
 
-import com.mongodb.Block;
 import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Filters;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
 import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.db.Page;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Sorts.ascending;
 
 /**
  * The MongoDB Data Access Object for a {@link Message}.
@@ -79,23 +84,21 @@ public class MessageDaoMongoImpl implements MessageDao {
         logger.entering(this.getClass().getName(), "find", id);
 
         final Bson filter = new Document("_id", new ObjectId(id));
-        final Document document = Mongo.instance.getMessageCollection().find(filter).first();
-        if (document == null) {
+        final Message message = Mongo.instance.getMessageCollection().find(filter).first();
+        if (message == null) {
             final EntityNotFoundException ex = new EntityNotFoundException(id);
             logger.throwing(this.getClass().getName(), "find", ex);
             throw ex;
         }
-        final Message message = new Message(document);
 
         logger.exiting(this.getClass().getName(), "find", message);
         return message;
     }
 
     @Override
-    public List<Message> find(final @NotNull String municipality, final @NotNull String interest, final @NotNull String user) {
-        logger.entering(this.getClass().getName(), "find", new String[]{municipality, interest, user});
-
-        final List<Message> messages = new LinkedList<>();
+    public Page<Message> find(final @NotNull String municipality, final @NotNull String interest, final @NotNull String user,
+                              final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "find", new Object[]{municipality, interest, user, cursor, limit});
 
         // build the filters
         final List<Bson> filters = new LinkedList<>();
@@ -108,11 +111,34 @@ public class MessageDaoMongoImpl implements MessageDao {
         }
         final long time = System.currentTimeMillis() / Message.MILLIS_IN_ONE_DAY * Message.MILLIS_IN_ONE_DAY;
         filters.add(gte("expireOn", new Date(time)));
+        if (cursor != null) {
+            filters.add(cursor.after("createdOn", true));
+        }
 
-        final FindIterable<Document> iterable = Mongo.instance.getMessageCollection().find(and(filters));
-        iterable.forEach((Block<Document>) document -> messages.add(new Message(document)));
+        final FindIterable<Message> iterable = Mongo.instance.getMessageCollection().find(and(filters))
+                .sort(ascending("createdOn", "_id"));
+        final Page<Message> page = Page.of(iterable, limit,
+                message -> Cursor.of(message.getCreatedOn(), new ObjectId(message.getId())));
 
-        logger.exiting(this.getClass().getName(), "find", messages);
+        logger.exiting(this.getClass().getName(), "find", page.getItems());
+        return page;
+    }
+
+    @Override
+    public List<Message> findAll(final @NotNull Collection<String> ids) {
+        logger.entering(this.getClass().getName(), "findAll", ids);
+
+        final List<Message> messages = new LinkedList<>();
+
+        final List<ObjectId> objectIds = ids.stream().filter(ObjectId::isValid).map(ObjectId::new)
+                .collect(Collectors.toList());
+        if (!objectIds.isEmpty()) {
+            final long time = System.currentTimeMillis() / Message.MILLIS_IN_ONE_DAY * Message.MILLIS_IN_ONE_DAY;
+            final Bson filter = and(in("_id", objectIds), gte("expireOn", new Date(time)));
+            Mongo.instance.getMessageCollection().find(filter).sort(ascending("createdOn", "_id")).into(messages);
+        }
+
+        logger.exiting(this.getClass().getName(), "findAll", messages);
         return messages;
     }
 
@@ -122,8 +148,7 @@ public class MessageDaoMongoImpl implements MessageDao {
 
         final List<Message> messages = new LinkedList<>();
 
-        final FindIterable<Document> iterable = Mongo.instance.getMessageCollection().find();
-        iterable.forEach((Block<Document>) document -> messages.add(new Message(document)));
+        Mongo.instance.getMessageCollection().find().into(messages);
 
         logger.exiting(this.getClass().getName(), "find", messages);
         return messages;
@@ -134,9 +159,8 @@ public class MessageDaoMongoImpl implements MessageDao {
         logger.entering(this.getClass().getName(), "insert", message);
 
         try {
-            final Document document = message.toDocument();
-            Mongo.instance.getMessageCollection().insertOne(document);
-            message.setId(document.getObjectId("_id").toString());
+            // the id is generated by the codec
+            Mongo.instance.getMessageCollection().insertOne(message);
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to insert message " + message, e);
             final DaoException ex = new DaoException();
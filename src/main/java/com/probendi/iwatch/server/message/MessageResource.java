@@ -1,25 +1,32 @@
 package com.probendi.iwatch.server.message;
 
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ejb.EJB;
 import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
+import com.probendi.iwatch.server.delivery.Delivery;
+import com.probendi.iwatch.server.delivery.DeliveryDao;
 import com.probendi.iwatch.server.jms.producer.MessageProducer;
 import com.probendi.iwatch.server.municipality.MunicipalityDao;
 import com.probendi.iwatch.server.rest.AuthorizationRequired;
+import com.probendi.iwatch.server.rest.Pagination;
 import com.probendi.iwatch.server.user.UserDao;
 import com.probendi.iwatch.server.util.PropertiesReader;
 import com.probendi.iwatch.server.util.UploadService;
@@ -34,11 +41,11 @@ public class MessageResource {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-    @EJB(beanName = "MessageProducerApnImpl")
-    private MessageProducer apnMessageProducer;
+    @EJB(beanName = "DeliveryDaoMongoImpl")
+    private DeliveryDao deliveryDao;
 
-    @EJB(beanName = "MessageProducerFcmImpl")
-    private MessageProducer fcmMessageProducer;
+    @EJB(beanName = "MessageProducerImpl")
+    private MessageProducer messageProducer;
 
     @EJB(beanName = "MunicipalityDaoMongoImpl")
     private MunicipalityDao municipalityDao;
@@ -70,8 +77,7 @@ public class MessageResource {
             if (reader.isSendPushNotification()) {
                 final String name = municipalityDao.find(message.getMunicipality()).getName();
                 final long  expireOn = System.currentTimeMillis() + reader.getNotificationValidity();
-                apnMessageProducer.send(name, message, 0, expireOn, 1);
-                fcmMessageProducer.send(name, message, 0, expireOn, 1);
+                messageProducer.send(name, message, 0, expireOn, 1);
             }
 
             // build the response
@@ -119,61 +125,86 @@ public class MessageResource {
         }
     }
 
+    /**
+     * Handles the HTTP GET requests that return the delivery receipts of the message with the given id, one for each
+     * platform.
+     *
+     * @param id the id path parameter
+     * @return the delivery receipts of the message with the given id, or an empty list if none was recorded
+     */
+    @GET
+    @AuthorizationRequired
+    @Path("/{id}/delivery")
+    @Produces(MediaType.APPLICATION_JSON)
+    public GenericEntity<List<Delivery>> getDelivery(final @PathParam("id") String id) {
+        logger.entering(this.getClass().getName(), "getDelivery", id);
+
+        final List<Delivery> deliveries = deliveryDao.find(id);
+
+        // build the response
+        logger.exiting(this.getClass().getName(), "getDelivery", deliveries);
+        return new GenericEntity<List<Delivery>>(deliveries) {
+        };
+    }
+
     /**
      * Handles the HTTP GET requests that return the messages which match the given criteria.
      *
      * @param municipality the id of the municipality of the messages to be selected
      * @param interest     the message's interest
      * @param user         the user's id
-     * @return the messages which match the given criteria
+     * @param cursor       the cursor of the page to be returned
+     * @param limit        the max number of messages to be returned, 0 for all
+     * @param uriInfo      the request's URI
+     * @return the messages which match the given criteria, with the link to the next page if paged
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public GenericEntity<List<Message>> get(final @DefaultValue("") @QueryParam("municipality") String municipality,
-                                            final @DefaultValue("") @QueryParam("interest") String interest,
-                                            final @DefaultValue("") @QueryParam("user") String user) {
+    public Response get(final @DefaultValue("") @QueryParam("municipality") String municipality,
+                        final @DefaultValue("") @QueryParam("interest") String interest,
+                        final @DefaultValue("") @QueryParam("user") String user,
+                        final @DefaultValue("") @QueryParam("cursor") String cursor,
+                        final @DefaultValue("0") @QueryParam("limit") int limit,
+                        final @Context UriInfo uriInfo) {
 
-        logger.entering(this.getClass().getName(), "get", new Object[]{municipality, interest, user});
+        logger.entering(this.getClass().getName(), "get", new Object[]{municipality, interest, user, cursor, limit});
 
-        // this is the query from the desktop application
-        if (user.isEmpty()) {
-            final List<Message> messages = messageDao.find(municipality, interest, "");
+        // the query from the desktop application or for the messages of the given interest
+        if (user.isEmpty() || !interest.isEmpty()) {
+            final Page<Message> page = messageDao.find(municipality, interest, user, Pagination.cursor(cursor),
+                    Pagination.limit(limit));
 
             // build the response
-            logger.exiting(this.getClass().getName(), "get", messages);
-            return new GenericEntity<List<Message>>(messages) {
-            };
+            final Response response = Pagination.ok(new GenericEntity<List<Message>>(page.getItems()) {
+            }, page, uriInfo);
+            logger.exiting(this.getClass().getName(), "get", response);
+            return response;
         }
 
-        // if interest is empty then return the user's unread messages, otherwise the messages for the given interest
-        final List<Message> messages = new LinkedList<>();
-        if (interest.isEmpty()) {
-            try {
-                final long now = System.currentTimeMillis() / Message.MILLIS_IN_ONE_DAY * Message.MILLIS_IN_ONE_DAY;
-                for (final String unreadMessage : userDao.find(user).getMessages()) {
-                    final Message message = messageDao.find(unreadMessage);
-                    if (message.getExpireOn().getTime() >= now) {
-                        messages.add(message);
-                    } else { // remove unread expired messages
-                        try {
-                            userDao.deleteMessage(user, unreadMessage);
-                        } catch (final DaoException e) {
-                            logger.log(Level.WARNING, "Failed to delete expired message '" + unreadMessage + "' of user " + user, e);
-                        }
-                    }
+        // return the user's unread messages
+        List<Message> messages = new LinkedList<>();
+        try {
+            final List<String> unreadMessages = userDao.find(user).getMessages();
+            messages = messageDao.findAll(unreadMessages);
+
+            // remove the unread messages which are expired or no longer exist
+            final Set<String> expiredMessages = new HashSet<>(unreadMessages);
+            messages.forEach(message -> expiredMessages.remove(message.getId()));
+            if (!expiredMessages.isEmpty()) {
+                try {
+                    userDao.deleteMessages(user, expiredMessages);
+                } catch (final DaoException e) {
+                    logger.log(Level.WARNING, "Failed to delete expired messages " + expiredMessages + " of user " + user, e);
                 }
-            } catch (EntityNotFoundException e) {
-                logger.log(Level.WARNING, "User not found '" + user + "'", e);
             }
-        } else {
-            messages.addAll(messageDao.find(municipality, interest, user));
+        } catch (EntityNotFoundException e) {
+            logger.log(Level.WARNING, "User not found '" + user + "'", e);
         }
-        Collections.sort(messages);
-
 
         // build the response
-        logger.exiting(this.getClass().getName(), "get", messages);
-        return new GenericEntity<List<Message>>(messages) {
-        };
+        final Response response = Response.ok(new GenericEntity<List<Message>>(messages) {
+        }).build();
+        logger.exiting(this.getClass().getName(), "get", response);
+        return response;
     }
 }
@@ -0,0 +1,226 @@
+package com.probendi.iwatch.server.message;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.Block;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.user.User;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.pullByFilter;
+import static com.mongodb.client.model.Updates.set;
+
+/**
+ * Periodically removes from the lists of unread messages of the users the messages which are expired or which have
+ * been deleted by the TTL index on {@code expireOn}.
+ * <p>
+ * The users are swept in batches, in order of id: the messages of a batch are checked with a single query and the
+ * batch is updated with a single unordered bulk write. The sweep is throttled to {@code message.sweep.rate} users per
+ * second, so that it never competes with the peak traffic.
+ * <p>
+ * Every server schedules the sweep, but only the one which holds the lock in the {@code migration} collection sweeps.
+ * The lock is leased for {@code message.sweep.interval} millis and renewed after each batch, so that the users are
+ * swept once per interval by the whole cluster.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MessageSweeper {
+
+    // the id of the migration document which holds the lock of the server which is sweeping
+    private static final String SWEEP = "messageSweep";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedScheduledExecutorService")
+    private ManagedScheduledExecutorService executor;
+
+    private int batchSize;
+    private int rate;
+    private long interval;
+    private ScheduledFuture<?> future;
+    private volatile boolean stopped;
+
+    /**
+     * Schedules the periodic sweep.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        batchSize = reader.getMessageSweepBatchSize();
+        rate = reader.getMessageSweepRate();
+        interval = reader.getMessageSweepInterval();
+        future = executor.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Stops the sweep.
+     */
+    @PreDestroy
+    public void destroy() {
+        logger.entering(this.getClass().getName(), "destroy");
+
+        stopped = true;
+        future.cancel(true);
+
+        logger.exiting(this.getClass().getName(), "destroy");
+    }
+
+    /**
+     * Sweeps all users with unread messages.
+     */
+    private void sweep() {
+        logger.entering(this.getClass().getName(), "sweep");
+
+        final long start = System.currentTimeMillis();
+        int users = 0;
+        int pulled = 0;
+        try {
+            if (!lock()) {
+                logger.exiting(this.getClass().getName(), "sweep");
+                return;
+            }
+            String last = null;
+            while (!stopped) {
+                final long batchStart = System.currentTimeMillis();
+                final List<User> batch = new LinkedList<>();
+                final Bson filter = last == null ? exists("messages.0") : and(exists("messages.0"), gt("_id", last));
+                Mongo.instance.getUserCollection().find(filter).projection(include("messages"))
+                        .sort(ascending("_id")).limit(batchSize).into(batch);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                last = batch.get(batch.size() - 1).getId();
+                users += batch.size();
+                pulled += sweep(batch);
+                Metrics.instance.counter("message.sweep.users").add(batch.size());
+                Metrics.instance.timer("message.sweep.batch").recordSince(batchStart);
+                renew();
+
+                // throttle to the configured rate
+                final long elapsed = System.currentTimeMillis() - batchStart;
+                final long wait = batch.size() * 1000L / rate - elapsed;
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to sweep the expired messages", e);
+        }
+        Metrics.instance.timer("message.sweep").recordSince(start);
+        logger.log(Level.INFO, "Swept {0} users, removed {1} expired messages", new Object[]{users, pulled});
+
+        logger.exiting(this.getClass().getName(), "sweep");
+    }
+
+    /**
+     * Locks the sweep for {@code message.sweep.interval} millis, unless another server holds the lock.
+     *
+     * @return {@code true} if the lock has been acquired
+     */
+    private boolean lock() {
+        // the document is inserted if it does not exist, and fails with a duplicate key if it is locked
+        final Date now = new Date();
+        try {
+            Mongo.instance.getMigrationCollection().updateOne(and(eq("_id", SWEEP), lt("lockedUntil", now)),
+                    set("lockedUntil", new Date(now.getTime() + interval)), new UpdateOptions().upsert(true));
+        } catch (final MongoWriteException e) {
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Extends the lock of the sweep for {@code message.sweep.interval} millis from now.
+     */
+    private void renew() {
+        Mongo.instance.getMigrationCollection().updateOne(eq("_id", SWEEP),
+                set("lockedUntil", new Date(System.currentTimeMillis() + interval)));
+    }
+
+    /**
+     * Removes the expired messages from the given users.
+     *
+     * @param users the users, with their unread messages
+     * @return the number of removed messages
+     */
+    private int sweep(final List<User> users) {
+        final Set<String> ids = new HashSet<>();
+        users.forEach(user -> ids.addAll(user.getMessages()));
+
+        // the unread messages which still exist and are not expired
+        final List<ObjectId> objectIds = new LinkedList<>();
+        ids.stream().filter(ObjectId::isValid).forEach(id -> objectIds.add(new ObjectId(id)));
+        final long time = System.currentTimeMillis() / Message.MILLIS_IN_ONE_DAY * Message.MILLIS_IN_ONE_DAY;
+        final Set<String> valid = new HashSet<>();
+        Mongo.instance.getMessageCollection().withDocumentClass(Document.class)
+                .find(and(in("_id", objectIds), gte("expireOn", new Date(time)))).projection(include("_id"))
+                .forEach((Block<Document>) document -> valid.add(document.getObjectId("_id").toHexString()));
+
+        int pulled = 0;
+        final List<WriteModel<User>> updates = new LinkedList<>();
+        for (final User user : users) {
+            final List<String> expired = new LinkedList<>(user.getMessages());
+            expired.removeAll(valid);
+            if (!expired.isEmpty()) {
+                updates.add(new UpdateOneModel<>(eq("_id", user.getId()), pullByFilter(in("messages", expired))));
+                pulled += expired.size();
+            }
+        }
+        if (!updates.isEmpty()) {
+            Mongo.instance.getUserCollection().bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+        Metrics.instance.counter("message.sweep.pulled").add(pulled);
+        return pulled;
+    }
+}
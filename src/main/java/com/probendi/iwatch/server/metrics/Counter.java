@@ -0,0 +1,38 @@
+package com.probendi.iwatch.server.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Increments this counter by one.
+     */
+    public void inc() {
+        count.increment();
+    }
+
+    /**
+     * Increments this counter by the given amount.
+     *
+     * @param n the amount to be added
+     */
+    public void add(final long n) {
+        count.add(n);
+    }
+
+    /**
+     * Returns the current value of this counter.
+     *
+     * @return the current value of this counter
+     */
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,180 @@
+package com.probendi.iwatch.server.metrics;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A snapshot of a counter, gauge or timer.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Metric implements Comparable<Metric>, Serializable {
+
+    public enum Type {
+        COUNTER, GAUGE, TIMER
+    }
+
+    private String name;
+    private Type type;
+    private long count;
+    private double value;
+    private double mean;
+    private long max;
+    private long p50;
+    private long p95;
+    private long p99;
+
+    /**
+     * Creates a new {@code Metric} object.
+     */
+    public Metric() {
+    }
+
+    /**
+     * Creates a new {@code Metric} object from the given counter.
+     *
+     * @param name    the metric's name
+     * @param counter the counter
+     */
+    Metric(final String name, final Counter counter) {
+        this.name = name;
+        type = Type.COUNTER;
+        count = counter.getCount();
+        value = count;
+    }
+
+    /**
+     * Creates a new {@code Metric} object from the given gauge value.
+     *
+     * @param name  the metric's name
+     * @param value the gauge's value
+     */
+    Metric(final String name, final Number value) {
+        this.name = name;
+        type = Type.GAUGE;
+        this.value = value == null ? 0 : value.doubleValue();
+    }
+
+    /**
+     * Creates a new {@code Metric} object from the given timer.
+     *
+     * @param name  the metric's name
+     * @param timer the timer
+     */
+    Metric(final String name, final Timer timer) {
+        this.name = name;
+        type = Type.TIMER;
+        count = timer.getCount();
+        value = timer.getTotal();
+        mean = timer.getMean();
+        max = timer.getMax();
+        p50 = timer.getPercentile(0.50);
+        p95 = timer.getPercentile(0.95);
+        p99 = timer.getPercentile(0.99);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(final Type type) {
+        this.type = type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(final long count) {
+        this.count = count;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(final double value) {
+        this.value = value;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public void setMean(final double mean) {
+        this.mean = mean;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void setMax(final long max) {
+        this.max = max;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(final long p50) {
+        this.p50 = p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public void setP95(final long p95) {
+        this.p95 = p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(final long p99) {
+        this.p99 = p99;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Metric)) return false;
+        Metric metric = (Metric) o;
+        return Objects.equals(name, metric.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name);
+    }
+
+    @Override
+    public int compareTo(Metric o) {
+        return name.compareTo(o.getName());
+    }
+
+    @Override
+    public String toString() {
+        return "Metric{" +
+                "name='" + name + '\'' +
+                ", type=" + type +
+                ", count=" + count +
+                ", value=" + value +
+                ", mean=" + mean +
+                ", max=" + max +
+                ", p50=" + p50 +
+                ", p95=" + p95 +
+                ", p99=" + p99 +
+                '}';
+    }
+}
@@ -0,0 +1,78 @@
+package com.probendi.iwatch.server.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The registry of the counters, gauges and timers of this node.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public enum Metrics {
+
+    instance;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     *
+     * @param name the counter's name
+     * @return the counter with the given name
+     */
+    public Counter counter(final @NotNull String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Registers a gauge whose value is read from the given supplier. A gauge with the same name is replaced.
+     *
+     * @param name     the gauge's name
+     * @param supplier the supplier of the gauge's value
+     */
+    public void gauge(final @NotNull String name, final @NotNull Supplier<? extends Number> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Returns the timer with the given name, creating it if necessary.
+     *
+     * @param name the timer's name
+     * @return the timer with the given name
+     */
+    public Timer timer(final @NotNull String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Returns a snapshot of all metrics sorted by name.
+     *
+     * @return a snapshot of all metrics sorted by name
+     */
+    public List<Metric> snapshot() {
+        final List<Metric> metrics = new ArrayList<>(counters.size() + gauges.size() + timers.size());
+        counters.forEach((name, counter) -> metrics.add(new Metric(name, counter)));
+        gauges.forEach((name, supplier) -> {
+            try {
+                metrics.add(new Metric(name, supplier.get()));
+            } catch (final RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to read gauge " + name, e);
+            }
+        });
+        timers.forEach((name, timer) -> metrics.add(new Metric(name, timer)));
+        Collections.sort(metrics);
+        return metrics;
+    }
+}
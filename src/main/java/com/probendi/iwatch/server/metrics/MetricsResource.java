@@ -0,0 +1,46 @@
+package com.probendi.iwatch.server.metrics;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+
+import com.probendi.iwatch.server.rest.AuthorizationRequired;
+
+/**
+ * Exposes the metrics of this node through RESTful web services.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Handles the HTTP GET requests that return the metrics whose name starts with the given prefix.
+     *
+     * @param prefix the prefix of the metrics to be selected
+     * @return the metrics whose name starts with the given prefix
+     */
+    @GET
+    @AuthorizationRequired
+    @Produces(MediaType.APPLICATION_JSON)
+    public GenericEntity<List<Metric>> getMetrics(final @DefaultValue("") @QueryParam("prefix") String prefix) {
+        logger.entering(this.getClass().getName(), "getMetrics", prefix);
+
+        final List<Metric> metrics = Metrics.instance.snapshot();
+        metrics.removeIf(metric -> !metric.getName().startsWith(prefix));
+
+        // build the response
+        logger.exiting(this.getClass().getName(), "getMetrics", metrics);
+        return new GenericEntity<List<Metric>>(metrics) {
+        };
+    }
+}
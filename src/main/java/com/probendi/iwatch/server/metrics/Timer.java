@@ -0,0 +1,84 @@
+package com.probendi.iwatch.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in millis, or other non-negative samples such as batch sizes, into a fixed set of power-of-two
+ * buckets, so that percentiles can be estimated without keeping the samples.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class Timer {
+
+    // bucket i holds the samples in [2^(i-1), 2^i) millis; the last bucket holds everything above
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records the given duration.
+     *
+     * @param millis the duration in millis
+     */
+    public void record(final long millis) {
+        final long value = Math.max(0, millis);
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since the given instant.
+     *
+     * @param start the start instant in millis
+     */
+    public void recordSince(final long start) {
+        record(System.currentTimeMillis() - start);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * Returns the upper bound in millis of the bucket which contains the given percentile.
+     *
+     * @param percentile the percentile, between 0 and 1
+     * @return the upper bound in millis of the bucket which contains the given percentile
+     */
+    public long getPercentile(final double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += buckets.get(i);
+        }
+        final long rank = (long) Math.ceil(percentile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(1L << i, getMax());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Provides the classes that collect and expose the run-time metrics of iWatch server.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+package com.probendi.iwatch.server.metrics;
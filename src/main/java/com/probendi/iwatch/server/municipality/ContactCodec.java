@@ -1,11 +1,15 @@
 package com.probendi.iwatch.server.municipality;
 
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+
 /**
  * A {@code BSON} {@link Codec} for {@link Contact} instances.
  *
@@ -15,20 +19,33 @@ public class ContactCodec implements Codec<Contact> {
 
     @Override
     public Contact decode(BsonReader reader, DecoderContext decoderContext) {
+        final Contact contact = new Contact();
         reader.readStartDocument();
-        final String name = reader.readString("name");
-        final String telephone = reader.readString("telephone");
-        final String email = reader.readString("email");
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "name":
+                    contact.setName(readString(reader));
+                    break;
+                case "telephone":
+                    contact.setTelephone(readString(reader));
+                    break;
+                case "email":
+                    contact.setEmail(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
         reader.readEndDocument();
-        return Contact.newBuilder().name(name).telephone(telephone).email(email).build();
+        return contact;
     }
 
     @Override
     public void encode(BsonWriter writer, Contact value, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        writer.writeString("name", value.getName());
-        writer.writeString("telephone", value.getTelephone());
-        writer.writeString("email", value.getEmail());
+        writeString(writer, "name", value.getName());
+        writeString(writer, "telephone", value.getTelephone());
+        writeString(writer, "email", value.getEmail());
         writer.writeEndDocument();
     }
 
@@ -4,14 +4,11 @@ import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import io.jsonwebtoken.lang.Collections;
-
 /**
  * A municipality.
  *
@@ -48,44 +45,6 @@ public class Municipality implements Comparable<Municipality>, Serializable {
     public Municipality() {
     }
 
-    /**
-     * Creates a new {@code Municipality} object from the given document.
-     *
-     * @param doc a {@link Document} instance
-     */
-    @SuppressWarnings("unchecked")
-    public Municipality(final @NotNull Document doc) {
-        id = doc.getString("_id");
-        name = doc.getString("name");
-        province = doc.getString("province");
-        region = doc.getString("region");
-        header = doc.getString("header");
-        logo = doc.getString("logo");
-        latitude = doc.getDouble("latitude");
-        longitude = doc.getDouble("longitude");
-        zoom = doc.getInteger("zoom");
-        ticketNumber = doc.getString("ticketNumber");
-        active = doc.getBoolean("active");
-        features = (List<String>) doc.get("features");
-        if (features == null) {
-            features = Collections.arrayToList(Feature.REGISTRATION.toString());
-        }
-        categories = (List<String>) doc.get("categories");
-        if (categories == null) {
-            categories = new LinkedList<>();
-        }
-        interests = (List<String>) doc.get("interests");
-        if (interests == null) {
-            interests = new LinkedList<>();
-        }
-        contacts = new LinkedList<>();
-        final List<Document> documents = (List<Document>) doc.get("contacts");
-        if (documents != null) {
-            contacts.addAll(documents.stream().map(Contact::new).collect(Collectors.toList()));
-        }
-        tokenValidity = doc.getLong("tokenValidity");
-    }
-
     /**
      * Creates a new {@code Municipality} object from the given builder.
      *
@@ -0,0 +1,155 @@
+package com.probendi.iwatch.server.municipality;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Topic;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.metrics.Counter;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * An in-process cache of the municipalities, bounded in size and in the age of its entries.
+ * <p>
+ * The cached municipalities are shared and must not be modified. The municipalities updated on any node are evicted
+ * from the caches of all nodes through {@code jms/iWatchMunicipalityTopic}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MunicipalityCache {
+
+    // the body of the invalidation of all municipalities
+    static final String ALL = "*";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Inject
+    @JMSConnectionFactory("java:comp/DefaultJMSConnectionFactory")
+    private JMSContext jmsContext;
+
+    @Resource(lookup = "jms/iWatchMunicipalityTopic")
+    private Topic topic;
+
+    private final Counter hits = Metrics.instance.counter("municipality.cache.hit");
+    private final Counter misses = Metrics.instance.counter("municipality.cache.miss");
+
+    private Map<String, Entry> entries;
+    private long ttl;
+
+    /**
+     * Creates the cache.
+     */
+    @PostConstruct
+    public void init() {
+        final PropertiesReader reader = new PropertiesReader();
+        final int size = reader.getMunicipalityCacheSize();
+        ttl = reader.getMunicipalityCacheTtl();
+        // an access ordered map evicts the least recently used municipality
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > size;
+            }
+        };
+        Metrics.instance.gauge("municipality.cache.size", this::size);
+        Metrics.instance.gauge("municipality.cache.hitRatio", () -> {
+            final long total = hits.getCount() + misses.getCount();
+            return total == 0 ? 0 : (double) hits.getCount() / total;
+        });
+    }
+
+    /**
+     * Returns the cached municipality with the given id.
+     *
+     * @param id the municipality's id
+     * @return the cached municipality with the given id, or {@code null} if it is not cached or it is expired
+     */
+    public synchronized Municipality get(final @NotNull String id) {
+        final Entry entry = entries.get(id);
+        if (entry == null || System.currentTimeMillis() - entry.loadedOn > ttl) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return entry.municipality;
+    }
+
+    /**
+     * Caches the given municipality.
+     *
+     * @param municipality the municipality to be cached
+     */
+    public synchronized void put(final @NotNull Municipality municipality) {
+        entries.put(municipality.getId(), new Entry(municipality));
+    }
+
+    /**
+     * Evicts the municipality with the given id from the cache of this node.
+     *
+     * @param id the municipality's id, or {@link #ALL} to evict all municipalities
+     */
+    public synchronized void evict(final @NotNull String id) {
+        if (ALL.equals(id)) {
+            entries.clear();
+        } else {
+            entries.remove(id);
+        }
+    }
+
+    /**
+     * Evicts the municipality with the given id from the caches of all nodes.
+     *
+     * @param id the municipality's id, or {@link #ALL} to evict all municipalities
+     */
+    public void invalidate(final @NotNull String id) {
+        logger.entering(this.getClass().getName(), "invalidate", id);
+
+        evict(id);
+        try {
+            jmsContext.createProducer().send(topic, id);
+        } catch (final JMSRuntimeException e) {
+            // the other nodes will reload the municipality when its entry expires
+            logger.log(Level.WARNING, "Failed to publish the invalidation of municipality " + id, e);
+        }
+
+        logger.exiting(this.getClass().getName(), "invalidate");
+    }
+
+    /**
+     * Returns the number of cached municipalities.
+     *
+     * @return the number of cached municipalities
+     */
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * A cached municipality.
+     */
+    private static class Entry {
+
+        private final Municipality municipality;
+        private final long loadedOn = System.currentTimeMillis();
+
+        Entry(final Municipality municipality) {
+            this.municipality = municipality;
+        }
+    }
+}
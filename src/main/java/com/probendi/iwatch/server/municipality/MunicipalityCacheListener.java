@@ -0,0 +1,41 @@
+package com.probendi.iwatch.server.municipality;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.EJB;
+import javax.ejb.MessageDriven;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+/**
+ * Consumes the invalidations of the municipalities from {@code jms/iWatchMunicipalityTopic} and evicts them from the
+ * {@link MunicipalityCache} of this node.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@MessageDriven(mappedName = "jms/iWatchMunicipalityTopic", activationConfig = {
+        @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Topic")
+})
+public class MunicipalityCacheListener implements MessageListener {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @EJB
+    private MunicipalityCache cache;
+
+    @Override
+    public void onMessage(final Message message) {
+        logger.entering(this.getClass().getName(), "onMessage", message);
+
+        try {
+            cache.evict(message.getBody(String.class));
+        } catch (final JMSException e) {
+            logger.log(Level.SEVERE, "Failed to get message from the JMS topic", e);
+        }
+
+        logger.exiting(this.getClass().getName(), "onMessage");
+    }
+}
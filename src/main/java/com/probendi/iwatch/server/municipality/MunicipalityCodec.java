@@ -0,0 +1,128 @@
+package com.probendi.iwatch.server.municipality;
+
+import java.util.LinkedList;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static com.probendi.iwatch.server.db.Codecs.readBoolean;
+import static com.probendi.iwatch.server.db.Codecs.readDouble;
+import static com.probendi.iwatch.server.db.Codecs.readInt;
+import static com.probendi.iwatch.server.db.Codecs.readLong;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readStrings;
+import static com.probendi.iwatch.server.db.Codecs.readValues;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeStrings;
+import static com.probendi.iwatch.server.db.Codecs.writeValues;
+
+/**
+ * A {@code BSON} {@link Codec} for {@link Municipality} instances.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class MunicipalityCodec implements Codec<Municipality> {
+
+    private final ContactCodec contactCodec = new ContactCodec();
+
+    @Override
+    public Municipality decode(BsonReader reader, DecoderContext decoderContext) {
+        final Municipality municipality = Municipality.newBuilder().build();
+        reader.readStartDocument();
+        boolean hasFeatures = false;
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    municipality.setId(readString(reader));
+                    break;
+                case "name":
+                    municipality.setName(readString(reader));
+                    break;
+                case "province":
+                    municipality.setProvince(readString(reader));
+                    break;
+                case "region":
+                    municipality.setRegion(readString(reader));
+                    break;
+                case "header":
+                    municipality.setHeader(readString(reader));
+                    break;
+                case "logo":
+                    municipality.setLogo(readString(reader));
+                    break;
+                case "latitude":
+                    municipality.setLatitude(readDouble(reader));
+                    break;
+                case "longitude":
+                    municipality.setLongitude(readDouble(reader));
+                    break;
+                case "zoom":
+                    municipality.setZoom(readInt(reader));
+                    break;
+                case "ticketNumber":
+                    municipality.setTicketNumber(readString(reader));
+                    break;
+                case "active":
+                    municipality.setActive(readBoolean(reader));
+                    break;
+                case "features":
+                    hasFeatures = reader.getCurrentBsonType() == BsonType.ARRAY;
+                    municipality.setFeatures(readStrings(reader));
+                    break;
+                case "categories":
+                    municipality.setCategories(readStrings(reader));
+                    break;
+                case "interests":
+                    municipality.setInterests(readStrings(reader));
+                    break;
+                case "contacts":
+                    municipality.setContacts(readValues(reader, contactCodec, decoderContext));
+                    break;
+                case "tokenValidity":
+                    municipality.setTokenValidity(readLong(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        if (!hasFeatures) {
+            // municipalities created before features were introduced only support registration
+            final LinkedList<String> features = new LinkedList<>();
+            features.add(Municipality.Feature.REGISTRATION.toString());
+            municipality.setFeatures(features);
+        }
+        return municipality;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Municipality value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "name", value.getName());
+        writeString(writer, "province", value.getProvince());
+        writeString(writer, "region", value.getRegion());
+        writeString(writer, "header", value.getHeader());
+        writeString(writer, "logo", value.getLogo());
+        writer.writeDouble("latitude", value.getLatitude());
+        writer.writeDouble("longitude", value.getLongitude());
+        writer.writeInt32("zoom", value.getZoom());
+        writeString(writer, "ticketNumber", value.getTicketNumber());
+        writer.writeBoolean("active", value.isActive());
+        writeStrings(writer, "features", value.getFeatures());
+        writeStrings(writer, "categories", value.getCategories());
+        writeStrings(writer, "interests", value.getInterests());
+        writeValues(writer, "contacts", value.getContacts(), contactCodec, encoderContext);
+        writer.writeInt64("tokenValidity", value.getTokenValidity());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Municipality> getEncoderClass() {
+        return Municipality.class;
+    }
+}
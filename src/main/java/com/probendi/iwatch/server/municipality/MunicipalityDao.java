@@ -22,7 +22,7 @@ public interface MunicipalityDao {
     void deleteAll() throws DaoException;
 
     /**
-     * Returns the municipality with the given id.
+     * Returns the municipality with the given id. The municipality may be read from a cache and must not be modified.
      *
      * @param id the municipality's id
      * @return the message with the given id
@@ -38,7 +38,8 @@ public interface MunicipalityDao {
     SortedSet<Region> findAll();
 
     /**
-     * Returns the next ticket number of the municipality with the given id.
+     * Returns the next ticket number of the municipality with the given id. The ticket numbers are unique across all
+     * servers and restart from 1 every year.
      *
      * @param id the municipality's id
      * @return the next ticket number of the municipality with the given id
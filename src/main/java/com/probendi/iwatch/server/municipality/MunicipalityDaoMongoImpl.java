@@ -6,6 +6,7 @@ import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 
 import org.bson.Document;
@@ -13,13 +14,24 @@ import org.bson.conversions.Bson;
 import org.jetbrains.annotations.NotNull;
 
 import com.mongodb.Block;
+import com.mongodb.ErrorCategory;
 import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.UpdateResult;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
 import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.setOnInsert;
 
 /**
  * The MongoDB Data Access Object for a {@link Municipality}.
@@ -29,8 +41,16 @@ import com.probendi.iwatch.server.db.Mongo;
 @Stateless
 public class MunicipalityDaoMongoImpl implements MunicipalityDao {
 
+    private static final int BLOCK_SIZE = new PropertiesReader().getTicketBlockSize();
+
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
+    @EJB
+    MunicipalityCache cache;
+
+    @EJB
+    TicketAllocator allocator;
+
     @Override
     public void deleteAll() throws DaoException {
         logger.entering(this.getClass().getName(), "deleteAll");
@@ -42,6 +62,8 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
             final DaoException ex = new DaoException();
             logger.throwing(this.getClass().getName(), "deleteAll", ex);
             throw ex;
+        } finally {
+            cache.invalidate(MunicipalityCache.ALL);
         }
 
         logger.exiting(this.getClass().getName(), "deleteAll");
@@ -51,14 +73,17 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
     public Municipality find(final @NotNull String id) throws EntityNotFoundException {
         logger.entering(this.getClass().getName(), "find", id);
 
-        final Bson filter = new Document("_id", id);
-        final Document document = Mongo.instance.getMunicipalityCollection().find(filter).first();
-        if (document == null) {
-            final EntityNotFoundException ex = new EntityNotFoundException();
-            logger.throwing(this.getClass().getName(), "find", ex);
-            throw ex;
+        Municipality municipality = cache.get(id);
+        if (municipality == null) {
+            final Bson filter = new Document("_id", id);
+            municipality = Mongo.instance.getMunicipalityCollection().find(filter).first();
+            if (municipality == null) {
+                final EntityNotFoundException ex = new EntityNotFoundException();
+                logger.throwing(this.getClass().getName(), "find", ex);
+                throw ex;
+            }
+            cache.put(municipality);
         }
-        final Municipality municipality = new Municipality(document);
 
         logger.exiting(this.getClass().getName(), "find", municipality);
         return municipality;
@@ -71,9 +96,8 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
         final SortedSet<Region> regions = new TreeSet<>();
 
         final Bson filter = new Document("active", true).append("features", Municipality.Feature.REGISTRATION.toString());
-        final FindIterable<Document> iterable = Mongo.instance.getMunicipalityCollection().find(filter);
-        iterable.forEach((Block<Document>) document -> {
-            final Municipality municipality = new Municipality(document);
+        final FindIterable<Municipality> iterable = Mongo.instance.getMunicipalityCollection().find(filter);
+        iterable.forEach((Block<Municipality>) municipality -> {
             boolean regionFound = false;
             for (final Region region : regions) {
                 if (region.getName().equals(municipality.getRegion())) {
@@ -107,23 +131,14 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
         return regions;
     }
 
-    synchronized public String nextTicketNumber(final @NotNull String id) throws DaoException {
+    @Override
+    public String nextTicketNumber(final @NotNull String id) throws DaoException {
         logger.entering(this.getClass().getName(), "nextTicketNumber", id);
 
-        final Municipality municipality = find(id);
-        String ticketNumber = municipality.getTicketNumber();
-
         final int year = Year.now().getValue();
-        int n = 1;
-        if (!ticketNumber.isEmpty()) {
-            final String[] array = ticketNumber.split("_");
-            if (year == Integer.parseInt(array[1])) {
-                n += Integer.parseInt(array[2]);
-            }
-        }
-        ticketNumber = String.format(Municipality.TICKET_NUMBER, id, year, n);
-        municipality.setTicketNumber(ticketNumber);
-        update(municipality);
+        final long n = BLOCK_SIZE <= 1 ? reserve(id, year, 1)
+                : allocator.next(id, year, BLOCK_SIZE, count -> reserve(id, year, count));
+        final String ticketNumber = String.format(Municipality.TICKET_NUMBER, id, year, n);
 
         logger.exiting(this.getClass().getName(), "nextTicketNumber", ticketNumber);
         return ticketNumber;
@@ -134,13 +149,14 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
         logger.entering(this.getClass().getName(), "insert", municipality);
 
         try {
-            final Document document = municipality.toDocument();
-            Mongo.instance.getMunicipalityCollection().insertOne(document);
+            Mongo.instance.getMunicipalityCollection().insertOne(municipality);
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to insert municipality " + municipality, e);
             final DaoException ex = new DaoException();
             logger.throwing(this.getClass().getName(), "insert", ex);
             throw ex;
+        } finally {
+            cache.invalidate(municipality.getId());
         }
 
         logger.exiting(this.getClass().getName(), "insert");
@@ -152,7 +168,7 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
 
         try {
             final Bson filter = new Document("_id", municipality.getId());
-            final UpdateResult result = Mongo.instance.getMunicipalityCollection().replaceOne(filter, municipality.toDocument());
+            final UpdateResult result = Mongo.instance.getMunicipalityCollection().replaceOne(filter, municipality);
             if (result.getMatchedCount() == 0) {
                 final EntityNotFoundException ex = new EntityNotFoundException();
                 logger.throwing(this.getClass().getName(), "update", ex);
@@ -168,8 +184,60 @@ public class MunicipalityDaoMongoImpl implements MunicipalityDao {
             final DaoException ex = new DaoException();
             logger.throwing(this.getClass().getName(), "update", ex);
             throw ex;
+        } finally {
+            cache.invalidate(municipality.getId());
         }
 
         logger.exiting(this.getClass().getName(), "update");
     }
+
+    /**
+     * Atomically reserves the given number of ticket numbers of the given municipality and year.
+     * <p>
+     * The counter of a year is created on the first reservation, starting from the ticket number stored in the
+     * municipality by the previous versions of iWatch server.
+     *
+     * @param id    the municipality's id
+     * @param year  the year
+     * @param count the number of ticket numbers to be reserved
+     * @return the last reserved ticket number
+     * @throws EntityNotFoundException if no municipality was found
+     * @throws DaoException            if the ticket numbers could not be reserved
+     */
+    private long reserve(final @NotNull String id, final int year, final int count) throws DaoException {
+        final MongoCollection<Document> collection = Mongo.instance.getCounterCollection();
+        final Bson filter = eq("_id", id + "_" + year);
+        final Bson update = inc("value", (long) count);
+        final FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER);
+
+        try {
+            Document counter = collection.findOneAndUpdate(filter, update, options);
+            if (counter == null) {
+                long n = 0;
+                final String ticketNumber = find(id).getTicketNumber();
+                if (ticketNumber != null && !ticketNumber.isEmpty()) {
+                    final String[] array = ticketNumber.split("_");
+                    if (year == Integer.parseInt(array[1])) {
+                        n = Long.parseLong(array[2]);
+                    }
+                }
+                try {
+                    collection.updateOne(filter, setOnInsert("value", n), new UpdateOptions().upsert(true));
+                } catch (final MongoWriteException e) {
+                    // another server created the counter in the meantime
+                    if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+                counter = collection.findOneAndUpdate(filter, update, options);
+            }
+            return counter.getLong("value");
+        } catch (final MongoException e) {
+            // converted here, since a system exception thrown through the allocator would be wrapped by the container
+            logger.log(Level.SEVERE, "Failed to generate the next ticket number of municipality " + id, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "nextTicketNumber", ex);
+            throw ex;
+        }
+    }
 }
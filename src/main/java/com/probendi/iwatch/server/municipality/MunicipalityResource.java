@@ -1,5 +1,8 @@
 package com.probendi.iwatch.server.municipality;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,6 +17,8 @@ import javax.ws.rs.core.Response;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.delivery.DeliveryDao;
+import com.probendi.iwatch.server.delivery.DeliveryStats;
 import com.probendi.iwatch.server.rest.AuthorizationRequired;
 
 /**
@@ -26,6 +31,9 @@ public class MunicipalityResource {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
+    @EJB(beanName = "DeliveryDaoMongoImpl")
+    DeliveryDao deliveryDao;
+
     @EJB(beanName = "MunicipalityDaoMongoImpl")
     MunicipalityDao municipalityDao;
 
@@ -72,6 +80,43 @@ public class MunicipalityResource {
         }
     }
 
+    /**
+     * Handles the HTTP GET requests that return the daily rollups of the delivery receipts of the PUSH notifications
+     * of the municipality with the given id.
+     *
+     * @param id   the id path parameter
+     * @param from the first day, formatted as {@code yyyy-MM-dd}, defaults to {@code to}
+     * @param to   the last day, formatted as {@code yyyy-MM-dd}, defaults to today
+     * @return the daily rollups of each platform, sorted by day
+     */
+    @GET
+    @AuthorizationRequired
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/{id}/delivery")
+    public GenericEntity<List<DeliveryStats>> getDeliveryStats(final @PathParam("id") String id,
+                                                               final @DefaultValue("") @QueryParam("from") String from,
+                                                               final @DefaultValue("") @QueryParam("to") String to) {
+        logger.entering(this.getClass().getName(), "getDeliveryStats", new Object[]{id, from, to});
+
+        final String last;
+        final String first;
+        try {
+            last = to.isEmpty() ? LocalDate.now().toString() : LocalDate.parse(to).toString();
+            first = from.isEmpty() ? last : LocalDate.parse(from).toString();
+        } catch (final DateTimeParseException e) {
+            logger.log(Level.WARNING, "Invalid day: {0}", e.getParsedString());
+            final WebApplicationException ex = new BadRequestException();
+            logger.throwing(this.getClass().getName(), "getDeliveryStats", ex);
+            throw ex;
+        }
+        final List<DeliveryStats> stats = deliveryDao.findStats(id, first, last);
+
+        // build the response
+        logger.exiting(this.getClass().getName(), "getDeliveryStats", stats);
+        return new GenericEntity<List<DeliveryStats>>(stats) {
+        };
+    }
+
     /**
      * Handles the HTTP PUT requests that update municipalities.
      *
@@ -0,0 +1,96 @@
+package com.probendi.iwatch.server.municipality;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.db.DaoException;
+
+/**
+ * Hands out the ticket numbers of the municipalities from the blocks reserved by this server.
+ * <p>
+ * The ticket numbers of a municipality and year are reserved in blocks, so that the shared counter is only updated
+ * once per block. The calls are serialized by the container, and the blocks of the previous years are evicted as
+ * soon as the first block of a new year is reserved.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Singleton
+public class TicketAllocator {
+
+    // the blocks of ticket numbers reserved by this server, by municipality and year
+    private final Map<String, TicketBlock> blocks = new HashMap<>();
+
+    /**
+     * Returns the next ticket number of the given municipality and year, reserving a new block if the current one
+     * is exhausted.
+     *
+     * @param id          the municipality's id
+     * @param year        the year
+     * @param size        the number of ticket numbers of a block
+     * @param reservation reserves the given number of ticket numbers and returns the last one
+     * @return the next ticket number
+     * @throws DaoException if the block could not be reserved
+     */
+    @Lock(LockType.WRITE)
+    public long next(final @NotNull String id, final int year, final int size, final @NotNull Reservation reservation)
+            throws DaoException {
+        final String key = id + "_" + year;
+        TicketBlock block = blocks.get(key);
+        if (block == null || block.next > block.last) {
+            if (block == null) {
+                blocks.values().removeIf(stale -> stale.year < year);
+            }
+            final long last = reservation.reserve(size);
+            block = new TicketBlock(year, last - size + 1, last);
+            blocks.put(key, block);
+        }
+        return block.next++;
+    }
+
+    /**
+     * Returns the number of blocks held by this server.
+     *
+     * @return the number of blocks held by this server
+     */
+    int size() {
+        return blocks.size();
+    }
+
+    /**
+     * Atomically reserves a number of ticket numbers.
+     */
+    @FunctionalInterface
+    public interface Reservation {
+
+        /**
+         * Reserves the given number of ticket numbers.
+         *
+         * @param count the number of ticket numbers to be reserved
+         * @return the last reserved ticket number
+         * @throws DaoException if the ticket numbers could not be reserved
+         */
+        long reserve(int count) throws DaoException;
+    }
+
+    /**
+     * A block of ticket numbers reserved by this server.
+     */
+    private static class TicketBlock {
+
+        private final int year;
+        private long next;
+        private final long last;
+
+        TicketBlock(final int year, final long next, final long last) {
+            this.year = year;
+            this.next = next;
+            this.last = last;
+        }
+    }
+}
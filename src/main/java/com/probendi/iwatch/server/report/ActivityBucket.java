@@ -0,0 +1,134 @@
+package com.probendi.iwatch.server.report;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A bucket of consecutive activities of a {@link Report}.
+ * <p>
+ * The activities of a report are stored in the {@code activity} collection in buckets of a fixed max size, so that
+ * neither the report document nor any bucket grows with the history of the report. The buckets of a report are
+ * numbered in chronological order by their {@code index}, which is unique within the report: the activities are
+ * always appended to the bucket with the highest index, and the activities migrated from the report document are
+ * stored in the buckets with negative indexes.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ActivityBucket implements Serializable {
+
+    private String id;
+    private String report;
+    private int index;
+    private Date first;
+    private Date last;
+    private int count;
+    private boolean migrated;
+    private List<Activity> activities = new LinkedList<>();
+
+    /**
+     * Creates a new {@code ActivityBucket} object.
+     */
+    public ActivityBucket() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    public String getReport() {
+        return report;
+    }
+
+    public void setReport(final String report) {
+        this.report = report;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(final int index) {
+        this.index = index;
+    }
+
+    public Date getFirst() {
+        return first;
+    }
+
+    public void setFirst(final Date first) {
+        this.first = first;
+    }
+
+    public Date getLast() {
+        return last;
+    }
+
+    public void setLast(final Date last) {
+        this.last = last;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(final int count) {
+        this.count = count;
+    }
+
+    public boolean isMigrated() {
+        return migrated;
+    }
+
+    public void setMigrated(final boolean migrated) {
+        this.migrated = migrated;
+    }
+
+    public List<Activity> getActivities() {
+        return activities;
+    }
+
+    public void setActivities(final List<Activity> activities) {
+        this.activities = activities;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ActivityBucket)) return false;
+        ActivityBucket that = (ActivityBucket) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(report, that.report) &&
+                Objects.equals(index, that.index) &&
+                Objects.equals(first, that.first) &&
+                Objects.equals(last, that.last) &&
+                Objects.equals(count, that.count) &&
+                Objects.equals(migrated, that.migrated) &&
+                Objects.equals(activities, that.activities);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, report, index, first, last, count, migrated, activities);
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityBucket{" +
+                "id='" + id + '\'' +
+                ", report='" + report + '\'' +
+                ", index=" + index +
+                ", first=" + first +
+                ", last=" + last +
+                ", count=" + count +
+                ", migrated=" + migrated +
+                ", activities=" + activities +
+                '}';
+    }
+}
@@ -0,0 +1,110 @@
+package com.probendi.iwatch.server.report;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+import static com.probendi.iwatch.server.db.Codecs.readBoolean;
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readInt;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readValues;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeValues;
+
+/**
+ * A {@code BSON} {@link CollectibleCodec} for {@link ActivityBucket} instances. The id of a bucket is stored as an
+ * {@link ObjectId} and is generated by this codec on insertion.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ActivityBucketCodec implements CollectibleCodec<ActivityBucket> {
+
+    private final ActivityCodec activityCodec = new ActivityCodec();
+
+    @Override
+    public ActivityBucket decode(BsonReader reader, DecoderContext decoderContext) {
+        final ActivityBucket bucket = new ActivityBucket();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    bucket.setId(readString(reader));
+                    break;
+                case "report":
+                    bucket.setReport(readString(reader));
+                    break;
+                case "index":
+                    bucket.setIndex(readInt(reader));
+                    break;
+                case "first":
+                    bucket.setFirst(readDate(reader));
+                    break;
+                case "last":
+                    bucket.setLast(readDate(reader));
+                    break;
+                case "count":
+                    bucket.setCount(readInt(reader));
+                    break;
+                case "migrated":
+                    bucket.setMigrated(readBoolean(reader));
+                    break;
+                case "activities":
+                    bucket.setActivities(readValues(reader, activityCodec, decoderContext));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return bucket;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, ActivityBucket value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (value.getId() != null) {
+            writer.writeObjectId("_id", new ObjectId(value.getId()));
+        }
+        writeString(writer, "report", value.getReport());
+        writer.writeInt32("index", value.getIndex());
+        writeDate(writer, "first", value.getFirst());
+        writeDate(writer, "last", value.getLast());
+        writer.writeInt32("count", value.getCount());
+        if (value.isMigrated()) {
+            writer.writeBoolean("migrated", true);
+        }
+        writeValues(writer, "activities", value.getActivities(), activityCodec, encoderContext);
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<ActivityBucket> getEncoderClass() {
+        return ActivityBucket.class;
+    }
+
+    @Override
+    public ActivityBucket generateIdIfAbsentFromDocument(ActivityBucket document) {
+        if (!documentHasId(document)) {
+            document.setId(new ObjectId().toHexString());
+        }
+        return document;
+    }
+
+    @Override
+    public boolean documentHasId(ActivityBucket document) {
+        return document.getId() != null;
+    }
+
+    @Override
+    public BsonValue getDocumentId(ActivityBucket document) {
+        return new BsonObjectId(new ObjectId(document.getId()));
+    }
+}
@@ -1,14 +1,21 @@
 package com.probendi.iwatch.server.report;
 
-import java.util.Date;
-
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 
-import com.probendi.iwatch.server.user.Watcher;
+import com.probendi.iwatch.server.user.WatcherCodec;
+
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readDouble;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readValue;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeValue;
 
 /**
  * A {@code BSON} {@link Codec} for {@link Activity} instances.
@@ -17,49 +24,57 @@ import com.probendi.iwatch.server.user.Watcher;
  */
 public class ActivityCodec implements Codec<Activity> {
 
+    private final WatcherCodec watcherCodec = new WatcherCodec();
+
     @Override
     public Activity decode(BsonReader reader, DecoderContext decoderContext) {
+        final Activity activity = new Activity();
         reader.readStartDocument();
-        final Date date = new Date(reader.readDateTime("date"));
-        final String comment = reader.readString("comment");
-        final String attachment = reader.readString("attachment");
-        final String mimeType = reader.readString("mimeType");
-        final String thumbnail = reader.readString("thumbnail");
-        final double latitude = reader.readDouble("latitude");
-        final double longitude = reader.readDouble("longitude");
-        reader.readStartDocument();
-        reader.readName("watcher");
-        final String id = reader.readString("_id");
-        final String mobile = reader.readString("mobile");
-        final String firstname = reader.readString("firstname");
-        final String lastname = reader.readString("lastname");
-        final boolean creator = reader.readBoolean("creator");
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "date":
+                    activity.setDate(readDate(reader));
+                    break;
+                case "comment":
+                    activity.setComment(readString(reader));
+                    break;
+                case "attachment":
+                    activity.setAttachment(readString(reader));
+                    break;
+                case "mimeType":
+                    activity.setMimeType(readString(reader));
+                    break;
+                case "thumbnail":
+                    activity.setThumbnail(readString(reader));
+                    break;
+                case "latitude":
+                    activity.setLatitude(readDouble(reader));
+                    break;
+                case "longitude":
+                    activity.setLongitude(readDouble(reader));
+                    break;
+                case "watcher":
+                    activity.setWatcher(readValue(reader, watcherCodec, decoderContext));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
         reader.readEndDocument();
-        reader.readEndDocument();
-        final Watcher watcher = Watcher.newBuilder().id(id).mobile(mobile).lastname(lastname).firstname(firstname)
-                .creator(creator).build();
-        return Activity.newBuilder().date(date).comment(comment).attachment(attachment).mimeType(mimeType)
-                .thumbnail(thumbnail).latitude(latitude).longitude(longitude).watcher(watcher).build();
+        return activity;
     }
 
     @Override
     public void encode(BsonWriter writer, Activity value, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        writer.writeDateTime("date", value.getDate().getTime());
-        writer.writeString("comment", value.getComment());
-        writer.writeString("attachment", value.getAttachment());
-        writer.writeString("mimeType", value.getMimeType());
-        writer.writeString("thumbnail", value.getThumbnail());
+        writeDate(writer, "date", value.getDate());
+        writeString(writer, "comment", value.getComment());
+        writeString(writer, "attachment", value.getAttachment());
+        writeString(writer, "mimeType", value.getMimeType());
+        writeString(writer, "thumbnail", value.getThumbnail());
         writer.writeDouble("latitude", value.getLatitude());
         writer.writeDouble("longitude", value.getLongitude());
-        writer.writeName("watcher");
-        writer.writeStartDocument();
-        writer.writeString("_id", value.getWatcher().getId());
-        writer.writeString("mobile", value.getWatcher().getMobile());
-        writer.writeString("firstname", value.getWatcher().getFirstname());
-        writer.writeString("lastname", value.getWatcher().getLastname());
-        writer.writeBoolean("creator", value.getWatcher().isCreator());
-        writer.writeEndDocument();
+        writeValue(writer, "watcher", value.getWatcher(), watcherCodec, encoderContext);
         writer.writeEndDocument();
     }
 
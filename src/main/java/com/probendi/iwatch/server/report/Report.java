@@ -5,7 +5,6 @@ import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.jetbrains.annotations.Contract;
@@ -35,6 +34,9 @@ public class Report implements Serializable {
     private boolean actionRequired;
     private List<Watcher> watchers;
     private List<Activity> activities;
+    // derived from the activities, so that list views need not read them
+    private int activityCount;
+    private Date lastActivityDate;
 
     /**
      * Creates a new {@code Report} object.
@@ -42,37 +44,6 @@ public class Report implements Serializable {
     public Report() {
     }
 
-    /**
-     * Creates a new {@code Report} object from the given document.
-     *
-     * @param doc a {@link Document} instance
-     */
-    @SuppressWarnings("unchecked")
-    public Report(final @NotNull Document doc) {
-        id = doc.getString("_id");
-        category = doc.getString("category");
-        description = doc.getString("description");
-        date = doc.getDate("date");
-        attachment = doc.getString("attachment");
-        mimeType = doc.getString("mimeType");
-        thumbnail = doc.getString("thumbnail");
-        latitude = doc.getDouble("latitude");
-        longitude = doc.getDouble("longitude");
-        municipality = doc.getString("municipality");
-        status = doc.getString("status");
-        actionRequired = doc.getBoolean("actionRequired");
-        watchers = new LinkedList<>();
-        List<Document> documents = (List<Document>) doc.get("watchers");
-        if (documents != null) {
-            watchers.addAll(documents.stream().map(Watcher::new).collect(Collectors.toList()));
-        }
-        activities = new LinkedList<>();
-        documents = (List<Document>) doc.get("activities");
-        if (documents != null) {
-            activities.addAll(documents.stream().map(Activity::new).collect(Collectors.toList()));
-        }
-    }
-
     /**
      * Creates a new {@code Report} object from the given builder.
      *
@@ -224,6 +195,31 @@ public class Report implements Serializable {
         this.activities = activities;
     }
 
+    public int getActivityCount() {
+        return activityCount;
+    }
+
+    public void setActivityCount(final int activityCount) {
+        this.activityCount = activityCount;
+    }
+
+    public Date getLastActivityDate() {
+        return lastActivityDate;
+    }
+
+    public void setLastActivityDate(final Date lastActivityDate) {
+        this.lastActivityDate = lastActivityDate;
+    }
+
+    /**
+     * Sets the activity count and the last activity date from the activities of this report.
+     */
+    public void updateActivitySummary() {
+        activityCount = activities.size();
+        lastActivityDate = activities.stream().map(Activity::getDate).filter(Objects::nonNull)
+                .max(Date::compareTo).orElse(null);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -242,13 +238,15 @@ public class Report implements Serializable {
                 Objects.equals(status, report.status) &&
                 Objects.equals(actionRequired, report.actionRequired) &&
                 Objects.equals(watchers, report.watchers) &&
-                Objects.equals(activities, report.activities);
+                Objects.equals(activities, report.activities) &&
+                Objects.equals(activityCount, report.activityCount) &&
+                Objects.equals(lastActivityDate, report.lastActivityDate);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(id, category, description, date, attachment, mimeType, thumbnail, latitude, longitude,
-                municipality, status, actionRequired, watchers, activities);
+                municipality, status, actionRequired, watchers, activities, activityCount, lastActivityDate);
     }
 
     @Override
@@ -268,6 +266,8 @@ public class Report implements Serializable {
                 ", actionRequired='" + actionRequired + '\'' +
                 ", watchers='" + watchers + '\'' +
                 ", activities='" + activities + '\'' +
+                ", activityCount=" + activityCount +
+                ", lastActivityDate=" + lastActivityDate +
                 '}';
     }
 
@@ -290,7 +290,9 @@ public class Report implements Serializable {
                 .append("status", status)
                 .append("actionRequired", actionRequired)
                 .append("watchers", watchers)
-                .append("activities", activities);
+                .append("activities", activities)
+                .append("activityCount", activityCount)
+                .append("lastActivityDate", lastActivityDate);
     }
 
     /**
@@ -0,0 +1,120 @@
+package com.probendi.iwatch.server.report;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import com.probendi.iwatch.server.user.WatcherCodec;
+
+import static com.probendi.iwatch.server.db.Codecs.readBoolean;
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readDouble;
+import static com.probendi.iwatch.server.db.Codecs.readInt;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readValues;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeValues;
+
+/**
+ * A {@code BSON} {@link Codec} for {@link Report} instances.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ReportCodec implements Codec<Report> {
+
+    private final ActivityCodec activityCodec = new ActivityCodec();
+    private final WatcherCodec watcherCodec = new WatcherCodec();
+
+    @Override
+    public Report decode(BsonReader reader, DecoderContext decoderContext) {
+        final Report report = Report.newBuilder().build();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    report.setId(readString(reader));
+                    break;
+                case "category":
+                    report.setCategory(readString(reader));
+                    break;
+                case "description":
+                    report.setDescription(readString(reader));
+                    break;
+                case "date":
+                    report.setDate(readDate(reader));
+                    break;
+                case "attachment":
+                    report.setAttachment(readString(reader));
+                    break;
+                case "mimeType":
+                    report.setMimeType(readString(reader));
+                    break;
+                case "thumbnail":
+                    report.setThumbnail(readString(reader));
+                    break;
+                case "latitude":
+                    report.setLatitude(readDouble(reader));
+                    break;
+                case "longitude":
+                    report.setLongitude(readDouble(reader));
+                    break;
+                case "municipality":
+                    report.setMunicipality(readString(reader));
+                    break;
+                case "status":
+                    report.setStatus(readString(reader));
+                    break;
+                case "actionRequired":
+                    report.setActionRequired(readBoolean(reader));
+                    break;
+                case "watchers":
+                    report.setWatchers(readValues(reader, watcherCodec, decoderContext));
+                    break;
+                case "activities":
+                    report.setActivities(readValues(reader, activityCodec, decoderContext));
+                    break;
+                case "activityCount":
+                    report.setActivityCount(readInt(reader));
+                    break;
+                case "lastActivityDate":
+                    report.setLastActivityDate(readDate(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return report;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Report value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "category", value.getCategory());
+        writeString(writer, "description", value.getDescription());
+        writeDate(writer, "date", value.getDate());
+        writeString(writer, "attachment", value.getAttachment());
+        writeString(writer, "mimeType", value.getMimeType());
+        writeString(writer, "thumbnail", value.getThumbnail());
+        writer.writeDouble("latitude", value.getLatitude());
+        writer.writeDouble("longitude", value.getLongitude());
+        writeString(writer, "municipality", value.getMunicipality());
+        writeString(writer, "status", value.getStatus());
+        writer.writeBoolean("actionRequired", value.isActionRequired());
+        writeValues(writer, "watchers", value.getWatchers(), watcherCodec, encoderContext);
+        // the activities are stored in the activity collection
+        writer.writeInt32("activityCount", value.getActivityCount());
+        writeDate(writer, "lastActivityDate", value.getLastActivityDate());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<Report> getEncoderClass() {
+        return Report.class;
+    }
+}
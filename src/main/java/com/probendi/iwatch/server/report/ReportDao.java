@@ -4,8 +4,10 @@ import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.user.Watcher;
 
 /**
@@ -16,14 +18,16 @@ import com.probendi.iwatch.server.user.Watcher;
 public interface ReportDao {
 
     /**
-     * Adds an activity to the given report.
+     * Adds an activity to the given report. The activity is appended to the last bucket of the report, whose size
+     * is bounded, so that the cost of the append does not depend on the number of activities of the report.
      *
      * @param id       the report's id
      * @param activity the activity to be added
+     * @return the number of activities of the report before this one was added, read atomically with the increment
      * @throws DaoException          if the activity could not be added
      * @throws IllegalStateException if the activity cannot be added in the current status
      */
-    void addActivity(final @NotNull String id, final @NotNull Activity activity) throws DaoException;
+    int addActivity(final @NotNull String id, final @NotNull Activity activity) throws DaoException;
 
     /**
      * Adds a watcher to the given report.
@@ -68,7 +72,7 @@ public interface ReportDao {
     void deleteWatcher(final @NotNull String id, final @NotNull String watcher) throws DaoException;
 
     /**
-     * Returns the report with the given id.
+     * Returns the report with the given id, without its activities.
      *
      * @param id the report's id
      * @return the report with the given id
@@ -77,14 +81,46 @@ public interface ReportDao {
     Report find(final @NotNull String id) throws EntityNotFoundException;
 
     /**
-     * Returns all reports of the given municipality which have the given watcher among their watchers.
+     * Returns a page of the activities of the given report, sorted by date, oldest first.
+     * <p>
+     * The activities are read in whole buckets, therefore a page may contain fewer activities than requested even if
+     * it is not the last one.
+     *
+     * @param id     the report's id
+     * @param cursor the cursor of the page, or {@code null} for the first page
+     * @param limit  the max number of activities, or 0 to return all of them
+     * @return a page of the activities of the given report
+     */
+    Page<Activity> findActivities(final @NotNull String id, final Cursor cursor, final int limit);
+
+    /**
+     * Returns a page of the reports of the given municipality which have the given watcher among their watchers,
+     * sorted by date, newest first, with their watchers and activities. The activities of the whole page are read
+     * with a single query.
      *
      * @param municipality the municipality's id
      * @param watcher      the watcher's id
      * @param status       the status of the report
-     * @return all reports of the given municipality which have the given watcher among their watchers
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @param limit        the max number of reports, or 0 to return all of them
+     * @return a page of the reports of the given municipality which have the given watcher among their watchers
      */
-    List<Report> findAll(final @NotNull String municipality, final @NotNull String watcher, final @NotNull String status);
+    Page<Report> findAll(final @NotNull String municipality, final @NotNull String watcher, final @NotNull String status,
+                         final Cursor cursor, final int limit);
+
+    /**
+     * Returns a page of the summaries of the reports of the given municipality which have the given watcher among
+     * their watchers, sorted by date, newest first.
+     *
+     * @param municipality the municipality's id
+     * @param watcher      the watcher's id
+     * @param status       the status of the report
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @param limit        the max number of reports, or 0 to return all of them
+     * @return a page of the summaries of the reports of the given municipality
+     */
+    Page<ReportSummary> findSummaries(final @NotNull String municipality, final @NotNull String watcher,
+                                      final @NotNull String status, final Cursor cursor, final int limit);
 
     /**
      * Returns all reports.
@@ -101,6 +137,17 @@ public interface ReportDao {
      */
     void insert(final @NotNull Report report) throws DaoException;
 
+    /**
+     * Opens the notification window of the report with the given id, unless one is already open. The activities added
+     * while the window is open are notified together when it closes.
+     *
+     * @param id     the report's id
+     * @param window the length of the window in millis
+     * @return {@code true} if the window was opened, or {@code false} if one was already open
+     * @throws DaoException if the window could not be opened
+     */
+    boolean openNotificationWindow(final @NotNull String id, final long window) throws DaoException;
+
     /**
      * Sets the {@code status} field of the report with the given id to 'RIAPERTA' if 'CHIUSA'.
      *
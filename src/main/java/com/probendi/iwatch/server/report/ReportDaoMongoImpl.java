@@ -1,7 +1,10 @@
 package com.probendi.iwatch.server.report;
 
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -9,22 +12,46 @@ import javax.ejb.Stateless;
 
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.jetbrains.annotations.NotNull;
 
 import com.mongodb.Block;
+import com.mongodb.ErrorCategory;
 import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.UpdateResult;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
 import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.user.Watcher;
+import com.probendi.iwatch.server.util.PropertiesReader;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.elemMatch;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
 import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.not;
+import static com.mongodb.client.model.Projections.exclude;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Sorts.descending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.max;
+import static com.mongodb.client.model.Updates.min;
+import static com.mongodb.client.model.Updates.push;
+import static com.mongodb.client.model.Updates.set;
 
 /**
  * The MongoDB Data Access Object for a {@link Report}.
@@ -34,25 +61,35 @@ import static com.mongodb.client.model.Filters.in;
 @Stateless
 public class ReportDaoMongoImpl implements ReportDao {
 
+    private static final int BUCKET_SIZE = new PropertiesReader().getActivityBucketSize();
+
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
     @Override
-    public void addActivity(final @NotNull String id, final @NotNull Activity activity) throws DaoException {
+    public int addActivity(final @NotNull String id, final @NotNull Activity activity) throws DaoException {
         logger.entering(this.getClass().getName(), "addActivity", new Object[]{id, activity});
 
+        final int count;
         try {
             final Bson filter = new Document("_id", id);
-            final Document document = new Document("activities", activity.toDocument());
-            final UpdateResult result = Mongo.instance.getReportCollection().updateOne(filter, new Document("$push", document));
-            if (result.getMatchedCount() == 0) {
+            final Bson update = combine(inc("activityCount", 1), max("lastActivityDate", activity.getDate()));
+            final FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                    .projection(include("activityCount"))
+                    .returnDocument(ReturnDocument.BEFORE);
+            final Document previous = Mongo.instance.getReportCollection().withDocumentClass(Document.class)
+                    .findOneAndUpdate(filter, update, options);
+            if (previous == null) {
                 final EntityNotFoundException ex = new EntityNotFoundException();
                 logger.throwing(this.getClass().getName(), "addActivity", ex);
                 throw ex;
-            } else if (result.getModifiedCount() == 0) {
-                logger.log(Level.SEVERE, "Failed to add activity to report {0}", id);
-                final DaoException ex = new DaoException();
-                logger.throwing(this.getClass().getName(), "addActivity", ex);
-                throw ex;
+            }
+            count = previous.getInteger("activityCount", 0);
+            try {
+                append(id, activity);
+            } catch (final MongoException e) {
+                // the two documents cannot be updated atomically, so the count is restored
+                Mongo.instance.getReportCollection().updateOne(filter, inc("activityCount", -1));
+                throw e;
             }
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to add activity to report " + id, e);
@@ -61,7 +98,8 @@ public class ReportDaoMongoImpl implements ReportDao {
             throw ex;
         }
 
-        logger.exiting(this.getClass().getName(), "addActivity");
+        logger.exiting(this.getClass().getName(), "addActivity", count);
+        return count;
     }
 
     @Override
@@ -115,6 +153,7 @@ public class ReportDaoMongoImpl implements ReportDao {
                 logger.throwing(this.getClass().getName(), "delete", ex);
                 throw ex;
             }
+            Mongo.instance.getActivityCollection().deleteMany(eq("report", id));
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to delete report " + id, e);
             final DaoException ex = new DaoException();
@@ -131,6 +170,7 @@ public class ReportDaoMongoImpl implements ReportDao {
 
         try {
             Mongo.instance.getReportCollection().deleteMany(new Document());
+            Mongo.instance.getActivityCollection().deleteMany(new Document());
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to delete reports", e);
             final DaoException ex = new DaoException();
@@ -178,38 +218,88 @@ public class ReportDaoMongoImpl implements ReportDao {
         logger.entering(this.getClass().getName(), "find", id);
 
         final Bson filter = new Document("_id", id);
-        final Document document = Mongo.instance.getReportCollection().find(filter).first();
-        if (document == null) {
+        final Report report = Mongo.instance.getReportCollection().find(filter).projection(exclude("activities"))
+                .first();
+        if (report == null) {
             final EntityNotFoundException ex = new EntityNotFoundException();
             logger.throwing(this.getClass().getName(), "find", ex);
             throw ex;
         }
-        final Report report = new Report(document);
 
         logger.exiting(this.getClass().getName(), "find", report);
         return report;
     }
 
     @Override
-    public List<Report> findAll(final @NotNull String municipality, final @NotNull String watcher, final @NotNull String status) {
-        logger.entering(this.getClass().getName(), "findAll", new Object[]{municipality, watcher, status});
-
-        final List<Report> reports = new LinkedList<>();
+    public Page<Activity> findActivities(final @NotNull String id, final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "findActivities", new Object[]{id, cursor, limit});
 
-        // build the filters
         final List<Bson> filters = new LinkedList<>();
-        filters.add(eq("municipality", municipality));
-        if (!status.isEmpty()) {
-            filters.add(eq("status", status));
+        filters.add(eq("report", id));
+        filters.add(exists("index"));
+        if (cursor != null) {
+            filters.add(cursor.after("index", true));
         }
-        if (!watcher.isEmpty()) {
-            filters.add(in("watchers._id", watcher));
+        final FindIterable<ActivityBucket> iterable = Mongo.instance.getActivityCollection()
+                .find(and(filters))
+                .sort(ascending("index", "_id"));
+        final int buckets = limit <= 0 ? 0 : (limit + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        final Page<ActivityBucket> bucketPage = Page.of(iterable, buckets,
+                bucket -> Cursor.of(bucket.getIndex(), new ObjectId(bucket.getId())));
+
+        final List<Activity> activities = new LinkedList<>();
+        bucketPage.getItems().forEach(bucket -> activities.addAll(bucket.getActivities()));
+        final Page<Activity> page = new Page<>(activities, bucketPage.getNext());
+
+        logger.exiting(this.getClass().getName(), "findActivities", page.getItems());
+        return page;
+    }
+
+    @Override
+    public Page<Report> findAll(final @NotNull String municipality, final @NotNull String watcher, final @NotNull String status,
+                                final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "findAll", new Object[]{municipality, watcher, status, cursor, limit});
+
+        final FindIterable<Report> iterable = Mongo.instance.getReportCollection()
+                .find(filter(municipality, watcher, status, cursor))
+                .projection(exclude("activities"))
+                .sort(descending("date", "_id"));
+        final Page<Report> page = Page.of(iterable, limit, report -> Cursor.of(report.getDate(), report.getId()));
+
+        // the activities of the page are read from their buckets at once, in the order they were appended
+        final Map<String, Report> reports = new HashMap<>();
+        page.getItems().forEach(report -> {
+            report.setActivities(new LinkedList<>());
+            reports.put(report.getId(), report);
+        });
+        if (!reports.isEmpty()) {
+            Mongo.instance.getActivityCollection()
+                    .find(and(in("report", reports.keySet()), exists("index")))
+                    .sort(ascending("report", "index"))
+                    .forEach((Block<ActivityBucket>) bucket ->
+                            reports.get(bucket.getReport()).getActivities().addAll(bucket.getActivities()));
         }
-        final FindIterable<Document> iterable = Mongo.instance.getReportCollection().find(and(filters));
-        iterable.forEach((Block<Document>) document -> reports.add(new Report(document)));
 
-        logger.exiting(this.getClass().getName(), "findAll", reports);
-        return reports;
+        logger.exiting(this.getClass().getName(), "findAll", page.getItems());
+        return page;
+    }
+
+    @Override
+    public Page<ReportSummary> findSummaries(final @NotNull String municipality, final @NotNull String watcher,
+                                             final @NotNull String status, final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "findSummaries", new Object[]{municipality, watcher, status, cursor, limit});
+
+        // watchers and activities are never read
+        final FindIterable<ReportSummary> iterable = Mongo.instance.getReportCollection()
+                .withDocumentClass(ReportSummary.class)
+                .find(filter(municipality, watcher, status, cursor))
+                .projection(include(ReportSummary.FIELDS))
+                .sort(descending("date", "_id"));
+        final Page<ReportSummary> page = Page.of(iterable, limit,
+                summary -> Cursor.of(summary.getDate(), summary.getId()));
+
+        logger.exiting(this.getClass().getName(), "findSummaries", page.getItems());
+        return page;
     }
 
     @Override
@@ -218,8 +308,7 @@ public class ReportDaoMongoImpl implements ReportDao {
 
         final List<Report> reports = new LinkedList<>();
 
-        final FindIterable<Document> iterable = Mongo.instance.getReportCollection().find();
-        iterable.forEach((Block<Document>) document -> reports.add(new Report(document)));
+        Mongo.instance.getReportCollection().find().projection(exclude("activities")).into(reports);
 
         logger.exiting(this.getClass().getName(), "findAll", reports);
         return reports;
@@ -230,8 +319,11 @@ public class ReportDaoMongoImpl implements ReportDao {
         logger.entering(this.getClass().getName(), "insert", report);
 
         try {
-            final Document document = report.toDocument();
-            Mongo.instance.getReportCollection().insertOne(document);
+            report.updateActivitySummary();
+            Mongo.instance.getReportCollection().insertOne(report);
+            for (final Activity activity : report.getActivities()) {
+                append(report.getId(), activity);
+            }
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to insert report " + report, e);
             final DaoException ex = new DaoException();
@@ -242,6 +334,27 @@ public class ReportDaoMongoImpl implements ReportDao {
         logger.exiting(this.getClass().getName(), "insert");
     }
 
+    @Override
+    public boolean openNotificationWindow(final @NotNull String id, final long window) throws DaoException {
+        logger.entering(this.getClass().getName(), "openNotificationWindow", new Object[]{id, window});
+
+        final boolean opened;
+        try {
+            final Date now = new Date();
+            final Bson filter = and(eq("_id", id), not(gt("notifyOn", now)));
+            final Bson update = set("notifyOn", new Date(now.getTime() + window));
+            opened = Mongo.instance.getReportCollection().updateOne(filter, update).getModifiedCount() == 1;
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to open the notification window of report " + id, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "openNotificationWindow", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "openNotificationWindow", opened);
+        return opened;
+    }
+
     @Override
     public void reopen(final @NotNull String id) throws DaoException {
         logger.entering(this.getClass().getName(), "reopen", id);
@@ -312,4 +425,61 @@ public class ReportDaoMongoImpl implements ReportDao {
 
         logger.exiting(this.getClass().getName(), "update");
     }
+
+    /**
+     * Appends the given activity to the bucket with the highest index of the given report, creating the next bucket
+     * if that one is full.
+     * <p>
+     * The index is unique within a report, so a concurrent append which creates the same bucket fails with a
+     * duplicate key error and is retried on the bucket created by the other one.
+     *
+     * @param id       the report's id
+     * @param activity the activity to be appended
+     */
+    private void append(final @NotNull String id, final @NotNull Activity activity) {
+        final MongoCollection<ActivityBucket> collection = Mongo.instance.getActivityCollection();
+        final Bson update = combine(push("activities", activity), inc("count", 1), min("first", activity.getDate()),
+                max("last", activity.getDate()));
+        while (true) {
+            final ActivityBucket last = collection.find(and(eq("report", id), exists("index")))
+                    .projection(include("index", "count"))
+                    .sort(descending("index"))
+                    .first();
+            final int index = last == null ? 0 : last.getCount() < BUCKET_SIZE ? last.getIndex() : last.getIndex() + 1;
+            try {
+                collection.updateOne(and(eq("report", id), eq("index", index), lt("count", BUCKET_SIZE)), update,
+                        new UpdateOptions().upsert(true));
+                return;
+            } catch (final MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the filter of the reports of the given municipality which have the given watcher among their watchers.
+     *
+     * @param municipality the municipality's id
+     * @param watcher      the watcher's id, or an empty string for any watcher
+     * @param status       the status of the report, or an empty string for any status
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @return the filter of the reports of the given municipality which have the given watcher among their watchers
+     */
+    private Bson filter(final @NotNull String municipality, final @NotNull String watcher, final @NotNull String status,
+                        final Cursor cursor) {
+        final List<Bson> filters = new LinkedList<>();
+        filters.add(eq("municipality", municipality));
+        if (!status.isEmpty()) {
+            filters.add(eq("status", status));
+        }
+        if (!watcher.isEmpty()) {
+            filters.add(in("watchers._id", watcher));
+        }
+        if (cursor != null) {
+            filters.add(cursor.after("date", false));
+        }
+        return and(filters);
+    }
 }
@@ -0,0 +1,219 @@
+package com.probendi.iwatch.server.report;
+
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.Block;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
+import static com.mongodb.client.model.Updates.unset;
+
+/**
+ * Migrates at deployment the reports created by previous versions of iWatch server.
+ * <p>
+ * The reports without the derived {@code activityCount} and {@code lastActivityDate} fields are updated in batches,
+ * the buckets without an {@code index} are numbered, then the activities still embedded in the reports are moved to
+ * the {@code activity} collection.
+ * <p>
+ * The scans are not backed by an index, so a completed step is recorded in the {@code migration} collection and is
+ * skipped at the following deployments.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+public class ReportMigration {
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String ACTIVITIES = "reportActivities";
+    private static final String ACTIVITY_SUMMARY = "reportActivitySummary";
+    private static final String BUCKET_INDEX = "activityBucketIndex";
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Runs the migration.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        try {
+            if (!isCompleted(ACTIVITY_SUMMARY)) {
+                migrateActivitySummary();
+                complete(ACTIVITY_SUMMARY);
+            }
+            if (!isCompleted(BUCKET_INDEX)) {
+                migrateBucketIndexes();
+                complete(BUCKET_INDEX);
+            }
+            if (!isCompleted(ACTIVITIES)) {
+                migrateActivities();
+                complete(ACTIVITIES);
+            }
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to migrate reports", e);
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Returns {@code true} if the given migration step has been completed.
+     *
+     * @param step the name of the step
+     * @return {@code true} if the given migration step has been completed
+     */
+    private static boolean isCompleted(final String step) {
+        return Mongo.instance.getMigrationCollection().find(eq("_id", step)).first() != null;
+    }
+
+    /**
+     * Records the completion of the given migration step.
+     *
+     * @param step the name of the step
+     */
+    private void complete(final String step) {
+        Mongo.instance.getMigrationCollection().replaceOne(eq("_id", step),
+                new Document("_id", step).append("completedOn", new Date()), new UpdateOptions().upsert(true));
+        logger.log(Level.INFO, "Migration {0} completed", step);
+    }
+
+    /**
+     * Moves the activities embedded in the reports to buckets of the {@code activity} collection.
+     * <p>
+     * The embedded activities precede the ones appended since, so the {@code k} buckets of a report take the indexes
+     * from {@code -k} to {@code -1}. Each bucket is only inserted if the report has no bucket with its index yet,
+     * so running the migration of a report again, e.g. because the server stopped before removing the embedded
+     * activities, neither duplicates nor deletes any activity.
+     */
+    private void migrateActivities() {
+        final int bucketSize = new PropertiesReader().getActivityBucketSize();
+        final MongoCollection<ActivityBucket> activityCollection = Mongo.instance.getActivityCollection();
+        final MongoCollection<Report> reportCollection = Mongo.instance.getReportCollection();
+        final int[] count = {0};
+
+        reportCollection.find(exists("activities")).projection(include("activities"))
+                .batchSize(BATCH_SIZE).forEach((Block<Report>) report -> {
+            final List<Activity> activities = report.getActivities() == null ? new LinkedList<>() : report.getActivities();
+            final int buckets = (activities.size() + bucketSize - 1) / bucketSize;
+            for (int i = 0; i < buckets; i++) {
+                final List<Activity> chunk = new LinkedList<>(activities.subList(i * bucketSize,
+                        Math.min((i + 1) * bucketSize, activities.size())));
+                final Bson filter = and(eq("report", report.getId()), eq("index", i - buckets));
+                final Bson update = combine(setOnInsert("activities", chunk), setOnInsert("count", chunk.size()),
+                        setOnInsert("first", chunk.stream().map(Activity::getDate).filter(Objects::nonNull)
+                                .min(Date::compareTo).orElse(null)),
+                        setOnInsert("last", chunk.stream().map(Activity::getDate).filter(Objects::nonNull)
+                                .max(Date::compareTo).orElse(null)),
+                        setOnInsert("migrated", true));
+                activityCollection.updateOne(filter, update, new UpdateOptions().upsert(true));
+            }
+            reportCollection.updateOne(eq("_id", report.getId()), unset("activities"));
+            count[0]++;
+        });
+
+        if (count[0] > 0) {
+            logger.log(Level.INFO, "Moved the activities of {0} reports", count[0]);
+        }
+    }
+
+    /**
+     * Numbers the buckets created before the buckets had an {@code index}.
+     * <p>
+     * The buckets of a report are numbered in the order of their first activity, from {@code -n} to {@code -1}, so
+     * that they precede the buckets appended since.
+     */
+    private void migrateBucketIndexes() {
+        final MongoCollection<ActivityBucket> collection = Mongo.instance.getActivityCollection();
+        int count = 0;
+
+        final List<String> reports = collection.distinct("report", exists("index", false), String.class)
+                .into(new LinkedList<>());
+        for (final String report : reports) {
+            final Bson filter = and(eq("report", report), exists("index", false));
+            final List<ActivityBucket> buckets = collection.find(filter).projection(include("_id"))
+                    .sort(ascending("first", "_id")).into(new LinkedList<>());
+            int index = -buckets.size();
+            for (final ActivityBucket bucket : buckets) {
+                collection.updateOne(eq("_id", new ObjectId(bucket.getId())), set("index", index++));
+            }
+            count += buckets.size();
+        }
+
+        if (count > 0) {
+            logger.log(Level.INFO, "Numbered {0} activity buckets of {1} reports", new Object[]{count, reports.size()});
+        }
+    }
+
+    /**
+     * Sets the activity count and the last activity date of the reports which lack them.
+     */
+    @SuppressWarnings("unchecked")
+    private void migrateActivitySummary() {
+        final MongoCollection<Document> collection = Mongo.instance.getReportCollection()
+                .withDocumentClass(Document.class);
+        final List<WriteModel<Document>> updates = new LinkedList<>();
+        final int[] count = {0};
+
+        collection.find(exists("activityCount", false)).projection(include("activities.date"))
+                .batchSize(BATCH_SIZE).forEach((Block<Document>) document -> {
+            final List<Document> activities = (List<Document>) document.get("activities");
+            int n = 0;
+            Date last = null;
+            if (activities != null) {
+                for (final Document activity : activities) {
+                    n++;
+                    final Date date = activity.getDate("date");
+                    if (date != null && (last == null || date.after(last))) {
+                        last = date;
+                    }
+                }
+            }
+            updates.add(new UpdateOneModel<>(eq("_id", document.get("_id")),
+                    combine(set("activityCount", n), set("lastActivityDate", last))));
+            if (updates.size() == BATCH_SIZE) {
+                collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                count[0] += updates.size();
+                updates.clear();
+            }
+        });
+        if (!updates.isEmpty()) {
+            collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            count[0] += updates.size();
+        }
+
+        if (count[0] > 0) {
+            logger.log(Level.INFO, "Set the activity summary of {0} reports", count[0]);
+        }
+    }
+}
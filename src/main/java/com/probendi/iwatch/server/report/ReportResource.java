@@ -8,16 +8,21 @@ import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.jms.producer.MessageProducer;
+import com.probendi.iwatch.server.metrics.Metrics;
 import com.probendi.iwatch.server.municipality.Municipality;
 import com.probendi.iwatch.server.municipality.MunicipalityDao;
+import com.probendi.iwatch.server.rest.Pagination;
 import com.probendi.iwatch.server.user.AdministratorDao;
 import com.probendi.iwatch.server.user.UserDao;
 import com.probendi.iwatch.server.user.Watcher;
@@ -35,11 +40,8 @@ public class ReportResource {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-    @EJB(beanName = "MessageProducerApnImpl")
-    private MessageProducer apnMessageProducer;
-
-    @EJB(beanName = "MessageProducerFcmImpl")
-    private MessageProducer fcmMessageProducer;
+    @EJB(beanName = "MessageProducerImpl")
+    private MessageProducer messageProducer;
 
     @EJB(beanName = "AdministratorDaoMongoImpl")
     AdministratorDao administratorDao;
@@ -83,8 +85,7 @@ public class ReportResource {
             reportDao.addWatcher(id, watcher);
             if (new PropertiesReader().isSendPushNotification()) {
                 final String name = municipalityDao.find(reportDao.find(id).getMunicipality()).getName();
-                apnMessageProducer.notifyWatcher(name, watcher.getId(), report.getId(), true, 0, 1);
-                fcmMessageProducer.notifyWatcher(name, watcher.getId(), report.getId(), true, 0, 1);
+                messageProducer.notifyWatcher(name, watcher.getId(), report.getId(), true, 0, 1);
             }
             logger.log(Level.INFO, "Watcher {0} added", watcher);
         } catch (final DaoException e) {
@@ -125,7 +126,7 @@ public class ReportResource {
         try {
             activity.setDate(new Date());
             activity.setMimeType(UploadService.mimeType(activity.getAttachment()));
-            reportDao.addActivity(id, activity);
+            final int since = reportDao.addActivity(id, activity);
             // if the action has been created by an administrator then the actionRequired field can be cleared
             final boolean actionRequired = activity.getWatcher().isUser();
             reportDao.setActionRequired(id, actionRequired);
@@ -145,11 +146,16 @@ public class ReportResource {
                 webSocketServer.sendMessage(municipality, id, count);
             }
 
-            // notify all mobile watchers
+            // notify all mobile watchers, once for all the activities added within the notification window
             if (sendPushNotification) {
-                final String name = municipalityDao.find(municipality).getName();
-                apnMessageProducer.notifyNewActivity(name, report, activity.getWatcher().getId(), 0, 1);
-                fcmMessageProducer.notifyNewActivity(name, report, activity.getWatcher().getId(), 0, 1);
+                final long window = new PropertiesReader().getActivityNotificationWindow();
+                if (window == 0 || reportDao.openNotificationWindow(id, window)) {
+                    final String name = municipalityDao.find(municipality).getName();
+                    final String watcher = activity.getWatcher().getId();
+                    messageProducer.notifyNewActivity(name, report, watcher, window, 1, window == 0 ? -1 : since);
+                } else {
+                    Metrics.instance.counter("activity.notification.coalesced").inc();
+                }
             }
 
             // build the response
@@ -245,8 +251,7 @@ public class ReportResource {
             reportDao.deleteWatcher(id, watcher);
             if (new PropertiesReader().isSendPushNotification()) {
                 final String name = municipalityDao.find(report.getMunicipality()).getName();
-                apnMessageProducer.notifyWatcher(name, watcher, report.getId(), false, 0, 1);
-                fcmMessageProducer.notifyWatcher(name, watcher, report.getId(), false, 0, 1);
+                messageProducer.notifyWatcher(name, watcher, report.getId(), false, 0, 1);
             }
             logger.log(Level.INFO, "Watcher {0} deleted", watcher);
 
@@ -267,7 +272,42 @@ public class ReportResource {
     }
 
     /**
-     * Handles the HTTP GET requests that return the report with the given id.
+     * Handles the HTTP GET requests that return the activities of the report with the given id.
+     *
+     * @param id      the id path parameter
+     * @param cursor  the cursor of the page to be returned
+     * @param limit   the max number of activities to be returned, 0 for all
+     * @param uriInfo the request's URI
+     * @return a page of the activities of the given report, oldest first, with the link to the next page
+     */
+    @GET
+    @Path("/{id}/activities")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getActivities(final @PathParam("id") String id,
+                                  final @DefaultValue("") @QueryParam("cursor") String cursor,
+                                  final @DefaultValue("0") @QueryParam("limit") int limit,
+                                  final @Context UriInfo uriInfo) {
+        logger.entering(this.getClass().getName(), "getActivities", new Object[]{id, cursor, limit});
+
+        try {
+            reportDao.find(id);
+            final Page<Activity> activities = reportDao.findActivities(id, Pagination.cursor(cursor),
+                    Pagination.limit(limit));
+
+            // build the response
+            final Response response = Pagination.ok(new GenericEntity<List<Activity>>(activities.getItems()) {
+            }, activities, uriInfo);
+            logger.exiting(this.getClass().getName(), "getActivities", response);
+            return response;
+        } catch (final EntityNotFoundException e) {
+            final WebApplicationException ex = new NotFoundException();
+            logger.throwing(this.getClass().getName(), "getActivities", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Handles the HTTP GET requests that return the report with the given id, along with all its activities.
      *
      * @param id the id path parameter
      * @return the report with the given id
@@ -280,6 +320,8 @@ public class ReportResource {
 
         try {
             final Report report = reportDao.find(id);
+            // the apps released before the paged activities read them from the report
+            report.setActivities(reportDao.findActivities(id, null, 0).getItems());
 
             // build the response
             logger.exiting(this.getClass().getName(), "getReport", report);
@@ -297,21 +339,48 @@ public class ReportResource {
      * @param municipality the id the municipality of the reports to be selected
      * @param watcher      a watcher of the report
      * @param status       the status of the reports to be selected
-     * @return the reports of the given municipality
+     * @param view         {@code summary} to return the {@link ReportSummary} of the reports, {@code full} to return
+     *                     the reports with their watchers and activities
+     * @param cursor       the cursor of the page to be returned
+     * @param limit        the max number of reports to be returned, 0 for all
+     * @param uriInfo      the request's URI
+     * @return a page of the reports of the given municipality, with the link to the next page
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public GenericEntity<List<Report>> getReports(final @DefaultValue("") @QueryParam("municipality") String municipality,
-                                                  final @DefaultValue("") @QueryParam("watcher") String watcher,
-                                                  final @DefaultValue("") @QueryParam("status") String status) {
-        logger.entering(this.getClass().getName(), "getReports", new String[]{municipality, watcher, status});
-
-        final List<Report> reports = reportDao.findAll(municipality, watcher, status);
+    public Response getReports(final @DefaultValue("") @QueryParam("municipality") String municipality,
+                               final @DefaultValue("") @QueryParam("watcher") String watcher,
+                               final @DefaultValue("") @QueryParam("status") String status,
+                               final @DefaultValue("summary") @QueryParam("view") String view,
+                               final @DefaultValue("") @QueryParam("cursor") String cursor,
+                               final @DefaultValue("0") @QueryParam("limit") int limit,
+                               final @Context UriInfo uriInfo) {
+        logger.entering(this.getClass().getName(), "getReports", new Object[]{municipality, watcher, status, view,
+                cursor, limit});
+
+        final Response response;
+        switch (view) {
+            case "summary":
+                final Page<ReportSummary> summaries = reportDao.findSummaries(municipality, watcher, status,
+                        Pagination.cursor(cursor), Pagination.limit(limit));
+                response = Pagination.ok(new GenericEntity<List<ReportSummary>>(summaries.getItems()) {
+                }, summaries, uriInfo);
+                break;
+            case "full":
+                final Page<Report> reports = reportDao.findAll(municipality, watcher, status, Pagination.cursor(cursor),
+                        Pagination.limit(limit));
+                response = Pagination.ok(new GenericEntity<List<Report>>(reports.getItems()) {
+                }, reports, uriInfo);
+                break;
+            default:
+                final WebApplicationException ex = new BadRequestException();
+                logger.throwing(this.getClass().getName(), "getReports", ex);
+                throw ex;
+        }
 
         // build the response
-        logger.exiting(this.getClass().getName(), "getReports", reports);
-        return new GenericEntity<List<Report>>(reports) {
-        };
+        logger.exiting(this.getClass().getName(), "getReports", response);
+        return response;
     }
 
     /**
@@ -0,0 +1,132 @@
+package com.probendi.iwatch.server.report;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * The subset of a {@link Report} shown by the list views, i.e. without its watchers and activities.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ReportSummary implements Serializable {
+
+    /**
+     * The fields of the report document read by a summary.
+     */
+    static final String[] FIELDS = {"_id", "category", "date", "thumbnail", "status", "actionRequired",
+            "activityCount", "lastActivityDate"};
+
+    private String id;
+    private String category;
+    private Date date;
+    private String thumbnail;
+    private String status;
+    private boolean actionRequired;
+    private int activityCount;
+    private Date lastActivityDate;
+
+    /**
+     * Creates a new {@code ReportSummary} object.
+     */
+    public ReportSummary() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(final String id) {
+        this.id = id;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(final String category) {
+        this.category = category;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(final Date date) {
+        this.date = date;
+    }
+
+    public String getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(final String thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(final String status) {
+        this.status = status;
+    }
+
+    public boolean isActionRequired() {
+        return actionRequired;
+    }
+
+    public void setActionRequired(final boolean actionRequired) {
+        this.actionRequired = actionRequired;
+    }
+
+    public int getActivityCount() {
+        return activityCount;
+    }
+
+    public void setActivityCount(final int activityCount) {
+        this.activityCount = activityCount;
+    }
+
+    public Date getLastActivityDate() {
+        return lastActivityDate;
+    }
+
+    public void setLastActivityDate(final Date lastActivityDate) {
+        this.lastActivityDate = lastActivityDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ReportSummary)) return false;
+        ReportSummary that = (ReportSummary) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(category, that.category) &&
+                Objects.equals(date, that.date) &&
+                Objects.equals(thumbnail, that.thumbnail) &&
+                Objects.equals(status, that.status) &&
+                Objects.equals(actionRequired, that.actionRequired) &&
+                Objects.equals(activityCount, that.activityCount) &&
+                Objects.equals(lastActivityDate, that.lastActivityDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, category, date, thumbnail, status, actionRequired, activityCount, lastActivityDate);
+    }
+
+    @Override
+    public String toString() {
+        return "ReportSummary{" +
+                "id='" + id + '\'' +
+                ", category='" + category + '\'' +
+                ", date=" + date +
+                ", thumbnail='" + thumbnail + '\'' +
+                ", status='" + status + '\'' +
+                ", actionRequired=" + actionRequired +
+                ", activityCount=" + activityCount +
+                ", lastActivityDate=" + lastActivityDate +
+                '}';
+    }
+}
@@ -0,0 +1,81 @@
+package com.probendi.iwatch.server.report;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static com.probendi.iwatch.server.db.Codecs.readBoolean;
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readInt;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+
+/**
+ * A {@code BSON} {@link Codec} for {@link ReportSummary} instances, which decodes the projection of a report
+ * document on {@link ReportSummary#FIELDS}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ReportSummaryCodec implements Codec<ReportSummary> {
+
+    @Override
+    public ReportSummary decode(BsonReader reader, DecoderContext decoderContext) {
+        final ReportSummary summary = new ReportSummary();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    summary.setId(readString(reader));
+                    break;
+                case "category":
+                    summary.setCategory(readString(reader));
+                    break;
+                case "date":
+                    summary.setDate(readDate(reader));
+                    break;
+                case "thumbnail":
+                    summary.setThumbnail(readString(reader));
+                    break;
+                case "status":
+                    summary.setStatus(readString(reader));
+                    break;
+                case "actionRequired":
+                    summary.setActionRequired(readBoolean(reader));
+                    break;
+                case "activityCount":
+                    summary.setActivityCount(readInt(reader));
+                    break;
+                case "lastActivityDate":
+                    summary.setLastActivityDate(readDate(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return summary;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, ReportSummary value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "category", value.getCategory());
+        writeDate(writer, "date", value.getDate());
+        writeString(writer, "thumbnail", value.getThumbnail());
+        writeString(writer, "status", value.getStatus());
+        writer.writeBoolean("actionRequired", value.isActionRequired());
+        writer.writeInt32("activityCount", value.getActivityCount());
+        writeDate(writer, "lastActivityDate", value.getLastActivityDate());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Class<ReportSummary> getEncoderClass() {
+        return ReportSummary.class;
+    }
+}
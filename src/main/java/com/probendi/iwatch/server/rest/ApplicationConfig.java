@@ -13,11 +13,14 @@ import org.glassfish.jersey.media.multipart.MultiPartFeature;
 
 import io.jsonwebtoken.impl.crypto.MacProvider;
 
+import com.probendi.iwatch.server.jms.consumer.DeadLetterResource;
 import com.probendi.iwatch.server.message.MessageResource;
+import com.probendi.iwatch.server.metrics.MetricsResource;
 import com.probendi.iwatch.server.municipality.MunicipalityResource;
 import com.probendi.iwatch.server.report.ReportResource;
 import com.probendi.iwatch.server.user.AdministratorResource;
 import com.probendi.iwatch.server.user.UserResource;
+import com.probendi.iwatch.server.util.PropertiesResource;
 import com.probendi.iwatch.server.util.UploadService;
 
 /**
@@ -40,10 +43,13 @@ public class ApplicationConfig extends Application {
     public Set<Class<?>> getClasses() {
         final Set<Class<?>> resources = new HashSet<>();
         resources.add(AdministratorResource.class);
+        resources.add(DeadLetterResource.class);
         resources.add(MessageResource.class);
+        resources.add(MetricsResource.class);
         resources.add(MunicipalityResource.class);
         resources.add(MultiPartFeature.class);
         resources.add(ReportResource.class);
+        resources.add(PropertiesResource.class);
         resources.add(UploadService.class);
         resources.add(UserResource.class);
         return resources;
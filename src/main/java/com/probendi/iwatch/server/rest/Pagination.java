@@ -0,0 +1,90 @@
+package com.probendi.iwatch.server.rest;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.probendi.iwatch.server.db.Cursor;
+import com.probendi.iwatch.server.db.Page;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+/**
+ * Helper class for the paged listings.
+ * <p>
+ * A listing takes the optional {@code limit} and {@code cursor} query parameters. When more items are available, the
+ * response carries a {@code Link} header with relation {@code next} whose URI repeats the request with the cursor of
+ * the next page. A page holds at most {@code page.max.size} items, unless the {@code limit} is 0 or missing, in which
+ * case all the items are returned in a single page as before the listings were paged.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public final class Pagination {
+
+    private static final int MAX_SIZE = new PropertiesReader().getPageMaxSize();
+
+    private static final Logger logger = Logger.getLogger(Pagination.class.getName());
+
+    /**
+     * Prevents instantiation.
+     */
+    private Pagination() {
+    }
+
+    /**
+     * Returns the given cursor token decoded.
+     *
+     * @param token the token of the cursor, possibly empty
+     * @return the decoded cursor, or {@code null} if the token is empty
+     * @throws BadRequestException if the token is invalid
+     */
+    public static Cursor cursor(final @NotNull String token) {
+        if (token.isEmpty()) {
+            return null;
+        }
+        try {
+            return Cursor.decode(token);
+        } catch (final IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Invalid cursor " + token, e);
+            throw new BadRequestException();
+        }
+    }
+
+    /**
+     * Returns the given limit, capped to the max page size unless it is 0.
+     *
+     * @param limit the requested limit, 0 for all the items
+     * @return the given limit capped to the max page size, or 0 for all the items
+     * @throws BadRequestException if the limit is negative
+     */
+    public static int limit(final int limit) {
+        if (limit < 0) {
+            throw new BadRequestException();
+        }
+        return Math.min(limit, MAX_SIZE);
+    }
+
+    /**
+     * Returns the response which carries the given entity and the link to the next page, if any.
+     *
+     * @param entity  the items of the page
+     * @param page    the page
+     * @param uriInfo the URI of the request
+     * @return the response which carries the given entity and the link to the next page, if any
+     */
+    public static Response ok(final @NotNull GenericEntity<?> entity, final @NotNull Page<?> page,
+                              final @NotNull UriInfo uriInfo) {
+        final Response.ResponseBuilder builder = Response.ok(entity);
+        if (page.hasNext()) {
+            builder.links(Link.fromUriBuilder(uriInfo.getRequestUriBuilder().replaceQueryParam("cursor", page.getNext()))
+                    .rel("next").build());
+        }
+        return builder.build();
+    }
+}
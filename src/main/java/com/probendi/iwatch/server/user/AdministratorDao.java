@@ -4,8 +4,10 @@ import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 
 /**
  * Data Access Object for a {@link Administrator}.
@@ -56,13 +58,14 @@ public interface AdministratorDao {
     List<Administrator> findAll();
 
     /**
-     * Returns the administrators of the given municipality.
+     * Returns a page of the administrators of the given municipality, sorted by id.
      *
      * @param municipality the municipality
-     * @return the administrators wof the given municipality
-     * =
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @param limit        the max number of administrators, or 0 to return all of them
+     * @return a page of the administrators of the given municipality
      */
-    List<Administrator> findAll(final @NotNull String municipality);
+    Page<Administrator> findAll(final @NotNull String municipality, final Cursor cursor, final int limit);
 
     /**
      * Inserts the given administrator.
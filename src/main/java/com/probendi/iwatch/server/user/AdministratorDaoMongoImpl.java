@@ -16,9 +16,15 @@ import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.result.UpdateResult;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
 import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.db.Page;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Sorts.ascending;
 
 /**
  * The MongoDB Data Access Object for a {@link Administrator}.
@@ -101,8 +107,7 @@ public class AdministratorDaoMongoImpl implements AdministratorDao {
         // ensure municipality is active
         final String mid = administrator.getMunicipality();
         final Bson mfilter = new Document("_id", mid).append("active", true);
-        final Document mdocument = Mongo.instance.getMunicipalityCollection().find(mfilter).first();
-        if (mdocument == null) {
+        if (Mongo.instance.getMunicipalityCollection().find(mfilter).first() == null) {
             final EntityNotFoundException ex = new EntityNotFoundException("municipality " + id + " not found");
             logger.throwing(this.getClass().getName(), "find", ex);
             throw ex;
@@ -126,17 +131,18 @@ public class AdministratorDaoMongoImpl implements AdministratorDao {
     }
 
     @Override
-    public List<Administrator> findAll(final @NotNull String municipality) {
-        logger.entering(this.getClass().getName(), "find");
-
-        final List<Administrator> administrators = new LinkedList<>();
-
-        final Bson filter = new Document("municipality", municipality);
-        final FindIterable<Document> iterable = Mongo.instance.getAdministratorCollection().find(filter);
-        iterable.forEach((Block<Document>) document -> administrators.add(new Administrator(document)));
-
-        logger.exiting(this.getClass().getName(), "find", administrators);
-        return administrators;
+    public Page<Administrator> findAll(final @NotNull String municipality, final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "findAll", new Object[]{municipality, cursor, limit});
+
+        final Bson filter = cursor == null ? eq("municipality", municipality) :
+                and(eq("municipality", municipality), cursor.after(null, true));
+        final FindIterable<Document> iterable = Mongo.instance.getAdministratorCollection().find(filter)
+                .sort(ascending("_id"));
+        final Page<Administrator> page = Page.of(iterable, limit, Administrator::new,
+                administrator -> Cursor.of(null, administrator.getId()));
+
+        logger.exiting(this.getClass().getName(), "findAll", page.getItems());
+        return page;
     }
 
     @Override
@@ -8,20 +8,24 @@ import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.municipality.MunicipalityDao;
 import com.probendi.iwatch.server.report.ReportDao;
 import com.probendi.iwatch.server.rest.ApplicationConfig;
 import com.probendi.iwatch.server.rest.AuthorizationRequired;
+import com.probendi.iwatch.server.rest.Pagination;
 
 /**
  * Exposes the business methods of {@link Administrator} through RESTful web services.
@@ -151,23 +155,30 @@ public class AdministratorResource {
     /**
      * Handles the HTTP GET requests that return the administrators of the given municipality.
      *
-     * @param municipality the id of the municipality of the messages to be selected
-     * @return the messages which match the given criteria
+     * @param municipality the id of the municipality of the administrators to be selected
+     * @param cursor       the cursor of the page to be returned
+     * @param limit        the max number of administrators to be returned, 0 for all
+     * @param uriInfo      the request's URI
+     * @return a page of the administrators of the given municipality, with the link to the next page
      */
     @GET
     @Path("/administrators")
     @Produces(MediaType.APPLICATION_JSON)
-    public GenericEntity<List<Administrator>> getAdministrators(
-            final @DefaultValue("") @QueryParam("municipality") String municipality) {
+    public Response getAdministrators(final @DefaultValue("") @QueryParam("municipality") String municipality,
+                                      final @DefaultValue("") @QueryParam("cursor") String cursor,
+                                      final @DefaultValue("0") @QueryParam("limit") int limit,
+                                      final @Context UriInfo uriInfo) {
 
-        logger.entering(this.getClass().getName(), "getAdministrators", municipality);
+        logger.entering(this.getClass().getName(), "getAdministrators", new Object[]{municipality, cursor, limit});
 
-        final List<Administrator> administrators = administratorDao.findAll(municipality);
+        final Page<Administrator> page = administratorDao.findAll(municipality, Pagination.cursor(cursor),
+                Pagination.limit(limit));
 
         // build the response
-        logger.exiting(this.getClass().getName(), "getAdministrators", administrators);
-        return new GenericEntity<List<Administrator>>(administrators) {
-        };
+        final Response response = Pagination.ok(new GenericEntity<List<Administrator>>(page.getItems()) {
+        }, page, uriInfo);
+        logger.exiting(this.getClass().getName(), "getAdministrators", response);
+        return response;
     }
 
     /**
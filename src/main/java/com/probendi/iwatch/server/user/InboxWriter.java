@@ -0,0 +1,223 @@
+package com.probendi.iwatch.server.user;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.metrics.Metrics;
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Updates.addToSet;
+
+/**
+ * Coalesces the additions to the lists of unread messages and unseen reports of the users.
+ * <p>
+ * The additions are buffered for a few millis and merged by message and report, then they are written with a single
+ * unordered bulk write holding one update of all the users of each message or report, so that a burst of notifications
+ * results in a single round trip and a broadcast in a single multi-document update. When
+ * {@code inbox.flush.max.size} additions are pending, the flush is handed to the executor, so that adding a message
+ * never delays the notifications. The buffer is also flushed on shutdown.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class InboxWriter {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedScheduledExecutorService")
+    private ManagedScheduledExecutorService executor;
+
+    // the users to which each pending message and report is to be added
+    private Map<String, Set<String>> messages = new HashMap<>();
+    private Map<String, Set<String>> reports = new HashMap<>();
+    // the number of pending additions, i.e. of users of each message and report
+    private int pending;
+    // held while flushing, so that the bulk writes never overlap
+    private final Object flushLock = new Object();
+    // true if a flush of the full buffer has been handed to the executor and has not started yet
+    private boolean flushPending;
+
+    private int maxSize;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Schedules the periodic flush.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final PropertiesReader reader = new PropertiesReader();
+        maxSize = reader.getInboxFlushMaxSize();
+        final long delay = reader.getInboxFlushDelay();
+        Metrics.instance.gauge("inbox.pending", this::getPendingCount);
+        future = executor.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Flushes the pending additions on shutdown.
+     */
+    @PreDestroy
+    public void destroy() {
+        logger.entering(this.getClass().getName(), "destroy");
+
+        future.cancel(false);
+        flush();
+
+        logger.exiting(this.getClass().getName(), "destroy");
+    }
+
+    /**
+     * Adds a message to the list of unread messages of the given users.
+     *
+     * @param message the message's id
+     * @param users   the users' ids
+     */
+    public void addMessage(final @NotNull String message, final @NotNull Collection<String> users) {
+        add("messages", message, users);
+    }
+
+    /**
+     * Adds a report to the list of unseen reports of the given users.
+     *
+     * @param report the report's id
+     * @param users  the users' ids
+     */
+    public void addReport(final @NotNull String report, final @NotNull Collection<String> users) {
+        add("reports", report, users);
+    }
+
+    /**
+     * Writes the pending additions and waits until they are written.
+     * <p>
+     * Must be called before removing a message or a report from a user, so that a pending addition cannot undo the
+     * removal.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, Set<String>> pendingMessages;
+            final Map<String, Set<String>> pendingReports;
+            final int additions;
+            synchronized (this) {
+                flushPending = false;
+                if (pending == 0) {
+                    return;
+                }
+                pendingMessages = messages;
+                pendingReports = reports;
+                additions = pending;
+                messages = new HashMap<>();
+                reports = new HashMap<>();
+                pending = 0;
+            }
+
+            final long start = System.currentTimeMillis();
+            final List<WriteModel<User>> updates = new LinkedList<>();
+            pendingMessages.forEach((message, users) -> updates.add(toUpdate("messages", message, users)));
+            pendingReports.forEach((report, users) -> updates.add(toUpdate("reports", report, users)));
+            try {
+                final BulkWriteResult result = Mongo.instance.getUserCollection()
+                        .bulkWrite(updates, new BulkWriteOptions().ordered(false));
+                if (result.getMatchedCount() < additions) {
+                    logger.log(Level.FINE, "{0} users not found", additions - result.getMatchedCount());
+                }
+            } catch (final MongoBulkWriteException e) {
+                Metrics.instance.counter("inbox.flush.failed").add(e.getWriteErrors().size());
+                logger.log(Level.WARNING, "Failed to update " + e.getWriteErrors().size() + " users", e);
+            } catch (final MongoException e) {
+                Metrics.instance.counter("inbox.flush.failed").add(updates.size());
+                logger.log(Level.WARNING, "Failed to update " + updates.size() + " users", e);
+            }
+            Metrics.instance.timer("inbox.flush").recordSince(start);
+            Metrics.instance.counter("inbox.flush.updates").add(updates.size());
+            Metrics.instance.counter("inbox.flush.additions").add(additions);
+        }
+    }
+
+    /**
+     * Buffers the addition of the given message or report to the given users, and hands the flush of the buffer to the
+     * executor if it is full.
+     *
+     * @param field the {@code messages} or {@code reports} field
+     * @param item  the id of the message or report
+     * @param users the users' ids
+     */
+    private void add(final @NotNull String field, final @NotNull String item, final @NotNull Collection<String> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        final boolean full;
+        synchronized (this) {
+            final Set<String> pendingUsers = (field.equals("messages") ? messages : reports)
+                    .computeIfAbsent(item, key -> new HashSet<>());
+            final int size = pendingUsers.size();
+            pendingUsers.addAll(users);
+            pending += pendingUsers.size() - size;
+            full = pending >= maxSize && !flushPending;
+            if (full) {
+                flushPending = true;
+            }
+        }
+        if (full) {
+            executor.submit(this::flush);
+        }
+    }
+
+    /**
+     * Returns the update which adds the given message or report to the given users.
+     *
+     * @param field the {@code messages} or {@code reports} field
+     * @param item  the id of the message or report
+     * @param users the users' ids
+     * @return the update which adds the given message or report to the given users
+     */
+    private static WriteModel<User> toUpdate(final @NotNull String field, final @NotNull String item,
+                                             final @NotNull Set<String> users) {
+        return users.size() == 1 ? new UpdateOneModel<>(eq("_id", users.iterator().next()), addToSet(field, item))
+                : new UpdateManyModel<>(in("_id", users), addToSet(field, item));
+    }
+
+    /**
+     * Returns the number of pending additions.
+     *
+     * @return the number of pending additions
+     */
+    private synchronized int getPendingCount() {
+        return pending;
+    }
+}
@@ -1,13 +1,16 @@
 package com.probendi.iwatch.server.user;
 
-import java.util.Date;
-
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readDouble;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+
 /**
  * A {@code BSON} {@link Codec} for {@link Location} instances.
  *
@@ -17,24 +20,46 @@ public class LocationCodec implements Codec<Location> {
 
     @Override
     public Location decode(BsonReader reader, DecoderContext decoderContext) {
+        final Location location = new Location();
         reader.readStartDocument();
-        final Date date = new Date(reader.readDateTime("date"));
-        final double latitude = reader.readDouble("latitude");
-        final double longitude = reader.readDouble("longitude");
-        final double altitude = reader.readDouble("altitude");
-        final double accuracy = reader.readDouble("accuracy");
-        final double altitudeAccuracy = reader.readDouble("altitudeAccuracy");
-        final double heading = reader.readDouble("heading");
-        final double speed = reader.readDouble("speed");
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "date":
+                    location.setDate(readDate(reader));
+                    break;
+                case "latitude":
+                    location.setLatitude(readDouble(reader));
+                    break;
+                case "longitude":
+                    location.setLongitude(readDouble(reader));
+                    break;
+                case "altitude":
+                    location.setAltitude(readDouble(reader));
+                    break;
+                case "accuracy":
+                    location.setAccuracy(readDouble(reader));
+                    break;
+                case "altitudeAccuracy":
+                    location.setAltitudeAccuracy(readDouble(reader));
+                    break;
+                case "heading":
+                    location.setHeading(readDouble(reader));
+                    break;
+                case "speed":
+                    location.setSpeed(readDouble(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
         reader.readEndDocument();
-        return Location.newBuilder().date(date).latitude(latitude).longitude(longitude).altitude(altitude)
-                .accuracy(accuracy).altitudeAccuracy(altitudeAccuracy).heading(heading).speed(speed).build();
+        return location;
     }
 
     @Override
     public void encode(BsonWriter writer, Location value, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        writer.writeDateTime("date", value.getDate().getTime());
+        writeDate(writer, "date", value.getDate());
         writer.writeDouble("latitude", value.getLatitude());
         writer.writeDouble("longitude", value.getLongitude());
         writer.writeDouble("altitude", value.getAltitude());
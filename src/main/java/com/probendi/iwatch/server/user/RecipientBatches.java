@@ -0,0 +1,62 @@
+package com.probendi.iwatch.server.user;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.mongodb.Block;
+
+import com.probendi.iwatch.server.jms.consumer.Platform;
+
+/**
+ * Groups the registration ids of the users read from a cursor into batches of the same platform.
+ * <p>
+ * A batch is passed to the consumer as soon as it holds {@code batchSize} registration ids, so that at most one
+ * batch for each platform is held in memory; the incomplete batches are passed by {@link #flush()}. The users whose
+ * platform is unknown are skipped.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+class RecipientBatches implements Block<User> {
+
+    private final Map<Platform, List<String>> pending = new EnumMap<>(Platform.class);
+    private final int batchSize;
+    private final BiConsumer<Platform, List<String>> batches;
+
+    /**
+     * Creates a new {@code RecipientBatches}.
+     *
+     * @param batchSize the maximum number of registration ids in a batch
+     * @param batches   the consumer of the batches
+     */
+    RecipientBatches(final int batchSize, final @NotNull BiConsumer<Platform, List<String>> batches) {
+        this.batchSize = batchSize;
+        this.batches = batches;
+    }
+
+    @Override
+    public void apply(final @NotNull User user) {
+        final Platform platform = Platform.of(user.getPlatform());
+        if (platform == null) {
+            return;
+        }
+        final List<String> batch = pending.computeIfAbsent(platform, p -> new ArrayList<>(batchSize));
+        batch.add(user.getRegistrationId());
+        if (batch.size() >= batchSize) {
+            pending.remove(platform);
+            batches.accept(platform, batch);
+        }
+    }
+
+    /**
+     * Passes the incomplete batches to the consumer.
+     */
+    void flush() {
+        pending.forEach(batches);
+        pending.clear();
+    }
+}
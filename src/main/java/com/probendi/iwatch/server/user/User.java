@@ -41,44 +41,6 @@ public class User implements Serializable {
     public User() {
     }
 
-    /**
-     * Creates a new {@code User} object from the given document.
-     *
-     * @param doc a {@link Document} instance
-     */
-    @SuppressWarnings("unchecked")
-    public User(final @NotNull Document doc) {
-        id = doc.getString("_id");
-        platform = doc.getString("platform");
-        if (platform == null) {
-            platform = "";
-        }
-        registrationId = doc.getString("registrationId");
-        if (registrationId == null) {
-            registrationId = "";
-        }
-        mobile = doc.getString("mobile");
-        firstname = doc.getString("firstname");
-        lastname = doc.getString("lastname");
-        dateOfBirth = doc.getDate("dateOfBirth");
-        placeOfBirth = doc.getString("placeOfBirth");
-        address = doc.getString("address");
-        cap = doc.getString("cap");
-        city = doc.getString("city");
-        if (doc.get("location") != null) {
-            location = new Location(doc.get("location", Document.class));
-        }
-        messages = (List<String>) doc.get("messages");
-        if (messages == null) {
-            messages = new LinkedList<>();
-        }
-        reports = (List<String>) doc.get("reports");
-        if (reports == null) {
-            reports = new LinkedList<>();
-        }
-        municipality = doc.getString("municipality");
-    }
-
     /**
      * Creates a new {@code User} object from the given builder.
      *
@@ -1,13 +1,21 @@
 package com.probendi.iwatch.server.user;
 
-import java.util.Date;
-
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 
+import static com.probendi.iwatch.server.db.Codecs.readDate;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.readStrings;
+import static com.probendi.iwatch.server.db.Codecs.readValue;
+import static com.probendi.iwatch.server.db.Codecs.writeDate;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+import static com.probendi.iwatch.server.db.Codecs.writeStrings;
+import static com.probendi.iwatch.server.db.Codecs.writeValue;
+
 /**
  * A {@code BSON} {@link Codec} for {@link User} instances.
  *
@@ -15,42 +23,87 @@ import org.bson.codecs.EncoderContext;
  */
 public class UserCodec implements Codec<User> {
 
+    private final LocationCodec locationCodec = new LocationCodec();
+
     @Override
     public User decode(BsonReader reader, DecoderContext decoderContext) {
+        final User user = User.newBuilder().platform("").registrationId("").build();
         reader.readStartDocument();
-        final String id = reader.readString("_id");
-        final String platform = reader.readString("platform");
-        final String registrationId = reader.readString("registrationId");
-        final String mobile = reader.readString("mobile");
-        final String firstname = reader.readString("firstname");
-        final String lastname = reader.readString("lastname");
-        final Date dateOfBirth = new Date(reader.readDateTime("dateOfBirth"));
-        final String placeOfBirth = reader.readString("placeOfBirth");
-        final String address = reader.readString("address");
-        final String cap = reader.readString("cap");
-        final String city = reader.readString("city");
-        final String municipality = reader.readString("municipality");
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    user.setId(readString(reader));
+                    break;
+                case "platform":
+                    final String platform = readString(reader);
+                    user.setPlatform(platform == null ? "" : platform);
+                    break;
+                case "registrationId":
+                    final String registrationId = readString(reader);
+                    user.setRegistrationId(registrationId == null ? "" : registrationId);
+                    break;
+                case "mobile":
+                    user.setMobile(readString(reader));
+                    break;
+                case "firstname":
+                    user.setFirstname(readString(reader));
+                    break;
+                case "lastname":
+                    user.setLastname(readString(reader));
+                    break;
+                case "dateOfBirth":
+                    user.setDateOfBirth(readDate(reader));
+                    break;
+                case "placeOfBirth":
+                    user.setPlaceOfBirth(readString(reader));
+                    break;
+                case "address":
+                    user.setAddress(readString(reader));
+                    break;
+                case "cap":
+                    user.setCap(readString(reader));
+                    break;
+                case "city":
+                    user.setCity(readString(reader));
+                    break;
+                case "location":
+                    user.setLocation(readValue(reader, locationCodec, decoderContext));
+                    break;
+                case "messages":
+                    user.setMessages(readStrings(reader));
+                    break;
+                case "reports":
+                    user.setReports(readStrings(reader));
+                    break;
+                case "municipality":
+                    user.setMunicipality(readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
         reader.readEndDocument();
-        return User.newBuilder().id(id).platform(platform).registrationId(registrationId).mobile(mobile)
-                .firstname(firstname).lastname(lastname).dateOfBirth(dateOfBirth).placeOfBirth(placeOfBirth)
-                .address(address).cap(cap).city(city).municipality(municipality).build();
+        return user;
     }
 
     @Override
     public void encode(BsonWriter writer, User value, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        writer.writeString("_id", value.getId());
-        writer.writeString("platform", value.getPlatform());
-        writer.writeString("registrationId", value.getRegistrationId());
-        writer.writeString("mobile", value.getMobile());
-        writer.writeString("firstname", value.getFirstname());
-        writer.writeString("lastname", value.getLastname());
-        writer.writeDateTime("dateOfBirth", value.getDateOfBirth().getTime());
-        writer.writeString("placeOfBirth", value.getPlaceOfBirth());
-        writer.writeString("address", value.getAddress());
-        writer.writeString("cap", value.getCap());
-        writer.writeString("city", value.getCity());
-        writer.writeString("municipality", value.getMunicipality());
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "platform", value.getPlatform());
+        writeString(writer, "registrationId", value.getRegistrationId());
+        writeString(writer, "mobile", value.getMobile());
+        writeString(writer, "firstname", value.getFirstname());
+        writeString(writer, "lastname", value.getLastname());
+        writeDate(writer, "dateOfBirth", value.getDateOfBirth());
+        writeString(writer, "placeOfBirth", value.getPlaceOfBirth());
+        writeString(writer, "address", value.getAddress());
+        writeString(writer, "cap", value.getCap());
+        writeString(writer, "city", value.getCity());
+        writeValue(writer, "location", value.getLocation(), locationCodec, encoderContext);
+        writeStrings(writer, "messages", value.getMessages());
+        writeStrings(writer, "reports", value.getReports());
+        writeString(writer, "municipality", value.getMunicipality());
         writer.writeEndDocument();
     }
 
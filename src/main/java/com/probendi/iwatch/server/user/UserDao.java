@@ -1,11 +1,16 @@
 package com.probendi.iwatch.server.user;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.jms.consumer.Platform;
 import com.probendi.iwatch.server.message.Message;
 import com.probendi.iwatch.server.report.Report;
@@ -18,21 +23,24 @@ import com.probendi.iwatch.server.report.Report;
 public interface UserDao {
 
     /**
-     * Adds a message to the list of unread messages of its recipients.
+     * Adds a message to the list of unread messages of its recipients. The addition may be written asynchronously,
+     * after a short delay.
      *
      * @param message the message to be added
      */
     void addMessage(final @NotNull Message message);
 
     /**
-     * Adds a report to the list of unseen reports of its watchers.
+     * Adds a report to the list of unseen reports of its watchers. The addition may be written asynchronously, after
+     * a short delay.
      *
      * @param report the report to be added
      */
     void addReport(final @NotNull Report report);
 
     /**
-     * Adds a report to the list of unseen reports of the given watcher.
+     * Adds a report to the list of unseen reports of the given watcher. The addition may be written asynchronously,
+     * after a short delay.
      *
      * @param report  the report to be added
      * @param watcher the watcher's id
@@ -71,6 +79,23 @@ public interface UserDao {
      */
     void deleteMessage(final @NotNull String id, final @NotNull String message) throws DaoException;
 
+    /**
+     * Deletes the given messages from the list of unread messages of the given user.
+     *
+     * @param id       the user's id
+     * @param messages the messages to be deleted
+     * @throws DaoException if the messages could not be deleted
+     */
+    void deleteMessages(final @NotNull String id, final @NotNull Collection<String> messages) throws DaoException;
+
+    /**
+     * Clears the given registration ids, which are no longer valid, from the users who have them.
+     *
+     * @param registrationIds the registration ids to be cleared
+     * @throws DaoException if the registration ids could not be cleared
+     */
+    void deleteRegistrationIds(final @NotNull Collection<String> registrationIds) throws DaoException;
+
     /**
      * Deletes a report from the list if unseen reports of the given user.
      *
@@ -97,12 +122,14 @@ public interface UserDao {
     List<User> findAll();
 
     /**
-     * Returns all users of the given municipality.
+     * Returns a page of the users of the given municipality, sorted by id.
      *
      * @param municipality the municipality's id
-     * @return all users of the given municipality
+     * @param cursor       the cursor of the page, or {@code null} for the first page
+     * @param limit        the max number of users, or 0 to return all of them
+     * @return a page of the users of the given municipality
      */
-    List<User> findAll(final @NotNull String municipality);
+    Page<User> findAll(final @NotNull String municipality, final Cursor cursor, final int limit);
 
     /**
      * Returns the registrationIds of the recipient of the given message for the given platform.
@@ -113,6 +140,46 @@ public interface UserDao {
      */
     List<String> findRecipients(final @NotNull Message message, final @NotNull Platform platform);
 
+    /**
+     * Streams the registrationIds of the recipients of the given message to the given consumer, in batches of at most
+     * {@code batchSize} registrationIds of the same platform.
+     * <p>
+     * A batch is passed to the consumer as soon as it is full, while the query is still running, and the remaining
+     * partial batches are passed at the end.
+     *
+     * @param message   the message
+     * @param batchSize the maximum number of registrationIds in a batch
+     * @param batches   the consumer of the batches
+     */
+    void findRecipients(final @NotNull Message message, final int batchSize,
+                        final @NotNull BiConsumer<Platform, List<String>> batches);
+
+    /**
+     * Streams the registrationIds of the recipients of the given message for the given platform to the given
+     * consumer, in batches of at most {@code batchSize} registrationIds.
+     *
+     * @param message   the message
+     * @param platform  the mobile's device platform
+     * @param batchSize the maximum number of registrationIds in a batch
+     * @param batches   the consumer of the batches
+     * @see #findRecipients(Message, int, BiConsumer)
+     */
+    void findRecipients(final @NotNull Message message, final @NotNull Platform platform, final int batchSize,
+                        final @NotNull BiConsumer<Platform, List<String>> batches);
+
+    /**
+     * Streams the registrationIds of the watchers of the given report, except for the given one, to the given
+     * consumer, in batches of at most {@code batchSize} registrationIds of the same platform.
+     *
+     * @param report    the report
+     * @param watcher   the id of the watcher who created the activity
+     * @param batchSize the maximum number of registrationIds in a batch
+     * @param batches   the consumer of the batches
+     * @see #findRecipients(Message, int, BiConsumer)
+     */
+    void findRecipients(final @NotNull Report report, final @NotNull String watcher, final int batchSize,
+                        final @NotNull BiConsumer<Platform, List<String>> batches);
+
     /**
      * Returns the registrationIds of the watchers of the given report for the given platform.
      *
@@ -123,6 +190,22 @@ public interface UserDao {
      */
     List<String> findRecipients(final @NotNull Report report, final @NotNull String watcher, final @NotNull Platform platform);
 
+    /**
+     * Returns {@code true} if the recipients of the given message are all the users of its municipality.
+     *
+     * @param message the message
+     * @return {@code true} if the message is a broadcast to its municipality
+     */
+    boolean isBroadcast(final @NotNull Message message);
+
+    /**
+     * Replaces the registration ids of the users with their canonical registration ids.
+     *
+     * @param canonicalIds the canonical registration ids, by registration id
+     * @throws DaoException if the registration ids could not be replaced
+     */
+    void replaceRegistrationIds(final @NotNull Map<String, String> canonicalIds) throws DaoException;
+
     /**
      * Sets the location to the given user.
      *
@@ -1,10 +1,16 @@
 package com.probendi.iwatch.server.user;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
 
 import org.bson.Document;
@@ -13,20 +19,34 @@ import org.jetbrains.annotations.NotNull;
 
 import com.mongodb.Block;
 import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.UpdateManyModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import com.mongodb.client.result.UpdateResult;
 
+import com.probendi.iwatch.server.db.Cursor;
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
 import com.probendi.iwatch.server.db.Mongo;
+import com.probendi.iwatch.server.db.Page;
 import com.probendi.iwatch.server.jms.consumer.Platform;
 import com.probendi.iwatch.server.message.Message;
 import com.probendi.iwatch.server.report.Report;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.nin;
 import static com.mongodb.client.model.Projections.excludeId;
 import static com.mongodb.client.model.Projections.fields;
 import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
+import static com.mongodb.client.model.Updates.pullByFilter;
+import static com.mongodb.client.model.Updates.set;
 
 /**
  * The MongoDB Data Access Object for a {@link User}.
@@ -38,21 +58,14 @@ public class UserDaoMongoImpl implements UserDao {
 
     private final Logger logger = Logger.getLogger(this.getClass().getName());
 
+    @EJB
+    InboxWriter inboxWriter;
+
     @Override
     public void addMessage(final @NotNull Message message) {
         logger.entering(this.getClass().getName(), "addMessage", message);
 
-        final String municipality = message.getMunicipality();
-        try {
-            final Bson filter = new Document("_id", new Document("$in", message.getRecipients()));
-            final Document document = new Document("messages", message.getId());
-            final UpdateResult result = Mongo.instance.getUserCollection().updateMany(filter, new Document("$addToSet", document));
-            if (result.getMatchedCount() == 0) {
-                logger.log(Level.WARNING, "Failed to add message " + message.getId() + " to users of municipality " + municipality);
-            }
-        } catch (final MongoException e) {
-            logger.log(Level.WARNING, "Failed to add message " + message.getId() + " to users of municipality " + municipality, e);
-        }
+        inboxWriter.addMessage(message.getId(), message.getRecipients());
 
         logger.exiting(this.getClass().getName(), "addMessage");
     }
@@ -67,16 +80,7 @@ public class UserDaoMongoImpl implements UserDao {
             if (watcher.isAdministrator()) continue;
             watchers.add(watcher.getId());
         }
-        try {
-            final Bson filter = new Document("_id", new Document("$in", watchers));
-            final Document document = new Document("reports", reportId);
-            final UpdateResult result = Mongo.instance.getUserCollection().updateMany(filter, new Document("$addToSet", document));
-            if (result.getMatchedCount() == 0) {
-                logger.log(Level.WARNING, "Failed to add report " + reportId + " to watchers");
-            }
-        } catch (final MongoException e) {
-            logger.log(Level.WARNING, "Failed to add report " + reportId + " to watchers", e);
-        }
+        inboxWriter.addReport(reportId, watchers);
 
         logger.exiting(this.getClass().getName(), "addReport");
     }
@@ -85,16 +89,7 @@ public class UserDaoMongoImpl implements UserDao {
     public void addReport(final @NotNull String report, final @NotNull String watcher) {
         logger.entering(this.getClass().getName(), "addReport", new Object[]{report, watcher});
 
-        try {
-            final Bson filter = new Document("_id", watcher);
-            final Document document = new Document("reports", report);
-            final UpdateResult result = Mongo.instance.getUserCollection().updateMany(filter, new Document("$addToSet", document));
-            if (result.getMatchedCount() == 0) {
-                logger.log(Level.WARNING, "Failed to add report " + report + " to watcher " + watcher);
-            }
-        } catch (final MongoException e) {
-            logger.log(Level.WARNING, "Failed to add report " + report + " to watcher " + watcher, e);
-        }
+        inboxWriter.addReport(report, Collections.singletonList(watcher));
 
         logger.exiting(this.getClass().getName(), "addReport");
     }
@@ -141,6 +136,7 @@ public class UserDaoMongoImpl implements UserDao {
     public void deleteMessage(final @NotNull String message) {
         logger.entering(this.getClass().getName(), "deleteMessage", message);
 
+        inboxWriter.flush();
         try {
             final Bson filter = new Document();
             final Document document = new Document("messages", message);
@@ -156,6 +152,7 @@ public class UserDaoMongoImpl implements UserDao {
     public void deleteMessage(final @NotNull String id, final @NotNull String message) throws DaoException {
         logger.entering(this.getClass().getName(), "deleteMessage", new String[]{id, message});
 
+        inboxWriter.flush();
         try {
             final Bson filter = new Document("_id", id);
             final Document document = new Document("messages", message);
@@ -175,10 +172,52 @@ public class UserDaoMongoImpl implements UserDao {
         logger.exiting(this.getClass().getName(), "deleteMessage");
     }
 
+    @Override
+    public void deleteMessages(final @NotNull String id, final @NotNull Collection<String> messages) throws DaoException {
+        logger.entering(this.getClass().getName(), "deleteMessages", new Object[]{id, messages});
+
+        inboxWriter.flush();
+        try {
+            final UpdateResult result = Mongo.instance.getUserCollection().updateOne(eq("_id", id),
+                    pullByFilter(in("messages", messages)));
+            if (result.getMatchedCount() == 0) {
+                final EntityNotFoundException ex = new EntityNotFoundException();
+                logger.throwing(this.getClass().getName(), "deleteMessages", ex);
+                throw ex;
+            }
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to delete messages " + messages + " of user " + id, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "deleteMessages", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "deleteMessages");
+    }
+
+    @Override
+    public void deleteRegistrationIds(final @NotNull Collection<String> registrationIds) throws DaoException {
+        logger.entering(this.getClass().getName(), "deleteRegistrationIds", registrationIds);
+
+        try {
+            final UpdateResult result = Mongo.instance.getUserCollection()
+                    .updateMany(in("registrationId", registrationIds), set("registrationId", ""));
+            logger.log(Level.INFO, "Cleared {0} registration ids", result.getModifiedCount());
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to delete registration ids " + registrationIds, e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "deleteRegistrationIds", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "deleteRegistrationIds");
+    }
+
     @Override
     public void deleteReport(final @NotNull String id, final @NotNull String report) throws DaoException {
         logger.entering(this.getClass().getName(), "deleteReport", new String[]{id, report});
 
+        inboxWriter.flush();
         try {
             final Bson filter = new Document("_id", id);
             final Document document = new Document("reports", report);
@@ -203,13 +242,12 @@ public class UserDaoMongoImpl implements UserDao {
         logger.entering(this.getClass().getName(), "find", id);
 
         final Bson filter = new Document("_id", id);
-        final Document document = Mongo.instance.getUserCollection().find(filter).first();
-        if (document == null) {
+        final User user = Mongo.instance.getUserCollection().find(filter).first();
+        if (user == null) {
             final EntityNotFoundException ex = new EntityNotFoundException(id);
             logger.throwing(this.getClass().getName(), "find", ex);
             throw ex;
         }
-        final User user = new User(document);
 
         logger.exiting(this.getClass().getName(), "find", user);
         return user;
@@ -221,40 +259,78 @@ public class UserDaoMongoImpl implements UserDao {
 
         final List<User> users = new LinkedList<>();
 
-        final FindIterable<Document> iterable = Mongo.instance.getUserCollection().find();
-        iterable.forEach((Block<Document>) document -> users.add(new User(document)));
+        Mongo.instance.getUserCollection().find().into(users);
 
         logger.exiting(this.getClass().getName(), "find", users);
         return users;
     }
 
     @Override
-    public List<User> findAll(final @NotNull String municipality) {
-        logger.entering(this.getClass().getName(), "findAll");
-
-        final List<User> users = new LinkedList<>();
+    public Page<User> findAll(final @NotNull String municipality, final Cursor cursor, final int limit) {
+        logger.entering(this.getClass().getName(), "findAll", new Object[]{municipality, cursor, limit});
 
         // build the filters
-        final Bson filter = new Document("municipality", municipality);
-        final FindIterable<Document> iterable = Mongo.instance.getUserCollection().find(filter);
-        iterable.forEach((Block<Document>) document -> users.add(new User(document)));
+        final Bson filter = cursor == null ? eq("municipality", municipality) :
+                and(eq("municipality", municipality), cursor.after(null, true));
+        final FindIterable<User> iterable = Mongo.instance.getUserCollection().find(filter).sort(ascending("_id"));
+        final Page<User> page = Page.of(iterable, limit, user -> Cursor.of(null, user.getId()));
 
-        logger.exiting(this.getClass().getName(), "find", users);
-        return users;
+        logger.exiting(this.getClass().getName(), "find", page.getItems());
+        return page;
+    }
+
+    @Override
+    public void findRecipients(final @NotNull Message message, final int batchSize,
+                               final @NotNull BiConsumer<Platform, List<String>> batches) {
+        logger.entering(this.getClass().getName(), "findRecipients", new Object[]{message, batchSize});
+
+        final Bson filter = new Document("municipality", message.getMunicipality())
+                .append("_id", new Document("$in", message.getRecipients()))
+                .append("registrationId", new Document("$ne", ""));
+        findRecipients(filter, batchSize, batches);
+
+        logger.exiting(this.getClass().getName(), "findRecipients");
+    }
+
+    @Override
+    public void findRecipients(final @NotNull Message message, final @NotNull Platform platform, final int batchSize,
+                               final @NotNull BiConsumer<Platform, List<String>> batches) {
+        logger.entering(this.getClass().getName(), "findRecipients", new Object[]{message, platform, batchSize});
+
+        final Bson filter = new Document("municipality", message.getMunicipality())
+                .append("platform", platform.getPlatform()).append("_id", new Document("$in", message.getRecipients()))
+                .append("registrationId", new Document("$ne", ""));
+        findRecipients(filter, batchSize, batches);
+
+        logger.exiting(this.getClass().getName(), "findRecipients");
+    }
+
+    @Override
+    public void findRecipients(final @NotNull Report report, final @NotNull String watcher, final int batchSize,
+                               final @NotNull BiConsumer<Platform, List<String>> batches) {
+        logger.entering(this.getClass().getName(), "findRecipients", new Object[]{report, watcher, batchSize});
+
+        final Bson filter = new Document("municipality", report.getMunicipality())
+                .append("_id", new Document("$in", getWatchers(report, watcher)))
+                .append("registrationId", new Document("$ne", ""));
+        findRecipients(filter, batchSize, batches);
+
+        logger.exiting(this.getClass().getName(), "findRecipients");
     }
 
     @Override
     public List<String> findRecipients(final @NotNull Message message, final @NotNull Platform platform) {
         logger.entering(this.getClass().getName(), "findRecipients", new Object[]{message, platform});
 
-        final List<String> registrationIds = new LinkedList<>();
+        final List<String> registrationIds = new ArrayList<>();
 
         // build the filters
         final Bson filter = new Document("municipality", message.getMunicipality())
-                .append("platform", platform.getPlatform()).append("_id", new Document("$in", message.getRecipients()));
+                .append("platform", platform.getPlatform()).append("_id", new Document("$in", message.getRecipients()))
+                .append("registrationId", new Document("$ne", ""));
         final Bson projection = fields(include("registrationId"), excludeId());
-        final FindIterable<Document> iterable = Mongo.instance.getUserCollection().find(filter).projection(projection);
-        iterable.forEach((Block<Document>) document -> registrationIds.add(document.getString("registrationId")));
+        final FindIterable<User> iterable = Mongo.instance.getUserCollection().find(filter).projection(projection);
+        iterable.forEach((Block<User>) user -> registrationIds.add(user.getRegistrationId()));
 
         logger.exiting(this.getClass().getName(), "findRecipients", registrationIds);
         return registrationIds;
@@ -264,22 +340,88 @@ public class UserDaoMongoImpl implements UserDao {
     public List<String> findRecipients(final @NotNull Report report, final @NotNull String watcher, final @NotNull Platform platform) {
         logger.entering(this.getClass().getName(), "findRecipients", new Object[]{report, platform});
 
-        final List<String> registrationIds = new LinkedList<>();
+        final List<String> registrationIds = new ArrayList<>();
 
         // build the filters
+        final Bson filter = new Document("municipality", report.getMunicipality())
+                .append("platform", platform.getPlatform())
+                .append("_id", new Document("$in", getWatchers(report, watcher)))
+                .append("registrationId", new Document("$ne", ""));
+        final Bson projection = fields(include("registrationId"), excludeId());
+        final FindIterable<User> iterable = Mongo.instance.getUserCollection().find(filter).projection(projection);
+        iterable.forEach((Block<User>) user -> registrationIds.add(user.getRegistrationId()));
+
+        logger.exiting(this.getClass().getName(), "findRecipients", registrationIds);
+        return registrationIds;
+    }
+
+    /**
+     * Streams the registrationIds of the users matching the given filter to the given consumer, in batches of at most
+     * {@code batchSize} registrationIds of the same platform.
+     * <p>
+     * The cursor fetches {@code batchSize} documents at a time, so that only one batch for each platform is held in
+     * memory whatever the number of recipients.
+     *
+     * @param filter    the filter
+     * @param batchSize the maximum number of registrationIds in a batch
+     * @param batches   the consumer of the batches
+     */
+    private void findRecipients(final @NotNull Bson filter, final int batchSize,
+                                final @NotNull BiConsumer<Platform, List<String>> batches) {
+        final Bson projection = fields(include("platform", "registrationId"), excludeId());
+        final RecipientBatches recipients = new RecipientBatches(batchSize, batches);
+        Mongo.instance.getUserCollection().find(filter).projection(projection).batchSize(batchSize)
+                .forEach(recipients);
+        recipients.flush();
+    }
+
+    /**
+     * Returns the ids of the watchers of the given report who are users, except for the given one.
+     *
+     * @param report  the report
+     * @param watcher the id of the watcher to be excluded
+     * @return the ids of the watchers
+     */
+    private static List<String> getWatchers(final @NotNull Report report, final @NotNull String watcher) {
         final List<String> watchers = new LinkedList<>();
         for (final Watcher aWatcher : report.getWatchers()) {
             if (aWatcher.isAdministrator() || aWatcher.getId().equals(watcher)) continue;
             watchers.add(aWatcher.getId());
         }
-        final Bson filter = new Document("municipality", report.getMunicipality())
-                .append("platform", platform.getPlatform()).append("_id", new Document("$in", watchers));
-        final Bson projection = fields(include("registrationId"), excludeId());
-        final FindIterable<Document> iterable = Mongo.instance.getUserCollection().find(filter).projection(projection);
-        iterable.forEach((Block<Document>) document -> registrationIds.add(document.getString("registrationId")));
+        return watchers;
+    }
 
-        logger.exiting(this.getClass().getName(), "findRecipients", registrationIds);
-        return registrationIds;
+    @Override
+    public boolean isBroadcast(final @NotNull Message message) {
+        logger.entering(this.getClass().getName(), "isBroadcast", message);
+
+        // a single user of the municipality who is not a recipient is enough to tell
+        final Bson filter = and(eq("municipality", message.getMunicipality()), nin("_id", message.getRecipients()));
+        final boolean broadcast = Mongo.instance.getUserCollection().count(filter, new CountOptions().limit(1)) == 0;
+
+        logger.exiting(this.getClass().getName(), "isBroadcast", broadcast);
+        return broadcast;
+    }
+
+    @Override
+    public void replaceRegistrationIds(final @NotNull Map<String, String> canonicalIds) throws DaoException {
+        logger.entering(this.getClass().getName(), "replaceRegistrationIds", canonicalIds);
+
+        try {
+            final List<WriteModel<User>> updates = new LinkedList<>();
+            canonicalIds.forEach((registrationId, canonicalId) -> updates.add(
+                    new UpdateManyModel<>(eq("registrationId", registrationId), set("registrationId", canonicalId))));
+            final BulkWriteResult result = Mongo.instance.getUserCollection()
+                    .bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            logger.log(Level.INFO, "Replaced {0} registration ids", result.getModifiedCount());
+        } catch (final MongoException e) {
+            logger.log(Level.SEVERE, "Failed to replace registration ids " + canonicalIds.keySet(), e);
+            final DaoException ex = new DaoException();
+            logger.throwing(this.getClass().getName(), "replaceRegistrationIds", ex);
+            throw ex;
+        }
+
+        logger.exiting(this.getClass().getName(), "replaceRegistrationIds");
     }
 
     @Override
@@ -312,10 +454,9 @@ public class UserDaoMongoImpl implements UserDao {
 
         boolean updated;
         try {
-            final Document document = user.toDocument();
             final Bson filter = new Document("_id", user.getId());
             final UpdateOptions options = (new UpdateOptions()).upsert(true);
-            final UpdateResult result = Mongo.instance.getUserCollection().replaceOne(filter, document, options);
+            final UpdateResult result = Mongo.instance.getUserCollection().replaceOne(filter, user, options);
             updated = result.getUpsertedId() == null;
         } catch (final MongoException e) {
             logger.log(Level.SEVERE, "Failed to upsert user " + user, e);
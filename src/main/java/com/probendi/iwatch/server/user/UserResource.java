@@ -7,16 +7,22 @@ import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ws.rs.*;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import com.probendi.iwatch.server.db.DaoException;
 import com.probendi.iwatch.server.db.EntityNotFoundException;
+import com.probendi.iwatch.server.db.Page;
+import com.probendi.iwatch.server.jms.consumer.FcmTopicManager;
 import com.probendi.iwatch.server.municipality.Municipality;
 import com.probendi.iwatch.server.municipality.MunicipalityDao;
 import com.probendi.iwatch.server.rest.AuthorizationRequired;
+import com.probendi.iwatch.server.rest.Pagination;
+import com.probendi.iwatch.server.util.PropertiesReader;
 
 /**
  * Exposes the business methods of {@link User} through RESTful web services.
@@ -34,6 +40,9 @@ public class UserResource {
     @EJB(beanName = "UserDaoMongoImpl")
     UserDao userDao;
 
+    @EJB
+    FcmTopicManager fcmTopicManager;
+
     /**
      * Handles the HTTP POST requests that create the given location.
      *
@@ -82,8 +91,12 @@ public class UserResource {
         logger.entering(this.getClass().getName(), "delete", id);
 
         try {
+            final User previous = findPrevious(id);
             userDao.delete(id);
             logger.log(Level.INFO, "User {0} deleted", id);
+            if (previous != null) {
+                fcmTopicManager.update(previous, null);
+            }
 
             // build the response
             final CacheControl cacheControl = new CacheControl();
@@ -220,21 +233,28 @@ public class UserResource {
      * Handles the HTTP GET requests that return the users of the given municipality.
      *
      * @param municipality the id the municipality of the users to be selected
-     * @return the reports of the given municipality
+     * @param cursor       the cursor of the page to be returned
+     * @param limit        the max number of users to be returned, 0 for all
+     * @param uriInfo      the request's URI
+     * @return a page of the users of the given municipality, with the link to the next page
      */
     @GET
     @Path("/users")
     @AuthorizationRequired
     @Produces(MediaType.APPLICATION_JSON)
-    public GenericEntity<List<User>> getUsers(final @DefaultValue("") @QueryParam("municipality") String municipality) {
-        logger.entering(this.getClass().getName(), "getUsers", municipality);
+    public Response getUsers(final @DefaultValue("") @QueryParam("municipality") String municipality,
+                             final @DefaultValue("") @QueryParam("cursor") String cursor,
+                             final @DefaultValue("0") @QueryParam("limit") int limit,
+                             final @Context UriInfo uriInfo) {
+        logger.entering(this.getClass().getName(), "getUsers", new Object[]{municipality, cursor, limit});
 
-        final List<User> reports = userDao.findAll(municipality);
+        final Page<User> page = userDao.findAll(municipality, Pagination.cursor(cursor), Pagination.limit(limit));
 
         // build the response
-        logger.exiting(this.getClass().getName(), "getUsers", reports);
-        return new GenericEntity<List<User>>(reports) {
-        };
+        final Response response = Pagination.ok(new GenericEntity<List<User>>(page.getItems()) {
+        }, page, uriInfo);
+        logger.exiting(this.getClass().getName(), "getUsers", response);
+        return response;
     }
 
     /**
@@ -260,9 +280,13 @@ public class UserResource {
         }
 
         try {
+            final User previous = findPrevious(user.getId());
             final boolean updated = userDao.upsert(user);
             final Municipality municipality = municipalityDao.find(user.getMunicipality());
             logger.log(Level.INFO, "User {0} upserted", id);
+            if (new PropertiesReader().isFcmTopics()) {
+                fcmTopicManager.update(previous, user);
+            }
 
             // build the response
             final CacheControl cacheControl = new CacheControl();
@@ -283,4 +307,22 @@ public class UserResource {
             throw ex;
         }
     }
+
+    /**
+     * Returns the given user as it is before being changed, so that the subscription of its device to the FCM topic
+     * of its municipality can be updated, see {@link FcmTopicManager}.
+     *
+     * @param id the user's id
+     * @return the user, or {@code null} if the user does not exist or the FCM topics are disabled
+     */
+    private User findPrevious(final String id) {
+        if (!new PropertiesReader().isFcmTopics()) {
+            return null;
+        }
+        try {
+            return userDao.find(id);
+        } catch (final EntityNotFoundException e) {
+            return null;
+        }
+    }
 }
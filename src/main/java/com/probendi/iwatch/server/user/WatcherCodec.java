@@ -1,11 +1,16 @@
 package com.probendi.iwatch.server.user;
 
 import org.bson.BsonReader;
+import org.bson.BsonType;
 import org.bson.BsonWriter;
 import org.bson.codecs.Codec;
 import org.bson.codecs.DecoderContext;
 import org.bson.codecs.EncoderContext;
 
+import static com.probendi.iwatch.server.db.Codecs.readBoolean;
+import static com.probendi.iwatch.server.db.Codecs.readString;
+import static com.probendi.iwatch.server.db.Codecs.writeString;
+
 /**
  * A {@code BSON} {@link Codec} for {@link Watcher} instances.
  *
@@ -15,23 +20,40 @@ public class WatcherCodec implements Codec<Watcher> {
 
     @Override
     public Watcher decode(BsonReader reader, DecoderContext decoderContext) {
+        final Watcher watcher = new Watcher();
         reader.readStartDocument();
-        final String id = reader.readString("_id");
-        final String mobile = reader.readString("mobile");
-        final String firstname = reader.readString("firstname");
-        final String lastname = reader.readString("lastname");
-        final boolean creator = reader.readBoolean("creator");
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    watcher.setId(readString(reader));
+                    break;
+                case "mobile":
+                    watcher.setMobile(readString(reader));
+                    break;
+                case "firstname":
+                    watcher.setFirstname(readString(reader));
+                    break;
+                case "lastname":
+                    watcher.setLastname(readString(reader));
+                    break;
+                case "creator":
+                    watcher.setCreator(readBoolean(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
         reader.readEndDocument();
-        return Watcher.newBuilder().mobile(mobile).firstname(firstname).lastname(lastname).creator(creator).build();
+        return watcher;
     }
 
     @Override
     public void encode(BsonWriter writer, Watcher value, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        writer.writeString("_id", value.getId());
-        writer.writeString("mobile", value.getMobile());
-        writer.writeString("firstname", value.getFirstname());
-        writer.writeString("lastname", value.getLastname());
+        writeString(writer, "_id", value.getId());
+        writeString(writer, "mobile", value.getMobile());
+        writeString(writer, "firstname", value.getFirstname());
+        writeString(writer, "lastname", value.getLastname());
         writer.writeBoolean("creator", value.isCreator());
         writer.writeEndDocument();
     }
@@ -1,90 +1,411 @@
 package com.probendi.iwatch.server.util;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jetbrains.annotations.NotNull;
+
 /**
  * Helper class for reading the properties file.
+ * <p>
+ * The properties file is read once, into an immutable snapshot which is shared by all the readers: creating a reader
+ * costs no I/O, and a reader sees the same values for its whole life. The file is {@code iwatch.properties} on the
+ * class path, unless the {@code iwatch.config} system property holds the path of another file. If the file is on the
+ * file system, it can be reloaded with {@link #reload()}: the new snapshot replaces the current one only if every
+ * property can be read.
  *
  * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
  */
 public class PropertiesReader {
 
-    private Properties properties = new Properties();
+    private static final Logger LOGGER = Logger.getLogger(PropertiesReader.class.getName());
+
+    private static volatile Snapshot current = new Snapshot(load());
+
+    private final Properties properties;
+    private final Snapshot snapshot;
 
     public PropertiesReader() {
-        try (final InputStream in = getClass().getClassLoader().getResourceAsStream("iwatch.properties");
+        this(current);
+    }
+
+    private PropertiesReader(final @NotNull Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.properties = snapshot.properties;
+    }
+
+    /**
+     * Returns the properties file, if it is on the file system.
+     *
+     * @return the properties file, or {@code null} if it is packaged in an archive
+     */
+    public static File getFile() {
+        final String path = System.getProperty("iwatch.config");
+        if (path != null) {
+            return new File(path);
+        }
+        final URL url = PropertiesReader.class.getClassLoader().getResource("iwatch.properties");
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the properties file again and replaces the current snapshot, if every property of the new one can be read.
+     *
+     * @return the result of the reload
+     */
+    public static synchronized Reload reload() {
+        final Properties properties = load();
+        if (properties.isEmpty()) {
+            return Reload.INVALID;
+        } else if (properties.equals(current.properties)) {
+            return Reload.UNCHANGED;
+        }
+
+        // every getter must succeed on the new values
+        final Snapshot snapshot;
+        try {
+            snapshot = new Snapshot(properties);
+            validate(new PropertiesReader(snapshot));
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Properties file not reloaded [invalid values]", e);
+            return Reload.INVALID;
+        }
+        current = snapshot;
+        LOGGER.log(Level.INFO, "Properties file reloaded");
+        return Reload.RELOADED;
+    }
+
+    /**
+     * Reads the properties file.
+     *
+     * @return the properties, which are empty if the file cannot be read
+     */
+    private static Properties load() {
+        final Properties properties = new Properties();
+        final File file = System.getProperty("iwatch.config") == null ? null : getFile();
+        try (final InputStream in = file == null ?
+                PropertiesReader.class.getClassLoader().getResourceAsStream("iwatch.properties") :
+                new FileInputStream(file);
              final InputStreamReader reader = new InputStreamReader(Objects.requireNonNull(in), StandardCharsets.UTF_8)) {
             properties.load(reader);
-        } catch (final IOException e) {
-            Logger.getLogger(this.getClass().getName()).log(Level.SEVERE, "Failed to read properties file", e);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read properties file", e);
         }
+        return properties;
     }
 
+    /**
+     * Invokes every getter of the given reader.
+     *
+     * @param reader the reader
+     * @throws IllegalArgumentException if a getter fails
+     */
+    private static void validate(final @NotNull PropertiesReader reader) {
+        for (final Method method : PropertiesReader.class.getMethods()) {
+            if (method.getDeclaringClass() != PropertiesReader.class || Modifier.isStatic(method.getModifiers())
+                    || method.getParameterCount() > 0) {
+                continue;
+            }
+            try {
+                if (method.invoke(reader) == null) {
+                    throw new IllegalArgumentException("Missing value for " + method.getName());
+                }
+            } catch (final IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalArgumentException("Invalid value for " + method.getName(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns all the properties, with the values of the secrets masked.
+     *
+     * @return all the properties, sorted by name
+     */
+    public Map<String, String> getAll() {
+        final Map<String, String> all = new TreeMap<>();
+        properties.stringPropertyNames().forEach(name -> all.put(name,
+                name.endsWith("password") || name.endsWith(".key") ? "********" : properties.getProperty(name)));
+        return Collections.unmodifiableMap(all);
+    }
+
+
+    public int getActivityBucketSize() {
+        return Integer.parseInt(properties.getProperty("activity.bucket.size"));
+    }
+
+    public long getActivityNotificationWindow() {
+        return Long.parseLong(properties.getProperty("activity.notification.window"));
+    }
 
     public String getApnCertificate() {
         return properties.getProperty(isApnProduction() ? "apn.certificate.production" : "apn.certificate.sandbox");
     }
 
+    public int getApnConnections() {
+        return Integer.parseInt(properties.getProperty("apn.connections"));
+    }
+
+    public int getApnConnectTimeout() {
+        return Integer.parseInt(properties.getProperty("apn.connect.timeout"));
+    }
+
+    public String getApnKey() {
+        return properties.getProperty("apn.key");
+    }
+
+    public String getApnKeyId() {
+        return properties.getProperty("apn.key.id");
+    }
+
     public int getApnMaxConnections() {
         return Integer.parseInt(properties.getProperty("apn.max.connections"));
     }
 
+    public int getApnMaxStreams() {
+        return Integer.parseInt(properties.getProperty("apn.max.streams"));
+    }
+
     public String getApnPassword() {
         return properties.getProperty("apn.password");
     }
 
+    public String getApnProvider() {
+        return properties.getProperty("apn.provider");
+    }
+
+    public int getApnReadTimeout() {
+        return Integer.parseInt(properties.getProperty("apn.read.timeout"));
+    }
+
+    public String getApnTeamId() {
+        return properties.getProperty("apn.team.id");
+    }
+
+    public String getApnTopic() {
+        return properties.getProperty("apn.topic");
+    }
+
+    public String getApnUrl() {
+        return properties.getProperty(isApnProduction() ? "apn.url.production" : "apn.url.sandbox");
+    }
+
     public String getAudioMessageCsvHeader() {
         return properties.getProperty("audio-message.csv.header") + "\r\n";
     }
 
+    public int getConfigReloadInterval() {
+        return Integer.parseInt(properties.getProperty("config.reload.interval"));
+    }
+
     public SimpleDateFormat getDateFormat() {
-        return new SimpleDateFormat(properties.getProperty("date.format"));
+        return (SimpleDateFormat) snapshot.dateFormat.clone();
     }
 
     public SimpleDateFormat getDateTimeFormat() {
-        return new SimpleDateFormat(properties.getProperty("datetime.format"));
+        return (SimpleDateFormat) snapshot.dateTimeFormat.clone();
     }
 
     public int getDelay() {
         return Integer.parseInt(properties.getProperty("delay"));
     }
 
+    public long getDeliveryFlushDelay() {
+        return Long.parseLong(properties.getProperty("delivery.flush.delay"));
+    }
+
+    public int getDeliveryFlushMaxSize() {
+        return Integer.parseInt(properties.getProperty("delivery.flush.max.size"));
+    }
+
+    public int getDeliveryRetentionDays() {
+        return Integer.parseInt(properties.getProperty("delivery.retention.days"));
+    }
+
+    public int getDispatchBatchSize() {
+        return Integer.parseInt(properties.getProperty("dispatch.batch.size"));
+    }
+
+    public int getFcmConnectTimeout() {
+        return Integer.parseInt(properties.getProperty("fcm.connect.timeout"));
+    }
+
+    public String getFcmIidUrl() {
+        return properties.getProperty("fcm.iid.url");
+    }
+
     public String getFcmKey() {
         return properties.getProperty("fcm.key");
     }
 
+    public int getFcmMaxConnections() {
+        return Integer.parseInt(properties.getProperty("fcm.max.connections"));
+    }
+
     public int getFcmMaxRecipients() {
         return Integer.parseInt(properties.getProperty("fcm.max.recipients"));
     }
 
+    public int getFcmReadTimeout() {
+        return Integer.parseInt(properties.getProperty("fcm.read.timeout"));
+    }
+
     public String getFcmUrl() {
         return properties.getProperty("fcm.url");
     }
 
+    public int getInboxFlushDelay() {
+        return Integer.parseInt(properties.getProperty("inbox.flush.delay"));
+    }
+
+    public int getInboxFlushMaxSize() {
+        return Integer.parseInt(properties.getProperty("inbox.flush.max.size"));
+    }
+
     public String getMessageCsvHeader() {
         return properties.getProperty("message.csv.header") + "\r\n";
     }
 
+    public int getMessageRetentionDays() {
+        return Integer.parseInt(properties.getProperty("message.retention.days"));
+    }
+
+    public int getMessageSweepBatchSize() {
+        return Integer.parseInt(properties.getProperty("message.sweep.batch.size"));
+    }
+
+    public int getMessageSweepInterval() {
+        return Integer.parseInt(properties.getProperty("message.sweep.interval"));
+    }
+
+    public int getMessageSweepRate() {
+        return Integer.parseInt(properties.getProperty("message.sweep.rate"));
+    }
+
+    public int getMongoConnectTimeout() {
+        return Integer.parseInt(properties.getProperty("mongo.connect.timeout"));
+    }
+
+    public String getMongoDatabase() {
+        return properties.getProperty("mongo.database");
+    }
+
+    public String getMongoHosts() {
+        return properties.getProperty("mongo.hosts");
+    }
+
+    public int getMongoPoolMaxSize() {
+        return Integer.parseInt(properties.getProperty("mongo.pool.max.size"));
+    }
+
+    public int getMongoPoolMaxWaitTime() {
+        return Integer.parseInt(properties.getProperty("mongo.pool.max.wait.time"));
+    }
+
+    public int getMongoPoolMinSize() {
+        return Integer.parseInt(properties.getProperty("mongo.pool.min.size"));
+    }
+
+    public int getMongoPoolWaitQueueSize() {
+        return Integer.parseInt(properties.getProperty("mongo.pool.wait.queue.size"));
+    }
+
+    public String getMongoReadPreference() {
+        return properties.getProperty("mongo.read.preference");
+    }
+
+    public String getMongoReadPreference(final String collection) {
+        return properties.getProperty("mongo.read.preference." + collection, getMongoReadPreference());
+    }
+
+    public int getMongoSocketTimeout() {
+        return Integer.parseInt(properties.getProperty("mongo.socket.timeout"));
+    }
+
+    public String getMongoWriteConcern() {
+        return properties.getProperty("mongo.write.concern");
+    }
+
+    public String getMongoWriteConcern(final String collection) {
+        return properties.getProperty("mongo.write.concern." + collection, getMongoWriteConcern());
+    }
+
+    public int getMunicipalityCacheSize() {
+        return Integer.parseInt(properties.getProperty("municipality.cache.size"));
+    }
+
+    public int getMunicipalityCacheTtl() {
+        return Integer.parseInt(properties.getProperty("municipality.cache.ttl"));
+    }
+
     public int getNotificationValidity() {
         return Integer.parseInt(properties.getProperty("notification.validity"));
     }
 
+    public int getPageMaxSize() {
+        return Integer.parseInt(properties.getProperty("page.max.size"));
+    }
+
+    public int getPushRate(final String provider) {
+        return Integer.parseInt(properties.getProperty("push.rate." + provider));
+    }
+
+    public long getPushRateRecovery() {
+        return Long.parseLong(properties.getProperty("push.rate.recovery"));
+    }
+
+    public int getPushWeight(final String municipality) {
+        return Integer.parseInt(properties.getProperty("push.weight." + municipality,
+                properties.getProperty("push.weight")));
+    }
+
     public String getReportCsvHeader() {
         return properties.getProperty("report.csv.header") + "\r\n";
     }
 
+    public long getRetryMaxAge(final String type) {
+        return Long.parseLong(properties.getProperty("retry." + type + ".max.age"));
+    }
+
+    public int getRetryMaxAttempts(final String type) {
+        return Integer.parseInt(properties.getProperty("retry." + type + ".max.attempts"));
+    }
+
+    public long getRetryMaxDelay() {
+        return Long.parseLong(properties.getProperty("retry.max.delay"));
+    }
+
     public int getThumbnailSize() {
         return Integer.parseInt(properties.getProperty("thumbnail.size"));
     }
 
+    public int getTicketBlockSize() {
+        return Integer.parseInt(properties.getProperty("ticket.block.size"));
+    }
+
     public String getUploadsPath() {
         return properties.getProperty("uploads.path");
     }
@@ -97,7 +418,50 @@ public class PropertiesReader {
         return Boolean.parseBoolean(properties.getProperty("apn.production"));
     }
 
+    public boolean isFcmTopics() {
+        return Boolean.parseBoolean(properties.getProperty("fcm.topics"));
+    }
+
     public boolean isSendPushNotification() {
         return Boolean.parseBoolean(properties.getProperty("sendPushNotification"));
     }
+
+    /**
+     * The result of a reload of the properties file.
+     */
+    public enum Reload {
+
+        /**
+         * The current snapshot was replaced.
+         */
+        RELOADED,
+
+        /**
+         * The properties file holds the same values as the current snapshot.
+         */
+        UNCHANGED,
+
+        /**
+         * The properties file cannot be read or holds invalid values, and the current snapshot was kept.
+         */
+        INVALID
+    }
+
+    /**
+     * The values of the properties file, with the objects which are expensive to build.
+     */
+    private static class Snapshot {
+
+        private final Properties properties;
+        private final SimpleDateFormat dateFormat;
+        private final SimpleDateFormat dateTimeFormat;
+
+        Snapshot(final @NotNull Properties properties) {
+            this.properties = properties;
+            this.dateFormat = properties.containsKey("date.format") ?
+                    new SimpleDateFormat(properties.getProperty("date.format")) : null;
+            this.dateTimeFormat = properties.containsKey("datetime.format") ?
+                    new SimpleDateFormat(properties.getProperty("datetime.format")) : null;
+        }
+    }
 }
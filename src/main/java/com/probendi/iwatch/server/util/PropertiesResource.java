@@ -0,0 +1,45 @@
+package com.probendi.iwatch.server.util;
+
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import com.probendi.iwatch.server.rest.AuthorizationRequired;
+
+/**
+ * Exposes the active configuration of this node through RESTful web services.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Path("/config")
+public class PropertiesResource {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Handles the HTTP GET requests that return the active properties, with the values of the secrets masked.
+     *
+     * @return the active properties
+     */
+    @GET
+    @AuthorizationRequired
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getProperties() {
+        logger.entering(this.getClass().getName(), "getProperties");
+
+        final Map<String, String> properties = new PropertiesReader().getAll();
+        final JsonObjectBuilder builder = Json.createObjectBuilder();
+        properties.forEach(builder::add);
+
+        // build the response
+        final String response = builder.build().toString();
+        logger.exiting(this.getClass().getName(), "getProperties", response);
+        return response;
+    }
+}
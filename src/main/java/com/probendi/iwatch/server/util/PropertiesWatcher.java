@@ -0,0 +1,92 @@
+package com.probendi.iwatch.server.util;
+
+import java.io.File;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+
+import com.probendi.iwatch.server.metrics.Metrics;
+
+/**
+ * Watches the properties file and reloads it when it changes, if {@code config.reload.interval} is positive and the
+ * file is on the file system.
+ * <p>
+ * The file is checked every {@code config.reload.interval} millis. The new values are used by the readers which are
+ * created after the reload; the components which read their configuration at startup keep the old values until they
+ * are restarted.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+@Startup
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PropertiesWatcher {
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    @Resource(lookup = "concurrent/__defaultManagedScheduledExecutorService")
+    private ManagedScheduledExecutorService executor;
+
+    private File file;
+    private long lastModified;
+    private ScheduledFuture<?> future;
+
+    /**
+     * Schedules the periodic check of the properties file.
+     */
+    @PostConstruct
+    public void init() {
+        logger.entering(this.getClass().getName(), "init");
+
+        final long interval = new PropertiesReader().getConfigReloadInterval();
+        file = PropertiesReader.getFile();
+        if (interval > 0 && file != null) {
+            lastModified = file.lastModified();
+            future = executor.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+            logger.log(Level.INFO, "Watching properties file {0}", file);
+        }
+
+        logger.exiting(this.getClass().getName(), "init");
+    }
+
+    /**
+     * Stops watching the properties file.
+     */
+    @PreDestroy
+    public void destroy() {
+        logger.entering(this.getClass().getName(), "destroy");
+
+        if (future != null) {
+            future.cancel(true);
+        }
+
+        logger.exiting(this.getClass().getName(), "destroy");
+    }
+
+    /**
+     * Reloads the properties file if it has been modified since the last check.
+     */
+    private void check() {
+        final long modified = file.lastModified();
+        if (modified == lastModified) {
+            return;
+        }
+        lastModified = modified;
+        final PropertiesReader.Reload result = PropertiesReader.reload();
+        if (result == PropertiesReader.Reload.RELOADED) {
+            Metrics.instance.counter("config.reload").inc();
+        } else if (result == PropertiesReader.Reload.INVALID) {
+            Metrics.instance.counter("config.reload.failed").inc();
+        }
+    }
+}
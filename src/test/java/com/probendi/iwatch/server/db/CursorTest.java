@@ -0,0 +1,61 @@
+package com.probendi.iwatch.server.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests {@link Cursor}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class CursorTest {
+
+    @DataProvider
+    public Object[][] cursors() {
+        return new Object[][]{
+                {null, "ABC-20-00001"},
+                {new Date(1577836800000L), new ObjectId("5e0bd2a0c2e1b1a2b3c4d5e6")},
+                {42, "user"},
+                {"open", 7L}
+        };
+    }
+
+    @Test(dataProvider = "cursors")
+    public void testRoundTrip(final Object key, final Object id) {
+        final Cursor cursor = Cursor.decode(Cursor.of(key, id).encode());
+
+        assertEquals(cursor.encode(), Cursor.of(key, id).encode());
+    }
+
+    @DataProvider
+    public Object[][] invalidTokens() {
+        return new Object[][]{
+                {"not base64!"},
+                {encode("not json")},
+                {encode("[1, 2]")},
+                {encode("42")},
+                {encode("{\"k\": null}")},
+                {encode("{\"k\": null, \"i\": null}")},
+                {encode("{\"k\": null, \"i\": {\"$ne\": \"\"}}")},
+                {encode("{\"k\": {\"$gt\": 0}, \"i\": \"user\"}")},
+                {encode("{\"k\": [1], \"i\": \"user\"}")},
+                {encode("{\"k\": null, \"i\": \"user\", \"x\": 1}")}
+        };
+    }
+
+    @Test(dataProvider = "invalidTokens", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidToken(final String token) {
+        Cursor.decode(token);
+    }
+
+    private static String encode(final String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
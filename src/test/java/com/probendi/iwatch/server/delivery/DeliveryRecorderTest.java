@@ -0,0 +1,98 @@
+package com.probendi.iwatch.server.delivery;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.jms.consumer.ManagedExecutors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link DeliveryRecorder} and the counting of the devices of a {@link Delivery}, with the max buffer size of
+ * 1000 receipts of {@code iwatch.properties}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class DeliveryRecorderTest {
+
+    @Test
+    public void testRetriesAreCountedSeparately() {
+        final Delivery first = new Delivery("message", "message", "Android", "municipality", 0, 0);
+        first.add(10, 7, 1);
+        assertEquals(first.getAttempted(), 10);
+        assertEquals(first.getFailed(), 3);
+
+        // two of the three failed devices accept the notification on the retry
+        final Delivery retry = new Delivery("message", "message", "Android", "municipality", 0, 1);
+        retry.add(3, 2, 0);
+        assertEquals(retry.getAttempted(), 0);
+        assertEquals(retry.getRetried(), 3);
+
+        first.merge(retry);
+        assertEquals(first.getAttempted(), 10);
+        assertEquals(first.getSucceeded(), 9);
+        assertEquals(first.getFailed(), 1);
+        assertEquals(first.getPruned(), 1);
+        assertEquals(first.getRetried(), 3);
+        assertEquals(first.getRetries(), 1);
+    }
+
+    @Test
+    public void testFullBufferIsFlushedByTheExecutor() throws InterruptedException {
+        final Thread caller = Thread.currentThread();
+        final Set<Thread> writers = ConcurrentHashMap.newKeySet();
+        final AtomicInteger written = new AtomicInteger();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DeliveryRecorder recorder = new DeliveryRecorder() {
+            @Override
+            void write(final @NotNull Map<String, Delivery> deliveries, final @NotNull Map<String, Rollup> stats) {
+                writers.add(Thread.currentThread());
+                written.addAndGet(deliveries.size());
+                flushed.countDown();
+                try {
+                    // a slow write must not delay the receipts recorded meanwhile
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        recorder.executor = ManagedExecutors.of(executor);
+        recorder.init();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                recorder.record(newDelivery("message" + i));
+            }
+            assertTrue(flushed.await(10, TimeUnit.SECONDS));
+            for (int i = 1000; i < 2500; i++) {
+                recorder.record(newDelivery("message" + i));
+            }
+            assertFalse(writers.contains(caller));
+        } finally {
+            release.countDown();
+            recorder.destroy();
+            executor.shutdown();
+        }
+        assertEquals(written.get(), 2500);
+    }
+
+    private static Delivery newDelivery(final String notification) {
+        final Delivery delivery = new Delivery(notification, "message", "iOS", "municipality",
+                System.currentTimeMillis(), 0);
+        delivery.add(1, 1, 0);
+        return delivery;
+    }
+}
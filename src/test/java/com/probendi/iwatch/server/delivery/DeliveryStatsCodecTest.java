@@ -0,0 +1,62 @@
+package com.probendi.iwatch.server.delivery;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests {@link DeliveryStatsCodec}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class DeliveryStatsCodecTest {
+
+    private final DeliveryStatsCodec codec = new DeliveryStatsCodec();
+
+    @Test
+    public void testDecode() {
+        final BsonDocument document = new BsonDocument("_id", new BsonString("m1|2020-05-01|ios"))
+                .append("municipality", new BsonString("m1"))
+                .append("day", new BsonString("2020-05-01"))
+                .append("platform", new BsonString("ios"))
+                .append("attempted", new BsonInt64(10))
+                .append("succeeded", new BsonInt32(9))
+                .append("failed", new BsonInt64(1))
+                .append("maxLatency", new BsonInt64(120000))
+                .append("latency", new BsonDocument("le1000", new BsonInt64(5))
+                        .append("le5000", new BsonInt32(4))
+                        .append("inf", new BsonInt64(1)));
+
+        final DeliveryStats stats = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+        assertEquals(stats.getMunicipality(), "m1");
+        assertEquals(stats.getDay(), "2020-05-01");
+        assertEquals(stats.getPlatform(), "ios");
+        assertEquals(stats.getAttempted(), 10);
+        assertEquals(stats.getSucceeded(), 9);
+        assertEquals(stats.getFailed(), 1);
+        assertEquals(stats.getPruned(), 0);
+        assertEquals(stats.getMaxLatency(), 120000);
+        assertEquals(stats.getP50(), 1000);
+        assertEquals(stats.getP95(), -1);
+        assertEquals(stats.getP99(), -1);
+    }
+
+    @Test
+    public void testDecodeWithoutHistogram() {
+        final BsonDocument document = new BsonDocument("municipality", new BsonString("m1"))
+                .append("latency", new BsonDocument("legacy", new BsonInt32(3)));
+
+        final DeliveryStats stats = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+        assertEquals(stats.getMunicipality(), "m1");
+        assertEquals(stats.getP50(), 0);
+        assertEquals(stats.getP99(), 0);
+    }
+}
@@ -0,0 +1,205 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.turo.pushy.apns.ApnsClient;
+import com.turo.pushy.apns.ApnsClientBuilder;
+import com.turo.pushy.apns.auth.ApnsSigningKey;
+import com.turo.pushy.apns.server.MockApnsServer;
+import com.turo.pushy.apns.server.MockApnsServerBuilder;
+import com.turo.pushy.apns.server.RejectedNotificationException;
+import com.turo.pushy.apns.server.RejectionReason;
+import com.turo.pushy.apns.server.UnregisteredDeviceTokenException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link ApnSender} against a local mock of APNs.
+ * <p>
+ * The mock accepts any provider token, and rejects the notifications to the device tokens starting with the name of
+ * an injected failure. It builds a handler for each connection, so that the number of connections opened by the
+ * client is counted.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ApnSenderIntegrationTest {
+
+    private static final int CONNECTIONS = 2;
+    private static final int NOTIFICATIONS = 20000;
+    // the min number of notifications per second sent to the mock, well below what a development machine sends
+    private static final double MIN_THROUGHPUT = 1000;
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":{\"title\":\"title\",\"body\":\"body\"}}}";
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private MockApnsServer server;
+    private ApnsClient client;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        final int port = freePort();
+        server = new MockApnsServerBuilder()
+                .setServerCredentials(getResource("apns/server-certs.pem"), getResource("apns/server-key.pem"), null)
+                .setHandlerFactory(session -> {
+                    connections.incrementAndGet();
+                    return (headers, payload) -> reject(headers.path().toString().substring("/3/device/".length()));
+                })
+                .build();
+        server.start(port).await();
+        client = newClient(port);
+    }
+
+    @AfterClass
+    public void tearDown() throws InterruptedException {
+        client.close().await();
+        server.shutdown().await();
+    }
+
+    @Test
+    public void testThroughput() {
+        final ApnSender sender = newSender(client);
+        final List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            tokens.add(String.format("%064x", i));
+        }
+
+        // warm up the client and open its connections
+        sender.sendAll(tokens.subList(0, 1000), PAYLOAD, expiration(), new ArrayList<>());
+
+        final long start = System.nanoTime();
+        final List<PushNotificationException> failures = new ArrayList<>();
+        final List<ApnResponse> responses = sender.sendAll(tokens, PAYLOAD, expiration(), failures);
+        final long elapsed = System.nanoTime() - start;
+
+        final double throughput = NOTIFICATIONS * 1e9 / elapsed;
+        Reporter.log(String.format("ApnSender: %d notifications in %d ms over %d connections (%.0f notifications/s)",
+                NOTIFICATIONS, elapsed / 1_000_000, connections.get(), throughput), true);
+        assertTrue(throughput >= MIN_THROUGHPUT, String.format("%.0f notifications/s", throughput));
+        assertTrue(failures.isEmpty());
+        assertTrue(responses.stream().allMatch(ApnResponse::isAccepted));
+        assertTrue(connections.get() <= CONNECTIONS, connections.get() + " connections");
+    }
+
+    @Test
+    public void testInjectedFailures() {
+        final ApnSender sender = newSender(client);
+        final List<String> tokens = new ArrayList<>();
+        for (final String prefix : new String[]{"accepted", "unregistered", "bad", "busy", "error", "unavailable",
+                "topic"}) {
+            tokens.add(prefix + "-1");
+            tokens.add(prefix + "-2");
+        }
+
+        final List<PushNotificationException> failures = new ArrayList<>();
+        final List<ApnResponse> responses = sender.sendAll(tokens, PAYLOAD, expiration(), failures);
+
+        final Map<String, ApnResponse> byToken = new HashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            byToken.put(tokens.get(i), responses.get(i));
+        }
+        assertTrue(byToken.get("accepted-1").isAccepted());
+        assertTrue(byToken.get("unregistered-1").isUnregistered());
+        assertTrue(byToken.get("unregistered-1").getInvalidatedOn() != null);
+        assertFalse(byToken.get("bad-2").isAccepted());
+        assertTrue(byToken.get("bad-2").isUnregistered());
+        assertNull(byToken.get("busy-1"));
+        assertNull(byToken.get("topic-1"));
+
+        final Map<Long, List<String>> failed = new HashMap<>();
+        failures.forEach(failure -> failed.put(failure.getRetry(), failure.getRegistrationIds()));
+        assertEquals(failed.size(), 2);
+        assertEquals(failed.get(0L).size(), 6);
+        assertTrue(failed.get(0L).containsAll(tokens.subList(6, 12)));
+        assertEquals(failed.get(-1L), tokens.subList(12, 14));
+    }
+
+    @Test
+    public void testServerDown() throws Exception {
+        final ApnsClient unreachable = newClient(freePort());
+        try {
+            final List<PushNotificationException> failures = new ArrayList<>();
+            final List<ApnResponse> responses = newSender(unreachable).sendAll(
+                    Arrays.asList("accepted-1", "accepted-2"), PAYLOAD, expiration(), failures);
+
+            assertTrue(responses.stream().allMatch(response -> response == null));
+            assertEquals(failures.size(), 1);
+            assertEquals(failures.get(0).getRetry(), 0);
+            assertEquals(failures.get(0).getRegistrationIds().size(), 2);
+        } finally {
+            unreachable.close().await();
+        }
+    }
+
+    /**
+     * Rejects the notification to the given device token if it starts with the name of an injected failure.
+     *
+     * @param token the device token
+     * @throws RejectedNotificationException if the notification is rejected
+     */
+    private static void reject(final String token) throws RejectedNotificationException {
+        switch (token.substring(0, Math.max(0, token.indexOf('-')))) {
+            case "unregistered":
+                throw new UnregisteredDeviceTokenException(new Date());
+            case "bad":
+                throw new RejectedNotificationException(RejectionReason.BAD_DEVICE_TOKEN);
+            case "busy":
+                throw new RejectedNotificationException(RejectionReason.TOO_MANY_REQUESTS);
+            case "error":
+                throw new RejectedNotificationException(RejectionReason.INTERNAL_SERVER_ERROR);
+            case "unavailable":
+                throw new RejectedNotificationException(RejectionReason.SERVICE_UNAVAILABLE);
+            case "topic":
+                throw new RejectedNotificationException(RejectionReason.BAD_TOPIC);
+            default:
+        }
+    }
+
+    private static ApnSender newSender(final ApnsClient client) {
+        final ApnSender sender = new ApnSender();
+        sender.init(client, "com.probendi.iwatch", 1000, 10000);
+        return sender;
+    }
+
+    private static ApnsClient newClient(final int port) throws IOException, GeneralSecurityException {
+        return new ApnsClientBuilder()
+                .setApnsServer("localhost", port)
+                .setTrustedServerCertificateChain(getResource("apns/ca.pem"))
+                .setSigningKey(ApnsSigningKey.loadFromInputStream(getResource("apns/token-auth-private-key.p8"),
+                        "TEAM_ID", "KEY_ID"))
+                .setConcurrentConnections(CONNECTIONS)
+                .setConnectionTimeout(1, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static long expiration() {
+        return System.currentTimeMillis() + 60000;
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static InputStream getResource(final String name) {
+        return ApnSenderIntegrationTest.class.getClassLoader().getResourceAsStream(name);
+    }
+}
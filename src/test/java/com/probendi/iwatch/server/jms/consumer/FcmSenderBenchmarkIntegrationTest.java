@@ -0,0 +1,169 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Benchmarks {@link FcmSender} against a local mock of FCM, compared with opening a new connection for each request
+ * as the previous JAX-RS client did.
+ * <p>
+ * The mock records the client port of each request, so that the number of connections opened by each client is
+ * counted. The JDK only keeps the connections alive up to {@code http.maxConnections}, which failsafe sets as the
+ * domain should. The mock is plain HTTP, so the gain does not include the TLS handshakes saved against FCM. Both
+ * clients run a few alternate rounds and the best round of each is reported.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class FcmSenderBenchmarkIntegrationTest {
+
+    private static final int CONNECTIONS = 20;
+    private static final int REQUESTS = 2000;
+    private static final int RECIPIENTS = 100;
+    private static final int ROUNDS = 5;
+    // the min number of requests per second sent to the mock, well below what a development machine sends
+    private static final double MIN_THROUGHPUT = 500;
+
+    private final Set<Integer> ports = ConcurrentHashMap.newKeySet();
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ExecutorService executor;
+    private URL url;
+    private String response;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        final StringBuilder results = new StringBuilder();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            results.append(i == 0 ? "" : ",").append("{\"message_id\":\"0:").append(i).append("\"}");
+        }
+        response = "{\"multicast_id\":1,\"success\":" + RECIPIENTS + ",\"failure\":0,\"canonical_ids\":0," +
+                "\"results\":[" + results + "]}";
+
+        // the mock writes the headers and the body of a response separately, which Nagle's algorithm would delay on the
+        // kept alive connections
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fcm/send", this::handle);
+        serverExecutor = Executors.newFixedThreadPool(CONNECTIONS * 2);
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = new URL("http://localhost:" + server.getAddress().getPort() + "/fcm/send");
+        executor = Executors.newFixedThreadPool(CONNECTIONS);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final FcmSender sender = new FcmSender();
+        sender.executor = ManagedExecutors.of(executor);
+        sender.init(url, "KEY", 5000, 10000, CONNECTIONS);
+        final List<FcmRequest> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            final List<String> tokens = new ArrayList<>();
+            for (int j = 0; j < RECIPIENTS; j++) {
+                tokens.add("token-" + i + "-" + j);
+            }
+            requests.add(new FcmRequest().registration_ids(tokens).data(new FcmRequest.Data()));
+        }
+
+        long pooled = Long.MAX_VALUE;
+        long unpooled = Long.MAX_VALUE;
+        int pooledConnections = 0;
+        int unpooledConnections = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            ports.clear();
+            long start = System.nanoTime();
+            final List<PushNotificationException> failures = new ArrayList<>();
+            final List<FcmResponse> responses = sender.sendAll(requests, failures);
+            pooled = Math.min(pooled, System.nanoTime() - start);
+            pooledConnections = Math.max(pooledConnections, ports.size());
+            assertTrue(failures.isEmpty());
+            assertEquals(responses.get(REQUESTS - 1).getSuccess(), RECIPIENTS);
+
+            ports.clear();
+            start = System.nanoTime();
+            sendWithoutKeepAlive(sender, requests);
+            unpooled = Math.min(unpooled, System.nanoTime() - start);
+            unpooledConnections = Math.max(unpooledConnections, ports.size());
+        }
+
+        final double throughput = REQUESTS * 1e9 / pooled;
+        Reporter.log(String.format("FcmSender: %d requests in %d ms over %d connections (%.0f requests/s)", REQUESTS,
+                pooled / 1_000_000, pooledConnections, throughput), true);
+        Reporter.log(String.format("connection per request: %d requests in %d ms over %d connections (%.0f requests/s)",
+                REQUESTS, unpooled / 1_000_000, unpooledConnections, REQUESTS * 1e9 / unpooled), true);
+        assertTrue(throughput >= MIN_THROUGHPUT, String.format("%.0f requests/s", throughput));
+        assertTrue(pooledConnections <= CONNECTIONS, pooledConnections + " connections");
+        assertTrue(unpooledConnections > pooledConnections);
+    }
+
+    /**
+     * Sends the given requests with the same concurrency, closing the connection after each request.
+     *
+     * @param sender   the sender which writes the request bodies
+     * @param requests the requests
+     */
+    private void sendWithoutKeepAlive(final FcmSender sender, final List<FcmRequest> requests) throws Exception {
+        final List<Future<Integer>> futures = new ArrayList<>();
+        for (final FcmRequest request : requests) {
+            futures.add(executor.submit(() -> {
+                final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Connection", "close");
+                connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+                try (final OutputStream out = connection.getOutputStream()) {
+                    sender.write(request, out);
+                }
+                final int status = connection.getResponseCode();
+                try (final InputStream in = connection.getInputStream()) {
+                    FcmResponse.parse(in);
+                }
+                connection.disconnect();
+                return status;
+            }));
+        }
+        for (final Future<Integer> future : futures) {
+            assertEquals((int) future.get(), 200);
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        ports.add(exchange.getRemoteAddress().getPort());
+        FcmSender.discard(exchange.getRequestBody());
+        final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
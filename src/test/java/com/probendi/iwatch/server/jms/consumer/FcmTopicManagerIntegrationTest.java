@@ -0,0 +1,386 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import com.probendi.iwatch.server.user.User;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link FcmTopicManager} against a local mock of the Instance ID API.
+ * <p>
+ * The mock holds the members of each topic, and fails the registration ids starting with the name of an injected
+ * failure: {@code invalid} with {@code NOT_FOUND}, {@code full} with {@code TOO_MANY_TOPICS} and {@code busy} with
+ * {@code INTERNAL} at the first two attempts. The subscriptions are recorded by an in-memory {@link FcmTopicDao}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class FcmTopicManagerIntegrationTest {
+
+    private static final String TOPIC_1 = FcmTopicManager.getTopic("m1");
+    private static final String TOPIC_2 = FcmTopicManager.getTopic("m2");
+
+    private final Map<String, Set<String>> topics = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    // the number of requests to be rejected with 503
+    private final AtomicInteger unavailable = new AtomicInteger();
+
+    private HttpServer server;
+    private ScheduledExecutorService executor;
+    private MemoryDao dao;
+    private FcmTopicManager manager;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/iid/v1", this::handle);
+        server.start();
+        executor = Executors.newScheduledThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    @BeforeMethod
+    public void reset() {
+        topics.clear();
+        attempts.clear();
+        requests.set(0);
+        unavailable.set(0);
+        dao = new MemoryDao();
+        manager = newManager(dao);
+    }
+
+    @Test
+    public void testParseErrors() {
+        final InputStream in = new ByteArrayInputStream(
+                "{\"results\":[{},{\"error\":\"NOT_FOUND\"}]}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(FcmTopicManager.parseErrors(in, 3), Arrays.asList(null, "NOT_FOUND", null));
+    }
+
+    @Test
+    public void testUpdate() {
+        final User user = newUser("token-1", "m1");
+        manager.update(null, user);
+        await(() -> TOPIC_1.equals(dao.subscriptions.get("token-1")));
+        assertEquals(members(TOPIC_1), Collections.singleton("token-1"));
+
+        final User moved = newUser("token-1", "m2");
+        manager.update(user, moved);
+        await(() -> members(TOPIC_2).contains("token-1") && !members(TOPIC_1).contains("token-1"));
+        await(() -> TOPIC_2.equals(dao.subscriptions.get("token-1")));
+
+        manager.update(moved, null);
+        await(() -> members(TOPIC_2).isEmpty() && dao.subscriptions.isEmpty());
+    }
+
+    @Test
+    public void testRetry() {
+        unavailable.set(1);
+        manager.update(null, newUser("busy-1", "m1"));
+        manager.update(null, newUser("invalid-1", "m1"));
+
+        await(() -> members(TOPIC_1).contains("busy-1"));
+        await(() -> TOPIC_1.equals(dao.subscriptions.get("busy-1")));
+        assertEquals(attempts.get("busy-1").get(), 3);
+        assertFalse(dao.subscriptions.containsKey("invalid-1"));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        manager.update(null, newUser("old-1", "m1"));
+        await(() -> dao.subscriptions.containsKey("old-1"));
+
+        manager.replace(Collections.singletonMap("old-1", "new-1"));
+        await(() -> members(TOPIC_1).equals(Collections.singleton("new-1")));
+        await(() -> dao.subscriptions.keySet().equals(Collections.singleton("new-1")));
+
+        manager.remove(Collections.singletonList("new-1"));
+        await(() -> members(TOPIC_1).isEmpty() && dao.subscriptions.isEmpty());
+    }
+
+    @Test
+    public void testBackfill() {
+        dao.devices.put("token-1", "m1");
+        dao.devices.put("token-2", "m1");
+        dao.devices.put("invalid-1", "m2");
+        // a device moved to another municipality and a device which no longer belongs to an Android user
+        dao.devices.put("moved-1", "m2");
+        dao.subscriptions.put("moved-1", TOPIC_1);
+        dao.subscriptions.put("stale-1", TOPIC_2);
+        topics.put(TOPIC_1, new HashSet<>(Collections.singleton("moved-1")));
+        topics.put(TOPIC_2, new HashSet<>(Collections.singleton("stale-1")));
+
+        manager.backfill();
+        await(manager::isReady);
+        assertTrue(dao.backfilled);
+        assertEquals(members(TOPIC_1), new HashSet<>(Arrays.asList("token-1", "token-2")));
+        assertEquals(members(TOPIC_2), Collections.singleton("moved-1"));
+        assertEquals(dao.subscriptions.keySet(), new HashSet<>(Arrays.asList("token-1", "token-2", "moved-1")));
+
+        // the other servers do not subscribe the devices again
+        final int sent = requests.get();
+        final FcmTopicManager other = newManager(dao);
+        other.backfill();
+        assertTrue(other.isReady());
+        assertEquals(requests.get(), sent);
+    }
+
+    @Test
+    public void testReconciliation() {
+        dao.devices.put("token-1", "m1");
+        manager.backfill();
+        await(manager::isReady);
+
+        // the subscription of a device is lost, and the subscription of a new device fails
+        members(TOPIC_1).forEach(topics.get(TOPIC_1)::remove);
+        dao.subscriptions.clear();
+        manager.backfill();
+        assertTrue(members(TOPIC_1).isEmpty());
+        manager.update(null, newUser("full-1", "m1"));
+        await(() -> dao.reconciliation);
+
+        manager.backfill();
+        await(() -> !dao.reconciliation);
+        assertTrue(manager.isReady());
+        assertEquals(members(TOPIC_1), Collections.singleton("token-1"));
+        assertEquals(dao.subscriptions.keySet(), Collections.singleton("token-1"));
+    }
+
+    @Test
+    public void testBackfillFailure() throws InterruptedException {
+        dao.devices.put("token-1", "m1");
+        dao.devices.put("full-1", "m2");
+
+        manager.backfill();
+        await(() -> dao.subscriptions.containsKey("token-1") && attempts.containsKey("full-1"));
+        Thread.sleep(200);
+        assertFalse(manager.isReady());
+        assertFalse(dao.backfilled);
+
+        // the lock is held until it expires, so no other server subscribes the devices meanwhile
+        final FcmTopicManager other = newManager(dao);
+        other.backfill();
+        assertFalse(other.isReady());
+        assertNull(dao.subscriptions.get("full-1"));
+    }
+
+    /**
+     * Changes the members of the topic of the request as the Instance ID API does, failing the injected failures.
+     *
+     * @param exchange the HTTP exchange
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        final JsonObject request;
+        try (final JsonReader reader = Json.createReader(exchange.getRequestBody())) {
+            request = reader.readObject();
+        }
+        if (unavailable.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+
+        final boolean add = exchange.getRequestURI().getPath().endsWith(":batchAdd");
+        final String topic = request.getString("to").substring("/topics/".length());
+        final StringBuilder body = new StringBuilder("{\"results\":[");
+        final List<String> tokens = request.getJsonArray("registration_tokens").getValuesAs(JsonString.class).stream()
+                .map(JsonString::getString).collect(Collectors.toList());
+        for (final String token : tokens) {
+            final int attempt = attempts.computeIfAbsent(token, t -> new AtomicInteger()).incrementAndGet();
+            final String error = getError(token, attempt);
+            if (error == null) {
+                final Set<String> members = topics.computeIfAbsent(topic, t -> ConcurrentHashMap.newKeySet());
+                if (add) {
+                    members.add(token);
+                } else {
+                    members.remove(token);
+                }
+                body.append("{},");
+            } else {
+                body.append("{\"error\":\"").append(error).append("\"},");
+            }
+        }
+        body.setLength(body.length() - 1);
+        body.append("]}");
+
+        final byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String getError(final String token, final int attempt) {
+        switch (token.substring(0, Math.max(0, token.indexOf('-')))) {
+            case "invalid":
+                return "NOT_FOUND";
+            case "full":
+                return "TOO_MANY_TOPICS";
+            case "busy":
+                return attempt <= 2 ? "INTERNAL" : null;
+            default:
+                return null;
+        }
+    }
+
+    private Set<String> members(final String topic) {
+        return new HashSet<>(topics.getOrDefault(topic, Collections.emptySet()));
+    }
+
+    private FcmTopicManager newManager(final FcmTopicDao dao) {
+        final FcmTopicManager manager = new FcmTopicManager();
+        manager.executor = ManagedExecutors.of(executor);
+        manager.dao = dao;
+        manager.init("http://localhost:" + server.getAddress().getPort() + "/iid/v1", "key", 1000, 1000, 10);
+        return manager;
+    }
+
+    private static User newUser(final String token, final String municipality) {
+        final User user = new User();
+        user.setPlatform(Platform.ANDROID.getPlatform());
+        user.setRegistrationId(token);
+        user.setMunicipality(municipality);
+        return user;
+    }
+
+    private static void await(final BooleanSupplier condition) {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Condition not met in time");
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * An in-memory {@link FcmTopicDao}, whose lock never expires and whose reconciliation is only due when requested.
+     */
+    private static class MemoryDao implements FcmTopicDao {
+
+        private final Map<String, String> subscriptions = new ConcurrentHashMap<>();
+        private final Map<String, String> devices = new ConcurrentHashMap<>();
+        private volatile boolean locked;
+        private volatile boolean backfilled;
+        private volatile boolean reconciliation;
+
+        @Override
+        public Map<String, String> findSubscriptions(final Collection<String> tokens) {
+            final Map<String, String> found = new HashMap<>();
+            tokens.stream().filter(subscriptions::containsKey).forEach(token -> found.put(token,
+                    subscriptions.get(token)));
+            return found;
+        }
+
+        @Override
+        public void findSubscriptions(final int batchSize, final BiConsumer<String, String> subscriptions) {
+            new HashMap<>(this.subscriptions).forEach(subscriptions);
+        }
+
+        @Override
+        public void saveSubscriptions(final String topic, final Collection<String> tokens) {
+            tokens.forEach(token -> subscriptions.put(token, topic));
+        }
+
+        @Override
+        public void deleteSubscriptions(final String topic, final Collection<String> tokens) {
+            tokens.forEach(token -> subscriptions.remove(token, topic));
+        }
+
+        @Override
+        public Set<String> findDevices(final Collection<String> tokens) {
+            return tokens.stream().filter(devices::containsKey).collect(Collectors.toSet());
+        }
+
+        @Override
+        public void findDevices(final int batchSize, final BiConsumer<String, String> devices) {
+            new HashMap<>(this.devices).forEach(devices);
+        }
+
+        @Override
+        public boolean isBackfilled() {
+            return backfilled;
+        }
+
+        @Override
+        public synchronized boolean lockBackfill(final long lease) {
+            if (locked || backfilled) {
+                return false;
+            }
+            locked = true;
+            return true;
+        }
+
+        @Override
+        public synchronized void completeBackfill() {
+            backfilled = true;
+            locked = false;
+        }
+
+        @Override
+        public synchronized boolean lockReconciliation(final long interval, final long lease) {
+            if (locked || !backfilled || !reconciliation) {
+                return false;
+            }
+            locked = true;
+            return true;
+        }
+
+        @Override
+        public synchronized void completeReconciliation() {
+            reconciliation = false;
+            locked = false;
+        }
+
+        @Override
+        public void requestReconciliation() {
+            reconciliation = true;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+
+/**
+ * Adapts a plain {@link ExecutorService} to the {@link ManagedExecutorService} injected by the container, or a
+ * {@link ScheduledExecutorService} to the {@link ManagedScheduledExecutorService}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public final class ManagedExecutors {
+
+    private ManagedExecutors() {
+    }
+
+    /**
+     * Returns a {@link ManagedExecutorService} which delegates to the given executor.
+     *
+     * @param executor the executor
+     * @return the managed executor
+     */
+    public static ManagedExecutorService of(final ExecutorService executor) {
+        return proxy(ManagedExecutorService.class, executor);
+    }
+
+    /**
+     * Returns a {@link ManagedScheduledExecutorService} which delegates to the given executor.
+     *
+     * @param executor the executor
+     * @return the managed executor
+     */
+    public static ManagedScheduledExecutorService of(final ScheduledExecutorService executor) {
+        return proxy(ManagedScheduledExecutorService.class, executor);
+    }
+
+    private static <T> T proxy(final Class<T> type, final ExecutorService executor) {
+        return type.cast(Proxy.newProxyInstance(ManagedExecutors.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(executor, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+}
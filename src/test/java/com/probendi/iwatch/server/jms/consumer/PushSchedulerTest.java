@@ -0,0 +1,84 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.jms.producer.Lane;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests {@link PushScheduler}, with the rate of 1000 notifications per second of {@code iwatch.properties} and a clock
+ * which only advances when told to.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class PushSchedulerTest {
+
+    private PushScheduler scheduler;
+    private long now;
+
+    @BeforeMethod
+    public void setUp() {
+        now = 1000000;
+        scheduler = new PushScheduler();
+        scheduler.clock = () -> now;
+        scheduler.init();
+    }
+
+    @Test
+    public void testLargeMunicipalityDoesNotDelayOthers() {
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "large", 1000, false), 0);
+
+        // the large municipality has used the whole bucket, so its next batch waits for one second
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "large", 1000, false), 1000);
+
+        // the small one only waits for the first tokens to be refilled
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "small", 10, false), 1);
+        now += 1;
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "small", 10, true), 0);
+
+        // the large municipality is still behind its own clock
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "large", 1000, true), 999);
+    }
+
+    @Test
+    public void testShare() {
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "first", 10, false), 0);
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "second", 10, false), 0);
+        now += 50;
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "first", 10, false), 0);
+
+        // each municipality gets half of the rate, i.e. 10 notifications every 20 millis
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "first", 10, false), 20);
+
+        // once the second municipality is idle, the first one gets the whole rate
+        now += 1020;
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "first", 10, false), 0);
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "first", 10, false), 10);
+    }
+
+    @Test
+    public void testPriorityGoesFirst() {
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "large", 1000, false), 0);
+
+        // the priority lane overdraws the bucket, and the bulk lane pays the tokens back
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.PRIORITY, "small", 500, false), 0);
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.BULK, "small", 10, false), 501);
+
+        // the providers have their own buckets
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "small", 10, false), 0);
+    }
+
+    @Test
+    public void testThrottle() {
+        scheduler.throttle(Platform.IOS, 2);
+
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.PRIORITY, "small", 1, false), 2000);
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.BULK, "small", 1, false), 2000);
+        assertEquals(scheduler.schedule(Platform.ANDROID, Lane.PRIORITY, "small", 1, false), 0);
+
+        now += 2000;
+        assertEquals(scheduler.schedule(Platform.IOS, Lane.PRIORITY, "small", 1, false), 0);
+    }
+}
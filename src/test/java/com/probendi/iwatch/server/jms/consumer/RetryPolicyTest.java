@@ -0,0 +1,49 @@
+package com.probendi.iwatch.server.jms.consumer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link RetryPolicy}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(1000, 60000, 5, 3600000);
+
+    @Test
+    public void testBackoff() {
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getDelay(3, 0, 0);
+            assertTrue(delay >= 0 && delay <= 4000, "Delay " + delay);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getDelay(1, 10, 0);
+            assertTrue(delay >= 10000 && delay <= 11000, "Delay " + delay);
+        }
+    }
+
+    @Test
+    public void testRetryAfterCapped() {
+        assertEquals(policy.getDelay(1, 3600, 0), 60000);
+        assertEquals(policy.getDelay(1, Long.MAX_VALUE, 0), 60000);
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getDelay(1, 59, 0);
+            assertTrue(delay >= 59000 && delay <= 60000, "Delay " + delay);
+        }
+    }
+
+    @Test
+    public void testNotRetried() {
+        assertEquals(policy.getDelay(1, -1, 0), -1);
+        assertEquals(policy.getDelay(5, 0, 0), -1);
+        assertEquals(policy.getDelay(1, 0, 3600000), -1);
+    }
+}
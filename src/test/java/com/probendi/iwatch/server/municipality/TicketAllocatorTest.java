@@ -0,0 +1,116 @@
+package com.probendi.iwatch.server.municipality;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.db.DaoException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link TicketAllocator}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class TicketAllocatorTest {
+
+    private static final int BLOCK_SIZE = 10;
+
+    @Test
+    public void testBlocks() throws DaoException {
+        final TicketAllocator allocator = new TicketAllocator();
+        final AtomicLong counter = new AtomicLong(100);
+        final AtomicInteger reservations = new AtomicInteger();
+
+        for (long n = 101; n <= 125; n++) {
+            assertEquals(allocator.next("A001", 2020, BLOCK_SIZE, count -> {
+                reservations.incrementAndGet();
+                return counter.addAndGet(count);
+            }), n);
+        }
+        assertEquals(reservations.get(), 3);
+    }
+
+    @Test
+    public void testStaleYearsEvicted() throws DaoException {
+        final TicketAllocator allocator = new TicketAllocator();
+        final AtomicLong counter = new AtomicLong();
+
+        allocator.next("A001", 2019, BLOCK_SIZE, counter::addAndGet);
+        allocator.next("B002", 2019, BLOCK_SIZE, counter::addAndGet);
+        assertEquals(allocator.size(), 2);
+        allocator.next("A001", 2020, BLOCK_SIZE, counter::addAndGet);
+        assertEquals(allocator.size(), 1);
+        allocator.next("B002", 2020, BLOCK_SIZE, counter::addAndGet);
+        assertEquals(allocator.size(), 2);
+    }
+
+    @Test(expectedExceptions = DaoException.class)
+    public void testReservationFailure() throws DaoException {
+        new TicketAllocator().next("A001", 2020, BLOCK_SIZE, count -> {
+            throw new DaoException();
+        });
+    }
+
+    /**
+     * Two servers hand out the ticket numbers of a few municipalities from many threads, reserving their blocks from
+     * shared counters: no ticket number may be handed out twice.
+     */
+    @Test
+    public void testConcurrentServers() throws Exception {
+        final String[] municipalities = {"A001", "B002", "C003", "D004"};
+        final TicketAllocator[] servers = {new TicketAllocator(), new TicketAllocator()};
+        final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, Set<Long>> issued = new ConcurrentHashMap<>();
+        final int threads = 16;
+        final int calls = 5000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final TicketAllocator allocator = servers[t % servers.length];
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < calls; i++) {
+                    final String id = municipalities[(offset + i) % municipalities.length];
+                    final long n;
+                    // the container serializes the calls of the write locked singleton
+                    synchronized (allocator) {
+                        n = allocator.next(id, 2020, BLOCK_SIZE, count ->
+                                counters.computeIfAbsent(id, key -> new AtomicLong()).addAndGet(count));
+                    }
+                    assertTrue(issued.computeIfAbsent(id, key -> ConcurrentHashMap.newKeySet()).add(n),
+                            "duplicate ticket number " + n + " of " + id);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (final Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        int total = 0;
+        for (final String id : municipalities) {
+            total += issued.get(id).size();
+            // at most one partially used block per server
+            assertTrue(counters.get(id).get() - issued.get(id).size() < servers.length * BLOCK_SIZE);
+        }
+        assertEquals(total, threads * calls);
+    }
+}
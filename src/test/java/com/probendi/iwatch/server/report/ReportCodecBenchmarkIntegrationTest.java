@@ -0,0 +1,134 @@
+package com.probendi.iwatch.server.report;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.user.Watcher;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Compares the decoding of a large list of reports with {@link ReportCodec} to the decoding through intermediate
+ * {@link Document} objects, which the DAOs did before the typed collections.
+ * <p>
+ * Each report is decoded from its raw BSON bytes, as the driver does, and the latency and the bytes allocated by the
+ * decoding thread are logged for both paths.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ReportCodecBenchmarkIntegrationTest {
+
+    private static final int REPORTS = 10000;
+    private static final int WATCHERS = 20;
+    private static final int ROUNDS = 10;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final ReportCodec reportCodec = new ReportCodec();
+    private final DocumentCodec documentCodec = new DocumentCodec();
+    private final List<byte[]> reports = new ArrayList<>(REPORTS);
+
+    @BeforeClass
+    public void setUp() {
+        for (int i = 0; i < REPORTS; i++) {
+            final BasicOutputBuffer buffer = new BasicOutputBuffer();
+            reportCodec.encode(new BsonBinaryWriter(buffer), ReportCodecTest.newReport("ABC-20-" + i, WATCHERS),
+                    EncoderContext.builder().build());
+            reports.add(buffer.toByteArray());
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        final Function<byte[], Report> typed = bytes -> reportCodec.decode(reader(bytes),
+                DecoderContext.builder().build());
+        final Function<byte[], Report> documents = bytes -> fromDocument(documentCodec.decode(reader(bytes),
+                DecoderContext.builder().build()));
+
+        // warm up both paths before measuring them
+        measure(typed);
+        measure(documents);
+
+        final long[] typedResult = measure(typed);
+        final long[] documentResult = measure(documents);
+        logger.log(Level.INFO, "Decoded {0} reports in {1} ms with {2} bytes allocated per report [codec]",
+                new Object[]{REPORTS, typedResult[0] / 1000000, typedResult[1] / REPORTS / ROUNDS});
+        logger.log(Level.INFO, "Decoded {0} reports in {1} ms with {2} bytes allocated per report [document]",
+                new Object[]{REPORTS, documentResult[0] / 1000000, documentResult[1] / REPORTS / ROUNDS});
+
+        // the allocations are deterministic, unlike the latencies which depend on the machine
+        assertTrue(typedResult[1] < documentResult[1], "The codec allocates more than the documents");
+    }
+
+    /**
+     * Decodes all the reports {@code ROUNDS} times with the given decoder.
+     *
+     * @param decoder the decoder
+     * @return the mean elapsed nanos of a round and the bytes allocated by all the rounds
+     */
+    private long[] measure(final Function<byte[], Report> decoder) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long allocated = threads.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        long ids = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (final byte[] report : reports) {
+                ids += decoder.apply(report).getWatchers().size();
+            }
+        }
+        final long elapsed = (System.nanoTime() - start) / ROUNDS;
+        assertTrue(ids == (long) REPORTS * WATCHERS * ROUNDS);
+        return new long[]{elapsed, threads.getThreadAllocatedBytes(thread) - allocated};
+    }
+
+    private static BsonBinaryReader reader(final byte[] bytes) {
+        return new BsonBinaryReader(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Builds a report from the given document, as the removed {@code Report(Document)} constructor did.
+     *
+     * @param doc the document
+     * @return the report
+     */
+    @SuppressWarnings("unchecked")
+    private static Report fromDocument(final Document doc) {
+        final Report report = Report.newBuilder().build();
+        report.setId(doc.getString("_id"));
+        report.setCategory(doc.getString("category"));
+        report.setDescription(doc.getString("description"));
+        report.setDate(doc.getDate("date"));
+        report.setAttachment(doc.getString("attachment"));
+        report.setMimeType(doc.getString("mimeType"));
+        report.setThumbnail(doc.getString("thumbnail"));
+        report.setLatitude(doc.getDouble("latitude"));
+        report.setLongitude(doc.getDouble("longitude"));
+        report.setMunicipality(doc.getString("municipality"));
+        report.setStatus(doc.getString("status"));
+        report.setActionRequired(doc.getBoolean("actionRequired"));
+        final List<Watcher> watchers = new LinkedList<>();
+        ((List<Document>) doc.get("watchers")).stream().map(Watcher::new).forEach(watchers::add);
+        report.setWatchers(watchers);
+        report.setActivityCount(doc.getInteger("activityCount"));
+        report.setLastActivityDate(doc.getDate("lastActivityDate"));
+        return report;
+    }
+}
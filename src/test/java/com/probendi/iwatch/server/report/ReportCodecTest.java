@@ -0,0 +1,101 @@
+package com.probendi.iwatch.server.report;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.user.Watcher;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests {@link ReportCodec}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class ReportCodecTest {
+
+    private final ReportCodec codec = new ReportCodec();
+
+    @Test
+    public void testRoundTrip() {
+        final Report report = newReport("ABC-20-00001", 3);
+
+        final BsonDocument document = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(document), report, EncoderContext.builder().build());
+        final Report decoded = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+        assertEquals(decoded, report);
+    }
+
+    @Test
+    public void testAnyFieldOrder() {
+        final BsonDocument document = new BsonDocument("status", new BsonString("open"))
+                .append("watchers", new BsonArray(Arrays.asList(new BsonDocument("creator", BsonBoolean.TRUE)
+                        .append("_id", new BsonString("user")))))
+                .append("latitude", new BsonDouble(45.5))
+                .append("_id", new BsonString("ABC-20-00002"));
+
+        final Report report = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+        assertEquals(report.getId(), "ABC-20-00002");
+        assertEquals(report.getStatus(), "open");
+        assertEquals(report.getLatitude(), 45.5, 0);
+        assertEquals(report.getWatchers().size(), 1);
+        assertEquals(report.getWatchers().get(0).getId(), "user");
+        assertTrue(report.getWatchers().get(0).isCreator());
+    }
+
+    @Test
+    public void testUnknownAndMissingFields() {
+        final BsonDocument document = new BsonDocument("_id", new BsonString("ABC-20-00003"))
+                .append("legacy", new BsonDocument("nested", new BsonInt32(1)))
+                .append("description", BsonNull.VALUE)
+                .append("actionRequired", BsonNull.VALUE);
+
+        final Report report = codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+
+        assertEquals(report.getId(), "ABC-20-00003");
+        assertNull(report.getDescription());
+        assertFalse(report.isActionRequired());
+        assertTrue(report.getWatchers().isEmpty());
+        assertTrue(report.getActivities().isEmpty());
+        assertEquals(report.getActivityCount(), 0);
+    }
+
+    /**
+     * Returns a new report with the given number of watchers.
+     *
+     * @param id       the report's id
+     * @param watchers the number of watchers
+     * @return the report
+     */
+    static Report newReport(final String id, final int watchers) {
+        final Report report = Report.newBuilder().id(id).category("Rifiuti").description("Cassonetto pieno")
+                .date(new Date(1577836800000L)).attachment("attachment").mimeType("image/jpeg")
+                .thumbnail("thumbnail").latitude(45.4642).longitude(9.19).municipality("ABC").status("open")
+                .actionRequired(true).build();
+        for (int i = 0; i < watchers; i++) {
+            report.getWatchers().add(Watcher.newBuilder().id("user" + i).mobile("+39333000000" + i)
+                    .firstname("Mario").lastname("Rossi").creator(i == 0).build());
+        }
+        report.setActivityCount(watchers);
+        report.setLastActivityDate(new Date(1577923200000L));
+        return report;
+    }
+}
@@ -0,0 +1,42 @@
+package com.probendi.iwatch.server.rest;
+
+import javax.ws.rs.BadRequestException;
+
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.util.PropertiesReader;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests {@link Pagination}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class PaginationTest {
+
+    private final int maxSize = new PropertiesReader().getPageMaxSize();
+
+    @Test
+    public void testLimit() {
+        assertEquals(Pagination.limit(0), 0);
+        assertEquals(Pagination.limit(10), 10);
+        assertEquals(Pagination.limit(maxSize + 1), maxSize);
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testNegativeLimit() {
+        Pagination.limit(-1);
+    }
+
+    @Test
+    public void testEmptyCursor() {
+        assertNull(Pagination.cursor(""));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testInvalidCursor() {
+        Pagination.cursor("eyJrIjpudWxsLCJpIjp7IiRuZSI6IiJ9fQ");
+    }
+}
@@ -0,0 +1,141 @@
+package com.probendi.iwatch.server.user;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.probendi.iwatch.server.jms.consumer.Platform;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Compares the streaming of the recipients of a broadcast in batches with {@link RecipientBatches} to the lookup
+ * which copied the registration ids of each platform into a {@link LinkedList}, split by the consumers with
+ * {@link List#subList(int, int)}.
+ * <p>
+ * The users are read from a list, as if they were decoded from the cursor. The latency, the bytes allocated by the
+ * reading thread, and the number of users read before the first batch is sent are logged for both paths.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class RecipientBatchesBenchmarkIntegrationTest {
+
+    private static final int USERS = 100000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int ROUNDS = 10;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final List<User> users = new ArrayList<>(USERS);
+
+    @BeforeClass
+    public void setUp() {
+        for (int i = 0; i < USERS; i++) {
+            final User user = new User();
+            user.setPlatform(i % 3 == 0 ? Platform.IOS.getPlatform() : Platform.ANDROID.getPlatform());
+            user.setRegistrationId(String.format("%0152d", i));
+            users.add(user);
+        }
+    }
+
+    @Test
+    public void testBatches() {
+        // warm up both paths before measuring them
+        for (int i = 0; i < 3; i++) {
+            measure(this::stream);
+            measure(this::copy);
+        }
+
+        final long[] streamed = measure(this::stream);
+        final long[] copied = measure(this::copy);
+        logger.log(Level.INFO, "Batched {0} recipients in {1} ms with {2} bytes allocated, first batch after {3} " +
+                "users [stream]", new Object[]{USERS, streamed[0] / 1000000, streamed[1] / ROUNDS, streamed[2]});
+        logger.log(Level.INFO, "Batched {0} recipients in {1} ms with {2} bytes allocated, first batch after {3} " +
+                "users [linked list]", new Object[]{USERS, copied[0] / 1000000, copied[1] / ROUNDS, copied[2]});
+
+        // the position of the first batch is deterministic, unlike the latencies which depend on the machine
+        assertTrue(streamed[2] <= BATCH_SIZE * 3 / 2, streamed[2] + " users read before the first batch");
+        assertEquals(copied[2], USERS);
+    }
+
+    /**
+     * Streams the recipients with {@link RecipientBatches}, as {@code UserDaoMongoImpl.findRecipients} does.
+     *
+     * @param read    counts the users read from the cursor
+     * @param batches the consumer of the batches
+     */
+    private void stream(final Runnable read, final BiConsumer<Platform, List<String>> batches) {
+        final RecipientBatches recipients = new RecipientBatches(BATCH_SIZE, batches);
+        for (final User user : users) {
+            read.run();
+            recipients.apply(user);
+        }
+        recipients.flush();
+    }
+
+    /**
+     * Copies the registration ids of each platform into a linked list and splits it into batches, as the removed
+     * per-platform lookups and their consumers did.
+     *
+     * @param read    counts the users read from the cursor
+     * @param batches the consumer of the batches
+     */
+    private void copy(final Runnable read, final BiConsumer<Platform, List<String>> batches) {
+        for (final Platform platform : Platform.values()) {
+            final List<String> registrationIds = new LinkedList<>();
+            for (final User user : users) {
+                read.run();
+                if (Platform.of(user.getPlatform()) == platform) {
+                    registrationIds.add(user.getRegistrationId());
+                }
+            }
+            for (int i = 0; i < registrationIds.size(); i += BATCH_SIZE) {
+                batches.accept(platform, new ArrayList<>(registrationIds.subList(i,
+                        Math.min(i + BATCH_SIZE, registrationIds.size()))));
+            }
+        }
+    }
+
+    /**
+     * Batches all the recipients {@code ROUNDS} times with the given path.
+     *
+     * @param path the path, which reads the users and sends the batches
+     * @return the mean elapsed nanos of a round, the bytes allocated by all the rounds, and the number of users read
+     * before the first batch was sent
+     */
+    private long[] measure(final BiConsumer<Runnable, BiConsumer<Platform, List<String>>> path) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long allocated = threads.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        final long[] read = {0};
+        final long[] first = {-1};
+        long recipients = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            read[0] = 0;
+            final long[] sent = {0};
+            final Consumer<List<String>> batch = registrationIds -> {
+                assertTrue(registrationIds.size() <= BATCH_SIZE);
+                if (first[0] == -1) {
+                    first[0] = read[0];
+                }
+                sent[0] += registrationIds.size();
+            };
+            path.accept(() -> read[0]++, (platform, registrationIds) -> batch.accept(registrationIds));
+            recipients += sent[0];
+        }
+        final long elapsed = (System.nanoTime() - start) / ROUNDS;
+        assertEquals(recipients, (long) USERS * ROUNDS);
+        return new long[]{elapsed, threads.getThreadAllocatedBytes(thread) - allocated, first[0]};
+    }
+}
@@ -0,0 +1,78 @@
+package com.probendi.iwatch.server.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests {@link PropertiesReader#reload()}.
+ *
+ * @author Daniele Di Salvo, Copyright (c) 2016-2020 Probendi Limited
+ */
+public class PropertiesReaderTest {
+
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = Files.createTempFile("iwatch", ".properties");
+        try (final InputStream in = getClass().getClassLoader().getResourceAsStream("iwatch.properties")) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        System.setProperty("iwatch.config", file.toString());
+        PropertiesReader.reload();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        System.clearProperty("iwatch.config");
+        PropertiesReader.reload();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testUnchanged() {
+        assertEquals(PropertiesReader.reload(), PropertiesReader.Reload.UNCHANGED);
+    }
+
+    @Test
+    public void testReloaded() throws IOException {
+        replace("fcm.max.recipients=1000", "fcm.max.recipients=500");
+
+        assertEquals(PropertiesReader.reload(), PropertiesReader.Reload.RELOADED);
+        assertEquals(new PropertiesReader().getFcmMaxRecipients(), 500);
+        assertEquals(PropertiesReader.reload(), PropertiesReader.Reload.UNCHANGED);
+    }
+
+    @Test
+    public void testInvalid() throws IOException {
+        replace("fcm.max.recipients=1000", "fcm.max.recipients=many");
+
+        assertEquals(PropertiesReader.reload(), PropertiesReader.Reload.INVALID);
+        assertEquals(new PropertiesReader().getFcmMaxRecipients(), 1000);
+    }
+
+    @Test
+    public void testMissing() throws IOException {
+        Files.delete(file);
+        try {
+            assertEquals(PropertiesReader.reload(), PropertiesReader.Reload.INVALID);
+        } finally {
+            Files.createFile(file);
+        }
+    }
+
+    private void replace(final String target, final String replacement) throws IOException {
+        final String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Files.write(file, content.replace(target, replacement).getBytes(StandardCharsets.UTF_8));
+    }
+}